@@ -18,6 +18,8 @@
 package com.frostwire.search;
 
 /**
+ * Implementations must be thread safe, the crawlers access the cache concurrently
+ * without any external synchronization.
  * 
  * @author gubatron
  * @author aldenml
@@ -34,4 +36,6 @@ public interface CrawlCache {
     public void clear();
 
     public long size();
+
+    public CrawlCacheStats stats();
 }
@@ -0,0 +1,84 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+/**
+ * Snapshot of the crawl cache counters.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class CrawlCacheStats {
+
+    public static final CrawlCacheStats EMPTY = new CrawlCacheStats(0, 0, 0, 0, 0);
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long bytes;
+    private final long savedFetches;
+
+    public CrawlCacheStats(long hits, long misses, long evictions, long bytes, long savedFetches) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.bytes = bytes;
+        this.savedFetches = savedFetches;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Entries removed because of size limits or expiration.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Downloads avoided because another crawler was already fetching the same data.
+     */
+    public long getSavedFetches() {
+        return savedFetches;
+    }
+
+    public float getHitRatio() {
+        long total = hits + misses;
+        return total > 0 ? ((float) hits) / total : 0;
+    }
+
+    public CrawlCacheStats withSavedFetches(long savedFetches) {
+        return new CrawlCacheStats(hits, misses, evictions, bytes, savedFetches);
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlCacheStats(hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ", bytes: " + bytes + ", savedFetches: " + savedFetches + ")";
+    }
+}
@@ -19,9 +19,16 @@
 package com.frostwire.search;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.frostwire.logging.Logger;
 import com.frostwire.search.domainalias.DomainAliasManager;
+import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.util.OSUtils;
 
 /**
@@ -39,6 +46,10 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
     private static CrawlCache cache = null;
     private static MagnetDownloader magnetDownloader = null;
 
+    // fetches in progress, shared by all the crawlers that need the same data at the same time
+    private static final ConcurrentMap<String, Fetch> fetches = new ConcurrentHashMap<String, Fetch>();
+    private static final AtomicLong numSavedFetches = new AtomicLong();
+
     private int numCrawls;
 
     public CrawlPagedWebSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout, int pages, int numCrawls) {
@@ -63,45 +74,31 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
         if (numCrawls > 0) {
             numCrawls--;
 
-            T obj = cast(sr);
+            final T obj = cast(sr);
             if (obj != null) {
 
-                String url = getCrawlUrl(obj);
+                final String url = getCrawlUrl(obj);
 
                 if (url != null) {
                     byte[] data = cacheGet(url);
 
-                    if (data == null) { // not a big deal about synchronization here
-                        LOG.debug("Downloading data for: " + url);
-
-                        if (url.startsWith("magnet")) {
-                            data = fetchMagnet(url);
-                        } else {
-                            data = fetchBytes(url, sr.getDetailsUrl(), DEFAULT_CRAWL_TIMEOUT);
-                        }
-
-                        //we put this here optimistically hoping this is actually
-                        //valid data. if no data can be crawled from this we remove it
-                        //from the cache. we do this because this same data may come
-                        //from another search engine and this way we avoid the
-                        //expense of performing another download.
-                        if (data != null) {
-                            cachePut(url, data);
-                        } else {
-                            LOG.warn("Failed to download data: " + url);
-                        }
+                    if (data == null) {
+                        data = fetchShared(fetchKey(obj, url), url, sr.getDetailsUrl());
                     }
 
-                    try {
-                        if (data != null) {
-                            List<? extends SearchResult> results = crawlResult(obj, data);
-                            if (results != null) {
-                                onResults(this, results);
-                            }
+                    if (data != null) {
+                        SearchScheduler scheduler = getScheduler();
+                        if (scheduler != null) {
+                            final byte[] fetched = data;
+                            scheduler.parse(this, new Runnable() {
+                                @Override
+                                public void run() {
+                                    crawlData(obj, url, fetched);
+                                }
+                            });
+                        } else {
+                            crawlData(obj, url, data);
                         }
-                    } catch (Throwable e) {
-                        LOG.warn("Error creating crawled results from downloaded data: " + e.getMessage());
-                        cacheRemove(url); // invalidating cache data
                     }
                 } else {
                     try {
@@ -130,11 +127,21 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
         }
     }
 
+    private void crawlData(T obj, String url, byte[] data) {
+        try {
+            List<? extends SearchResult> results = crawlResult(obj, data);
+            if (results != null) {
+                onResults(this, results);
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error creating crawled results from downloaded data: " + e.getMessage());
+            cacheRemove(url); // invalidating cache data
+        }
+    }
+
     private byte[] cacheGet(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                return cache.get(key);
-            }
+            return cache.get(key);
         } else {
             return null;
         }
@@ -142,18 +149,96 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     private void cachePut(String key, byte[] data) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.put(key, data);
-            }
+            cache.put(key, data);
         }
     }
 
     private void cacheRemove(String key) {
         if (cache != null) {
-            synchronized (cache) {
-                cache.remove(key);
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * Downloads the data, unless another crawler is already downloading it, in
+     * which case waits for that download to finish and uses the same data, for no
+     * longer than its own download could have taken.
+     */
+    private byte[] fetchShared(String key, String url, String referrer) {
+        Fetch fetch = new Fetch();
+        Fetch current = fetches.putIfAbsent(key, fetch);
+
+        if (current != null) {
+            numSavedFetches.incrementAndGet();
+            return current.await(isMagnet(url) ? DEFAULT_MAGNET_DOWNLOAD_TIMEOUT : DEFAULT_CRAWL_TIMEOUT);
+        }
+
+        byte[] data = null;
+
+        try {
+            // the previous fetch could have finished just before we registered this one
+            data = cacheGet(url);
+
+            if (data == null) {
+                LOG.debug("Downloading data for: " + url);
+
+                if (isMagnet(url)) {
+                    data = fetchMagnet(url);
+                } else {
+                    data = fetchBytes(url, referrer, DEFAULT_CRAWL_TIMEOUT);
+                }
+
+                //we put this here optimistically hoping this is actually
+                //valid data. if no data can be crawled from this we remove it
+                //from the cache. we do this because this same data may come
+                //from another search engine and this way we avoid the
+                //expense of performing another download.
+                if (data != null) {
+                    cachePut(url, data);
+                } else {
+                    LOG.warn("Failed to download data: " + url);
+                }
             }
+        } finally {
+            fetches.remove(key, fetch);
+            fetch.complete(data);
         }
+
+        return data;
+    }
+
+    /**
+     * The info hash identifies the same torrent from different engines (or the same magnet),
+     * otherwise the url without the fragment part. Magnets and .torrent urls of the same
+     * hash are fetched apart, they take very different times.
+     */
+    private static String fetchKey(CrawlableSearchResult sr, String url) {
+        String hash = null;
+
+        if (sr instanceof TorrentSearchResult) {
+            hash = ((TorrentSearchResult) sr).getHash();
+        }
+
+        if ((hash == null || hash.length() == 0) && isMagnet(url)) {
+            int start = url.indexOf("urn:btih:");
+            if (start != -1) {
+                start += "urn:btih:".length();
+                int end = url.indexOf('&', start);
+                hash = end != -1 ? url.substring(start, end) : url.substring(start);
+            }
+        }
+
+        if (hash != null && hash.length() > 0) {
+            return (isMagnet(url) ? "magnet:" : "torrent:") + hash.trim().toLowerCase(Locale.US);
+        }
+
+        int fragment = url.indexOf('#');
+
+        return fragment != -1 ? url.substring(0, fragment) : url;
+    }
+
+    private static boolean isMagnet(String url) {
+        return url.startsWith("magnet");
     }
 
     @SuppressWarnings("unchecked")
@@ -169,19 +254,54 @@ public abstract class CrawlPagedWebSearchPerformer<T extends CrawlableSearchResu
 
     public static void clearCache() {
         if (cache != null) {
-            synchronized (cache) {
-                cache.clear();
-            }
+            cache.clear();
         }
     }
 
+    /**
+     * Number of downloads avoided because the same data was already being downloaded by
+     * another crawler.
+     */
+    public static long getNumSavedFetches() {
+        return numSavedFetches.get();
+    }
+
+    public static CrawlCacheStats getCacheStats() {
+        CrawlCacheStats stats = cache != null ? cache.stats() : CrawlCacheStats.EMPTY;
+        return stats.withSavedFetches(numSavedFetches.get());
+    }
+
     public static long getCacheSize() {
         long result = 0;
         if (cache != null) {
-            synchronized (cache) {
-                result = cache.size();
-            }
+            result = cache.size();
         }
         return result;
     }
+
+    private static final class Fetch {
+
+        private final CountDownLatch latch;
+        private volatile byte[] data;
+
+        public Fetch() {
+            this.latch = new CountDownLatch(1);
+        }
+
+        public void complete(byte[] data) {
+            this.data = data;
+            latch.countDown();
+        }
+
+        public byte[] await(long timeout) {
+            try {
+                if (latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                    return data;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return null;
+        }
+    }
 }
\ No newline at end of file
@@ -20,6 +20,9 @@ package com.frostwire.search;
 /**
  * Private class, only public to be able to share with other
  * search packages.
+ * <p>
+ * Limits the number of chars a regex can read, in order to stop catastrophic
+ * backtracking. Once the budget is exhausted every read throws an {@link ExhaustedException}.
  * 
  * @author gubatron
  * @author aldenml
@@ -28,34 +31,81 @@ package com.frostwire.search;
 public class MaxIterCharSequence implements CharSequence {
 
     private final CharSequence inner;
+    private final char[] chars;
+    private final int offset;
+    private final int length;
     private int counter;
 
     public MaxIterCharSequence(CharSequence inner, int counter) {
         this.inner = inner;
+        this.chars = null;
+        this.offset = 0;
+        this.length = inner.length();
+        this.counter = counter;
+    }
+
+    /**
+     * Reads directly from the array, without copying it.
+     */
+    public MaxIterCharSequence(char[] chars, int counter) {
+        this(chars, 0, chars.length, counter);
+    }
+
+    private MaxIterCharSequence(char[] chars, int offset, int length, int counter) {
+        this.inner = null;
+        this.chars = chars;
+        this.offset = offset;
+        this.length = length;
         this.counter = counter;
     }
 
     @Override
     public char charAt(int index) {
         if (counter < 0) {
-            throw new RuntimeException("Iteration over the string exhausted");
+            throw ExhaustedException.INSTANCE;
         }
         counter--;
-        return inner.charAt(index);
+        return chars != null ? chars[offset + index] : inner.charAt(index);
     }
 
     @Override
     public int length() {
-        return inner.length();
+        return length;
     }
 
     @Override
     public CharSequence subSequence(int start, int end) {
+        if (chars != null) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("start: " + start + ", end: " + end + ", length: " + length);
+            }
+            return new MaxIterCharSequence(chars, offset + start, end - start, counter);
+        }
         return new MaxIterCharSequence(inner.subSequence(start, end), counter);
     }
 
     @Override
     public String toString() {
-        return inner.toString();
+        return chars != null ? new String(chars, offset, length) : inner.toString();
+    }
+
+    /**
+     * Thrown when the iteration budget is exhausted. A single instance without stack trace is
+     * used, since it's only a signal for the matcher.
+     */
+    public static final class ExhaustedException extends RuntimeException {
+
+        private static final long serialVersionUID = 2856427133574235441L;
+
+        static final ExhaustedException INSTANCE = new ExhaustedException();
+
+        private ExhaustedException() {
+            super("Iteration over the string exhausted");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
     }
 }
@@ -40,23 +40,23 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
 
     @Override
     public void perform() {
-        for (int i = 1; !isStopped() && i <= pages; i++) {
-            onResults(this, searchPage(i));
+        SearchScheduler scheduler = getScheduler();
+        if (scheduler != null) {
+            performPipelined(scheduler);
+        } else {
+            for (int i = 1; !isStopped() && i <= pages; i++) {
+                onResults(this, searchPage(i));
+            }
         }
     }
 
     protected List<? extends SearchResult> searchPage(int page) {
-        List<? extends SearchResult> result = Collections.emptyList();
-        try {
-            String url = getUrl(page, getEncodedKeywords());
-            String text = fetchSearchPage(url);
-            if (text != null) {
-                result = searchPage(text);
-            }
-        } catch (Throwable e) {
-            checkAccesibleDomains();
+        String text = fetchPage(page);
+        if (text != null) {
+            return parsePage(text);
+        } else {
+            return Collections.emptyList();
         }
-        return result;
     }
 
     protected String fetchSearchPage(String url) throws IOException {
@@ -66,4 +66,53 @@ public abstract class PagedWebSearchPerformer extends WebSearchPerformer {
     protected abstract String getUrl(int page, String encodedKeywords);
 
     protected abstract List<? extends SearchResult> searchPage(String page);
+
+    /**
+     * All the pages are fetched in parallel, within the limits per host of the scheduler, and
+     * each one is parsed as soon as it arrives while the others are still downloading.
+     */
+    private void performPipelined(final SearchScheduler scheduler) {
+        String host = getDomainNameToUse();
+        for (int i = 1; !isStopped() && i <= pages; i++) {
+            final int page = i;
+            scheduler.fetch(this, host, new Runnable() {
+                @Override
+                public void run() {
+                    final String text = fetchPage(page);
+                    if (text != null && !isStopped()) {
+                        scheduler.parse(PagedWebSearchPerformer.this, new Runnable() {
+                            @Override
+                            public void run() {
+                                onResults(PagedWebSearchPerformer.this, parsePage(text));
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the text of the page, or null if there is nothing to parse. Performers with
+     * their own way of requesting a page override this, both the sequential and the
+     * pipelined searches go through it.
+     */
+    protected String fetchPage(int page) {
+        try {
+            String url = getUrl(page, getEncodedKeywords());
+            return fetchSearchPage(url);
+        } catch (Throwable e) {
+            checkAccesibleDomains();
+            return null;
+        }
+    }
+
+    private List<? extends SearchResult> parsePage(String text) {
+        try {
+            return searchPage(text);
+        } catch (Throwable e) {
+            checkAccesibleDomains();
+            return Collections.emptyList();
+        }
+    }
 }
\ No newline at end of file
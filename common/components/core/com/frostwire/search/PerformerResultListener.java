@@ -13,9 +13,16 @@ public final class PerformerResultListener implements SearchListener {
 
     @Override
     public void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
+        SearchResultAggregator.Delta delta = manager.aggregate(performer, results);
+
+        if (delta == null) {
+            return;
+        }
+
         List<SearchResult> list = new LinkedList<SearchResult>();
 
-        for (SearchResult sr : results) {
+        // duplicates of already seen results are not crawled again
+        for (SearchResult sr : delta.getAdded()) {
             if (sr instanceof CrawlableSearchResult) {
                 CrawlableSearchResult csr = (CrawlableSearchResult) sr;
 
@@ -29,6 +36,15 @@ public final class PerformerResultListener implements SearchListener {
             }
         }
 
+        // the results with better seeds or more sources are reported again, the listener
+        // gets the merged values from the aggregator
+        for (SearchResultAggregator.ResultGroup group : delta.getUpdated()) {
+            SearchResult sr = group.getResult();
+            if (!(sr instanceof CrawlableSearchResult) || ((CrawlableSearchResult) sr).isComplete()) {
+                list.add(sr);
+            }
+        }
+
         if (!list.isEmpty()) {
             manager.onResults(performer, list);
         }
@@ -17,16 +17,14 @@
 
 package com.frostwire.search;
 
-import java.io.ByteArrayInputStream;
 import java.util.LinkedList;
 import java.util.List;
 
+import com.frostwire.logging.Logger;
 import com.frostwire.search.torrent.TorrentCrawlableSearchResult;
 import com.frostwire.search.torrent.TorrentCrawledSearchResult;
-import com.frostwire.torrent.TOTorrent;
 import com.frostwire.torrent.TOTorrentException;
-import com.frostwire.torrent.TOTorrentFile;
-import com.frostwire.torrent.TorrentUtils;
+import com.frostwire.torrent.TorrentFileList;
 
 /**
  * 
@@ -36,13 +34,15 @@ import com.frostwire.torrent.TorrentUtils;
  */
 public final class PerformersHelper {
 
+    private static final Logger LOG = Logger.getLogger(PerformersHelper.class);
+
     private PerformersHelper() {
     }
 
     public static List<? extends SearchResult> searchPageHelper(RegexSearchPerformer<?> performer, String page, int regexMaxResults) {
         List<SearchResult> result = new LinkedList<SearchResult>();
 
-        SearchMatcher matcher = SearchMatcher.from(performer.getPattern().matcher(new MaxIterCharSequence(page, 2 * page.length())));
+        SearchMatcher matcher = SearchPattern.of(performer.getPattern()).matcher(page);
 
         int max = regexMaxResults;
 
@@ -56,6 +56,10 @@ public final class PerformersHelper {
             }
         }
 
+        if (matcher.isExhausted()) {
+            LOG.warn("Regex budget exhausted, returning " + i + " partial results for: " + performer);
+        }
+
         return result;
     }
 
@@ -65,15 +69,11 @@ public final class PerformersHelper {
     public static List<? extends SearchResult> crawlTorrent(SearchPerformer performer, TorrentCrawlableSearchResult sr, byte[] data) throws TOTorrentException {
         List<TorrentCrawledSearchResult> list = new LinkedList<TorrentCrawledSearchResult>();
 
-        TOTorrent torrent = TorrentUtils.readFromBEncodedInputStream(new ByteArrayInputStream(data));
+        // only the files are needed, the pieces and the rest of the torrent are skipped
+        List<TorrentFileList.Entry> files = TorrentFileList.parse(data).getFiles();
 
-        if (torrent != null) {
-            TOTorrentFile[] files = torrent.getFiles();
-
-            for (int i = 0; !performer.isStopped() && i < files.length; i++) {
-                TOTorrentFile file = files[i];
-                list.add(new TorrentCrawledSearchResult(sr, file));
-            }
+        for (int i = 0; !performer.isStopped() && i < files.size(); i++) {
+            list.add(new TorrentCrawledSearchResult(sr, files.get(i)));
         }
 
         return list;
@@ -0,0 +1,316 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.frostwire.util.HtmlManipulator;
+
+/**
+ * Matches search results against the tokens of a query, compiled once per search.
+ * <p>
+ * Text is sanitized and normalized in a single pass over the chars into a reusable
+ * buffer, the slower unicode decomposition only happens for non ASCII text. The
+ * normalized display name of a crawled result's parent is computed once and reused
+ * for all its children.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class QueryMatcher {
+
+    private static final String SEPARATORS = "\\/%_;-.()[]\n\r\u00D0&~{}*@^'=!,\u00A1|#\u00C0\u00C1";
+    private static final boolean[] SEPARATOR_TABLE = new boolean[256];
+
+    private static final int MAX_CACHED_PARENTS = 256;
+
+    // precomputed decompositions of the latin supplement and extended blocks
+    private static final int LATIN_START = 0x80;
+    private static final int LATIN_END = 0x250;
+    private static final char[][] LATIN_TABLE = new char[LATIN_END - LATIN_START][];
+
+    static {
+        for (int i = 0; i <= ' '; i++) {
+            SEPARATOR_TABLE[i] = true;
+        }
+        for (int i = 0; i < SEPARATORS.length(); i++) {
+            SEPARATOR_TABLE[SEPARATORS.charAt(i)] = true;
+        }
+        for (int i = LATIN_START; i < LATIN_END; i++) {
+            LATIN_TABLE[i - LATIN_START] = decompose(String.valueOf((char) i)).toCharArray();
+        }
+    }
+
+    private final char[][] tokens;
+    private final boolean[] found;
+    private final Map<SearchResult, char[]> parents;
+
+    private char[] buffer;
+    private int length;
+
+    public QueryMatcher(String query) {
+        this.buffer = new char[256];
+        this.parents = new IdentityHashMap<SearchResult, char[]>();
+
+        normalize(query);
+
+        Set<String> set = new LinkedHashSet<String>();
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || buffer[i] == ' ') {
+                if (i > start) {
+                    set.add(new String(buffer, start, i - start));
+                }
+                start = i + 1;
+            }
+        }
+
+        this.tokens = new char[set.size()][];
+        int n = 0;
+        for (String token : set) {
+            tokens[n++] = token.toCharArray();
+        }
+        this.found = new boolean[tokens.length];
+    }
+
+    public List<String> getTokens() {
+        List<String> list = new ArrayList<String>(tokens.length);
+        for (char[] token : tokens) {
+            list.add(new String(token));
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * All the tokens must be present in the display name, the parent's display name or
+     * the filename of the result. A query without tokens matches nothing.
+     */
+    public boolean matches(SearchResult sr) {
+        return tokens.length > 0 && count(sr) == tokens.length;
+    }
+
+    /**
+     * Fraction of the tokens present in the result, 0 for a query without tokens.
+     */
+    public float score(SearchResult sr) {
+        return tokens.length > 0 ? ((float) count(sr)) / tokens.length : 0;
+    }
+
+    private int count(SearchResult sr) {
+        for (int i = 0; i < found.length; i++) {
+            found[i] = false;
+        }
+
+        normalize(sr.getDisplayName());
+        int remaining = match(buffer, length, tokens.length);
+
+        if (remaining > 0 && sr instanceof CrawledSearchResult) {
+            CrawlableSearchResult parent = ((CrawledSearchResult) sr).getParent();
+            if (parent != null) {
+                char[] text = parents.get(parent);
+                if (text == null) {
+                    normalize(parent.getDisplayName());
+                    text = new char[length];
+                    System.arraycopy(buffer, 0, text, 0, length);
+
+                    if (parents.size() >= MAX_CACHED_PARENTS) {
+                        parents.clear();
+                    }
+                    parents.put(parent, text);
+                }
+                remaining = match(text, text.length, remaining);
+            }
+        }
+
+        if (remaining > 0 && sr instanceof FileSearchResult) {
+            String filename = ((FileSearchResult) sr).getFilename();
+            // crawled files usually use the filename as display name
+            if (filename != null && !filename.equals(sr.getDisplayName())) {
+                normalize(filename);
+                remaining = match(buffer, length, remaining);
+            }
+        }
+
+        return tokens.length - remaining;
+    }
+
+    private int match(char[] text, int len, int remaining) {
+        for (int i = 0; i < tokens.length && remaining > 0; i++) {
+            if (!found[i] && indexOf(text, len, tokens[i]) != -1) {
+                found[i] = true;
+                remaining--;
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Leaves the sanitized, lower case and without diacritical marks version of the
+     * string in the buffer, separators collapsed to a single space. Only text with
+     * chars outside of the latin blocks pays for a full unicode decomposition.
+     */
+    private void normalize(String s) {
+        length = 0;
+
+        if (s == null) {
+            return;
+        }
+
+        if (s.indexOf('<') != -1 || s.indexOf('&') != -1) {
+            s = HtmlManipulator.replaceHtmlEntities(s);
+        }
+
+        int n = s.length();
+        ensureCapacity(n);
+
+        boolean latin = true;
+        boolean space = true; // trims the leading spaces
+        boolean tag = false;
+
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+
+            if (tag) {
+                tag = c != '>';
+                continue;
+            }
+
+            if (c == '<') {
+                tag = true;
+                continue;
+            }
+
+            int skip = skipWord(s, i, c);
+            if (skip > 0) {
+                i += skip - 1;
+                c = ' ';
+            }
+
+            if (c < 256 && SEPARATOR_TABLE[c]) {
+                if (!space) {
+                    buffer[length++] = ' ';
+                    space = true;
+                }
+            } else if (c >= LATIN_START && c < LATIN_END) {
+                char[] d = LATIN_TABLE[c - LATIN_START];
+                ensureCapacity(length + d.length + n - i);
+                for (int j = 0; j < d.length; j++) {
+                    buffer[length++] = d[j];
+                }
+                space = false;
+            } else {
+                if (c >= LATIN_END) {
+                    latin = false;
+                } else if (c >= 'A' && c <= 'Z') {
+                    c = (char) (c + ('a' - 'A'));
+                }
+                buffer[length++] = c;
+                space = false;
+            }
+        }
+
+        if (length > 0 && buffer[length - 1] == ' ') {
+            length--;
+        }
+
+        if (!latin) {
+            String norm = decompose(new String(buffer, 0, length));
+            length = norm.length();
+            ensureCapacity(length);
+            norm.getChars(0, length, buffer, 0);
+        }
+    }
+
+    /**
+     * Number of chars of the ignored words (.torrent, www., .com, .net) starting at i.
+     */
+    private static int skipWord(String s, int i, char c) {
+        if (c == '.') {
+            if (s.startsWith(".torrent", i)) {
+                return 8;
+            }
+            if (s.startsWith(".com", i) || s.startsWith(".net", i)) {
+                return 4;
+            }
+        } else if (c == 'w' && s.startsWith("www.", i)) {
+            return 4;
+        }
+        return 0;
+    }
+
+    private static String decompose(String s) {
+        String norm = Normalizer.normalize(s, Normalizer.Form.NFKD);
+        StringBuilder sb = new StringBuilder(norm.length());
+
+        for (int i = 0; i < norm.length(); i++) {
+            char c = norm.charAt(i);
+            if (c < '\u0300' || c > '\u036F') { // combining diacritical marks
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private void ensureCapacity(int n) {
+        if (buffer.length < n) {
+            buffer = Arrays.copyOf(buffer, Math.max(n, buffer.length * 2));
+        }
+    }
+
+    private static int indexOf(char[] text, int len, char[] token) {
+        int n = token.length;
+        if (n == 0) {
+            return 0;
+        }
+
+        char first = token[0];
+        int max = len - n;
+
+        for (int i = 0; i <= max; i++) {
+            if (text[i] != first) {
+                while (++i <= max && text[i] != first) {
+                }
+            }
+
+            if (i <= max) {
+                int j = i + 1;
+                int end = j + n - 1;
+                for (int k = 1; j < end && text[j] == token[k]; j++, k++) {
+                }
+
+                if (j == end) {
+                    return i;
+                }
+            }
+        }
+
+        return -1;
+    }
+}
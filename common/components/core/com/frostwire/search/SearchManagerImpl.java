@@ -17,14 +17,19 @@
 
 package com.frostwire.search;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.frostwire.concurrent.DefaultThreadFactory;
 import com.frostwire.logging.Logger;
@@ -40,21 +45,52 @@ public class SearchManagerImpl implements SearchManager {
     private static final Logger LOG = Logger.getLogger(SearchManagerImpl.class);
 
     private static final int DEFAULT_NTHREADS = 4;
+    private static final int DEFAULT_IO_THREADS = 16;
+    private static final int DEFAULT_MAX_FETCHES_PER_HOST = 2;
 
+    private final SchedulingMode mode;
     private final ExecutorService executor;
-    private final List<SearchTask> tasks;
+    private final ExecutorService parser;
+    private final SearchScheduler scheduler;
+    private final ConcurrentMap<String, HostQueue> hosts;
+    private final ConcurrentMap<Long, TokenTasks> tasks;
+    private final ConcurrentMap<Long, SearchResultAggregator> aggregators;
 
     private SearchManagerListener listener;
 
+    public SearchManagerImpl(SchedulingMode mode, int nThreads) {
+        this.mode = mode;
+        this.executor = newFixedThreadPool(nThreads, "SearchManager");
+        this.tasks = new ConcurrentHashMap<Long, TokenTasks>();
+        this.aggregators = new ConcurrentHashMap<Long, SearchResultAggregator>();
+
+        if (mode == SchedulingMode.SPLIT) {
+            this.parser = newFixedThreadPool(Runtime.getRuntime().availableProcessors(), "SearchManager-Parser");
+            this.scheduler = new Scheduler(this);
+            this.hosts = new ConcurrentHashMap<String, HostQueue>();
+        } else {
+            this.parser = null;
+            this.scheduler = null;
+            this.hosts = null;
+        }
+    }
+
+    public SearchManagerImpl(SchedulingMode mode) {
+        this(mode, mode == SchedulingMode.SPLIT ? DEFAULT_IO_THREADS : DEFAULT_NTHREADS);
+    }
+
     public SearchManagerImpl(int nThreads) {
-        this.executor = newFixedThreadPool(nThreads);
-        this.tasks = Collections.synchronizedList(new LinkedList<SearchTask>());
+        this(SchedulingMode.SHARED, nThreads);
     }
 
     public SearchManagerImpl() {
         this(DEFAULT_NTHREADS);
     }
 
+    public SchedulingMode getSchedulingMode() {
+        return mode;
+    }
+
     @Override
     public void registerListener(SearchManagerListener listener) {
         this.listener = listener;
@@ -69,16 +105,18 @@ public class SearchManagerImpl implements SearchManager {
 
             performer.registerListener(new PerformerResultListener(this));
 
-            SearchTask task = new PerformTask(this, performer, getOrder(performer.getToken()));
+            if (scheduler != null && performer instanceof WebSearchPerformer) {
+                ((WebSearchPerformer) performer).setScheduler(scheduler);
+            }
 
-            submitSearchTask(task);
+            submitSearchTask(new PerformTask(this, performer));
         } else {
             LOG.warn("Search performer is null, review your logic");
         }
     }
 
     public void submitSearchTask(SearchTask task) {
-        tasks.add(task);
+        register(task);
         executor.execute(task);
     }
 
@@ -95,19 +133,21 @@ public class SearchManagerImpl implements SearchManager {
     @Override
     public boolean shutdown(long timeout, TimeUnit unit) {
         stop();
+        if (parser != null) {
+            parser.shutdown();
+        }
         executor.shutdown();
         try {
-            if (!executor.awaitTermination(timeout, unit)) {
-                executor.shutdownNow();
-                // wait a while for tasks to respond to being cancelled
-                if (!executor.awaitTermination(timeout, unit)) {
-                    LOG.error("Pool did not terminate");
-                    return false;
-                }
+            // no parse task publishes results once this returns
+            if (!awaitTermination(executor, timeout, unit) || (parser != null && !awaitTermination(parser, timeout, unit))) {
+                return false;
             }
         } catch (InterruptedException ie) {
             // (re-)cancel if current thread also interrupted
             executor.shutdownNow();
+            if (parser != null) {
+                parser.shutdownNow();
+            }
             // preserve interrupt status
             Thread.currentThread().interrupt();
         }
@@ -115,6 +155,18 @@ public class SearchManagerImpl implements SearchManager {
         return tasks.isEmpty();
     }
 
+    private static boolean awaitTermination(ExecutorService pool, long timeout, TimeUnit unit) throws InterruptedException {
+        if (!pool.awaitTermination(timeout, unit)) {
+            pool.shutdownNow();
+            // wait a while for tasks to respond to being cancelled
+            if (!pool.awaitTermination(timeout, unit)) {
+                LOG.error("Pool did not terminate");
+                return false;
+            }
+        }
+        return true;
+    }
+
     protected void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
         try {
             if (listener != null) {
@@ -135,23 +187,62 @@ public class SearchManagerImpl implements SearchManager {
         }
     }
 
+    /**
+     * Ranked view of the unique results of a search in progress, null if the search
+     * is finished or stopped.
+     */
+    public SearchResultAggregator getAggregator(long token) {
+        return aggregators.get(token);
+    }
+
+    /**
+     * Adds the results to the ones already seen for the token, returns null if the search
+     * is stopped.
+     */
+    SearchResultAggregator.Delta aggregate(SearchPerformer performer, List<? extends SearchResult> results) {
+        long token = performer.getToken();
+        SearchResultAggregator aggregator = aggregators.get(token);
+
+        if (aggregator == null) {
+            // late results of a stopped search must not bring its aggregator back
+            if (performer.isStopped()) {
+                return null;
+            }
+
+            String query = performer instanceof WebSearchPerformer ? ((WebSearchPerformer) performer).getKeywords() : null;
+            aggregator = new SearchResultAggregator(query);
+            SearchResultAggregator prev = aggregators.putIfAbsent(token, aggregator);
+            if (prev != null) {
+                aggregator = prev;
+            } else if (performer.isStopped()) {
+                // stopped meanwhile
+                aggregators.remove(token, aggregator);
+                return null;
+            }
+        }
+
+        return aggregator.add(results);
+    }
+
     private void stopTasks(long token) {
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (token == -1L || task.getToken() == token) {
-                    task.stop();
-                }
+        if (token == -1L) {
+            for (TokenTasks t : tasks.values()) {
+                t.stop();
             }
+            aggregators.clear();
+        } else {
+            TokenTasks t = tasks.get(token);
+            if (t != null) {
+                t.stop();
+            }
+            aggregators.remove(token);
         }
     }
 
     public void crawl(SearchPerformer performer, CrawlableSearchResult sr) {
         if (performer != null && !performer.isStopped()) {
             try {
-                SearchTask task = new CrawlTask(this, performer, sr, getOrder(performer.getToken()));
-                submitSearchTask(task);
+                submitSearchTask(new CrawlTask(this, performer, sr));
             } catch (Throwable e) {
                 LOG.warn("Error scheduling crawling of search result: " + sr);
             }
@@ -160,56 +251,259 @@ public class SearchManagerImpl implements SearchManager {
         }
     }
 
-    void checkIfFinished(SearchPerformer performer) {
-        SearchTask pendingTask = null;
+    /**
+     * Adds the task to the token registry and assigns its execution order,
+     * that is the number of tasks of the same token still pending.
+     */
+    private void register(SearchTask task) {
+        long token = task.getToken();
+
+        while (true) {
+            TokenTasks t = tasks.get(token);
+            if (t == null) {
+                t = new TokenTasks();
+                TokenTasks prev = tasks.putIfAbsent(token, t);
+                if (prev != null) {
+                    t = prev;
+                }
+            }
+
+            int order = t.add(task);
+            if (order >= 0) {
+                task.order = order;
+                return;
+            }
+
+            // the registry was closed by a concurrent finish, help removing it and retry
+            tasks.remove(token, t);
+        }
+    }
 
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext() && pendingTask == null) {
-                SearchTask task = it.next();
-                if (task.getToken() == performer.getToken() && !task.isStopped()) {
-                    pendingTask = task;
+    private void finish(SearchTask task) {
+        long token = task.getToken();
+        TokenTasks t = tasks.get(token);
+
+        if (t != null && t.remove(task)) {
+            if (t.close()) {
+                tasks.remove(token, t);
+            }
+
+            if (t.isFinished(task) && t.markFinished()) {
+                aggregators.remove(token);
+                onFinished(token);
+            }
+        }
+    }
+
+    private void fetch(StageTask task, String host) {
+        register(task);
+
+        while (true) {
+            HostQueue q = hosts.get(host);
+            if (q == null) {
+                q = new HostQueue();
+                HostQueue prev = hosts.putIfAbsent(host, q);
+                if (prev != null) {
+                    q = prev;
                 }
+            }
 
-                if (task.isStopped()) {
-                    it.remove();
+            synchronized (q) {
+                if (q.removed) {
+                    continue; // emptied and removed meanwhile, take the new one
                 }
+                if (q.active >= DEFAULT_MAX_FETCHES_PER_HOST) {
+                    q.waiting.add(task);
+                    return;
+                }
+                q.active++;
             }
-        }
 
-        if (pendingTask == null) {
-            onFinished(performer.getToken());
+            execute(executor, task);
+            return;
         }
     }
 
-    private int getOrder(long token) {
-        int order = 0;
-        synchronized (tasks) {
-            Iterator<SearchTask> it = tasks.iterator();
-            while (it.hasNext()) {
-                SearchTask task = it.next();
-                if (task.getToken() == token) {
-                    order = order + 1;
+    private void parse(StageTask task) {
+        register(task);
+        execute(parser, task);
+    }
+
+    /**
+     * Hands the host slot of the finished fetch to the next one waiting for the same host.
+     */
+    private void release(String host) {
+        HostQueue q = hosts.get(host);
+        if (q == null) {
+            return;
+        }
+
+        StageTask next;
+        synchronized (q) {
+            next = q.waiting.poll();
+            if (next == null) {
+                q.active--;
+                if (q.active == 0) {
+                    // no host entry is kept for the hosts no longer searched
+                    q.removed = true;
+                    hosts.remove(host, q);
                 }
             }
         }
-        return order;
+
+        if (next != null) {
+            execute(executor, next);
+        }
+    }
+
+    private void execute(ExecutorService pool, StageTask task) {
+        try {
+            pool.execute(task);
+        } catch (Throwable e) {
+            LOG.warn("Error scheduling search stage: " + e.getMessage());
+            finish(task);
+        }
+    }
+
+    private static ExecutorService newFixedThreadPool(int nThreads, String name) {
+        return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new DefaultThreadFactory(name, false));
     }
 
-    private static ExecutorService newFixedThreadPool(int nThreads) {
-        return new ThreadPoolExecutor(nThreads, nThreads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new DefaultThreadFactory("SearchManager", false));
+    /**
+     * How the tasks of the searches are distributed among threads.
+     */
+    public enum SchedulingMode {
+
+        /**
+         * All the tasks, network and parsing, share the same fixed pool.
+         */
+        SHARED,
+
+        /**
+         * Network fetches run on a larger pool with a limit of concurrent fetches per host, the
+         * parsing runs on a pool sized to the number of cores and the pages of the paged
+         * performers are fetched in parallel.
+         */
+        SPLIT
+    }
+
+    private static final class Scheduler implements SearchScheduler {
+
+        private final SearchManagerImpl manager;
+
+        public Scheduler(SearchManagerImpl manager) {
+            this.manager = manager;
+        }
+
+        @Override
+        public void fetch(SearchPerformer performer, String host, Runnable fetch) {
+            manager.fetch(new StageTask(manager, performer, fetch, host), host);
+        }
+
+        @Override
+        public void parse(SearchPerformer performer, Runnable parse) {
+            manager.parse(new StageTask(manager, performer, parse, null));
+        }
+    }
+
+    /**
+     * Fetches in progress and waiting for a single host, removed from the hosts map
+     * when it's empty.
+     */
+    private static final class HostQueue {
+
+        private final Queue<StageTask> waiting = new ArrayDeque<StageTask>();
+        private int active;
+        private boolean removed;
+    }
+
+    /**
+     * Tasks registry of a single search token. The pending counter goes to -1 when
+     * the last task is removed, in order to refuse new tasks and let {@link #register(SearchTask)}
+     * create a new registry.
+     */
+    private static final class TokenTasks {
+
+        private final Set<SearchTask> tasks;
+        private final AtomicInteger pending;
+        private final AtomicBoolean finished;
+
+        public TokenTasks() {
+            this.tasks = Collections.newSetFromMap(new ConcurrentHashMap<SearchTask, Boolean>());
+            this.pending = new AtomicInteger(0);
+            this.finished = new AtomicBoolean(false);
+        }
+
+        public int add(SearchTask task) {
+            int n;
+            do {
+                n = pending.get();
+                if (n < 0) {
+                    return -1;
+                }
+            } while (!pending.compareAndSet(n, n + 1));
+
+            tasks.add(task);
+            finished.set(false);
+
+            return n;
+        }
+
+        public boolean remove(SearchTask task) {
+            if (tasks.remove(task)) {
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean close() {
+            return pending.compareAndSet(0, -1);
+        }
+
+        /**
+         * A token is finished when there are no more pending tasks, or all of them are
+         * stopped. The scan only happens if the removed task was stopped, which is
+         * bounded by the tasks of this token.
+         */
+        public boolean isFinished(SearchTask removed) {
+            if (pending.get() <= 0) {
+                return true;
+            }
+
+            if (!removed.isStopped()) {
+                return false;
+            }
+
+            for (SearchTask task : tasks) {
+                if (!task.isStopped()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        public boolean markFinished() {
+            return finished.compareAndSet(false, true);
+        }
+
+        public void stop() {
+            for (SearchTask task : tasks) {
+                task.stop();
+            }
+        }
     }
 
     private static abstract class SearchTask implements Runnable, Comparable<SearchTask> {
 
         protected final SearchManagerImpl manager;
         protected final SearchPerformer performer;
-        private final int order;
+        private int order;
 
-        public SearchTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
+        public SearchTask(SearchManagerImpl manager, SearchPerformer performer) {
             this.manager = manager;
             this.performer = performer;
-            this.order = order;
         }
 
         public long getToken() {
@@ -232,22 +526,52 @@ public class SearchManagerImpl implements SearchManager {
 
     private static final class PerformTask extends SearchTask {
 
-        public PerformTask(SearchManagerImpl manager, SearchPerformer performer, int order) {
-            super(manager, performer, order);
+        public PerformTask(SearchManagerImpl manager, SearchPerformer performer) {
+            super(manager, performer);
         }
 
         @Override
         public void run() {
             try {
                 if (!isStopped()) {
-                    performer.perform();
+                    if (performer instanceof WebSearchPerformer && !((WebSearchPerformer) performer).isAvailable()) {
+                        LOG.info("Skipping search, circuit breaker open for: " + ((WebSearchPerformer) performer).getDomainNameToUse());
+                    } else {
+                        performer.perform();
+                    }
                 }
             } catch (Throwable e) {
                 LOG.warn("Error performing search: " + performer + ", e=" + e.getMessage());
             } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
+                manager.finish(this);
+            }
+        }
+    }
+
+    private static final class StageTask extends SearchTask {
+
+        private final Runnable stage;
+        private final String host;
+
+        public StageTask(SearchManagerImpl manager, SearchPerformer performer, Runnable stage, String host) {
+            super(manager, performer);
+            this.stage = stage;
+            this.host = host;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!isStopped()) {
+                    stage.run();
+                }
+            } catch (Throwable e) {
+                LOG.warn("Error performing search stage: " + performer + ", e=" + e.getMessage());
+            } finally {
+                if (host != null) {
+                    manager.release(host);
                 }
+                manager.finish(this);
             }
         }
     }
@@ -256,8 +580,8 @@ public class SearchManagerImpl implements SearchManager {
 
         private final CrawlableSearchResult sr;
 
-        public CrawlTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr, int order) {
-            super(manager, performer, order);
+        public CrawlTask(SearchManagerImpl manager, SearchPerformer performer, CrawlableSearchResult sr) {
+            super(manager, performer);
             this.sr = sr;
         }
 
@@ -270,9 +594,7 @@ public class SearchManagerImpl implements SearchManager {
             } catch (Throwable e) {
                 LOG.warn("Error performing crawling of: " + sr + ", e=" + e.getMessage());
             } finally {
-                if (manager.tasks.remove(this)) {
-                    manager.checkIfFinished(performer);
-                }
+                manager.finish(this);
             }
         }
     }
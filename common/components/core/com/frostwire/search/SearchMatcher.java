@@ -18,6 +18,8 @@
 
 package com.frostwire.search;
 
+import java.util.Locale;
+
 import com.google.code.regexp.Matcher;
 
 /**
@@ -25,6 +27,11 @@ import com.google.code.regexp.Matcher;
  * Instead of using the groups() that reference the original HTML strings,
  * we just make copies of those substrings with this search matcher everytime
  * we invoke group(), this way the original HTML can be dereferenced and garbage collected.
+ * <p>
+ * When created from a {@link SearchPattern} the groups are created directly from the
+ * chars of the page, the regex only runs at the positions where the literal of the
+ * pattern is found, and running out of the budget ends the search without losing the
+ * matches already found, see {@link #isExhausted()}.
  * 
  * @author gubatron
  * @author aldenml
@@ -34,27 +41,123 @@ public final class SearchMatcher {
 
     private final Matcher matcher;
 
+    private final String source;
+    private final char[] text;
+    private final String literal;
+    private final boolean ignoreCase;
+
+    private int position;
+    private boolean exhausted;
+
     public static SearchMatcher from(Matcher matcher) {
-        return new SearchMatcher(matcher);
+        return new SearchMatcher(matcher, null, null, null, false);
+    }
+
+    static SearchMatcher from(SearchPattern pattern, String source, int budget) {
+        char[] text = source.toCharArray();
+        Matcher matcher = pattern.getPattern().matcher(new MaxIterCharSequence(text, budget));
+        matcher.useTransparentBounds(true);
+        matcher.useAnchoringBounds(false);
+        String literal = pattern.getLiteral();
+        if (literal != null && pattern.isIgnoreCase()) {
+            literal = literal.toLowerCase(Locale.US);
+        }
+        return new SearchMatcher(matcher, source, text, literal, pattern.isIgnoreCase());
     }
     
-    private SearchMatcher(Matcher matcher) {
+    private SearchMatcher(Matcher matcher, String source, char[] text, String literal, boolean ignoreCase) {
         this.matcher = matcher;
+        this.source = source;
+        this.text = text;
+        this.literal = literal;
+        this.ignoreCase = ignoreCase;
     }
     
     public boolean find() {
-        return matcher.find();
+        if (exhausted) {
+            return false;
+        }
+
+        try {
+            if (literal == null) {
+                return matcher.find();
+            }
+
+            int n = text.length;
+            while (position < n) {
+                int index = indexOfLiteral(position);
+                if (index == -1) {
+                    position = n;
+                    return false;
+                }
+
+                matcher.region(index, n);
+                if (matcher.lookingAt()) {
+                    int end = matcher.end();
+                    position = end > index ? end : index + 1;
+                    return true;
+                }
+
+                position = index + 1;
+            }
+
+            return false;
+        } catch (MaxIterCharSequence.ExhaustedException e) {
+            exhausted = true;
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the search was ended by the budget of the matcher, the
+     * results found before are valid.
+     */
+    public boolean isExhausted() {
+        return exhausted;
     }
 
     public String group(int group) {
+        if (text != null) {
+            int start = matcher.start(group);
+            return start != -1 ? new String(text, start, matcher.end(group) - start) : null;
+        }
         return copy(matcher.group(group));
     }
     
     public String group(String group) {
+        if (text != null) {
+            int start = matcher.start(group);
+            return start != -1 ? new String(text, start, matcher.end(group) - start) : null;
+        }
         return copy(matcher.group(group));
     }
     
     private String copy(String str) {
-        return new String(str.toCharArray());
+        return str != null ? new String(str) : null;
+    }
+
+    private int indexOfLiteral(int from) {
+        if (!ignoreCase) {
+            return source.indexOf(literal, from);
+        }
+
+        int n = literal.length();
+        int max = text.length - n;
+
+        for (int i = from; i <= max; i++) {
+            int k = 0;
+            while (k < n && lower(text[i + k]) == literal.charAt(k)) {
+                k++;
+            }
+            if (k == n) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
     }
 }
\ No newline at end of file
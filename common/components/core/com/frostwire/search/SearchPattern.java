@@ -0,0 +1,220 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.code.regexp.Pattern;
+
+/**
+ * A compiled search regex, shared by all the searches, with the literal text every
+ * match has to start with.
+ * <p>
+ * The literal allows the {@link SearchMatcher} to jump between the candidate positions
+ * of the page with a plain string search and run the regex only there.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SearchPattern {
+
+    private static final ConcurrentMap<String, SearchPattern> cache = new ConcurrentHashMap<String, SearchPattern>();
+
+    private static final int MIN_LITERAL_LENGTH = 2;
+    private static final String META_CHARS = "\\[](){}.*+?^$|";
+
+    private final Pattern pattern;
+    private final String literal;
+    private final boolean ignoreCase;
+
+    private SearchPattern(Pattern pattern) {
+        this.pattern = pattern;
+
+        String regex = pattern.standardPattern();
+        int flags = pattern.flags();
+        boolean ignoreCase = (flags & java.util.regex.Pattern.CASE_INSENSITIVE) != 0;
+        boolean supported = (flags & (java.util.regex.Pattern.LITERAL | java.util.regex.Pattern.COMMENTS | java.util.regex.Pattern.CANON_EQ)) == 0;
+
+        int start = 0;
+        if (regex.startsWith("(?")) {
+            int end = regex.indexOf(')');
+            String inline = end != -1 ? regex.substring(2, end) : "";
+            if (inline.length() > 0 && inline.matches("[a-zA-Z]*(-[a-zA-Z]*)?")) {
+                int minus = inline.indexOf('-');
+                String on = minus != -1 ? inline.substring(0, minus) : inline;
+                ignoreCase = (ignoreCase || on.indexOf('i') != -1) && (minus == -1 || inline.indexOf('i', minus) == -1);
+                supported = supported && on.indexOf('x') == -1;
+                start = end + 1;
+            }
+        }
+
+        String literal = supported ? literal(regex, start) : null;
+        if (literal != null && ignoreCase) {
+            for (int i = 0; i < literal.length(); i++) {
+                if (literal.charAt(i) > 127) {
+                    literal = null; // only the ASCII case folding is replicated
+                    break;
+                }
+            }
+        }
+
+        this.literal = literal;
+        this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Returns the cached pattern for the regex, compiling it the first time.
+     */
+    public static SearchPattern compile(String regex) {
+        SearchPattern p = cache.get(regex);
+        if (p == null) {
+            p = new SearchPattern(Pattern.compile(regex));
+            SearchPattern prev = cache.putIfAbsent(regex, p);
+            if (prev != null) {
+                p = prev;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Returns the search pattern of an already compiled regex.
+     */
+    public static SearchPattern of(Pattern pattern) {
+        if (pattern.flags() != 0) {
+            return new SearchPattern(pattern);
+        }
+
+        SearchPattern p = cache.get(pattern.namedPattern());
+        if (p == null) {
+            p = new SearchPattern(pattern);
+            SearchPattern prev = cache.putIfAbsent(pattern.namedPattern(), p);
+            if (prev != null) {
+                p = prev;
+            }
+        }
+        return p;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * The text every match starts with, null if the regex does not start with a literal.
+     */
+    public String getLiteral() {
+        return literal;
+    }
+
+    /**
+     * If the literal must be searched ignoring the (ASCII) case.
+     */
+    public boolean isIgnoreCase() {
+        return ignoreCase;
+    }
+
+    /**
+     * Matcher for the text that gives up after reading twice the length of the text, keeping
+     * the results found until then.
+     */
+    public SearchMatcher matcher(String text) {
+        return matcher(text, 2 * text.length());
+    }
+
+    public SearchMatcher matcher(String text, int budget) {
+        return SearchMatcher.from(this, text, budget);
+    }
+
+    @Override
+    public String toString() {
+        return pattern.namedPattern();
+    }
+
+    /**
+     * Leading literal chars of the regex, stopping at the first construct that is not a
+     * plain char. A regex with a top level alternation has no literal.
+     */
+    private static String literal(String regex, int start) {
+        if (hasTopLevelAlternation(regex, start)) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        int i = start;
+        int n = regex.length();
+
+        while (i < n) {
+            char c = regex.charAt(i);
+            int next;
+
+            if (c == '\\') {
+                if (i + 1 >= n) {
+                    break;
+                }
+                char e = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(e)) {
+                    break; // a class (\d, \s), a back reference or a quotation
+                }
+                c = e;
+                next = i + 2;
+            } else if (META_CHARS.indexOf(c) != -1) {
+                break;
+            } else {
+                next = i + 1;
+            }
+
+            // a quantifier applies to the last char, which is not mandatory then
+            if (next < n && "?*+{".indexOf(regex.charAt(next)) != -1) {
+                break;
+            }
+
+            sb.append(c);
+            i = next;
+        }
+
+        return sb.length() >= MIN_LITERAL_LENGTH ? sb.toString() : null;
+    }
+
+    private static boolean hasTopLevelAlternation(String regex, int start) {
+        int depth = 0;
+        boolean inClass = false;
+
+        for (int i = start; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
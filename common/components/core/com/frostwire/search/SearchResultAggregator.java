@@ -0,0 +1,280 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.frostwire.search.torrent.TorrentSearchResult;
+
+/**
+ * Deduplicates and ranks the results of a single search as they arrive from
+ * the different engines.
+ * <p>
+ * Torrents are the same if they have the same info hash, files if they have the
+ * same name and size. The first result seen is the one kept, the duplicates only
+ * contribute with their seeds and source. Each call to {@link #add(List)} returns
+ * the delta: the new results ordered by score, and the groups updated by the
+ * duplicates.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SearchResultAggregator {
+
+    private static final float DEFAULT_SOURCE_RELIABILITY = 0.5f;
+    private static final long ONE_YEAR = 365L * 24 * 60 * 60 * 1000;
+
+    private static final Map<String, Float> reliabilities = new ConcurrentHashMap<String, Float>();
+
+    private final QueryMatcher matcher;
+    private final Map<String, ResultGroup> groups;
+    private final List<ResultGroup> all;
+
+    public SearchResultAggregator(String query) {
+        this.matcher = new QueryMatcher(query);
+        this.groups = new HashMap<String, ResultGroup>();
+        this.all = new ArrayList<ResultGroup>();
+    }
+
+    /**
+     * Sets how much the results of the source (the value of {@link SearchResult#getSource()})
+     * can be trusted, from 0 to 1.
+     */
+    public static void setSourceReliability(String source, float reliability) {
+        reliabilities.put(source, Math.max(0, Math.min(1, reliability)));
+    }
+
+    public static float getSourceReliability(String source) {
+        Float r = source != null ? reliabilities.get(source) : null;
+        return r != null ? r : DEFAULT_SOURCE_RELIABILITY;
+    }
+
+    public synchronized Delta add(List<? extends SearchResult> results) {
+        List<ResultGroup> added = new ArrayList<ResultGroup>();
+        Set<ResultGroup> addedSet = new HashSet<ResultGroup>();
+        Set<ResultGroup> updated = new HashSet<ResultGroup>();
+
+        for (SearchResult sr : results) {
+            String key = key(sr);
+            ResultGroup group = key != null ? groups.get(key) : null;
+
+            if (group == null) {
+                group = new ResultGroup(sr);
+                group.score = score(group);
+                if (key != null) {
+                    groups.put(key, group);
+                }
+                all.add(group);
+                added.add(group);
+                addedSet.add(group);
+            } else if (group.merge(sr)) {
+                group.score = score(group);
+                if (!addedSet.contains(group)) {
+                    updated.add(group);
+                }
+            }
+        }
+
+        Collections.sort(added, ScoreComparator.INSTANCE);
+
+        List<SearchResult> addedResults = new ArrayList<SearchResult>(added.size());
+        for (ResultGroup group : added) {
+            addedResults.add(group.result);
+        }
+
+        List<ResultGroup> updatedGroups = new ArrayList<ResultGroup>(updated);
+        Collections.sort(updatedGroups, ScoreComparator.INSTANCE);
+
+        return new Delta(addedResults, updatedGroups);
+    }
+
+    /**
+     * All the unique results seen so far, ordered by score.
+     */
+    public synchronized List<ResultGroup> getRanked() {
+        List<ResultGroup> list = new ArrayList<ResultGroup>(all);
+        Collections.sort(list, ScoreComparator.INSTANCE);
+        return list;
+    }
+
+    public synchronized int size() {
+        return all.size();
+    }
+
+    /**
+     * The best seeds seen for the result and its duplicates, or its own seeds if it is
+     * not part of this search.
+     */
+    public synchronized int getSeeds(SearchResult sr) {
+        String key = key(sr);
+        ResultGroup group = key != null ? groups.get(key) : null;
+        return group != null ? group.seeds : ResultGroup.seeds(sr);
+    }
+
+    /**
+     * Weighted sum of how many query tokens the result has, its seeds, how recent it is
+     * and the reliability of its sources, from 0 to 1.
+     */
+    private float score(ResultGroup group) {
+        SearchResult sr = group.result;
+
+        float match = matcher.score(sr);
+
+        float seeds = 0.5f; // neutral for the results without seeds
+        if (sr instanceof TorrentSearchResult) {
+            seeds = group.seeds > 0 ? Math.min(1f, (float) Math.log10(1 + group.seeds) / 3) : 0;
+        }
+
+        float age = 0.5f;
+        long creationTime = sr.getCreationTime();
+        if (creationTime > 0) {
+            long t = Math.max(0, System.currentTimeMillis() - creationTime);
+            age = 1f / (1 + ((float) t) / ONE_YEAR);
+        }
+
+        float reliability = 0;
+        for (String source : group.sources) {
+            reliability = Math.max(reliability, getSourceReliability(source));
+        }
+
+        return 0.4f * match + 0.35f * seeds + 0.1f * age + 0.15f * reliability;
+    }
+
+    private static String key(SearchResult sr) {
+        if (sr instanceof TorrentSearchResult && !(sr instanceof CrawledSearchResult)) {
+            String hash = ((TorrentSearchResult) sr).getHash();
+            if (hash != null && hash.length() > 0) {
+                return "btih:" + hash.trim().toLowerCase(Locale.US);
+            }
+        }
+
+        if (sr instanceof FileSearchResult) {
+            FileSearchResult fsr = (FileSearchResult) sr;
+            String filename = fsr.getFilename();
+            long size = fsr.getSize();
+            if (filename != null && size > 0) {
+                return "file:" + filename.trim().toLowerCase(Locale.US) + ":" + size;
+            }
+        }
+
+        return null;
+    }
+
+    public static final class ResultGroup {
+
+        private final SearchResult result;
+        private final Set<String> sources;
+        private int seeds;
+        private int count;
+        private float score;
+
+        ResultGroup(SearchResult result) {
+            this.result = result;
+            this.sources = new HashSet<String>(2);
+            this.sources.add(result.getSource());
+            this.seeds = seeds(result);
+            this.count = 1;
+        }
+
+        public SearchResult getResult() {
+            return result;
+        }
+
+        public Set<String> getSources() {
+            return Collections.unmodifiableSet(sources);
+        }
+
+        /**
+         * The engines report the same swarm, the best count is the maximum, not the sum.
+         */
+        public int getSeeds() {
+            return seeds;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public float getScore() {
+            return score;
+        }
+
+        /**
+         * Returns true if the duplicate changed something relevant for the ranking.
+         */
+        boolean merge(SearchResult sr) {
+            count++;
+            boolean changed = sources.add(sr.getSource());
+            int s = seeds(sr);
+            if (s > seeds) {
+                seeds = s;
+                changed = true;
+            }
+            return changed;
+        }
+
+        private static int seeds(SearchResult sr) {
+            return sr instanceof TorrentSearchResult ? ((TorrentSearchResult) sr).getSeeds() : TorrentSearchResult.UNKOWN_SEEDS;
+        }
+    }
+
+    public static final class Delta {
+
+        private final List<SearchResult> added;
+        private final List<ResultGroup> updated;
+
+        Delta(List<SearchResult> added, List<ResultGroup> updated) {
+            this.added = added;
+            this.updated = updated;
+        }
+
+        /**
+         * The results seen for the first time, ordered by score.
+         */
+        public List<SearchResult> getAdded() {
+            return added;
+        }
+
+        /**
+         * The already seen results with new seeds or sources, ordered by score.
+         */
+        public List<ResultGroup> getUpdated() {
+            return updated;
+        }
+    }
+
+    private static final class ScoreComparator implements Comparator<ResultGroup> {
+
+        public static final ScoreComparator INSTANCE = new ScoreComparator();
+
+        @Override
+        public int compare(ResultGroup o1, ResultGroup o2) {
+            return Float.compare(o2.score, o1.score);
+        }
+    }
+}
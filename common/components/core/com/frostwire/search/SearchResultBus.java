@@ -0,0 +1,332 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.logging.Logger;
+import com.frostwire.search.torrent.TorrentSearchResult;
+
+/**
+ * Bounded buffer between the search manager and a (possibly slow) listener.
+ * <p>
+ * Results are coalesced by search token and delivered in batches on a dedicated
+ * consumer thread, when a batch reaches the configured size or age, with one call
+ * per performer in the batch. The producers
+ * (the search workers) never block, if the buffer is full the lower ranked results
+ * are dropped.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SearchResultBus implements SearchManagerListener {
+
+    private static final Logger LOG = Logger.getLogger(SearchResultBus.class);
+
+    private static final int DEFAULT_CAPACITY = 2000;
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long DEFAULT_BATCH_TIME = 100; // milliseconds
+
+    private final SearchManagerListener listener;
+    private final int capacity;
+    private final int batchSize;
+    private final long batchTime;
+    private final Comparator<SearchResult> ranking;
+
+    private final Map<Long, Batch> batches;
+    private int depth;
+
+    private final AtomicLong numDelivered;
+    private final AtomicLong numDropped;
+
+    private final Thread consumer;
+    private volatile boolean running;
+
+    public SearchResultBus(SearchManagerListener listener, int capacity, int batchSize, long batchTime, Comparator<SearchResult> ranking) {
+        if (capacity <= 0 || batchSize <= 0 || batchTime < 0) {
+            throw new IllegalArgumentException("Capacity and batch size must be > 0 and batch time >= 0");
+        }
+
+        this.listener = listener;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.batchTime = batchTime;
+        this.ranking = ranking != null ? ranking : new DefaultRanking();
+
+        this.batches = new LinkedHashMap<Long, Batch>();
+        this.depth = 0;
+
+        this.numDelivered = new AtomicLong();
+        this.numDropped = new AtomicLong();
+
+        this.running = true;
+        this.consumer = new DefaultThreadFactory("SearchResultBus", true).newThread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        });
+        this.consumer.start();
+    }
+
+    public SearchResultBus(SearchManagerListener listener) {
+        this(listener, DEFAULT_CAPACITY, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_TIME, null);
+    }
+
+    @Override
+    public void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
+        if (!running || results == null || results.isEmpty()) {
+            return;
+        }
+
+        synchronized (batches) {
+            Batch batch = getBatch(performer.getToken());
+            for (SearchResult sr : results) {
+                batch.results.add(new PendingResult(performer, sr));
+            }
+            depth += results.size();
+
+            if (depth > capacity) {
+                shed(performer.getToken(), depth - capacity);
+            }
+
+            if (batch.results.size() >= batchSize) {
+                batches.notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public void onFinished(long token) {
+        if (!running) {
+            return;
+        }
+
+        synchronized (batches) {
+            getBatch(token).finished = true;
+            batches.notifyAll();
+        }
+    }
+
+    /**
+     * Number of results waiting to be delivered.
+     */
+    public int getQueueDepth() {
+        synchronized (batches) {
+            return depth;
+        }
+    }
+
+    public long getNumDelivered() {
+        return numDelivered.get();
+    }
+
+    public long getNumDropped() {
+        return numDropped.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        synchronized (batches) {
+            batches.clear();
+            depth = 0;
+            batches.notifyAll();
+        }
+    }
+
+    private Batch getBatch(long token) {
+        Batch batch = batches.get(token);
+        if (batch == null) {
+            batch = new Batch(token);
+            batches.put(token, batch);
+        }
+        return batch;
+    }
+
+    /**
+     * Drops the results of older searches first, since they are likely stale, and then
+     * the lowest ranked results of the current one.
+     */
+    private void shed(long token, int n) {
+        Iterator<Batch> it = batches.values().iterator();
+        while (it.hasNext() && n > 0) {
+            Batch batch = it.next();
+            if (batch.token != token) {
+                int size = batch.results.size();
+                batch.results.clear();
+                depth -= size;
+                numDropped.addAndGet(size);
+                n -= size;
+            }
+        }
+
+        if (n > 0) {
+            List<PendingResult> results = batches.get(token).results;
+            Collections.sort(results, new Comparator<PendingResult>() {
+                @Override
+                public int compare(PendingResult o1, PendingResult o2) {
+                    return ranking.compare(o1.result, o2.result);
+                }
+            });
+            n = Math.min(n, results.size());
+            for (int i = 0; i < n; i++) {
+                results.remove(results.size() - 1);
+            }
+            depth -= n;
+            numDropped.addAndGet(n);
+        }
+    }
+
+    private void consume() {
+        List<Batch> ready = new LinkedList<Batch>();
+
+        while (running) {
+            try {
+                synchronized (batches) {
+                    while (running && ready.isEmpty()) {
+                        long wait = collect(ready);
+                        if (ready.isEmpty()) {
+                            batches.wait(wait == Long.MAX_VALUE ? 0 : wait);
+                        }
+                    }
+                }
+
+                for (Batch batch : ready) {
+                    deliver(batch);
+                }
+                ready.clear();
+
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (Throwable e) {
+                LOG.warn("Error delivering search results: " + e.getMessage());
+                ready.clear();
+            }
+        }
+    }
+
+    /**
+     * Moves the batches ready for delivery to the list and returns the time to wait
+     * for the next one, Long.MAX_VALUE if there is nothing pending at all.
+     */
+    private long collect(List<Batch> ready) {
+        long now = System.currentTimeMillis();
+        long wait = Long.MAX_VALUE;
+
+        Iterator<Batch> it = batches.values().iterator();
+        while (it.hasNext()) {
+            Batch batch = it.next();
+            long age = now - batch.created;
+            if (batch.finished || batch.results.size() >= batchSize || age >= batchTime) {
+                it.remove();
+                depth -= batch.results.size();
+                ready.add(batch);
+            } else {
+                wait = Math.min(wait, batchTime - age);
+            }
+        }
+
+        return wait;
+    }
+
+    /**
+     * Sends the results of the batch grouped by the performer that found them, since the
+     * listener checks the performer state (stopped or not) before using them.
+     */
+    private void deliver(Batch batch) {
+        try {
+            if (listener != null) {
+                Map<SearchPerformer, List<SearchResult>> byPerformer = new LinkedHashMap<SearchPerformer, List<SearchResult>>();
+                for (PendingResult pr : batch.results) {
+                    List<SearchResult> results = byPerformer.get(pr.performer);
+                    if (results == null) {
+                        results = new ArrayList<SearchResult>();
+                        byPerformer.put(pr.performer, results);
+                    }
+                    results.add(pr.result);
+                }
+
+                for (Map.Entry<SearchPerformer, List<SearchResult>> e : byPerformer.entrySet()) {
+                    numDelivered.addAndGet(e.getValue().size());
+                    listener.onResults(e.getKey(), e.getValue());
+                }
+                if (batch.finished) {
+                    listener.onFinished(batch.token);
+                }
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error sending results back to receiver: " + e.getMessage());
+        }
+    }
+
+    private static final class Batch {
+
+        private final long token;
+        private final long created;
+        private final List<PendingResult> results;
+
+        private boolean finished;
+
+        public Batch(long token) {
+            this.token = token;
+            this.created = System.currentTimeMillis();
+            this.results = new ArrayList<PendingResult>();
+        }
+    }
+
+    private static final class PendingResult {
+
+        private final SearchPerformer performer;
+        private final SearchResult result;
+
+        public PendingResult(SearchPerformer performer, SearchResult result) {
+            this.performer = performer;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Top level results before the crawled ones, then by seeds.
+     */
+    private static final class DefaultRanking implements Comparator<SearchResult> {
+
+        @Override
+        public int compare(SearchResult o1, SearchResult o2) {
+            int c1 = o1 instanceof CrawledSearchResult ? 1 : 0;
+            int c2 = o2 instanceof CrawledSearchResult ? 1 : 0;
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+
+            int s1 = o1 instanceof TorrentSearchResult ? ((TorrentSearchResult) o1).getSeeds() : 0;
+            int s2 = o2 instanceof TorrentSearchResult ? ((TorrentSearchResult) o2).getSeeds() : 0;
+
+            return s1 < s2 ? 1 : (s1 > s2 ? -1 : 0);
+        }
+    }
+}
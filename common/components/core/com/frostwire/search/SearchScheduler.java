@@ -0,0 +1,40 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.frostwire.search;
+
+/**
+ * Runs the stages of a search on the pools of the search manager, the network
+ * fetches separated from the parsing of the data.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+interface SearchScheduler {
+
+    /**
+     * Runs the fetch on the I/O pool, no more than a few at the same time for the same host.
+     */
+    public void fetch(SearchPerformer performer, String host, Runnable fetch);
+
+    /**
+     * Runs the parsing on the pool sized to the number of cores.
+     */
+    public void parse(SearchPerformer performer, Runnable parse);
+}
@@ -0,0 +1,394 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.logging.Logger;
+
+/**
+ * Size bounded in-memory cache in front of a slower (disk) crawl cache.
+ * <p>
+ * Reads of the memory tier are lock free, writes lock only one of the stripes,
+ * and each stripe evicts with a second chance (CLOCK) policy weighted by the
+ * length of the data. Writes to the backing cache happen in the background and
+ * are coalesced by key, only the last one of a key is pending. The data of at
+ * most {@link #MAX_PENDING_PUTS} puts is held, past that a put only removes the
+ * older copy from the backing cache. A read of the backing cache doesn't go to
+ * memory when a write to the same stripe happened meanwhile, or a write of the
+ * same key is still pending.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TieredCrawlCache implements CrawlCache {
+
+    private static final Logger LOG = Logger.getLogger(TieredCrawlCache.class);
+
+    private static final int NUM_STRIPES = 8; // power of two
+
+    private static final int MAX_PENDING_PUTS = 256;
+
+    private static final byte[] REMOVED = new byte[0]; // a pending remove
+
+    private final CrawlCache backing;
+    private final ConcurrentMap<String, Entry> entries;
+    private final Stripe[] stripes;
+    private final ExecutorService writer;
+
+    // the writes not in the backing cache yet, guarded by itself
+    private final LinkedHashMap<String, byte[]> pending;
+    private int pendingPuts;
+    private boolean pendingClear;
+    private String inFlight; // the key being written
+    private boolean inFlightClear;
+    private boolean draining; // a drain of the writes is scheduled or running
+
+    private final AtomicLong memoryHits;
+    private final AtomicLong memoryMisses;
+
+    public TieredCrawlCache(CrawlCache backing, long memorySize) {
+        this.backing = backing;
+        this.entries = new ConcurrentHashMap<String, Entry>();
+        this.stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++) {
+            stripes[i] = new Stripe(memorySize / NUM_STRIPES);
+        }
+        // a single drain of the pending writes is scheduled at a time
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(1), new DefaultThreadFactory("TieredCrawlCache", true));
+        this.pending = new LinkedHashMap<String, byte[]>();
+
+        this.memoryHits = new AtomicLong();
+        this.memoryMisses = new AtomicLong();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Entry e = entries.get(key);
+        if (e != null) {
+            e.referenced = true;
+            memoryHits.incrementAndGet();
+            return e.data;
+        }
+
+        memoryMisses.incrementAndGet();
+
+        if (backing == null) {
+            return null;
+        }
+
+        Stripe stripe = stripe(key);
+        long generation;
+        synchronized (stripe) {
+            generation = stripe.generation;
+        }
+
+        byte[] data = backing.get(key);
+        if (data != null) {
+            synchronized (stripe) {
+                // a write since the read, or one not in the backing cache yet, could make the data stale
+                if (stripe.generation == generation && !isPending(key)) {
+                    putMemory(stripe, key, data);
+                }
+            }
+        }
+
+        return data;
+    }
+
+    @Override
+    public void put(final String key, final byte[] data) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            putMemory(stripe, key, data);
+            stripe.generation++;
+            if (backing != null) {
+                enqueue(key, data);
+            }
+        }
+    }
+
+    @Override
+    public void remove(final String key) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            removeMemory(stripe, key);
+            stripe.generation++;
+            if (backing != null) {
+                enqueue(key, REMOVED);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (String key : stripe.order.keySet()) {
+                    entries.remove(key);
+                }
+                stripe.order.clear();
+                stripe.size = 0;
+                stripe.generation++;
+            }
+        }
+
+        if (backing != null) {
+            synchronized (pending) {
+                // the clear supersedes the writes still pending
+                pending.clear();
+                pendingPuts = 0;
+                pendingClear = true;
+                drain();
+            }
+        }
+    }
+
+    @Override
+    public long size() {
+        return backing != null ? backing.size() : memorySize();
+    }
+
+    /**
+     * The misses of the memory tier are resolved by the backing cache, hits in either tier
+     * count as a hit.
+     */
+    @Override
+    public CrawlCacheStats stats() {
+        if (backing != null) {
+            CrawlCacheStats s = backing.stats();
+            return new CrawlCacheStats(memoryHits.get() + s.getHits(), s.getMisses(), s.getEvictions(), s.getBytes(), s.getSavedFetches());
+        } else {
+            return new CrawlCacheStats(memoryHits.get(), memoryMisses.get(), 0, memorySize(), 0);
+        }
+    }
+
+    public long memorySize() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Must be called with the stripe lock held.
+     */
+    private void putMemory(Stripe stripe, String key, byte[] data) {
+        if (data.length > stripe.maxSize) {
+            removeMemory(stripe, key); // too big for the memory tier
+            return;
+        }
+
+        Entry e = new Entry(data);
+        Entry old = stripe.order.put(key, e);
+        if (old != null) {
+            stripe.size -= old.data.length;
+        }
+        entries.put(key, e);
+        stripe.size += data.length;
+
+        evict(stripe);
+    }
+
+    /**
+     * Must be called with the stripe lock held.
+     */
+    private void removeMemory(Stripe stripe, String key) {
+        Entry e = stripe.order.remove(key);
+        if (e != null) {
+            entries.remove(key);
+            stripe.size -= e.data.length;
+        }
+    }
+
+    /**
+     * Must be called with the stripe lock held. Entries referenced since the last pass
+     * get a second chance and go back to the tail of the order.
+     */
+    private void evict(Stripe stripe) {
+        while (stripe.size > stripe.maxSize && !stripe.order.isEmpty()) {
+            Map.Entry<String, Entry> eldest = stripe.order.entrySet().iterator().next();
+            String key = eldest.getKey();
+            Entry e = eldest.getValue();
+
+            if (e.referenced) {
+                e.referenced = false;
+                stripe.order.get(key);
+            } else {
+                removeMemory(stripe, key);
+            }
+        }
+    }
+
+    /**
+     * Must be called with the stripe lock held, as part of the write to the memory tier,
+     * so the write is pending before the stripe is unlocked.
+     */
+    private void enqueue(String key, byte[] data) {
+        synchronized (pending) {
+            byte[] old = pending.get(key);
+            boolean oldPut = old != null && old != REMOVED;
+
+            if (data != REMOVED && !oldPut && pendingPuts >= MAX_PENDING_PUTS) {
+                // full, the data is dropped but the older copy can't stay
+                data = REMOVED;
+            }
+
+            pending.put(key, data);
+            if (oldPut) {
+                pendingPuts--;
+            }
+            if (data != REMOVED) {
+                pendingPuts++;
+            }
+
+            drain();
+        }
+    }
+
+    /**
+     * True if a write of the key is pending or in flight. Must be called with the stripe
+     * lock held.
+     */
+    private boolean isPending(String key) {
+        synchronized (pending) {
+            return pendingClear || inFlightClear || key.equals(inFlight) || pending.containsKey(key);
+        }
+    }
+
+    private Stripe stripe(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (NUM_STRIPES - 1)];
+    }
+
+    /**
+     * Schedules the writer, unless it's already draining. Must be called with the pending
+     * lock held.
+     */
+    private void drain() {
+        if (draining) {
+            return;
+        }
+
+        try {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    while (writeNext()) {
+                    }
+                }
+            });
+            draining = true;
+        } catch (Throwable e) {
+            // the next write tries again
+            LOG.warn("Error submitting write to backing crawl cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the next pending write to the backing cache, false if there is none.
+     */
+    private boolean writeNext() {
+        String key = null;
+        byte[] data = null;
+        boolean clear = false;
+
+        synchronized (pending) {
+            if (pendingClear) {
+                pendingClear = false;
+                inFlightClear = clear = true;
+            } else {
+                Iterator<Map.Entry<String, byte[]>> it = pending.entrySet().iterator();
+                if (!it.hasNext()) {
+                    draining = false;
+                    return false;
+                }
+                Map.Entry<String, byte[]> e = it.next();
+                it.remove();
+                inFlight = key = e.getKey();
+                data = e.getValue();
+                if (data != REMOVED) {
+                    pendingPuts--;
+                }
+            }
+        }
+
+        try {
+            if (clear) {
+                backing.clear();
+            } else if (data == REMOVED) {
+                backing.remove(key);
+            } else {
+                backing.put(key, data);
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error writing to backing crawl cache: " + e.getMessage());
+        } finally {
+            // the stripes change before the write is no longer in flight
+            for (Stripe stripe : clear ? stripes : new Stripe[] { stripe(key) }) {
+                synchronized (stripe) {
+                    stripe.generation++;
+                }
+            }
+            synchronized (pending) {
+                inFlight = null;
+                inFlightClear = false;
+            }
+        }
+
+        return true;
+    }
+
+    private static final class Entry {
+
+        private final byte[] data;
+        private volatile boolean referenced;
+
+        public Entry(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private static final class Stripe {
+
+        private final long maxSize;
+        private final LinkedHashMap<String, Entry> order; // access order, eldest first
+        private long size;
+        private long generation; // bumped by every write, to memory and to the backing cache
+
+        public Stripe(long maxSize) {
+            this.maxSize = maxSize;
+            this.order = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        }
+    }
+}
@@ -18,13 +18,16 @@
 package com.frostwire.search;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
 
 import com.frostwire.logging.Logger;
 import com.frostwire.search.domainalias.DomainAliasManager;
+import com.frostwire.search.domainalias.DomainHealth;
 import com.frostwire.util.HttpClient;
+import com.frostwire.util.HttpClient.HttpClientListenerAdapter;
 import com.frostwire.util.HttpClientFactory;
 import com.frostwire.util.StringUtils;
 import com.frostwire.util.UserAgentGenerator;
@@ -43,6 +46,9 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
 
     private static final String[] STREAMABLE_EXTENSIONS = new String[] { "mp3", "ogg", "wma", "wmv", "m4a", "aac", "flac", "mp4", "flv", "mov", "mpg", "mpeg", "3gp", "m4v", "webm" };
 
+    // when the response headers of the thread's last request arrived
+    private static final ThreadLocal<Long> headersReceived = new ThreadLocal<Long>();
+
     private final String keywords;
     private final String encodedKeywords;
     private final int timeout;
@@ -50,6 +56,8 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
 
     private final DomainAliasManager domainAliasManager;
 
+    private SearchScheduler scheduler;
+
     public WebSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout) {
         super(token);
 
@@ -62,6 +70,12 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         this.encodedKeywords = StringUtils.encodeUrl(keywords);
         this.timeout = timeout;
         this.client = HttpClientFactory.newInstance();
+        this.client.setListener(new HttpClientListenerAdapter() {
+            @Override
+            public void onHeaders(HttpClient httpClient, Map<String, List<String>> headerFields) {
+                headersReceived.set(System.currentTimeMillis());
+            }
+        });
     }
 
     public final String getKeywords() {
@@ -88,11 +102,36 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
     }
 
     public String fetch(String url, String cookie, Map<String, String> customHeaders) throws IOException {
-        return client.get(url, timeout, DEFAULT_USER_AGENT, null, cookie, customHeaders);
+        DomainHealth health = DomainHealth.ofUrl(url);
+        if (health != null && !health.allowRequest()) {
+            throw new IOException("Circuit breaker open for " + health.getDomain());
+        }
+
+        // the outcome is always recorded, or a failed trial would keep the domain blocked
+        long start = start();
+        String s = null;
+        try {
+            s = client.get(url, timeout(health, timeout), DEFAULT_USER_AGENT, null, cookie, customHeaders);
+            return s;
+        } finally {
+            onResponse(health, start, s != null);
+        }
     }
 
     public String post(String url, Map<String, String> formData) {
-        return client.post(url, timeout, DEFAULT_USER_AGENT, formData);
+        DomainHealth health = DomainHealth.ofUrl(url);
+        if (health != null && !health.allowRequest()) {
+            return null;
+        }
+
+        long start = start();
+        String s = null;
+        try {
+            s = client.post(url, timeout(health, timeout), DEFAULT_USER_AGENT, formData);
+            return s;
+        } finally {
+            onResponse(health, start, s != null);
+        }
     }
 
     /**
@@ -107,7 +146,19 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
 
     protected final byte[] fetchBytes(String url, String referrer, int timeout) {
         if (url.startsWith("htt")) { // http(s)
-            return client.getBytes(url, timeout, DEFAULT_USER_AGENT, referrer);
+            DomainHealth health = DomainHealth.ofUrl(url);
+            if (health != null && !health.allowRequest()) {
+                return null;
+            }
+
+            long start = start();
+            byte[] data = null;
+            try {
+                data = client.getBytes(url, timeout(health, timeout), DEFAULT_USER_AGENT, referrer);
+                return data;
+            } finally {
+                onResponse(health, start, data != null);
+            }
         } else {
             return null;
         }
@@ -136,6 +187,26 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         return domainAliasManager;
     }
 
+    /**
+     * The scheduler of the stages of this search, null if the search manager runs all the
+     * tasks on a single pool.
+     */
+    SearchScheduler getScheduler() {
+        return scheduler;
+    }
+
+    void setScheduler(SearchScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns false if the circuit breaker of the domain in use is open, in that case there is
+     * no point in performing the search until the cool down expires.
+     */
+    public boolean isAvailable() {
+        return domainAliasManager.getHealth().isAvailable();
+    }
+
     /**
      * The current domain has failed, mark it offline and let's try check if other mirrors are alive.
      */
@@ -145,4 +216,29 @@ public abstract class WebSearchPerformer extends AbstractSearchPerformer {
         domainAliasManager.markDomainOffline(getDomainNameToUse());
         domainAliasManager.checkStatuses(this);
     }
+
+    private static int timeout(DomainHealth health, int timeout) {
+        return health != null ? health.getTimeout(timeout) : timeout;
+    }
+
+    private static long start() {
+        headersReceived.remove();
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * The latency is the time to the response headers, the connect and the first read the
+     * timeout applies to, so a slow transfer of a large page doesn't count against the
+     * domain. Without headers (a post) it's the whole request time.
+     */
+    private static void onResponse(DomainHealth health, long start, boolean success) {
+        if (health != null) {
+            if (success) {
+                Long end = headersReceived.get();
+                health.onSuccess((end != null ? end : System.currentTimeMillis()) - start);
+            } else {
+                health.onFailure();
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -119,6 +119,13 @@ public final class DomainAliasManager {
         }
     }
 
+    /**
+     * Health of the domain currently in use, the default domain or the current alias.
+     */
+    public DomainHealth getHealth() {
+        return DomainHealth.of(getDomainNameToUse());
+    }
+
     public DomainAlias getCurrentDomainAlias() {
         return currentDomainAlias;
     }
@@ -130,7 +137,7 @@ public final class DomainAliasManager {
      */
     public String getDomainNameToUse() {
         String result = defaultDomain;
-        if (!defaultDomainOnline) {
+        if (!defaultDomainOnline || !DomainHealth.of(defaultDomain).isAvailable()) {
             if (getCurrentDomainAlias() == null) {
                 getNextOnlineDomainAlias();
                 if (getCurrentDomainAlias() != null) {
@@ -0,0 +1,278 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.search.domainalias;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.frostwire.logging.Logger;
+
+/**
+ * Latency and error history of a single domain (or domain alias), shared by all the
+ * searches of the process.
+ * <p>
+ * The latency is the time to the response headers, the same connect and read the
+ * timeout applies to, not the time to transfer the whole response.
+ * <p>
+ * The history is used to derive an adaptive timeout for the next requests and to
+ * trip a circuit breaker when the domain keeps failing. While the breaker is open no
+ * request is allowed until the cool down expires, then a single trial request is let
+ * through (half open) and its outcome closes or opens the breaker again, with a longer
+ * cool down each consecutive time.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class DomainHealth {
+
+    private static final Logger LOG = Logger.getLogger(DomainHealth.class);
+
+    private static final int WINDOW_SIZE = 32;
+    private static final int MIN_SAMPLES = 5;
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    private static final float MAX_ERROR_RATE = 0.5f;
+
+    private static final int MIN_TIMEOUT = 2000;
+    private static final long MIN_COOL_DOWN = 30000; // 30 seconds
+    private static final long MAX_COOL_DOWN = 10 * 60000; // 10 minutes
+
+    private static final ConcurrentMap<String, DomainHealth> domains = new ConcurrentHashMap<String, DomainHealth>();
+
+    private final String domain;
+
+    // circular window of the last requests, latency of -1 for the failures
+    private final long[] window;
+    private int next;
+    private int count;
+
+    private int consecutiveFailures;
+    private BreakerState state;
+    private long openedAt;
+    private long coolDown;
+    private boolean trialInProgress;
+
+    private DomainHealth(String domain) {
+        this.domain = domain;
+        this.window = new long[WINDOW_SIZE];
+        this.state = BreakerState.CLOSED;
+        this.coolDown = MIN_COOL_DOWN;
+    }
+
+    public static DomainHealth of(String domain) {
+        String key = domain.toLowerCase(Locale.US);
+        DomainHealth h = domains.get(key);
+        if (h == null) {
+            h = new DomainHealth(key);
+            DomainHealth old = domains.putIfAbsent(key, h);
+            if (old != null) {
+                h = old;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Health of the host of the url, null if the url has no host.
+     */
+    public static DomainHealth ofUrl(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? of(host) : null;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    /**
+     * All the domains with some history, in no particular order.
+     */
+    public static List<DomainHealth> getAll() {
+        return new ArrayList<DomainHealth>(domains.values());
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public synchronized BreakerState getState() {
+        updateState();
+        return state;
+    }
+
+    /**
+     * Returns true if a request to the domain should be made now. In the half open
+     * state only the first caller gets permission, as the trial request.
+     */
+    public synchronized boolean allowRequest() {
+        updateState();
+        switch (state) {
+        case CLOSED:
+            return true;
+        case HALF_OPEN:
+            if (!trialInProgress) {
+                trialInProgress = true;
+                return true;
+            }
+            return false;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Same as {@link #allowRequest()} but without taking the trial request.
+     */
+    public synchronized boolean isAvailable() {
+        updateState();
+        return state == BreakerState.CLOSED || (state == BreakerState.HALF_OPEN && !trialInProgress);
+    }
+
+    public synchronized void onSuccess(long latency) {
+        add(Math.max(0, latency));
+        consecutiveFailures = 0;
+        trialInProgress = false;
+
+        if (state != BreakerState.CLOSED) {
+            LOG.info("Circuit breaker closed for " + domain);
+            state = BreakerState.CLOSED;
+            coolDown = MIN_COOL_DOWN;
+        }
+    }
+
+    public synchronized void onFailure() {
+        add(-1);
+        consecutiveFailures++;
+
+        if (state == BreakerState.HALF_OPEN) {
+            trialInProgress = false;
+            open(Math.min(coolDown * 2, MAX_COOL_DOWN));
+        } else if (state == BreakerState.CLOSED && (consecutiveFailures >= MAX_CONSECUTIVE_FAILURES || (count >= MIN_SAMPLES && errorRate() > MAX_ERROR_RATE))) {
+            open(MIN_COOL_DOWN);
+        }
+    }
+
+    /**
+     * The connect and read timeout to use for the next request, each operation on its own,
+     * the configured one until there are enough successful samples, then a few times the 90th percentile of the latency, never less
+     * than a minimum and never more than the configured timeout.
+     */
+    public synchronized int getTimeout(int timeout) {
+        long p90 = percentile(0.9f);
+        if (p90 < 0) {
+            return timeout;
+        }
+        long t = p90 * 3 + 1000;
+        return (int) Math.max(Math.min(MIN_TIMEOUT, timeout), Math.min(t, timeout));
+    }
+
+    /**
+     * Latency in milliseconds of the given percentile (from 0 to 1) of the recent
+     * successful requests, -1 if there are not enough samples.
+     */
+    public synchronized long getLatencyPercentile(float p) {
+        return percentile(p);
+    }
+
+    public synchronized float getErrorRate() {
+        return errorRate();
+    }
+
+    /**
+     * Milliseconds until the open breaker allows a trial request, 0 if it's not open.
+     */
+    public synchronized long getRemainingCoolDown() {
+        updateState();
+        return state == BreakerState.OPEN ? Math.max(0, openedAt + coolDown - System.currentTimeMillis()) : 0;
+    }
+
+    public synchronized void reset() {
+        next = 0;
+        count = 0;
+        consecutiveFailures = 0;
+        state = BreakerState.CLOSED;
+        coolDown = MIN_COOL_DOWN;
+        trialInProgress = false;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DomainHealth(" + domain + ", state: " + state + ", p50: " + percentile(0.5f) + ", p90: " + percentile(0.9f) + ", errorRate: " + errorRate() + ")";
+    }
+
+    private void open(long coolDown) {
+        LOG.info("Circuit breaker open for " + domain + " during " + coolDown + "ms");
+        this.state = BreakerState.OPEN;
+        this.openedAt = System.currentTimeMillis();
+        this.coolDown = coolDown;
+    }
+
+    private void updateState() {
+        if (state == BreakerState.OPEN && System.currentTimeMillis() - openedAt >= coolDown) {
+            state = BreakerState.HALF_OPEN;
+            trialInProgress = false;
+        }
+    }
+
+    private void add(long latency) {
+        window[next] = latency;
+        next = (next + 1) % WINDOW_SIZE;
+        if (count < WINDOW_SIZE) {
+            count++;
+        }
+    }
+
+    private float errorRate() {
+        if (count == 0) {
+            return 0;
+        }
+        int failures = 0;
+        for (int i = 0; i < count; i++) {
+            if (window[i] < 0) {
+                failures++;
+            }
+        }
+        return ((float) failures) / count;
+    }
+
+    private long percentile(float p) {
+        long[] samples = new long[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (window[i] >= 0) {
+                samples[n++] = window[i];
+            }
+        }
+        if (n < MIN_SAMPLES) {
+            return -1;
+        }
+        Arrays.sort(samples, 0, n);
+        int index = Math.min(n - 1, (int) Math.ceil(p * n) - 1);
+        return samples[Math.max(0, index)];
+    }
+
+    public enum BreakerState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+}
@@ -53,22 +53,12 @@ public class FrostClickSearchPerformer extends PagedWebSearchPerformer {
     }
 
     @Override
-    protected List<? extends SearchResult> searchPage(int page) {
-        String url = getUrl(page, getEncodedKeywords());
-        String text = null;
-        try {
-            text = fetch(url, null, customHeaders);
-        } catch (IOException e) {
-            checkAccesibleDomains();
-            return Collections.emptyList();
-        }
-        
-        if (text != null) {
-            return searchPage(text);
-        } else {
+    protected String fetchSearchPage(String url) throws IOException {
+        String text = fetch(url, null, customHeaders);
+        if (text == null) {
             LOG.warn("Page content empty for url: " + url);
-            return Collections.emptyList();
         }
+        return text;
     }
 
     @Override
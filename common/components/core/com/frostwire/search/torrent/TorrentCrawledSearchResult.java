@@ -22,6 +22,7 @@ import org.apache.commons.io.FilenameUtils;
 
 import com.frostwire.search.AbstractCrawledSearchResult;
 import com.frostwire.torrent.TOTorrentFile;
+import com.frostwire.torrent.TorrentFileList;
 
 /**
  * @author gubatron
@@ -37,11 +38,19 @@ public class TorrentCrawledSearchResult extends AbstractCrawledSearchResult impl
     private final long size;
 
     public TorrentCrawledSearchResult(TorrentCrawlableSearchResult sr, TOTorrentFile file) {
+        this(sr, file.getRelativePath(), file.getLength());
+    }
+
+    public TorrentCrawledSearchResult(TorrentCrawlableSearchResult sr, TorrentFileList.Entry file) {
+        this(sr, file.getRelativePath(), file.getLength());
+    }
+
+    private TorrentCrawledSearchResult(TorrentCrawlableSearchResult sr, String relativePath, long size) {
         super(sr);
         this.sr = sr;
-        this.relativePath = file.getRelativePath();
+        this.relativePath = relativePath;
         this.filename = FilenameUtils.getName(this.relativePath);
-        this.size = file.getLength();
+        this.size = size;
         this.displayName = FilenameUtils.getBaseName(this.filename);
     }
 
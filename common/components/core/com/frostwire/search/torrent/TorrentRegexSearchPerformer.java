@@ -23,12 +23,11 @@ import java.util.List;
 import com.frostwire.logging.Logger;
 import com.frostwire.search.CrawlRegexSearchPerformer;
 import com.frostwire.search.CrawlableSearchResult;
-import com.frostwire.search.MaxIterCharSequence;
 import com.frostwire.search.PerformersHelper;
 import com.frostwire.search.SearchMatcher;
+import com.frostwire.search.SearchPattern;
 import com.frostwire.search.SearchResult;
 import com.frostwire.search.domainalias.DomainAliasManager;
-import com.google.code.regexp.Matcher;
 import com.google.code.regexp.Pattern;
 
 /**
@@ -40,13 +39,13 @@ import com.google.code.regexp.Pattern;
 public abstract class TorrentRegexSearchPerformer<T extends CrawlableSearchResult> extends CrawlRegexSearchPerformer<CrawlableSearchResult> {
 
     private final Pattern preliminarSearchResultspattern;
-    private final Pattern htmlDetailPagePattern;
+    private final SearchPattern htmlDetailPagePattern;
     private final static Logger LOG = Logger.getLogger(TorrentRegexSearchPerformer.class);
 
     public TorrentRegexSearchPerformer(DomainAliasManager domainAliasManager, long token, String keywords, int timeout, int pages, int numCrawls, int regexMaxResults, String preliminarSearchResultsRegex, String htmlDetailPagePatternRegex) {
         super(domainAliasManager, token, keywords, timeout, pages, numCrawls, regexMaxResults);
-        this.preliminarSearchResultspattern = Pattern.compile(preliminarSearchResultsRegex);
-        this.htmlDetailPagePattern = Pattern.compile(htmlDetailPagePatternRegex);
+        this.preliminarSearchResultspattern = SearchPattern.compile(preliminarSearchResultsRegex).getPattern();
+        this.htmlDetailPagePattern = SearchPattern.compile(htmlDetailPagePatternRegex);
     }
 
     @Override
@@ -80,14 +79,16 @@ public abstract class TorrentRegexSearchPerformer<T extends CrawlableSearchResul
             String html = reduceHtml(new String(data, "UTF-8"));
 
             if (html != null) {
-                Matcher matcher = htmlDetailPagePattern.matcher(new MaxIterCharSequence(html, 2 * html.length()));
+                SearchMatcher matcher = htmlDetailPagePattern.matcher(html);
     
                 try {
                     if (matcher.find()) {
-                        T searchResult = fromHtmlMatcher(sr, SearchMatcher.from(matcher));
+                        T searchResult = fromHtmlMatcher(sr, matcher);
                         if (searchResult != null) {
                             list.add(searchResult);
                         }
+                    } else if (matcher.isExhausted()) {
+                        throw new Exception("Iteration over the details page exhausted");
                     } else {
                         LOG.error("Update Necessary:  Search broken for " + sr.getClass().getPackage().getName() + " (please notify dev-team on twitter @frostwire or write to contact@frostwire.com if you keep seeing this message.)");
                     }
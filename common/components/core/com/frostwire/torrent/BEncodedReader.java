@@ -0,0 +1,238 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.torrent;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * A pull reader of bencoded data over a byte array. Unlike {@link BDecoder} it doesn't
+ * build maps and lists, the caller walks the structure and the values it doesn't need
+ * are skipped. Strings are not copied, after {@link #readString()} the last string read
+ * is available as a range of the array.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class BEncodedReader {
+
+    private final byte[] data;
+    private final int end;
+    private int pos;
+
+    // the last string read
+    private int stringStart;
+    private int stringLength;
+
+    public BEncodedReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public BEncodedReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    /**
+     * The buffer must be backed by an array, its position is not changed.
+     */
+    public BEncodedReader(ByteBuffer buffer) {
+        this(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * The type of the next value, 'd', 'l', 'i' or a digit for a string, or 'e' at the
+     * end of a dictionary or a list.
+     */
+    public int peek() throws BEncodingException {
+        if (pos >= end) {
+            throw new BEncodingException("BEncodedReader: truncated at " + pos);
+        }
+        return data[pos];
+    }
+
+    public boolean isString() throws BEncodingException {
+        int c = peek();
+        return c >= '0' && c <= '9';
+    }
+
+    public void beginDict() throws BEncodingException {
+        expect('d');
+    }
+
+    public void beginList() throws BEncodingException {
+        expect('l');
+    }
+
+    /**
+     * Returns true if the current dictionary or list has more values.
+     */
+    public boolean hasNext() throws BEncodingException {
+        return peek() != 'e';
+    }
+
+    /**
+     * Consumes the end of the current dictionary or list.
+     */
+    public void end() throws BEncodingException {
+        expect('e');
+    }
+
+    public long readLong() throws BEncodingException {
+        expect('i');
+
+        boolean negative = false;
+        if (pos < end && data[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+
+        long value = 0;
+        int digits = 0;
+
+        while (true) {
+            int c = peek();
+            pos++;
+            if (c == 'e') {
+                break;
+            }
+            if (c < '0' || c > '9' || digits == 18) {
+                throw new BEncodingException("BEncodedReader: invalid number at " + (pos - 1));
+            }
+            value = value * 10 + (c - '0');
+            digits++;
+        }
+
+        if (digits == 0) {
+            throw new BEncodingException("BEncodedReader: empty number at " + pos);
+        }
+
+        return negative ? -value : value;
+    }
+
+    /**
+     * Reads a string, available with {@link #getStringStart()} and {@link #getStringLength()}.
+     */
+    public void readString() throws BEncodingException {
+        int length = 0;
+
+        while (true) {
+            int c = peek();
+            pos++;
+            if (c == ':') {
+                break;
+            }
+            if (c < '0' || c > '9' || length > (Integer.MAX_VALUE - 9) / 10) {
+                throw new BEncodingException("BEncodedReader: invalid string length at " + (pos - 1));
+            }
+            length = length * 10 + (c - '0');
+        }
+
+        if (length > end - pos) {
+            throw new BEncodingException("BEncodedReader: string of length " + length + " truncated at " + pos);
+        }
+
+        stringStart = pos;
+        stringLength = length;
+        pos += length;
+    }
+
+    public int getStringStart() {
+        return stringStart;
+    }
+
+    public int getStringLength() {
+        return stringLength;
+    }
+
+    /**
+     * Returns true if the last string read has the same bytes as the given ascii key.
+     */
+    public boolean stringEquals(String key) {
+        if (stringLength != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < stringLength; i++) {
+            if (data[stringStart + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A copy of the last string read.
+     */
+    public byte[] getBytes() {
+        byte[] b = new byte[stringLength];
+        System.arraycopy(data, stringStart, b, 0, stringLength);
+        return b;
+    }
+
+    public String getString(String charset) throws UnsupportedEncodingException {
+        return new String(data, stringStart, stringLength, charset);
+    }
+
+    /**
+     * A view of the data between the given positions, without copying.
+     */
+    public ByteBuffer slice(int from, int to) {
+        return ByteBuffer.wrap(data, from, to - from).slice();
+    }
+
+    /**
+     * Skips the next value, without recursion so any nesting is fine.
+     */
+    public void skip() throws BEncodingException {
+        int depth = 0;
+
+        do {
+            int c = peek();
+
+            if (c == 'd' || c == 'l') {
+                pos++;
+                depth++;
+            } else if (c == 'e') {
+                if (depth == 0) {
+                    throw new BEncodingException("BEncodedReader: unexpected end at " + pos);
+                }
+                pos++;
+                depth--;
+            } else if (c == 'i') {
+                readLong();
+            } else if (c >= '0' && c <= '9') {
+                readString();
+            } else {
+                throw new BEncodingException("BEncodedReader: unknown type '" + (char) c + "' at " + pos);
+            }
+        } while (depth > 0);
+    }
+
+    private void expect(char c) throws BEncodingException {
+        if (peek() != c) {
+            throw new BEncodingException("BEncodedReader: expected '" + c + "' at " + pos + ", found '" + (char) data[pos] + "'");
+        }
+        pos++;
+    }
+}
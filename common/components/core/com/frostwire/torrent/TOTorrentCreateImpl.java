@@ -46,6 +46,7 @@ final class TOTorrentCreateImpl extends TOTorrentImpl implements TOTorrentFileHa
 
     private long piece_count;
     private boolean add_other_hashes;
+    private int hashing_threads = 1;
 
     private List<TOTorrentProgressListener> progress_listeners = new ArrayList<TOTorrentProgressListener>();
 
@@ -150,7 +151,7 @@ final class TOTorrentCreateImpl extends TOTorrentImpl implements TOTorrentFileHa
 
         boolean add_other_per_file_hashes = add_other_hashes && !getSimpleTorrent();
 
-        file_hasher = new TOTorrentFileHasher(add_other_hashes, add_other_per_file_hashes, (int) _piece_length, progress_listeners.size() == 0 ? null : this);
+        file_hasher = new TOTorrentFileHasher(add_other_hashes, add_other_per_file_hashes, (int) _piece_length, hashing_threads, progress_listeners.size() == 0 ? null : this);
 
         try {
             if (cancelled) {
@@ -480,6 +481,10 @@ final class TOTorrentCreateImpl extends TOTorrentImpl implements TOTorrentFileHa
         }
     }
 
+    protected void setHashingThreads(int threads) {
+        hashing_threads = threads;
+    }
+
     protected void addListener(TOTorrentProgressListener listener) {
         progress_listeners.add(listener);
     }
@@ -31,5 +31,11 @@ public interface TOTorrentCreator {
 
     public TOTorrent create() throws TOTorrentException;
 
+    /**
+     * The number of threads hashing the pieces, one per processor by default. The pieces
+     * are hashed by a single thread anyway when the other hashes are added.
+     */
+    public void setHashingThreads(int threads);
+
     public long getTorrentDataSizeFromFileOrDir();
 }
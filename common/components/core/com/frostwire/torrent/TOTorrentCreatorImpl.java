@@ -44,6 +44,8 @@ final class TOTorrentCreatorImpl implements TOTorrentCreator {
     private final long piece_num_upper;
     private final TOTorrentProgressListener listener;
 
+    private int hashing_threads;
+
     public TOTorrentCreatorImpl(File _torrent_base) {
         this(_torrent_base, null, false, 0);
     }
@@ -62,6 +64,12 @@ final class TOTorrentCreatorImpl implements TOTorrentCreator {
         piece_num_lower = _piece_num_lower;
         piece_num_upper = _piece_num_upper;
         this.listener = listener;
+
+        hashing_threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    public void setHashingThreads(int threads) {
+        hashing_threads = Math.max(1, threads);
     }
 
     public TOTorrent create() throws TOTorrentException {
@@ -80,7 +88,11 @@ final class TOTorrentCreatorImpl implements TOTorrentCreator {
             torrent = new TOTorrentCreateImpl(linkage_map, base_to_use, announce_url, add_other_hashes, piece_min_size, piece_max_size, piece_num_lower, piece_num_upper);
         }
 
-        torrent.addListener(listener);
+        if (listener != null) {
+            torrent.addListener(listener);
+        }
+
+        torrent.setHashingThreads(hashing_threads);
 
         torrent.create();
 
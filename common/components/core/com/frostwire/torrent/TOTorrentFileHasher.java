@@ -24,13 +24,43 @@
 package com.frostwire.torrent;
 
 import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
 
 public class TOTorrentFileHasher {
+
+    // pieces submitted ahead of the reader, per hashing thread
+    private static final int PIECES_IN_FLIGHT_PER_THREAD = 2;
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // each hashing thread reads into its own direct buffer
+    private static final ThreadLocal<ByteBuffer> read_buffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        }
+    };
+
     protected boolean do_other_per_file_hash;
     protected int piece_length;
 
@@ -50,9 +80,26 @@ public class TOTorrentFileHasher {
 
     protected TOTorrentFileHasherListener listener;
 
-    protected boolean cancelled;
+    protected volatile boolean cancelled;
+
+    // parallel mode
+    protected int threads;
+    private ThreadPoolExecutor executor;
+    private LinkedList<Future<byte[]>> hashing;
+    private List<Region> piece_regions;
+    private long piece_regions_length;
+    private volatile boolean failed;
 
     protected TOTorrentFileHasher(boolean _do_other_overall_hashes, boolean _do_other_per_file_hash, int _piece_length, TOTorrentFileHasherListener _listener) {
+        this(_do_other_overall_hashes, _do_other_per_file_hash, _piece_length, 1, _listener);
+    }
+
+    /**
+     * With more than one thread, and no other hashes, the pieces are hashed in parallel. The
+     * calling thread only splits the files in pieces, the hashing threads read them with positional
+     * reads, so a piece can span any number of files. The hashes are collected in piece order.
+     */
+    protected TOTorrentFileHasher(boolean _do_other_overall_hashes, boolean _do_other_per_file_hash, int _piece_length, int _threads, TOTorrentFileHasherListener _listener) {
         if (_do_other_overall_hashes) {
             overall_sha1_hash = new SHA1Hasher();
 
@@ -63,12 +110,30 @@ public class TOTorrentFileHasher {
         piece_length = _piece_length;
         listener = _listener;
 
-        buffer = new byte[piece_length];
+        if (_threads > 1 && !_do_other_overall_hashes && !_do_other_per_file_hash) {
+
+            threads = _threads;
+
+            hashing = new LinkedList<Future<byte[]>>();
+
+            piece_regions = new ArrayList<Region>();
+
+        } else {
+
+            threads = 1;
+
+            buffer = new byte[piece_length];
+        }
     }
 
     long add(File _file)
 
     throws TOTorrentException {
+        if (threads > 1) {
+
+            return addParallel(_file);
+        }
+
         long file_length = 0;
 
         InputStream is = null;
@@ -175,6 +240,11 @@ public class TOTorrentFileHasher {
     protected byte[][] getPieces()
 
     throws TOTorrentException {
+        if (threads > 1) {
+
+            return getPiecesParallel();
+        }
+
         try {
             if (buffer_pos > 0) {
 
@@ -243,4 +313,314 @@ public class TOTorrentFileHasher {
     protected void cancel() {
         cancelled = true;
     }
+
+    private long addParallel(File file) throws TOTorrentException {
+        Source source = null;
+
+        try {
+            source = new Source(file);
+
+            long file_length = source.length;
+            long offset = 0;
+
+            while (offset < file_length) {
+
+                checkCancelled();
+
+                long len = Math.min(piece_length - piece_regions_length, file_length - offset);
+
+                piece_regions.add(source.region(offset, len, piece_length));
+
+                piece_regions_length += len;
+
+                offset += len;
+
+                if (piece_regions_length == piece_length) {
+
+                    submitPiece();
+                }
+            }
+
+            return (file_length);
+
+        } catch (TOTorrentException e) {
+
+            abort();
+
+            throw (e);
+
+        } catch (Throwable e) {
+
+            abort();
+
+            throw (new TOTorrentException("TOTorrentFileHasher: file read fails '" + e.toString() + "'", TOTorrentException.RT_READ_FAILS));
+
+        } finally {
+            if (source != null) {
+                source.release();
+            }
+        }
+    }
+
+    private byte[][] getPiecesParallel() throws TOTorrentException {
+        try {
+            if (piece_regions_length > 0) {
+
+                submitPiece();
+            }
+
+            collectPieces(true);
+
+        } catch (TOTorrentException e) {
+
+            abort();
+
+            throw (e);
+        }
+
+        if (executor != null) {
+
+            executor.shutdown();
+
+            executor = null;
+        }
+
+        byte[][] res = new byte[pieces.size()][];
+
+        pieces.copyInto(res);
+
+        return (res);
+    }
+
+    private void submitPiece() throws TOTorrentException {
+        final Region[] regions = piece_regions.toArray(new Region[piece_regions.size()]);
+
+        piece_regions.clear();
+        piece_regions_length = 0;
+
+        if (executor == null) {
+
+            executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("TOTorrentFileHasher", true));
+
+            // no threads left behind if the creation is abandoned
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        hashing.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return hashPiece(regions);
+            }
+        }));
+
+        collectPieces(false);
+    }
+
+    /**
+     * Adds the hashes of the pieces done, in order, and waits for the oldest one if there
+     * are too many pieces in flight, or for all of them.
+     */
+    private void collectPieces(boolean all) throws TOTorrentException {
+        while (!hashing.isEmpty()) {
+
+            Future<byte[]> f = hashing.getFirst();
+
+            if (!all && !f.isDone() && hashing.size() < threads * PIECES_IN_FLIGHT_PER_THREAD) {
+
+                break;
+            }
+
+            byte[] hash;
+
+            try {
+                hash = f.get();
+
+            } catch (InterruptedException e) {
+
+                throw (new TOTorrentException("TOTorrentCreate: operation cancelled", TOTorrentException.RT_CANCELLED));
+
+            } catch (ExecutionException e) {
+
+                if (e.getCause() instanceof TOTorrentException) {
+
+                    throw ((TOTorrentException) e.getCause());
+                }
+
+                throw (new TOTorrentException("TOTorrentFileHasher: file read fails '" + e.getCause() + "'", TOTorrentException.RT_READ_FAILS));
+            }
+
+            hashing.removeFirst();
+
+            pieces.add(hash);
+
+            if (listener != null) {
+
+                listener.pieceHashed(pieces.size());
+            }
+        }
+    }
+
+    private byte[] hashPiece(Region[] regions) throws TOTorrentException, IOException {
+        try {
+            SHA1Hasher hasher = new SHA1Hasher();
+
+            ByteBuffer buffer = read_buffer.get();
+
+            for (Region region : regions) {
+
+                if (region.data != null) {
+
+                    hasher.update(region.data);
+
+                    continue;
+                }
+
+                long position = region.offset;
+                long end = region.offset + region.length;
+
+                while (position < end) {
+
+                    checkCancelled();
+
+                    buffer.clear();
+
+                    if (end - position < buffer.capacity()) {
+
+                        buffer.limit((int) (end - position));
+                    }
+
+                    int n = region.source.channel.read(buffer, position);
+
+                    if (n == -1) {
+
+                        throw new EOFException("File truncated at " + position);
+                    }
+
+                    buffer.flip();
+
+                    hasher.update(buffer);
+
+                    position += n;
+                }
+            }
+
+            return hasher.getDigest();
+
+        } finally {
+            for (Region region : regions) {
+                region.release();
+            }
+        }
+    }
+
+    private void checkCancelled() throws TOTorrentException {
+        if (cancelled || failed) {
+
+            throw (new TOTorrentException("TOTorrentCreate: operation cancelled", TOTorrentException.RT_CANCELLED));
+        }
+    }
+
+    /**
+     * Makes the pieces queued fail fast, they still release their files.
+     */
+    private void abort() {
+        failed = true;
+
+        for (Region region : piece_regions) {
+            region.release();
+        }
+
+        piece_regions.clear();
+        piece_regions_length = 0;
+
+        hashing.clear();
+
+        if (executor != null) {
+
+            executor.shutdown();
+
+            executor = null;
+        }
+    }
+
+    /**
+     * A file open for reading, closed when the last region of it is hashed.
+     */
+    private static final class Source {
+
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final long length;
+        private final AtomicInteger refs;
+
+        public Source(File f) throws IOException {
+            file = new RandomAccessFile(f, "r");
+            channel = file.getChannel();
+            length = channel.size();
+            refs = new AtomicInteger(1);
+        }
+
+        /**
+         * Regions much smaller than a piece are read right away, so a piece made of many
+         * small files doesn't keep all of them open.
+         */
+        public Region region(long offset, long len, int piece_length) throws IOException {
+            if (len < piece_length / 16) {
+
+                ByteBuffer data = ByteBuffer.allocate((int) len);
+
+                while (data.hasRemaining()) {
+
+                    if (channel.read(data, offset + data.position()) == -1) {
+
+                        throw new EOFException("File truncated at " + (offset + data.position()));
+                    }
+                }
+
+                return new Region(data.array());
+            }
+
+            refs.incrementAndGet();
+
+            return new Region(this, offset, len);
+        }
+
+        public void release() {
+            if (refs.decrementAndGet() == 0) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static final class Region {
+
+        private final Source source;
+        private final long offset;
+        private final long length;
+        private final byte[] data;
+
+        public Region(Source source, long offset, long length) {
+            this.source = source;
+            this.offset = offset;
+            this.length = length;
+            this.data = null;
+        }
+
+        public Region(byte[] data) {
+            this.source = null;
+            this.offset = 0;
+            this.length = data.length;
+            this.data = data;
+        }
+
+        public void release() {
+            if (source != null) {
+                source.release();
+            }
+        }
+    }
 }
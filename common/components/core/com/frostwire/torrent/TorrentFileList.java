@@ -0,0 +1,290 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.torrent;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The name, info hash and files of a torrent, read without building a {@link TOTorrent}.
+ * The pieces and any other value not needed are skipped, not decoded, which makes this
+ * the cheap option when only the list of files is needed, as in the search crawls.
+ * <p>
+ * The relative paths are decoded with the same rules as {@link TOTorrentFile#getRelativePath()},
+ * the first time they are asked for.
+ * The info hash is the SHA1 of the info dictionary as found in the data.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class TorrentFileList {
+
+    private final byte[] infoHash;
+    private final String name;
+    private final List<Entry> files;
+
+    private TorrentFileList(byte[] infoHash, String name, List<Entry> files) {
+        this.infoHash = infoHash;
+        this.name = name;
+        this.files = files;
+    }
+
+    public byte[] getInfoHash() {
+        return infoHash;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Entry> getFiles() {
+        return files;
+    }
+
+    public static TorrentFileList parse(byte[] data) throws TOTorrentException {
+        try {
+            return parse(new BEncodedReader(data));
+        } catch (BEncodingException e) {
+            throw new TOTorrentException("Torrent decode fails: " + e.getMessage(), TOTorrentException.RT_DECODE_FAILS);
+        }
+    }
+
+    private static TorrentFileList parse(BEncodedReader r) throws BEncodingException, TOTorrentException {
+        Info info = null;
+        byte[] infoHash = null;
+        String encoding = null;
+
+        r.beginDict();
+        while (r.hasNext()) {
+            r.readString();
+            if (r.stringEquals(TOTorrentImpl.TK_INFO)) {
+                int start = r.position();
+                info = readInfo(r);
+                infoHash = new SHA1Hasher().calculateHash(r.slice(start, r.position()));
+            } else if (r.stringEquals("encoding") && r.isString()) {
+                r.readString();
+                encoding = new String(r.getBytes());
+            } else {
+                r.skip();
+            }
+        }
+
+        if (info == null) {
+            throw new TOTorrentException("Decode fails, 'info' element not found'", TOTorrentException.RT_DECODE_FAILS);
+        }
+        if (info.name == null) {
+            throw new TOTorrentException("Decode fails, 'name' element not found'", TOTorrentException.RT_DECODE_FAILS);
+        }
+
+        boolean utf8 = info.nameUTF8 != null && (encoding == null || encoding.equals(TOTorrent.ENCODING_ACTUALLY_UTF8_KEYS));
+
+        if (info.length == -1) {
+            for (FileInfo f : info.files) {
+                utf8 &= f.pathUTF8 != null;
+            }
+        }
+
+        String charset = utf8 ? "utf8" : encoding;
+        String name = utf8 ? decode(info.nameUTF8, charset) : decode(info.name, charset);
+
+        List<Entry> files;
+
+        if (info.length != -1) {
+            files = Collections.singletonList(new Entry(checkPath(new byte[][] { info.name }), info.length, charset, null));
+        } else {
+            files = new ArrayList<Entry>(info.files.size());
+            // the conversion of a component can hit the file system, folders repeat a lot
+            Map<String, String> folders = new HashMap<String, String>();
+            for (FileInfo f : info.files) {
+                byte[][] path = utf8 ? f.pathUTF8 : f.path;
+                if (path == null || f.length < 0) {
+                    throw new TOTorrentException("Decode fails, invalid file entry", TOTorrentException.RT_DECODE_FAILS);
+                }
+                files.add(new Entry(checkPath(path), f.length, charset, folders));
+            }
+        }
+
+        return new TorrentFileList(infoHash, name, Collections.unmodifiableList(files));
+    }
+
+    private static Info readInfo(BEncodedReader r) throws BEncodingException {
+        Info info = new Info();
+
+        r.beginDict();
+        while (r.hasNext()) {
+            r.readString();
+            if (r.stringEquals(TOTorrentImpl.TK_NAME) && r.isString()) {
+                r.readString();
+                info.name = r.getBytes();
+            } else if (r.stringEquals(TOTorrentImpl.TK_NAME_UTF8) && r.isString()) {
+                r.readString();
+                info.nameUTF8 = r.getBytes();
+            } else if (r.stringEquals(TOTorrentImpl.TK_LENGTH) && r.peek() == 'i') {
+                info.length = r.readLong();
+            } else if (r.stringEquals(TOTorrentImpl.TK_FILES) && r.peek() == 'l') {
+                r.beginList();
+                while (r.hasNext()) {
+                    info.files.add(readFile(r));
+                }
+                r.end();
+            } else {
+                r.skip();
+            }
+        }
+        r.end();
+
+        return info;
+    }
+
+    private static FileInfo readFile(BEncodedReader r) throws BEncodingException {
+        FileInfo f = new FileInfo();
+
+        r.beginDict();
+        while (r.hasNext()) {
+            r.readString();
+            if (r.stringEquals(TOTorrentImpl.TK_LENGTH) && r.peek() == 'i') {
+                f.length = r.readLong();
+            } else if (r.stringEquals(TOTorrentImpl.TK_PATH) && r.peek() == 'l') {
+                f.path = readPath(r);
+            } else if (r.stringEquals(TOTorrentImpl.TK_PATH_UTF8) && r.peek() == 'l') {
+                f.pathUTF8 = readPath(r);
+            } else {
+                r.skip();
+            }
+        }
+        r.end();
+
+        return f;
+    }
+
+    private static byte[][] readPath(BEncodedReader r) throws BEncodingException {
+        List<byte[]> components = new ArrayList<byte[]>(4);
+
+        r.beginList();
+        while (r.hasNext()) {
+            r.readString();
+            components.add(r.getBytes());
+        }
+        r.end();
+
+        return components.toArray(new byte[components.size()][]);
+    }
+
+    private static byte[][] checkPath(byte[][] components) throws TOTorrentException {
+        for (byte[] comp : components) {
+            if (comp.length == 2 && comp[0] == (byte) '.' && comp[1] == (byte) '.') {
+                throw new TOTorrentException("Torrent file contains illegal '..' component", TOTorrentException.RT_DECODE_FAILS);
+            }
+        }
+        return components;
+    }
+
+    private static String relativePath(byte[][] components, String charset, Map<String, String> folders) {
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < components.length; i++) {
+            byte[] comp = components[i];
+
+            if (i > 0) {
+                sb.append(File.separator);
+            }
+
+            String s = decode(comp, charset);
+            boolean folder = i != components.length - 1;
+
+            if (folder && folders != null) {
+                String converted;
+                synchronized (folders) {
+                    converted = folders.get(s);
+                    if (converted == null) {
+                        converted = TOTorrentFileImpl.convertOSSpecificChars(s, true);
+                        folders.put(s, converted);
+                    }
+                }
+                sb.append(converted);
+            } else {
+                sb.append(TOTorrentFileImpl.convertOSSpecificChars(s, folder));
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private static String decode(byte[] b, String charset) {
+        if (charset != null) {
+            try {
+                return new String(b, charset);
+            } catch (UnsupportedEncodingException e) {
+                // use the system decoder
+            }
+        }
+
+        try {
+            return LocaleUtil.getSingleton().getSystemDecoder().decodeString(b);
+        } catch (UnsupportedEncodingException e) {
+            return new String(b);
+        }
+    }
+
+    public static final class Entry {
+
+        private final byte[][] path;
+        private final long length;
+        private final String charset;
+        private final Map<String, String> folders;
+
+        private String relativePath;
+
+        private Entry(byte[][] path, long length, String charset, Map<String, String> folders) {
+            this.path = path;
+            this.length = length;
+            this.charset = charset;
+            this.folders = folders;
+        }
+
+        public String getRelativePath() {
+            if (relativePath == null) {
+                relativePath = TorrentFileList.relativePath(path, charset, folders);
+            }
+            return relativePath;
+        }
+
+        public long getLength() {
+            return length;
+        }
+    }
+
+    private static final class Info {
+        byte[] name;
+        byte[] nameUTF8;
+        long length = -1;
+        final List<FileInfo> files = new ArrayList<FileInfo>();
+    }
+
+    private static final class FileInfo {
+        long length = -1;
+        byte[][] path;
+        byte[][] pathUTF8;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A byte range of a file served over HTTP, inclusive at both ends.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class HttpRange {
+
+    /**
+     * More ranges than this in a single request are ignored and the whole content is sent.
+     */
+    private static final int MAX_RANGES = 16;
+
+    private final long start;
+    private final long end;
+
+    public HttpRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * The value of the Content-Range header for this range of content of the given length.
+     */
+    public String getContentRange(long length) {
+        return "bytes " + start + "-" + end + "/" + length;
+    }
+
+    /**
+     * The headers of this range as a part of a multipart/byteranges response.
+     */
+    public String getMultipartHeader(String boundary, String contentType, long length) {
+        return "\r\n--" + boundary + "\r\nContent-Type: " + contentType + "\r\nContent-Range: " + getContentRange(length) + "\r\n\r\n";
+    }
+
+    public static String getMultipartEnd(String boundary) {
+        return "\r\n--" + boundary + "--\r\n";
+    }
+
+    /**
+     * Writes the range of the file to the stream, reading with positional reads into the
+     * buffer, which must be backed by an array. The listener is notified after each write.
+     */
+    public void transfer(FileChannel in, OutputStream out, ByteBuffer buffer, Listener listener) throws IOException {
+        long position = start;
+        long remaining = getLength();
+
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+
+            int n = in.read(buffer, position);
+            if (n == -1) {
+                throw new EOFException("File truncated at " + position + ", expected end " + end);
+            }
+
+            out.write(buffer.array(), buffer.arrayOffset(), n);
+            position += n;
+            remaining -= n;
+
+            if (listener != null) {
+                listener.onTransfer(n);
+            }
+        }
+    }
+
+    /**
+     * Parses the value of a Range header for content of the given length.
+     * <p>
+     * Returns null if there is no header, or it is not valid, in that case the whole
+     * content should be sent. Returns an empty list if none of the ranges can be satisfied.
+     * Empty content has no ranges at all, it is always sent whole.
+     */
+    public static List<HttpRange> parse(String header, long length) {
+        if (header == null || length <= 0) {
+            return null;
+        }
+
+        header = header.trim();
+        if (!header.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] specs = header.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<HttpRange> ranges = new ArrayList<HttpRange>(specs.length);
+
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                int idx = spec.indexOf('-');
+                if (idx == -1) {
+                    return null;
+                }
+
+                String first = spec.substring(0, idx).trim();
+                String last = spec.substring(idx + 1).trim();
+
+                if (first.length() == 0) { // suffix, the last n bytes
+                    long n = Long.parseLong(last);
+                    if (n > 0 && length > 0) {
+                        ranges.add(new HttpRange(Math.max(0, length - n), length - 1));
+                    }
+                } else {
+                    long s = Long.parseLong(first);
+                    long e = last.length() > 0 ? Long.parseLong(last) : Long.MAX_VALUE;
+                    if (s < 0 || e < s) {
+                        return null;
+                    }
+                    if (s < length) {
+                        ranges.add(new HttpRange(s, Math.min(e, length - 1)));
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return ranges.isEmpty() ? Collections.<HttpRange> emptyList() : ranges;
+    }
+
+    /**
+     * Returns true if the ranges should be honored for a request with the given If-Range
+     * header, that is, there is no header or it has the current validator of the content.
+     * Weak entity tags never match.
+     */
+    public static boolean ifRangeMatches(String ifRange, String etag, String lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+
+        if (ifRange.startsWith("W/")) {
+            return false;
+        } else if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etag);
+        } else {
+            return ifRange.equals(lastModified);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return start + "-" + end;
+    }
+
+    public interface Listener {
+
+        /**
+         * Throwing stops the transfer.
+         */
+        public void onTransfer(int length) throws IOException;
+    }
+}
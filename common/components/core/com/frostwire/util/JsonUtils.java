@@ -20,6 +20,7 @@ package com.frostwire.util;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
 
 /**
  * Simple JSON utility class based on google-gson.
@@ -50,6 +51,18 @@ public final class JsonUtils {
         return gson.toJson(obj);
     }
 
+    /**
+     * This method serializes the specified object into the writer, the same as
+     * {@link #toJson(Object)} but without creating the String, useful to stream the
+     * elements of a big collection one by one.
+     * 
+     * @param obj the object for which Json representation is to be written
+     * @param writer the writer, positioned where a value is expected
+     */
+    public static void toJson(Object obj, JsonWriter writer) {
+        gson.toJson(obj, obj.getClass(), writer);
+    }
+
     /**
      * This method deserializes the specified Json into an object of the specified class.
      * 
@@ -18,17 +18,23 @@
 
 package com.frostwire.util;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.IOUtils;
 
-import com.coremedia.iso.BoxParser;
 import com.coremedia.iso.IsoFile;
 import com.coremedia.iso.PropertyBoxParserImpl;
 import com.coremedia.iso.boxes.Box;
@@ -37,12 +43,18 @@ import com.coremedia.iso.boxes.FileTypeBox;
 import com.coremedia.iso.boxes.HandlerBox;
 import com.coremedia.iso.boxes.MetaBox;
 import com.coremedia.iso.boxes.MovieBox;
+import com.coremedia.iso.boxes.MovieHeaderBox;
+import com.coremedia.iso.boxes.TrackHeaderBox;
 import com.coremedia.iso.boxes.TrackBox;
 import com.coremedia.iso.boxes.UserDataBox;
 import com.coremedia.iso.boxes.apple.AppleItemListBox;
+import com.coremedia.iso.boxes.fragment.MovieExtendsBox;
+import com.coremedia.iso.boxes.fragment.MovieExtendsHeaderBox;
+import com.coremedia.iso.boxes.fragment.TrackExtendsBox;
 import com.googlecode.mp4parser.AbstractBox;
 import com.googlecode.mp4parser.DataSource;
 import com.googlecode.mp4parser.FileDataSourceImpl;
+import com.googlecode.mp4parser.MemoryDataSourceImpl;
 import com.googlecode.mp4parser.authoring.Movie;
 import com.googlecode.mp4parser.authoring.Mp4TrackImpl;
 import com.googlecode.mp4parser.authoring.Track;
@@ -131,6 +143,135 @@ public final class MP4Muxer {
         }
     }
 
+    /**
+     * Same as {@link #mux(String, String, String, MP4Metadata)} for complete fragmented (DASH) legs.
+     *
+     * @see #muxFragmented(Input, Input, String, MP4Metadata)
+     */
+    public boolean muxFragmented(String video, String audio, String output, MP4Metadata mt) throws IOException {
+        return muxFragmented(new Input(new File(video), true), new Input(new File(audio), true), output, mt);
+    }
+
+    /**
+     * Muxes fragmented (DASH) legs while they are downloaded. The tracks of both legs go to
+     * a single movie header, then each fragment of the legs, its moof and mdat boxes, is
+     * copied to the output as soon as it's written to its leg, in the order of their decode
+     * times. Only the movie headers and a fragment header are held in memory, the media data
+     * goes from file to file.
+     * <p>
+     * Returns false, with nothing written, if a leg isn't fragmented, in which case the legs
+     * have to be muxed with {@link #mux(String, String, String, MP4Metadata)} once complete.
+     */
+    public boolean muxFragmented(Input video, Input audio, String output, MP4Metadata mt) throws IOException {
+        Leg[] legs = { new Leg(video), new Leg(audio) };
+
+        try {
+            for (Leg leg : legs) {
+                if (!leg.readMovie()) {
+                    return false;
+                }
+            }
+
+            FileOutputStream fos = new FileOutputStream(output);
+            try {
+                FileChannel out = fos.getChannel();
+
+                List<String> minorBrands = new LinkedList<String>();
+                minorBrands.add("iso6");
+                minorBrands.add("avc1");
+                minorBrands.add("mp41");
+                new FileTypeBox("iso6", 0, minorBrands).getBox(out);
+
+                createFragmentedMovieBox(legs, mt).getBox(out);
+
+                long sequenceNumber = 1;
+                Leg leg;
+                while ((leg = nextLeg(legs)) != null) {
+                    leg.copyFragment(out, sequenceNumber++);
+                }
+            } finally {
+                IOUtils.closeQuietly(fos);
+            }
+        } finally {
+            for (Leg leg : legs) {
+                leg.close();
+            }
+        }
+
+        return true;
+    }
+
+    private static MovieBox createFragmentedMovieBox(Leg[] legs, MP4Metadata mt) {
+        MovieBox moov = new MovieBox();
+
+        MovieHeaderBox mvhd = legs[0].moov.getMovieHeaderBox();
+        long timescale = mvhd.getTimescale();
+
+        long duration = 0;
+        for (Leg leg : legs) {
+            duration = Math.max(duration, leg.getDuration() * timescale / leg.timescale);
+        }
+
+        mvhd.setDuration(duration);
+        moov.addBox(mvhd);
+
+        MovieExtendsBox mvex = new MovieExtendsBox();
+        if (duration > 0) {
+            MovieExtendsHeaderBox mehd = new MovieExtendsHeaderBox();
+            mehd.setVersion(duration > 0xFFFFFFFFL ? 1 : 0);
+            mehd.setFragmentDuration(duration);
+            mvex.addBox(mehd);
+        }
+
+        long nextTrackId = 1;
+        for (Leg leg : legs) {
+            for (TrackBox trak : leg.moov.getBoxes(TrackBox.class)) {
+                TrackHeaderBox tkhd = trak.getTrackHeaderBox();
+                leg.trackIds.put(tkhd.getTrackId(), nextTrackId);
+                leg.timescales.put(nextTrackId, trak.getMediaBox().getMediaHeaderBox().getTimescale());
+
+                tkhd.setTrackId(nextTrackId);
+                tkhd.setDuration(tkhd.getDuration() * timescale / leg.timescale);
+                moov.addBox(trak);
+
+                nextTrackId++;
+            }
+            for (TrackExtendsBox trex : leg.moov.getBoxes(MovieExtendsBox.class).get(0).getBoxes(TrackExtendsBox.class)) {
+                Long trackId = leg.trackIds.get(trex.getTrackId());
+                if (trackId != null) {
+                    trex.setTrackId(trackId);
+                    mvex.addBox(trex);
+                }
+            }
+        }
+
+        mvhd.setNextTrackId(nextTrackId);
+        moov.addBox(mvex);
+
+        if (mt != null) {
+            moov.addBox(addUserDataBox(mt));
+        }
+
+        return moov;
+    }
+
+    /**
+     * The leg with the earliest next fragment, null once all the fragments are copied.
+     */
+    private static Leg nextLeg(Leg[] legs) throws IOException {
+        Leg next = null;
+
+        for (Leg leg : legs) {
+            if (leg.nextFragment()) {
+                if (next == null || leg.isBefore(next)) {
+                    next = leg;
+                }
+            }
+        }
+
+        return next;
+    }
+
     public void demuxAudio(String video, String output, final MP4Metadata mt) throws IOException {
 
         FileInputStream videoIn = new FileInputStream(video);
@@ -203,20 +344,8 @@ public final class MP4Muxer {
     }
 
     private static Movie buildMovie(FileChannel channel) throws IOException {
-        BoxParser parser = new PropertyBoxParserImpl() {
-            @Override
-            public Box parseBox(DataSource byteChannel, Container parent) throws IOException {
-                Box box = super.parseBox(byteChannel, parent);
-
-                if (box instanceof AbstractBox) {
-                    ((AbstractBox) box).parseDetails();
-                }
-
-                return box;
-            }
-        };
         @SuppressWarnings("resource")
-        IsoFile isoFile = new IsoFile(new FileDataSourceImpl(channel), parser);
+        IsoFile isoFile = new IsoFile(new FileDataSourceImpl(channel), new DetailsBoxParser());
         Movie m = new Movie();
         List<TrackBox> trackBoxes = isoFile.getMovieBox().getBoxes(TrackBox.class);
         for (TrackBox trackBox : trackBoxes) {
@@ -226,6 +355,26 @@ public final class MP4Muxer {
         return m;
     }
 
+    /**
+     * Parses the details of the boxes right away, so they don't need the data source later.
+     */
+    private static final class DetailsBoxParser extends PropertyBoxParserImpl {
+
+        @Override
+        public Box parseBox(DataSource byteChannel, Container parent) throws IOException {
+            Box box = super.parseBox(byteChannel, parent);
+
+            if (box instanceof AbstractBox) {
+                // mapping a memory data source moves its position
+                long position = byteChannel.position();
+                ((AbstractBox) box).parseDetails();
+                byteChannel.position(position);
+            }
+
+            return box;
+        }
+    }
+
     private static UserDataBox addUserDataBox(MP4Metadata mt) {
 
         //"/moov/udta/meta/ilst/covr/data"
@@ -276,6 +425,357 @@ public final class MP4Muxer {
         return udta;
     }
 
+    /**
+     * A leg being written to a file, by a download for instance. The reads of the data not
+     * there yet wait for it until the leg is complete or cancelled.
+     */
+    public static final class Input {
+
+        private static final long POLL_INTERVAL_MILLIS = 100;
+
+        private final File file;
+        private volatile boolean complete;
+        private volatile boolean cancelled;
+
+        public Input(File file, boolean complete) {
+            this.file = file;
+            this.complete = complete;
+        }
+
+        public Input(File file) {
+            this(file, false);
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * All the data is in the file.
+         */
+        public void complete() {
+            complete = true;
+        }
+
+        /**
+         * Stops the reads of the leg, waiting or not, with an error.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Waits for the leg to be complete, returns false if it's cancelled instead.
+         */
+        public boolean awaitComplete() throws IOException {
+            while (!complete) {
+                sleep();
+            }
+            return !cancelled;
+        }
+
+        /**
+         * Waits for the file to be created.
+         */
+        void awaitFile() throws IOException {
+            while (!file.exists()) {
+                if (complete) {
+                    throw new FileNotFoundException(file.getAbsolutePath());
+                }
+                sleep();
+            }
+        }
+
+        /**
+         * Waits for the file to be longer than the given position, returns its length or -1
+         * if the leg is complete without getting there.
+         */
+        long await(long position) throws IOException {
+            while (true) {
+                boolean done = complete;
+                long length = file.length();
+
+                if (length > position) {
+                    return length;
+                }
+                if (done) {
+                    return -1;
+                }
+
+                sleep();
+            }
+        }
+
+        private void sleep() throws IOException {
+            if (cancelled) {
+                throw new IOException("Cancelled: " + file);
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted: " + file);
+            }
+            if (cancelled) {
+                throw new IOException("Cancelled: " + file);
+            }
+        }
+    }
+
+    /**
+     * The boxes of a fragmented leg, read as they are written.
+     */
+    private static final class Leg {
+
+        private static final int COPY_CHUNK_SIZE = 256 * 1024;
+
+        private final Input input;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+
+        private final Map<Long, Long> trackIds; // of the leg to the output
+        private final Map<Long, Long> timescales; // of the output tracks
+
+        private MovieBox moov;
+        private long timescale;
+
+        private long position;
+        private ByteBuffer moof; // the next fragment header, not copied yet
+        private long moofPosition;
+        private double moofTime; // decode time in seconds, -1 if unknown
+        private int fragments;
+
+        public Leg(Input input) throws IOException {
+            this.input = input;
+
+            input.awaitFile();
+
+            this.raf = new RandomAccessFile(input.getFile(), "r");
+            this.channel = raf.getChannel();
+            this.trackIds = new HashMap<Long, Long>();
+            this.timescales = new HashMap<Long, Long>();
+        }
+
+        /**
+         * Reads the boxes up to the movie header, false if the leg isn't fragmented.
+         */
+        public boolean readMovie() throws IOException {
+            long[] header;
+
+            while ((header = readHeader()) != null) {
+                String type = boxType(header);
+
+                if (type.equals("moov")) {
+                    ByteBuffer data = read(position, header[0]);
+                    position += header[0];
+
+                    IsoFile isoFile = new IsoFile(new MemoryDataSourceImpl(data), new DetailsBoxParser());
+                    moov = isoFile.getMovieBox();
+                    timescale = moov.getMovieHeaderBox().getTimescale();
+
+                    return !moov.getBoxes(MovieExtendsBox.class).isEmpty();
+                } else if (type.equals("mdat") || type.equals("moof")) {
+                    return false; // the movie header at the end, not fragmented
+                }
+
+                position += header[0];
+            }
+
+            throw new IOException("No movie header: " + input.getFile());
+        }
+
+        /**
+         * The duration of the leg in the timescale of its movie.
+         */
+        public long getDuration() {
+            long duration = moov.getMovieHeaderBox().getDuration();
+
+            for (MovieExtendsHeaderBox mehd : moov.getBoxes(MovieExtendsBox.class).get(0).getBoxes(MovieExtendsHeaderBox.class)) {
+                duration = Math.max(duration, mehd.getFragmentDuration());
+            }
+
+            return duration;
+        }
+
+        /**
+         * Reads the next fragment header, unless already read, false when there are no more.
+         */
+        public boolean nextFragment() throws IOException {
+            if (moof != null) {
+                return true;
+            }
+
+            long[] header;
+
+            while ((header = readHeader()) != null) {
+                if (boxType(header).equals("moof")) {
+                    moofPosition = position;
+                    moof = read(position, header[0]);
+                    position += header[0];
+                    moofTime = patchFragment(moof, 0, moof.limit(), 0, 0, false);
+                    return true;
+                }
+
+                // indexes and the like, their offsets are of the leg
+                position += header[0];
+            }
+
+            return false;
+        }
+
+        public boolean isBefore(Leg other) {
+            if (moofTime >= 0 && other.moofTime >= 0) {
+                return moofTime < other.moofTime;
+            }
+            return fragments < other.fragments;
+        }
+
+        /**
+         * Writes the fragment header, with the track ids and offsets of the output, then the
+         * media data that follows it as it's downloaded.
+         */
+        public void copyFragment(FileChannel out, long sequenceNumber) throws IOException {
+            long offsetDelta = out.position() - moofPosition;
+            patchFragment(moof, 0, moof.limit(), sequenceNumber, offsetDelta, true);
+
+            moof.rewind();
+            while (moof.hasRemaining()) {
+                out.write(moof);
+            }
+            moof = null;
+            fragments++;
+
+            long[] header = readHeader();
+            if (header != null && boxType(header).equals("mdat")) {
+                long end = position + header[0];
+                while (position < end) {
+                    long length = input.await(position);
+                    if (length == -1) {
+                        throw new EOFException("Incomplete media data: " + input.getFile());
+                    }
+                    long n = channel.transferTo(position, Math.min(Math.min(length, end) - position, COPY_CHUNK_SIZE), out);
+                    position += n;
+                }
+            }
+        }
+
+        public void close() {
+            IOUtils.closeQuietly(raf);
+        }
+
+        /**
+         * Walks the boxes of a fragment header, returns the decode time of its first track
+         * fragment in seconds, or -1. If patch is set, changes the sequence number, the track
+         * ids and the explicit base offsets to those of the output.
+         */
+        private double patchFragment(ByteBuffer buffer, int start, int end, long sequenceNumber, long offsetDelta, boolean patch) throws IOException {
+            double time = -1;
+            long trackId = 0;
+
+            int i = start;
+            while (i + 8 <= end) {
+                int size = buffer.getInt(i);
+                String type = fourCC(buffer, i + 4);
+
+                if (size < 8 || i + size > end) {
+                    throw new IOException("Invalid fragment header: " + input.getFile());
+                }
+
+                if (type.equals("moof") || type.equals("traf")) {
+                    double t = patchFragment(buffer, i + 8, i + size, sequenceNumber, offsetDelta, patch);
+                    if (time < 0) {
+                        time = t;
+                    }
+                } else if (type.equals("mfhd")) {
+                    if (patch) {
+                        buffer.putInt(i + 12, (int) sequenceNumber);
+                    }
+                } else if (type.equals("tfhd")) {
+                    int flags = buffer.getInt(i + 8) & 0xFFFFFF;
+                    trackId = buffer.getInt(i + 12) & 0xFFFFFFFFL;
+
+                    if (patch) {
+                        Long outTrackId = trackIds.get(trackId);
+                        if (outTrackId == null) {
+                            throw new IOException("Unknown track " + trackId + ": " + input.getFile());
+                        }
+                        buffer.putInt(i + 12, outTrackId.intValue());
+                        if ((flags & 0x1) != 0) {
+                            buffer.putLong(i + 16, buffer.getLong(i + 16) + offsetDelta);
+                        }
+                    }
+                } else if (type.equals("tfdt")) {
+                    long decodeTime = buffer.get(i + 8) == 1 ? buffer.getLong(i + 12) : buffer.getInt(i + 12) & 0xFFFFFFFFL;
+                    Long outTrackId = trackIds.get(trackId);
+                    Long trackTimescale = outTrackId != null ? timescales.get(outTrackId) : null;
+                    if (trackTimescale != null && trackTimescale > 0) {
+                        time = ((double) decodeTime) / trackTimescale;
+                    }
+                }
+
+                i += size;
+            }
+
+            return time;
+        }
+
+        /**
+         * Returns the size, the header size and the type of the next box, or null at the end
+         * of the leg.
+         */
+        private long[] readHeader() throws IOException {
+            if (input.await(position) == -1) {
+                return null;
+            }
+
+            ByteBuffer b = read(position, 8);
+            long size = b.getInt(0) & 0xFFFFFFFFL;
+            long headerSize = 8;
+
+            if (size == 1) {
+                size = read(position + 8, 8).getLong(0);
+                headerSize = 16;
+            } else if (size == 0) {
+                // up to the end of the leg
+                input.awaitComplete();
+                size = input.getFile().length() - position;
+            }
+
+            if (size < headerSize) {
+                throw new IOException("Invalid box size " + size + ": " + input.getFile());
+            }
+
+            return new long[] { size, headerSize, b.getInt(4) & 0xFFFFFFFFL };
+        }
+
+        private ByteBuffer read(long position, long length) throws IOException {
+            if (length > Integer.MAX_VALUE || (length > 0 && input.await(position + length - 1) == -1)) {
+                throw new EOFException("Incomplete box: " + input.getFile());
+            }
+
+            ByteBuffer b = ByteBuffer.allocate((int) length);
+            while (b.hasRemaining()) {
+                if (channel.read(b, position + b.position()) == -1) {
+                    throw new EOFException("Incomplete box: " + input.getFile());
+                }
+            }
+            b.rewind();
+            return b;
+        }
+
+        private static String boxType(long[] header) {
+            return IsoFile.bytesToFourCC(ByteBuffer.allocate(4).putInt(0, (int) header[2]).array());
+        }
+
+        private static String fourCC(ByteBuffer buffer, int index) {
+            byte[] b = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                b[i] = buffer.get(index + i);
+            }
+            return IsoFile.bytesToFourCC(b);
+        }
+    }
+
     public static final class MP4Metadata {
 
         public MP4Metadata(String title, String author, String source, byte[] jpg) {
@@ -0,0 +1,704 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.util;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.frostwire.concurrent.DefaultThreadFactory;
+import com.frostwire.logging.Logger;
+
+/**
+ * Downloads a file over several HTTP connections, each one fetching a byte range
+ * of the content.
+ * <p>
+ * The file is preallocated and every range is written in place with positional
+ * writes. The progress of the ranges is saved next to the file, in a small segment
+ * map, so a download interrupted by an error or a crash resumes every partial range.
+ * Until it's complete, the file is written under a partial name, a preallocated file
+ * that is mostly zeros never looks like a finished download.
+ * If the server ignores the Range header, or the content changed since the map was
+ * saved, the file is downloaded again with a single connection.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public final class SegmentedDownloader {
+
+    private static final Logger LOG = Logger.getLogger(SegmentedDownloader.class);
+
+    private static final int DEFAULT_TIMEOUT = 10000;
+    private static final String DEFAULT_USER_AGENT = UserAgentGenerator.getUserAgent();
+
+    private static final long MIN_SEGMENT_SIZE = 512 * 1024;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final long SAVE_INTERVAL = 1000;
+
+    private static final int SEGMENT_MAP_VERSION = 1;
+
+    private final String url;
+    private final File file;
+    private final File partialFile;
+    private final File mapFile;
+    private final int connections;
+
+    private final AtomicLong downloaded;
+    private final Set<HttpURLConnection> active;
+
+    private int timeout;
+    private String userAgent;
+    private Listener listener;
+
+    private volatile boolean canceled;
+    private volatile boolean stopped;
+    private volatile long contentLength;
+
+    private Segment[] segments;
+    private String validator;
+    private String location;
+    private FileChannel channel;
+    private volatile long lastSave;
+
+    public SegmentedDownloader(String url, File file, int connections) {
+        this.url = url;
+        this.file = file;
+        this.partialFile = getPartialFile(file);
+        this.mapFile = getSegmentMapFile(file);
+        this.connections = Math.max(1, connections);
+
+        this.downloaded = new AtomicLong();
+        this.active = Collections.synchronizedSet(new HashSet<HttpURLConnection>());
+
+        this.timeout = DEFAULT_TIMEOUT;
+        this.userAgent = DEFAULT_USER_AGENT;
+        this.contentLength = -1;
+    }
+
+    /**
+     * The file where the progress of the ranges of the download of the file is saved.
+     */
+    public static File getSegmentMapFile(File file) {
+        return new File(file.getParentFile(), file.getName() + ".segments");
+    }
+
+    /**
+     * The file where the data is written until the download of the file is complete.
+     */
+    public static File getPartialFile(File file) {
+        return new File(file.getParentFile(), file.getName() + ".part");
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The size of the content, -1 until known.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Bytes written to the file, including the ones of a previous session.
+     */
+    public long getDownloaded() {
+        return downloaded.get();
+    }
+
+    /**
+     * Number of ranges of the download, 0 for a single connection download.
+     */
+    public int getSegmentCount() {
+        Segment[] s = segments;
+        return s != null ? s.length : 0;
+    }
+
+    public void cancel() {
+        canceled = true;
+        stop();
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Blocks until the file is complete. The segment map is removed and the partial file
+     * renamed after a successful download, both are kept if the download fails or is
+     * canceled.
+     */
+    public void download() throws IOException {
+        canceled = false;
+        stopped = false;
+
+        RandomAccessFile raf = new RandomAccessFile(partialFile, "rw");
+        try {
+            channel = raf.getChannel();
+
+            try {
+                if (loadSegmentMap()) {
+                    downloadSegments(null);
+                } else {
+                    HttpURLConnection conn = null;
+                    try {
+                        conn = open(url, 0, -1, null);
+                    } catch (ResponseCodeException e) {
+                        if (!isEmptyContent(e)) {
+                            throw e;
+                        }
+                        // an empty file has no range to serve
+                        raf.setLength(0);
+                        contentLength = 0;
+                        downloaded.set(0);
+                    }
+                    if (conn != null) {
+                        if (plan(conn, raf)) {
+                            downloadSegments(conn);
+                        } else {
+                            downloadSingle(conn);
+                        }
+                    }
+                }
+            } catch (ContentChangedException e) {
+                LOG.info("Range requests not honored, downloading with a single connection: " + url);
+                mapFile.delete();
+                segments = null;
+                stopped = canceled;
+                checkCanceled();
+                downloadSingle(open(url, 0, -1, null));
+            }
+        } finally {
+            closeQuietly(raf);
+            channel = null;
+        }
+
+        complete();
+    }
+
+    /**
+     * Gives the partial file its final name.
+     */
+    private void complete() throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace file: " + file);
+        }
+        if (!partialFile.renameTo(file)) {
+            throw new IOException("Unable to rename " + partialFile + " to " + file);
+        }
+    }
+
+    /**
+     * Returns true if the server answered with a partial response, and the file was
+     * split in ranges.
+     */
+    private boolean plan(HttpURLConnection conn, RandomAccessFile raf) throws IOException {
+        long total = conn.getResponseCode() == HttpURLConnection.HTTP_PARTIAL ? parseTotal(conn.getHeaderField("Content-Range")) : -1;
+        if (total <= 0) {
+            return false;
+        }
+
+        contentLength = total;
+        validator = getValidator(conn);
+        location = conn.getURL().toString();
+
+        int n = (int) Math.max(1, Math.min(connections, total / MIN_SEGMENT_SIZE));
+        long size = total / n;
+
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            long start = i * size;
+            long end = i < n - 1 ? start + size - 1 : total - 1;
+            segments[i] = new Segment(start, end, start);
+        }
+
+        raf.setLength(total);
+        downloaded.set(0);
+
+        saveSegmentMap();
+
+        return true;
+    }
+
+    /**
+     * The first range is downloaded in the calling thread, reusing the connection if
+     * already opened.
+     */
+    private void downloadSegments(HttpURLConnection first) throws IOException {
+        List<Segment> pending = new ArrayList<Segment>();
+        for (Segment s : segments) {
+            if (!s.isComplete()) {
+                pending.add(s);
+            }
+        }
+
+        ThreadPoolExecutor executor = null;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        if (pending.size() > 1) {
+            int n = pending.size() - 1;
+            executor = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new DefaultThreadFactory("SegmentedDownloader", true));
+
+            for (int i = 1; i < pending.size(); i++) {
+                final Segment s = pending.get(i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        fetch(s, null);
+                        return null;
+                    }
+                }));
+            }
+        }
+
+        IOException error = null;
+
+        try {
+            if (!pending.isEmpty()) {
+                fetch(pending.get(0), first);
+            }
+        } catch (IOException e) {
+            error = e;
+            stop();
+        }
+
+        for (Future<Void> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (error == null || !(error instanceof ContentChangedException)) {
+                    error = toIOException(e.getCause());
+                }
+                stop();
+            } catch (InterruptedException e) {
+                error = new IOException("Interrupted");
+                stop();
+            }
+        }
+
+        if (executor != null) {
+            executor.shutdown();
+        }
+
+        if (error instanceof ContentChangedException) {
+            throw error;
+        }
+
+        saveSegmentMap();
+
+        if (error != null) {
+            throw error;
+        }
+
+        checkCanceled();
+
+        mapFile.delete();
+    }
+
+    private void fetch(Segment s, HttpURLConnection conn) throws IOException {
+        if (stopped) {
+            return;
+        }
+
+        if (conn == null) {
+            conn = open(location, s.position, s.end, validator);
+        }
+
+        try {
+            if (conn.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new ContentChangedException();
+            }
+
+            InputStream in = conn.getInputStream();
+            byte[] b = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+
+            while (!stopped && !s.isComplete()) {
+                int n = in.read(b, 0, (int) Math.min(b.length, s.end - s.position + 1));
+                if (n == -1) {
+                    throw new EOFException("Connection closed at " + s.position + " of range " + s.start + "-" + s.end);
+                }
+
+                write(buffer, n, s.position);
+                s.position += n;
+
+                onData(n);
+            }
+        } finally {
+            close(conn);
+        }
+    }
+
+    /**
+     * Fallback for servers without range support, the whole content is written in order.
+     */
+    private void downloadSingle(HttpURLConnection conn) throws IOException {
+        try {
+            contentLength = parseLength(conn.getHeaderField("Content-Length"));
+            channel.truncate(0);
+            downloaded.set(0);
+
+            InputStream in = conn.getInputStream();
+            byte[] b = new byte[BUFFER_SIZE];
+            ByteBuffer buffer = ByteBuffer.wrap(b);
+            long position = 0;
+            int n;
+
+            while (!stopped && (n = in.read(b, 0, b.length)) != -1) {
+                write(buffer, n, position);
+                position += n;
+
+                onData(n);
+            }
+
+            checkCanceled();
+
+            if (contentLength > 0 && position != contentLength) {
+                throw new EOFException("Connection closed at " + position + " of " + contentLength);
+            }
+
+            contentLength = position;
+        } finally {
+            close(conn);
+        }
+    }
+
+    private void write(ByteBuffer buffer, int length, long position) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private HttpURLConnection open(String url, long start, long end, String ifRange) throws IOException {
+        checkCanceled();
+
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setConnectTimeout(timeout);
+        conn.setReadTimeout(timeout);
+        conn.setInstanceFollowRedirects(true);
+        conn.setRequestProperty("User-Agent", userAgent);
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        conn.setRequestProperty("Range", "bytes=" + start + "-" + (end >= 0 ? end : ""));
+        if (ifRange != null) {
+            conn.setRequestProperty("If-Range", ifRange);
+        }
+
+        active.add(conn);
+
+        int code;
+        try {
+            code = conn.getResponseCode();
+        } catch (IOException e) {
+            close(conn);
+            throw e;
+        }
+
+        if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+            Map<String, String> headers = new HashMap<String, String>();
+            for (Map.Entry<String, List<String>> e : conn.getHeaderFields().entrySet()) {
+                if (e.getKey() != null && !e.getValue().isEmpty()) {
+                    headers.put(e.getKey(), e.getValue().get(0));
+                }
+            }
+            close(conn);
+            throw new ResponseCodeException(code, headers);
+        }
+
+        return conn;
+    }
+
+    private void close(HttpURLConnection conn) {
+        active.remove(conn);
+        try {
+            conn.disconnect();
+        } catch (Throwable e) {
+            LOG.debug("Error closing http connection", e);
+        }
+    }
+
+    /**
+     * Stops all the connections, blocked reads included.
+     */
+    private void stop() {
+        stopped = true;
+        synchronized (active) {
+            for (HttpURLConnection conn : active) {
+                try {
+                    conn.disconnect();
+                } catch (Throwable e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void checkCanceled() throws IOException {
+        if (canceled) {
+            throw new IOException("Download canceled");
+        }
+    }
+
+    private void onData(int length) throws IOException {
+        downloaded.addAndGet(length);
+
+        if (segments != null && System.currentTimeMillis() - lastSave > SAVE_INTERVAL) {
+            saveSegmentMap();
+        }
+
+        if (listener != null) {
+            try {
+                listener.onData(this, length);
+            } catch (Throwable e) {
+                LOG.warn("Error notifying download data", e);
+            }
+        }
+    }
+
+    /**
+     * The data is flushed to disk before the map, a range never claims bytes the file
+     * doesn't have after a crash.
+     */
+    private synchronized void saveSegmentMap() throws IOException {
+        lastSave = System.currentTimeMillis();
+
+        channel.force(false);
+
+        File temp = new File(mapFile.getParentFile(), mapFile.getName() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+        try {
+            out.writeInt(SEGMENT_MAP_VERSION);
+            out.writeUTF(url);
+            out.writeUTF(validator != null ? validator : "");
+            out.writeLong(contentLength);
+            out.writeInt(segments.length);
+            for (Segment s : segments) {
+                out.writeLong(s.start);
+                out.writeLong(s.end);
+                out.writeLong(s.position);
+            }
+        } finally {
+            closeQuietly(out);
+        }
+
+        if (!temp.renameTo(mapFile)) {
+            mapFile.delete();
+            if (!temp.renameTo(mapFile)) {
+                throw new IOException("Unable to save segment map: " + mapFile);
+            }
+        }
+    }
+
+    /**
+     * Returns false if there is no map for the same url and file.
+     */
+    private boolean loadSegmentMap() {
+        if (!mapFile.exists()) {
+            return false;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(mapFile));
+
+            if (in.readInt() != SEGMENT_MAP_VERSION || !url.equals(in.readUTF())) {
+                return false;
+            }
+
+            String v = in.readUTF();
+            long total = in.readLong();
+            int n = in.readInt();
+
+            if (total != partialFile.length() || n <= 0) {
+                return false;
+            }
+
+            Segment[] s = new Segment[n];
+            long done = 0;
+            for (int i = 0; i < n; i++) {
+                s[i] = new Segment(in.readLong(), in.readLong(), in.readLong());
+                done += s[i].position - s[i].start;
+            }
+
+            validator = v.length() > 0 ? v : null;
+            contentLength = total;
+            location = url;
+            segments = s;
+            downloaded.set(done);
+
+            return true;
+        } catch (IOException e) {
+            LOG.warn("Error reading segment map: " + mapFile + ", " + e.getMessage());
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Returns true if the range probe was rejected with a 416 for empty content, that is
+     * with a header like "bytes &#42;/0".
+     */
+    private static boolean isEmptyContent(ResponseCodeException e) {
+        if (e.getResponseCode() != 416) { // HttpURLConnection has no constant for it
+            return false;
+        }
+        for (Map.Entry<String, String> h : e.getHeaders().entrySet()) {
+            if ("Content-Range".equalsIgnoreCase(h.getKey())) {
+                return parseTotal(h.getValue()) == 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Strong ETags first, a weak one can't be used with If-Range.
+     */
+    private static String getValidator(HttpURLConnection conn) {
+        String etag = conn.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return conn.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * Total length from a header like "bytes 0-499/1234", -1 if unknown.
+     */
+    private static long parseTotal(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int idx = contentRange.lastIndexOf('/');
+        return idx != -1 ? parseLength(contentRange.substring(idx + 1)) : -1;
+    }
+
+    private static long parseLength(String s) {
+        try {
+            return s != null ? Long.parseLong(s.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static IOException toIOException(Throwable e) {
+        return e instanceof IOException ? (IOException) e : new IOException(e);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    public interface Listener {
+
+        /**
+         * Called from the threads of the connections.
+         */
+        public void onData(SegmentedDownloader downloader, int length);
+    }
+
+    public static final class ResponseCodeException extends IOException {
+
+        private static final long serialVersionUID = -2434726148383926541L;
+
+        private final int responseCode;
+        private final Map<String, String> headers;
+
+        public ResponseCodeException(int responseCode, Map<String, String> headers) {
+            super("Unexpected HTTP response code: " + responseCode);
+            this.responseCode = responseCode;
+            this.headers = headers;
+        }
+
+        public int getResponseCode() {
+            return responseCode;
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+    }
+
+    private static final class ContentChangedException extends IOException {
+
+        private static final long serialVersionUID = 6913455270873294917L;
+    }
+
+    private static final class Segment {
+
+        private final long start;
+        private final long end; // inclusive
+        private volatile long position;
+
+        public Segment(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        public boolean isComplete() {
+            return position > end;
+        }
+    }
+}
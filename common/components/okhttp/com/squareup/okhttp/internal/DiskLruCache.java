@@ -148,6 +148,7 @@ public final class DiskLruCache implements Closeable {
   private final LinkedHashMap<String, Entry> lruEntries =
       new LinkedHashMap<String, Entry>(0, 0.75f, true);
   private int redundantOpCount;
+  private long evictionCount;
 
   /**
    * To differentiate between old and current snapshots, each entry is given
@@ -500,12 +501,23 @@ public final class DiskLruCache implements Closeable {
     return size;
   }
 
+  /** Returns the number of entries removed to keep the cache under its max size. */
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
   private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
     Entry entry = editor.entry;
     if (entry.currentEditor != editor) {
       throw new IllegalStateException();
     }
 
+    // The cache was cleared during the edit, drop the entry.
+    if (editor.evicted) {
+      success = false;
+      entry.readable = false;
+    }
+
     // If this edit is creating the entry for the first time, every index must have a value.
     if (success && !entry.readable) {
       for (int i = 0; i < valueCount; i++) {
@@ -636,6 +648,30 @@ public final class DiskLruCache implements Closeable {
     while (size > maxSize) {
       Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
       remove(toEvict.getKey());
+      evictionCount++;
+    }
+  }
+
+  /**
+   * Deletes all stored values from the cache. In-flight edits will complete
+   * normally but their values will not be stored.
+   */
+  public synchronized void evictAll() throws IOException {
+    checkNotClosed();
+    // Copying for safe iteration.
+    for (Object next : lruEntries.values().toArray()) {
+      Entry entry = (Entry) next;
+      if (entry.currentEditor != null) {
+        // The previous value goes now, the new one when the edit completes.
+        entry.currentEditor.evicted = true;
+        for (int i = 0; i < valueCount; i++) {
+          deleteIfExists(entry.getCleanFile(i));
+          size -= entry.lengths[i];
+          entry.lengths[i] = 0;
+        }
+      } else {
+        remove(entry.key);
+      }
     }
   }
 
@@ -723,6 +759,7 @@ public final class DiskLruCache implements Closeable {
     private final boolean[] written;
     private boolean hasErrors;
     private boolean committed;
+    private boolean evicted;
 
     private Editor(Entry entry) {
       this.entry = entry;
@@ -0,0 +1,316 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.vuze;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.gudy.azureus2.core3.util.ByteFormatter;
+import org.gudy.azureus2.core3.util.UrlUtils;
+import org.gudy.azureus2.plugins.PluginInterface;
+
+import com.aelitis.azureus.core.AzureusCoreFactory;
+import com.aelitis.azureus.plugins.magnet.MagnetPlugin;
+import com.aelitis.azureus.plugins.magnet.MagnetPluginProgressListener;
+import com.frostwire.logging.Logger;
+import com.frostwire.search.MagnetDownloader;
+import com.frostwire.torrent.TorrentFileList;
+
+/**
+ * Downloads the torrent of a magnet with the magnet plugin of the running vuze core, so
+ * all the lookups share its DHT and peer connections. The number of lookups at the same
+ * time is bounded, and the torrents found are kept on disk by info hash, so the same
+ * torrent from another search, or another magnet, is resolved without a lookup.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class VuzeMagnetDownloader implements MagnetDownloader {
+
+    private static final Logger LOG = Logger.getLogger(VuzeMagnetDownloader.class);
+
+    private static final int MAX_CACHED_TORRENTS = 500;
+
+    private final File cacheDir;
+    private final Semaphore lookups;
+    private final Set<String> active; // the hashes being looked up, their files are not trimmed
+
+    public VuzeMagnetDownloader(File cacheDir, int maxLookups) {
+        this.cacheDir = cacheDir;
+        this.lookups = new Semaphore(maxLookups, true);
+        this.active = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        cacheDir.mkdirs();
+    }
+
+    @Override
+    public byte[] download(String magnet, int timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+
+        int idx = magnet.indexOf('?');
+        String args = idx != -1 ? magnet.substring(idx + 1) : "";
+        byte[] hash = parseHash(args);
+
+        if (hash == null) {
+            LOG.warn("Invalid magnet, no info hash: " + magnet);
+            return null;
+        }
+
+        byte[] data = cacheGet(hash);
+        if (data != null) {
+            return data;
+        }
+
+        try {
+            if (!lookups.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                LOG.info("Too many magnet lookups, skipping: " + magnet);
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        String key = cacheKey(hash);
+        active.add(key);
+
+        try {
+            // another lookup could have found it while waiting
+            data = cacheGet(hash);
+            if (data != null) {
+                return data;
+            }
+
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+
+            data = lookup(hash, args, remaining);
+
+            if (data != null) {
+                cachePut(hash, data);
+            }
+
+            return data;
+        } catch (Throwable e) {
+            LOG.warn("Error downloading magnet: " + magnet + ", e=" + e.getMessage());
+            return null;
+        } finally {
+            active.remove(key);
+            lookups.release();
+        }
+    }
+
+    /**
+     * Downloads the torrent with the given info hash, the magnet arguments are used for
+     * trackers and web seeds. Returns null if not found in time.
+     */
+    protected byte[] lookup(byte[] hash, String args, final long timeout) throws Exception {
+        MagnetPlugin plugin = getPlugin();
+
+        if (plugin == null) {
+            LOG.info("Vuze core not running, unable to download magnet");
+            return null;
+        }
+
+        final long deadline = System.currentTimeMillis() + timeout;
+
+        // by default the metadata download waits 20 seconds for other sources, longer than
+        // our deadlines, it's the best source of the torrents we look for
+        return plugin.download(new MagnetPluginProgressListener() {
+
+            @Override
+            public void reportSize(long size) {
+            }
+
+            @Override
+            public void reportActivity(String str) {
+            }
+
+            @Override
+            public void reportCompleteness(int percent) {
+            }
+
+            @Override
+            public void reportContributor(InetSocketAddress address) {
+            }
+
+            @Override
+            public boolean verbose() {
+                return false;
+            }
+
+            @Override
+            public boolean cancelled() {
+                return System.currentTimeMillis() > deadline;
+            }
+        }, hash, args, new InetSocketAddress[0], timeout, MagnetPlugin.FL_NO_MD_LOOKUP_DELAY);
+    }
+
+    private MagnetPlugin getPlugin() {
+        if (!AzureusCoreFactory.isCoreRunning()) {
+            return null;
+        }
+
+        PluginInterface pi = AzureusCoreFactory.getSingleton().getPluginManager().getPluginInterfaceByClass(MagnetPlugin.class);
+
+        if (pi == null) {
+            return null;
+        }
+
+        return (MagnetPlugin) pi.getPlugin();
+    }
+
+    private byte[] cacheGet(byte[] hash) {
+        File f = cacheFile(hash);
+
+        if (!f.exists()) {
+            return null;
+        }
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            byte[] data;
+            try {
+                data = new byte[(int) raf.length()];
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+
+            // least recently used are the first to go
+            f.setLastModified(System.currentTimeMillis());
+
+            return data;
+        } catch (IOException e) {
+            LOG.warn("Error reading cached torrent: " + f + ", e=" + e.getMessage());
+            f.delete();
+            return null;
+        }
+    }
+
+    private void cachePut(byte[] hash, byte[] data) {
+        try {
+            if (!Arrays.equals(hash, TorrentFileList.parse(data).getInfoHash())) {
+                return;
+            }
+        } catch (Throwable e) {
+            return;
+        }
+
+        File f = cacheFile(hash);
+        File tmp = new File(cacheDir, f.getName() + ".tmp");
+
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                fos.write(data);
+            } finally {
+                fos.close();
+            }
+
+            if (!tmp.renameTo(f)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            LOG.warn("Error caching torrent: " + f + ", e=" + e.getMessage());
+            tmp.delete();
+        }
+
+        trimCache();
+    }
+
+    private void trimCache() {
+        File[] files = cacheDir.listFiles();
+
+        if (files == null || files.length <= MAX_CACHED_TORRENTS) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                long t1 = f1.lastModified();
+                long t2 = f2.lastModified();
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        // the torrent or temporary file of a lookup in progress could be still written
+        List<File> candidates = new ArrayList<File>(files.length);
+        for (File f : files) {
+            String name = f.getName();
+            int idx = name.indexOf('.');
+            if (!active.contains(idx != -1 ? name.substring(0, idx) : name)) {
+                candidates.add(f);
+            }
+        }
+
+        int n = Math.min(candidates.size(), files.length - MAX_CACHED_TORRENTS);
+        for (int i = 0; i < n; i++) {
+            candidates.get(i).delete();
+        }
+    }
+
+    private File cacheFile(byte[] hash) {
+        return new File(cacheDir, cacheKey(hash) + ".torrent");
+    }
+
+    private static String cacheKey(byte[] hash) {
+        return ByteFormatter.encodeString(hash).toLowerCase();
+    }
+
+    /**
+     * The info hash of the xt argument, hex or base32 encoded.
+     */
+    private static byte[] parseHash(String args) {
+        for (String arg : args.split("&")) {
+            int idx = arg.indexOf('=');
+
+            if (idx != -1 && arg.substring(0, idx).equalsIgnoreCase("xt")) {
+                try {
+                    String urn = URLDecoder.decode(arg.substring(idx + 1), "UTF-8");
+
+                    if (urn.toLowerCase().startsWith("urn:btih:")) {
+                        return UrlUtils.decodeSHA1Hash(urn.substring(9));
+                    }
+                } catch (Throwable e) {
+                    // try the next one
+                }
+            }
+        }
+
+        return null;
+    }
+}
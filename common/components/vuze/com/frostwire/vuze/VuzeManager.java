@@ -207,6 +207,10 @@ public final class VuzeManager {
         disableDefaultPlugins();
         enablePlugins();
 
+        // keep the pieces being seeded in the disk cache and write downloads from a background thread
+        COConfigurationManager.setParameter("diskmanager.perf.cache.policy.segmented", true);
+        COConfigurationManager.setParameter("diskmanager.perf.cache.writeback", true);
+
         if (OSUtils.isAndroid()) {
             setTimeGranularityMillis(300);
 
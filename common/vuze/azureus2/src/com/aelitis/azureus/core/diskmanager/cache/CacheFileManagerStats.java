@@ -38,6 +38,11 @@ CacheFileManagerStats
 	public long
 	getUsedSize();
 	
+		// cached data not yet written to file
+	
+	public long
+	getDirtySize();
+	
 	public long
 	getBytesWrittenToCache();
 	
@@ -74,6 +79,21 @@ CacheFileManagerStats
 	public long
 	getFileWriteCount();
 	
+		// reads that had to go to the file
+	
+	public long
+	getCacheReadMissCount();
+	
+		// share of the reads satisfied from the cache, 0 to 1
+	
+	public float
+	getCacheHitRatio();
+	
+		// average time to write a run of dirty entries to file, in microseconds
+	
+	public long
+	getAverageFlushLatency();
+	
 		// returns the number of bytes in the requested range that are in cache
 	
 	public boolean[] getBytesInCache(TOTorrent torrent, long[] absoluteOffsets, long[] lengths);
@@ -50,6 +50,7 @@ CacheEntry
 	
 	protected int				entry_type;
 	protected int				usage_count;
+	protected long				bytes_used;
 	
 	/**
 	 * Constructs a dummy cache entry used to search in a Set 
@@ -129,11 +130,14 @@ CacheEntry
 	}
 	
 	protected void
-	used()
+	used(
+		int		length )
 	{
 		last_used = SystemTime.getCurrentTime();
 		
 		usage_count++;
+		
+		bytes_used += length;
 	}
 	
 	protected long
@@ -148,6 +152,14 @@ CacheEntry
 		return( usage_count );
 	}
 	
+		// more than the length once part of the entry has been read twice
+	
+	protected long
+	getBytesUsed()
+	{
+		return( bytes_used );
+	}
+	
 	protected int
 	getType()
 	{
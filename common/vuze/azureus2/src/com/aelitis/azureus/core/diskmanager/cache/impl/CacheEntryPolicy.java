@@ -0,0 +1,65 @@
+/*
+ * Created on Oct 18, 2014
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.util.List;
+
+/**
+ * The order in which the cache manager gives up its entries when it runs out of space.
+ * Always called with the manager monitor held.
+ */
+
+interface
+CacheEntryPolicy
+{
+	public void
+	add(
+		CacheEntry	entry );
+
+		/**
+		 * @return false if the entry isn't in the cache
+		 */
+
+	public boolean
+	used(
+		CacheEntry	entry );
+
+		/**
+		 * @return false if the entry isn't in the cache
+		 */
+
+	public boolean
+	remove(
+		CacheEntry	entry );
+
+		/**
+		 * the next entry to give up, null if the cache is empty
+		 */
+
+	public CacheEntry
+	getOldest();
+
+	public int
+	size();
+
+		/**
+		 * a copy of the entries, the next to give up first
+		 */
+
+	public List<CacheEntry>
+	getEntries();
+}
@@ -0,0 +1,80 @@
+/*
+ * Created on Oct 18, 2014
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * The least recently used entry goes first.
+ */
+
+class
+CacheEntryPolicyLRU
+	implements CacheEntryPolicy
+{
+		// access order
+
+	private final LinkedHashMap<CacheEntry,CacheEntry>		entries = new LinkedHashMap<CacheEntry,CacheEntry>(1024, 0.75f, true );
+
+	public void
+	add(
+		CacheEntry	entry )
+	{
+		entries.put( entry, entry );
+	}
+
+	public boolean
+	used(
+		CacheEntry	entry )
+	{
+			// note that the "get" operation updates the MRU
+
+		return( entries.get( entry ) != null );
+	}
+
+	public boolean
+	remove(
+		CacheEntry	entry )
+	{
+		return( entries.remove( entry ) != null );
+	}
+
+	public CacheEntry
+	getOldest()
+	{
+		if ( entries.isEmpty()){
+
+			return( null );
+		}
+
+		return( entries.keySet().iterator().next());
+	}
+
+	public int
+	size()
+	{
+		return( entries.size());
+	}
+
+	public List<CacheEntry>
+	getEntries()
+	{
+		return( new ArrayList<CacheEntry>( entries.keySet()));
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Created on Oct 18, 2014
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.aelitis.azureus.core.diskmanager.cache.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Segmented LRU. New entries start in a probation segment and only move to the protected
+ * segment once some of their data has been read a second time, as when a seed serves
+ * the same piece to several peers. Written blocks read once by the hash check, and
+ * read-ahead consumed once in sequence, never leave probation, so they go first and a
+ * download can't push the pieces being seeded out of the cache.
+ * <p>
+ * The protected segment is bounded, its least recently used entries fall back to the
+ * most recently used end of probation.
+ */
+
+class
+CacheEntryPolicySLRU
+	implements CacheEntryPolicy
+{
+	private final long				protected_max;
+
+		// access order
+
+	private final LinkedHashMap<CacheEntry,CacheEntry>		probation_entries	= new LinkedHashMap<CacheEntry,CacheEntry>(1024, 0.75f, true );
+	private final LinkedHashMap<CacheEntry,CacheEntry>		protected_entries	= new LinkedHashMap<CacheEntry,CacheEntry>(1024, 0.75f, true );
+
+	private long					protected_size;
+
+	protected
+	CacheEntryPolicySLRU(
+		long		_protected_max )
+	{
+		protected_max	= _protected_max;
+	}
+
+	public void
+	add(
+		CacheEntry	entry )
+	{
+		probation_entries.put( entry, entry );
+	}
+
+	public boolean
+	used(
+		CacheEntry	entry )
+	{
+		if ( protected_entries.get( entry ) != null ){
+
+			return( true );
+		}
+
+		if ( probation_entries.get( entry ) == null ){
+
+			return( false );
+		}
+
+		if ( entry.getBytesUsed() > entry.getLength()){
+
+			probation_entries.remove( entry );
+
+			protected_entries.put( entry, entry );
+
+			protected_size += entry.getLength();
+
+			while( protected_size > protected_max && protected_entries.size() > 1 ){
+
+				CacheEntry	oldest = protected_entries.keySet().iterator().next();
+
+				protected_entries.remove( oldest );
+
+				protected_size -= oldest.getLength();
+
+				probation_entries.put( oldest, oldest );
+			}
+		}
+
+		return( true );
+	}
+
+	public boolean
+	remove(
+		CacheEntry	entry )
+	{
+		if ( probation_entries.remove( entry ) != null ){
+
+			return( true );
+		}
+
+		if ( protected_entries.remove( entry ) != null ){
+
+			protected_size -= entry.getLength();
+
+			return( true );
+		}
+
+		return( false );
+	}
+
+	public CacheEntry
+	getOldest()
+	{
+		Iterator<CacheEntry>	it = probation_entries.keySet().iterator();
+
+		if ( !it.hasNext()){
+
+			it = protected_entries.keySet().iterator();
+		}
+
+		return( it.hasNext()?it.next():null );
+	}
+
+	public int
+	size()
+	{
+		return( probation_entries.size() + protected_entries.size());
+	}
+
+	public List<CacheEntry>
+	getEntries()
+	{
+		List<CacheEntry>	result = new ArrayList<CacheEntry>( size());
+
+		result.addAll( probation_entries.keySet());
+		result.addAll( protected_entries.keySet());
+
+		return( result );
+	}
+}
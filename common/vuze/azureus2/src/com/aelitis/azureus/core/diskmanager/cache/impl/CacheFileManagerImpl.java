@@ -54,6 +54,8 @@ CacheFileManagerImpl
 	
 	public static final int		STATS_UPDATE_FREQUENCY		= 1*1000;	// 1 sec
 	public static final long	DIRTY_CACHE_WRITE_MAX_AGE	= 120*1000;	// 2 mins
+	
+	public static final int		CACHE_PROTECTED_PERCENT		= 80;	// segmented policy, share of re-read entries
 		
 	static{
 		if ( DEBUG ){
@@ -115,6 +117,16 @@ CacheFileManagerImpl
 	
 	protected long		cache_minimum_free_size;
 	protected long		cache_space_free;
+	protected long		cache_space_dirty;
+	
+		// background write-back of dirty entries, started above the start size and
+		// carried on until the stop size is reached
+	
+	protected boolean		write_back_enabled;
+	protected long			write_back_start_size;
+	protected long			write_back_stop_size;
+	protected boolean		write_back_scheduled;
+	protected AESemaphore	write_back_sem	= new AESemaphore( "CacheFile:writeBack" );
 
 	private long	cache_file_id_next	= 0;
 	
@@ -125,9 +137,7 @@ CacheFileManagerImpl
 	protected WeakHashMap		cache_files			= new WeakHashMap();
 	protected WeakHashMap		updated_cache_files	= null;
 	
-		// access order
-	
-	protected LinkedHashMap		cache_entries = new LinkedHashMap(1024, 0.75f, true );
+	protected CacheEntryPolicy	cache_entries;
 	
 	protected CacheFileManagerStatsImpl	stats;
 	
@@ -143,6 +153,10 @@ CacheFileManagerImpl
 	protected long				cache_write_count;
 	protected long				file_read_count;
 	protected long				file_write_count;
+	protected long				cache_read_miss_count;
+	
+	protected long				cache_flush_count;
+	protected long				cache_flush_time;	// nanos
 	
 	protected AEMonitor			this_mon	= new AEMonitor( "CacheFileManager" );
 	
@@ -171,6 +185,10 @@ CacheFileManagerImpl
 		
 		int		not_smaller_than	= 1024*COConfigurationManager.getIntParameter( "notsmallerthan" );
 		
+		boolean	segmented	= COConfigurationManager.getBooleanParameter( "diskmanager.perf.cache.policy.segmented" );
+		
+		boolean	write_back	= COConfigurationManager.getBooleanParameter( "diskmanager.perf.cache.writeback" );
+		
 		if ( size <= 0 ){
 		
 			Debug.out( "Invalid cache size parameter (" + size + "), caching disabled" );
@@ -178,7 +196,7 @@ CacheFileManagerImpl
 			enabled	= false;
 		}
 		
-		initialise( enabled, enable_read, enable_write, size, not_smaller_than );
+		initialise( enabled, enable_read, enable_write, size, not_smaller_than, segmented, write_back );
 	}
 
 	protected void
@@ -187,7 +205,9 @@ CacheFileManagerImpl
 		boolean	enable_read,
 		boolean	enable_write,
 		long	size,
-		long	not_smaller_than )
+		long	not_smaller_than,
+		boolean	segmented,
+		boolean	write_back )
 	{
 		cache_enabled			= enabled && ( enable_read || enable_write );
 		
@@ -203,16 +223,36 @@ CacheFileManagerImpl
 		
 		cache_space_free		= cache_size;
 		
+		if ( segmented ){
+			
+			cache_entries	= new CacheEntryPolicySLRU( cache_size*CACHE_PROTECTED_PERCENT/100 );
+			
+		}else{
+			
+			cache_entries	= new CacheEntryPolicyLRU();
+		}
+		
+		write_back_enabled		= cache_write_enabled && write_back;
+		
+		write_back_start_size	= cache_size/2;
+		
+		write_back_stop_size	= cache_size/4;
+		
 		stats = new CacheFileManagerStatsImpl( this );
 		
 
 		cacheStatsAndCleaner();
 		
+		if ( write_back_enabled ){
+			
+			startWriteBack();
+		}
 
 		if (Logger.isEnabled())
 			Logger.log(new LogEvent(LOGID, "DiskCache: enabled = " + cache_enabled
 					+ ", read = " + cache_read_enabled + ", write = "
-					+ cache_write_enabled + ", size = " + cache_size + " B"));
+					+ cache_write_enabled + ", size = " + cache_size + " B"
+					+ ", segmented = " + segmented + ", write-back = " + write_back_enabled ));
 	}
 	
 	protected boolean
@@ -380,7 +420,11 @@ CacheFileManagerImpl
 					
 				}else{
 					
-					oldest_entry = (CacheEntry)cache_entries.keySet().iterator().next();
+					oldest_entry = cache_entries.getOldest();
+					
+						// whatever happens the write-back should catch up before the next time
+					
+					checkWriteBack( true );
 				}
 			}finally{
 				
@@ -431,7 +475,7 @@ CacheFileManagerImpl
 						this_mon.enter();
 						
 						if (	cache_entries.size() > 0 &&
-								(CacheEntry)cache_entries.keySet().iterator().next() == oldest_entry ){
+								cache_entries.getOldest() == oldest_entry ){
 							
 								// hmm, something wrong with cache as the flush should have got rid
 								// of at least the oldest entry
@@ -460,6 +504,172 @@ CacheFileManagerImpl
 		return( entry );
 	}
 	
+		/**
+		 * with write-back, false if allocating the space now would mean writing dirty data
+		 * on the caller's thread, the write-back is then started so the space is clean next
+		 * time. Callers that can do without the space, like read-ahead, don't allocate it
+		 * @param length
+		 * @return
+		 */
+	
+	protected boolean
+	canAllocateCacheSpace(
+		int		length )
+	{
+		if ( !write_back_enabled ){
+			
+			return( true );
+		}
+		
+		try{
+			this_mon.enter();
+			
+			if ( length < cache_space_free || cache_space_free == cache_size ){
+				
+				return( true );
+			}
+			
+			CacheEntry	oldest_entry = cache_entries.getOldest();
+			
+			if ( oldest_entry == null || !oldest_entry.isDirty()){
+				
+				return( true );
+			}
+			
+			checkWriteBack( true );
+			
+			return( false );
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+	}
+	
+		// must be called holding the monitor
+	
+	protected void
+	checkWriteBack(
+		boolean		force )
+	{
+		if ( 	write_back_enabled && 
+				!write_back_scheduled &&
+				( force || cache_space_dirty > write_back_start_size )){
+			
+			write_back_scheduled	= true;
+			
+			write_back_sem.release();
+		}
+	}
+	
+	protected void
+	startWriteBack()
+	{
+		new AEThread2( "CacheFile:writeBack", true )
+		{
+			public void
+			run()
+			{
+				while( true ){
+					
+					write_back_sem.reserve();
+					
+					writeBack();
+				}
+			}
+		}.start();
+	}
+	
+		/**
+		 * writes the files of the dirty entries the first to be given up, one file at a time
+		 * holding only its monitor, until the dirty data is below the stop size. At least
+		 * one file is written, so a forced write-back frees the oldest entry
+		 */
+	
+	protected void
+	writeBack()
+	{
+		boolean	first	= true;
+		
+		while( true ){
+			
+			CacheFileWithCache	file	= null;
+			
+			try{
+				this_mon.enter();
+				
+				if ( first || cache_space_dirty > write_back_stop_size ){
+					
+					Iterator	it = cache_entries.getEntries().iterator();
+					
+					while( it.hasNext()){
+						
+						CacheEntry	entry = (CacheEntry)it.next();
+						
+						if ( entry.isDirty()){
+							
+							file	= entry.getFile();
+							
+							break;
+						}
+					}
+				}
+				
+				if ( file == null ){
+					
+					write_back_scheduled	= false;
+					
+					return;
+				}
+			}finally{
+				
+				this_mon.exit();
+			}
+			
+			first	= false;
+			
+			boolean	failed	= false;
+			
+			try{
+				
+				file.flushOldDirtyData( 0 );
+				
+			}catch( CacheFileManagerException e ){
+				
+				failed	= true;
+				
+					// reported on the next access to the file
+				
+				file.setPendingException( e );
+				
+				Debug.printStackTrace( e );
+				
+			}catch( Throwable e ){
+				
+				failed	= true;
+				
+				Debug.printStackTrace( e );
+			}
+			
+			if ( failed ){
+				
+					// give up until the next trigger rather than spin on a failing file
+				
+				try{
+					this_mon.enter();
+					
+					write_back_scheduled	= false;
+					
+				}finally{
+					
+					this_mon.exit();
+				}
+				
+				return;
+			}
+		}
+	}
+	
 	protected void
 	cacheStatsAndCleaner()
 	{		
@@ -503,7 +713,7 @@ CacheFileManagerImpl
 
 							if ( cache_entries.size() > 0 ){
 
-								Iterator it = cache_entries.keySet().iterator();
+								Iterator it = cache_entries.getEntries().iterator();
 
 								while( it.hasNext()){
 
@@ -583,7 +793,14 @@ CacheFileManagerImpl
 			
 				// 	System.out.println( "Total cache space = " + cache_space_free );
 		
-			cache_entries.put( new_entry, new_entry );
+			cache_entries.add( new_entry );
+			
+			if ( new_entry.isDirty()){
+				
+				cache_space_dirty	+= new_entry.getLength();
+				
+				checkWriteBack( false );
+			}
 			
 			if ( DEBUG ){
 				
@@ -593,7 +810,7 @@ CacheFileManagerImpl
 				
 				int		my_count = 0;
 
-				Iterator it = cache_entries.keySet().iterator();
+				Iterator it = cache_entries.getEntries().iterator();
 				
 				while( it.hasNext()){
 					
@@ -637,24 +854,23 @@ CacheFileManagerImpl
 	
 	protected void
 	cacheEntryUsed(
-		CacheEntry		entry )
+		CacheEntry		entry,
+		int				length )
 	
 		throws CacheFileManagerException
 	{
 		try{
 			this_mon.enter();
 		
-				// note that the "get" operation update the MRU in cache_entries
+				// recorded first as the policy can use it to place the entry
+			
+			entry.used( length );
 			
-			if ( cache_entries.get( entry ) == null ){
+			if ( !cache_entries.used( entry )){
 				
 				Debug.out( "Cache inconsistency: entry missing on usage" );
 				
 				throw( new CacheFileManagerException( null, "Cache inconsistency: entry missing on usage"));
-				
-			}else{
-				
-				entry.used();
 			}
 		}finally{
 			
@@ -675,7 +891,12 @@ CacheFileManagerImpl
 			
 			cache_space_free	+= entry.getLength();
 			
-			if ( cache_entries.remove( entry ) == null ){
+			if ( entry.isDirty()){
+				
+				cache_space_dirty	-= entry.getLength();
+			}
+			
+			if ( !cache_entries.remove( entry )){
 				
 				Debug.out( "Cache inconsistency: entry missing on removal" );
 
@@ -722,6 +943,12 @@ CacheFileManagerImpl
 		return( cache_size - free );
 	}
 	
+	protected long
+	getCacheDirty()
+	{
+		return( cache_space_dirty );
+	}
+	
 	protected void
 	cacheBytesWritten(
 		long		num )
@@ -773,6 +1000,59 @@ CacheFileManagerImpl
 		}
 	}
 	
+		// dirty data written to file, the entries being kept
+	
+	protected void
+	cacheBytesCleaned(
+		long	num )
+	{
+		try{
+			this_mon.enter();
+			
+			cache_space_dirty	-= num;
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+	}
+	
+	protected void
+	cacheBytesFlushed(
+		long	num,
+		long	nanos )
+	{
+		try{
+			this_mon.enter();
+			
+			file_bytes_written	+= num;
+			
+			file_write_count++;
+			
+			cache_flush_count++;
+			
+			cache_flush_time	+= nanos;
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+	}
+	
+	protected void
+	cacheReadMissed()
+	{
+		try{
+			this_mon.enter();
+			
+			cache_read_miss_count++;
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+	}
+	
 	protected void
 	fileBytesRead(
 		int		num )
@@ -837,6 +1117,28 @@ CacheFileManagerImpl
 		return( file_write_count );
 	}
 	
+	public long
+	getCacheReadMissCount()
+	{
+		return( cache_read_miss_count );
+	}
+	
+		// micros
+	
+	public long
+	getAverageFlushLatency()
+	{
+		try{
+			this_mon.enter();
+			
+			return( cache_flush_count==0?0:cache_flush_time/cache_flush_count/1000 );
+			
+		}finally{
+			
+			this_mon.exit();
+		}
+	}
+	
 	protected void
 	closeFile(
 		CacheFileWithCache	file )
@@ -974,14 +1276,14 @@ CacheFileManagerImpl
 			try{
 				this_mon.enter();
 
-				it = new ArrayList( cache_entries.keySet()).iterator();
+				it = cache_entries.getEntries().iterator();
 
 			}finally{
 				
 				this_mon.exit();
 			}
 			
-			writer.println( "Entries = " + cache_entries.size());
+			writer.println( "Entries = " + cache_entries.size() + ", dirty = " + cache_space_dirty + ", write-back = " + write_back_enabled );
 							
 			Set	files = new HashSet();
 			
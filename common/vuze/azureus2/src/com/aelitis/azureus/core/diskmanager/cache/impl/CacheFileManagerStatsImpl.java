@@ -123,6 +123,12 @@ CacheFileManagerStatsImpl
 		return( manager.getCacheUsed());
 	}
 	
+	public long
+	getDirtySize()
+	{
+		return( manager.getCacheDirty());
+	}
+	
 	public long
 	getBytesWrittenToCache()
 	{
@@ -195,6 +201,27 @@ CacheFileManagerStatsImpl
 		return( manager.getFileWriteCount());
 	}
 	
+	public long
+	getCacheReadMissCount()
+	{
+		return( manager.getCacheReadMissCount());
+	}
+	
+	public float
+	getCacheHitRatio()
+	{
+		long	hits	= manager.getCacheReadCount();
+		long	total	= hits + manager.getCacheReadMissCount();
+		
+		return( total==0?0:(float)hits/total );
+	}
+	
+	public long
+	getAverageFlushLatency()
+	{
+		return( manager.getAverageFlushLatency());
+	}
+	
 	public boolean[] getBytesInCache(TOTorrent torrent, long[] absoluteOffsets, long[] lengths)
 	{
 		return manager.getBytesInCache( torrent, absoluteOffsets, lengths);
@@ -362,7 +362,7 @@ CacheFileWithCache
 								
 								file_buffer.put( SS_CACHE, entry_buffer );
 									
-								manager.cacheEntryUsed( entry );
+								manager.cacheEntryUsed( entry, available );
 								
 							}finally{
 								
@@ -412,6 +412,11 @@ CacheFileWithCache
 					if (TRACE)
 						Logger.log(new LogEvent(torrent, LOGID,
 								"cacheRead: cache use fails, reverting to plain read"));
+					
+					if ( !recursive ){
+						
+						manager.cacheReadMissed();
+					}
 								
 						// reset in case we've done some partial reads
 						
@@ -483,6 +488,13 @@ CacheFileWithCache
 								}
 							}
 							
+								// read-ahead is optional, don't write dirty data on this thread to make room for it
+							
+							if ( do_read_ahead && !manager.canAllocateCacheSpace( actual_read_ahead )){
+								
+								do_read_ahead	= false;
+							}
+							
 							if ( do_read_ahead ){
 									
 								if (TRACE)
@@ -1101,9 +1113,11 @@ CacheFileWithCache
 				
 			}
 			
+			long	start = SystemTime.getHighPrecisionCounter();
+			
 			getFMFile().write( buffers, multi_block_start );
 									
-			manager.fileBytesWritten( expected_overall_write );
+			manager.cacheBytesFlushed( expected_overall_write, SystemTime.getHighPrecisionCounter() - start );
 			
 			// bytes_written += expected_overall_write;
 			
@@ -1115,12 +1129,16 @@ CacheFileWithCache
 			
 		}finally{			
 			
+			long	cleaned	= 0;
+			
 			for (int i=0;i<multi_block_entries.size();i++){
 				
 				CacheEntry	entry = (CacheEntry)multi_block_entries.get(i);
 				
 				if ( release_entries ){
 
+						// still dirty, the manager accounts for it on release
+					
 					manager.releaseCacheSpace( entry );
 					
 				}else{
@@ -1130,9 +1148,16 @@ CacheFileWithCache
 					if ( write_ok ){
 						
 						entry.setClean();
+						
+						cleaned += entry.getLength();
 					}
 				}
 			}
+			
+			if ( cleaned > 0 ){
+				
+				manager.cacheBytesCleaned( cleaned );
+			}
 		}
 	}
 	
@@ -40,6 +40,7 @@ import com.aelitis.azureus.core.peermanager.control.SpeedTokenDispenser;
 import com.aelitis.azureus.core.peermanager.peerdb.PeerItem;
 import com.aelitis.azureus.core.peermanager.piecepicker.*;
 import com.aelitis.azureus.core.peermanager.piecepicker.util.BitFlags;
+import com.aelitis.azureus.core.peermanager.piecepicker.util.PieceAvailability;
 import com.aelitis.azureus.core.util.CopyOnWriteList;
 import com.aelitis.azureus.core.util.CopyOnWriteSet;
 
@@ -142,14 +143,14 @@ implements PiecePicker
 
 	protected volatile int	nbPiecesDone;
 
-	/** asyncronously updated availability */
-	protected volatile int[]	availabilityAsynch;
+	/** availability updated on each have/bitfield/peer removed event, with the pieces by availability level */
+	protected final PieceAvailability	pieceAvailability;
 	/** indicates availability needs to be recomputed due to detected drift */
 	protected volatile long		availabilityDrift;
 	private long				timeAvailRebuild =TIME_AVAIL_REBUILD;
 
-	/** periodically updated consistent view of availability for calculating */
-	protected volatile int[]	availability;
+	/** the live availability of pieceAvailability, only to be written through it */
+	protected final int[]		availability;
 
 	private long				time_last_avail;
 	protected volatile long	availabilityChange;
@@ -178,6 +179,15 @@ implements PiecePicker
 	private volatile long		priorityFileChange;
 	/** last availability event # when priority bases were calculated */
 	private volatile long		priorityAvailChange;
+	/** event # of pieces done or undone */
+	private volatile long		pieceDoneChange;
+	/** last pieces done event # when priority bases were calculated */
+	private long				priorityDoneChange;
+
+	/** the inputs of the rarity boost when priorities were last calculated, a change needs all pieces updated */
+	private int					priorityNbConnects;
+	private int					priorityGlobalMinOthers;
+	private boolean				priorityRarestOverride;
 
 	private boolean 			priorityRTAexists;
 
@@ -186,6 +196,14 @@ implements PiecePicker
 
 	/** the priority for starting each piece/base priority for resuming */
 	private int[]				startPriorities;
+	/** the part of startPriorities coming from the files and user settings, only changes with them */
+	private int[]				filePriorities;
+	/** the pieces not done with a start priority >= 0, in piece order */
+	private int[]				wantedPieces;
+	private int					nbWantedPieces;
+
+	/** reused by getRequestCandidate, the piece picking is single threaded */
+	private final BitFlags		startCandidatesFlags;
 
 	protected volatile boolean	hasNeededUndonePiece;
 	protected volatile long		neededUndonePieceChange;
@@ -267,7 +285,9 @@ implements PiecePicker
 		pePieces = pc.getPieces();
 
 		// now do stuff related to availability
-		availability =new int[nbPieces];  //always needed
+		pieceAvailability =new PieceAvailability(nbPieces);
+		availability =pieceAvailability.getAvailability();  //always needed
+		startCandidatesFlags =new BitFlags(nbPieces);
 
 
 		hasNeededUndonePiece =false;
@@ -283,7 +303,7 @@ implements PiecePicker
 		for (int i =0; i <nbPieces; i++)
 		{
 			if (dmPieces[i].isDone()){
-				availability[i]++;
+				pieceAvailability.increment(i);
 				nbPiecesDone++;
 			}else{
 				hasNeededUndonePiece |=dmPieces[i].calcNeeded();
@@ -333,10 +353,7 @@ implements PiecePicker
 		// peer is null if called from disk-manager callback
 		try
 		{	availabilityMon.enter();
-		if ( availabilityAsynch == null ){
-			availabilityAsynch = (int[])availability.clone();
-		}
-		++availabilityAsynch[pieceNumber];
+		pieceAvailability.increment(pieceNumber);
 		availabilityChange++;
 		} finally {availabilityMon.exit();}
 
@@ -368,11 +385,10 @@ implements PiecePicker
 
 			if (Constants.isCVSVersion())
 			{
-				final int[]   old_availability =availabilityAsynch ==null ?availability :availabilityAsynch;
 				int	errors	= 0;
 
 				for (int i=0;i<new_availability.length;i++){
-					if ( new_availability[i] != old_availability[i]){
+					if ( new_availability[i] != availability[i]){
 						errors++;
 					}
 				}
@@ -388,7 +404,9 @@ implements PiecePicker
 					timeAvailRebuild++;
 			}
 
-			availabilityAsynch	= new_availability;
+			// only the pieces that drifted move
+			for (int i =0; i <nbPieces; i++)
+				pieceAvailability.set(i, new_availability[i]);
 
 			availabilityDrift =0;
 			availabilityChange++;
@@ -398,63 +416,65 @@ implements PiecePicker
 			return;
 		}
 
+		int allMin;
+		int allMax;
+		int rarestMin =Integer.MAX_VALUE;
+		int total;
+		int rarestActive =0;
+		long totalAvail;
+		long newBytesUnavailable = 0;
+
+		// the levels are walked from the rarest up, only as far as the rarest wanted piece
 		try
 		{	availabilityMon.enter();
 		time_last_avail =now;
 		availabilityComputeChange =availabilityChange;
 
-		// take a snapshot of availabilityAsynch
-		if ( availabilityAsynch != null ){
-			availability 		= availabilityAsynch;
-			availabilityAsynch	= null;
-		}
-		} finally {availabilityMon.exit();}
+		allMin =pieceAvailability.getMinLevel();
+		allMax =pieceAvailability.getMaxLevel();
+		total =nbPieces -pieceAvailability.getCount(allMin);
+		totalAvail =pieceAvailability.getTotal();
 
-		int i;
-		int allMin =Integer.MAX_VALUE;
-		int allMax =0;
-		int rarestMin =Integer.MAX_VALUE;
-		for (i =0; i <nbPieces; i++)
+		for (int level =1; level <=allMax &&rarestMin ==Integer.MAX_VALUE; level++)
 		{
-			final int avail =availability[i];
-			final DiskManagerPiece dmPiece =dmPieces[i];
-			final PEPiece	pePiece = pePieces[i];
-
-			if (avail >0 &&avail <rarestMin && dmPiece.isDownloadable() && (pePiece == null || pePiece.isRequestable())) 
-				rarestMin =avail;	// most important targets for near future requests from others
+			final int end =pieceAvailability.getLevelEnd(level);
+			for (int j =pieceAvailability.getLevelStart(level); j <end; j++)
+			{
+				final int i =pieceAvailability.getPiece(j);
+				final PEPiece	pePiece = pePieces[i];
 
-			if (avail <allMin)
-				allMin =avail;
-			if (avail > allMax)
-				allMax =avail;
+				if (dmPieces[i].isDownloadable() && (pePiece == null || pePiece.isRequestable()))
+				{
+					rarestMin =level;	// most important targets for near future requests from others
+					break;
+				}
+			}
 		}
-		// copy updated local variables into globals
-		globalMin =allMin;
-		globalMax =allMax;
-		globalMinOthers =rarestMin;
 
-		int total =0;
-		int rarestActive =0;
-		long totalAvail =0;
-		long newBytesUnavailable = 0;
-		for (i =0; i <nbPieces; i++ )
+		final int rarestMax =Math.min(rarestMin, allMax);
+		for (int level =1; level <=rarestMax; level++)
 		{
-			final int avail =availability[i];
-			final DiskManagerPiece dmPiece =dmPieces[i];
-			final PEPiece	pePiece = pePieces[i];
-
-			if (avail >0)
+			final int end =pieceAvailability.getLevelEnd(level);
+			for (int j =pieceAvailability.getLevelStart(level); j <end; j++)
 			{
-				if (avail >allMin)
-					total++;
-				if (avail <=rarestMin &&dmPiece.isDownloadable() && pePiece != null && !pePiece.isRequested())
+				final int i =pieceAvailability.getPiece(j);
+				final PEPiece	pePiece = pePieces[i];
+
+				if (dmPieces[i].isDownloadable() && pePiece != null && !pePiece.isRequested())
 					rarestActive++;
-				totalAvail +=avail;
-			} else {
-				newBytesUnavailable += dmPiece.getLength();
 			}
 		}
+
+		final int unavailableEnd =pieceAvailability.getLevelEnd(0);
+		for (int j =pieceAvailability.getLevelStart(0); j <unavailableEnd; j++)
+			newBytesUnavailable += dmPieces[pieceAvailability.getPiece(j)].getLength();
+		} finally {availabilityMon.exit();}
+
 		// copy updated local variables into globals
+		globalMin =allMin;
+		globalMax =allMax;
+		globalMinOthers =rarestMin;
+
 		float newGlobalAvail = (total /(float) nbPieces) +allMin;
 		if ( globalAvail >= 1.0 &&  newGlobalAvail < 1.0 ){
 			timeAvailLessThanOne = now;
@@ -1179,20 +1199,30 @@ implements PiecePicker
 	 * been any availability change or user priority setting changes since the last
 	 * call, which will be most of the time since availability changes so dynamicaly
 	 * It will change startPriorities[] (unless there was nothing to do)
+	 * The file based part is only recomputed on user settings or pieces done changes,
+	 * and when only availability changed only the pieces whose availability changed are updated
 	 */
 	private final void 
 	computeBasePriorities()
 	{
 		final long now =SystemTime.getCurrentTime();
 
+		boolean	rtaEnded = false;
+
 		if ( now < lastProviderRecalcTime || now - lastProviderRecalcTime > 1000 ){
 
 			lastProviderRecalcTime = now;
 
+			final boolean	hadRTA = priorityRTAexists;
+
 			priorityRTAexists = computeProviderPriorities();
+
+				// the start priorities boosted by the real time pieces only go away with a full recompute
+
+			rtaEnded = hadRTA && !priorityRTAexists;
 		}
 
-		if ( !priorityRTAexists ){
+		if ( !priorityRTAexists && !rtaEnded ){
 			if (	startPriorities !=null &&
 					(	(now >timeLastPriorities &&now <timeLastPriorities +TIME_MIN_PRIORITIES) ||
 						(priorityParamChange >=paramPriorityChange &&priorityFileChange >=filePriorityChange &&priorityAvailChange >=availabilityChange))){
@@ -1204,13 +1234,75 @@ implements PiecePicker
 		// store the latest change indicators before we start making dependent calculations so that a
 		// further change while computing stuff doesn't get lost
 
+		final boolean filesChanged =startPriorities ==null ||completionPriority ||priorityParamChange <paramPriorityChange
+			||priorityFileChange <filePriorityChange ||priorityDoneChange <pieceDoneChange;
+
 		timeLastPriorities =now;
 		priorityParamChange =paramPriorityChange;
 		priorityFileChange =filePriorityChange;
 		priorityAvailChange =availabilityChange;
+		priorityDoneChange =pieceDoneChange;
+
+		if (startPriorities ==null)
+		{
+			startPriorities =new int[nbPieces];
+			filePriorities =new int[nbPieces];
+			wantedPieces =new int[nbPieces];
+		}
+
+		try
+		{
+			if (filesChanged)
+				computeFilePriorities();
+
+			final boolean rarestOverride = calcRarestAllowed() < 1;
+			final int nbConnects =peerControl.getNbPeers() +peerControl.getNbSeeds();
+			final int minOthers =globalMinOthers;
+
+			CopyOnWriteSet<Integer>	forced = forced_pieces;
+
+			// anything but the availability of some pieces changing affects all of them
+			final boolean allPieces =filesChanged ||priorityRTAexists ||rtaEnded ||provider_piece_priorities !=null ||forced !=null
+				||nbConnects !=priorityNbConnects ||minOthers !=priorityGlobalMinOthers ||rarestOverride !=priorityRarestOverride;
 
+			priorityNbConnects =nbConnects;
+			priorityGlobalMinOthers =minOthers;
+			priorityRarestOverride =rarestOverride;
+
+			try
+			{	availabilityMon.enter();
+				if (!allPieces)
+				{
+					final int nbChanged =pieceAvailability.getNbChanged();
+					for (int j =0; j <nbChanged; j++)
+					{
+						final int i =pieceAvailability.getChanged(j);
+						startPriorities[i] =calcStartPriority(i, nbConnects, minOthers, rarestOverride, forced);
+					}
+				}
+				pieceAvailability.clearChanged();
+			} finally {availabilityMon.exit();}
+
+			if (allPieces)
+			{
+				for (int i =0; i <nbPieces; i++)
+					startPriorities[i] =calcStartPriority(i, nbConnects, minOthers, rarestOverride, forced);
+			}
+		} catch (Throwable e)
+		{
+			Debug.printStackTrace(e);
+		}
+	}
+
+	/**
+	 * Computes the file based priorities of the pieces, the needed state of them
+	 * and the pieces wanted.
+	 */
+	private final void
+	computeFilePriorities()
+	{
 		boolean			foundPieceToDownload =false;
-		final int[]		newPriorities   =new int[nbPieces];
+		int				nbWanted =0;
 
 		// locals are a tiny bit faster
 		final boolean firstPiecePriorityL =firstPiecePriority;
@@ -1222,9 +1314,7 @@ implements PiecePicker
 		
 		try
 		{
-			final boolean rarestOverride = calcRarestAllowed() < 1;
 			// calculate all base (starting) priorities for all pieces needing requesting
-			final int nbConnects =peerControl.getNbPeers() +peerControl.getNbSeeds();
 			for (int i =0; i <nbPieces; i++)
 			{
 				final DiskManagerPiece dmPiece =dmPieces[i];
@@ -1244,6 +1334,7 @@ implements PiecePicker
 							}
 						}
 					}
+					filePriorities[i] =Integer.MIN_VALUE;
 					continue;	// nothing to do for pieces not needing requesting
 				}
 				
@@ -1319,50 +1410,75 @@ implements PiecePicker
 				{
 					dmPiece.setNeeded();
 					foundPieceToDownload =true;
-					final int avail =availability[i];
-					// nbconnects is async calculate so may be wrong - make sure we don't decrease pri by accident
-					if (avail >0 && nbConnects > avail )
-					{   // boost priority for rarity
-						startPriority +=nbConnects -avail;
-//						startPriority +=(PRIORITY_W_RARE +peerControl.getNbPeers()) /avail;
-						// Boost priority even a little more if it's a globally rarest piece
-						if (!rarestOverride &&avail <=globalMinOthers)
-							startPriority +=nbConnects /avail;
-					}
-
-					if ( provider_piece_rtas != null ){
-
-						if ( provider_piece_rtas[i] > 0 ){
-
-							startPriority 	= PRIORITY_REALTIME;
-						}
-					}else if ( provider_piece_priorities != null ){
-
-						startPriority += provider_piece_priorities[i];
-						
-					}else if ( forced != null && forced.contains( i )){
-						
-						startPriority 	= PRIORITY_FORCED;;
-					}
+					wantedPieces[nbWanted++] =i;
 				}else{
 
 					dmPiece.clearNeeded();
 				}
 
-				newPriorities[i] = startPriority;
+				filePriorities[i] = startPriority;
 			}
 		} catch (Throwable e)
 		{
 			Debug.printStackTrace(e);
 		}
 
+		nbWantedPieces =nbWanted;
+
 		if (foundPieceToDownload !=hasNeededUndonePiece)
 		{
 			hasNeededUndonePiece =foundPieceToDownload;
 			neededUndonePieceChange++;
 		}
+	}
+
+	/**
+	 * The file based priority of the piece boosted by its rarity, or overridden by the
+	 * providers and forced pieces.
+	 */
+	private final int
+	calcStartPriority(
+		final int						i,
+		final int						nbConnects,
+		final int						minOthers,
+		final boolean					rarestOverride,
+		final CopyOnWriteSet<Integer>	forced )
+	{
+		if (dmPieces[i].isDone())
+			return 0;
+
+		int startPriority =filePriorities[i];
+
+		if (startPriority <0)
+			return startPriority;
+
+		final int avail =availability[i];
+		// nbconnects is async calculate so may be wrong - make sure we don't decrease pri by accident
+		if (avail >0 && nbConnects > avail )
+		{   // boost priority for rarity
+			startPriority +=nbConnects -avail;
+//			startPriority +=(PRIORITY_W_RARE +peerControl.getNbPeers()) /avail;
+			// Boost priority even a little more if it's a globally rarest piece
+			if (!rarestOverride &&avail <=minOthers)
+				startPriority +=nbConnects /avail;
+		}
+
+		if ( provider_piece_rtas != null ){
+
+			if ( provider_piece_rtas[i] > 0 ){
+
+				startPriority 	= PRIORITY_REALTIME;
+			}
+		}else if ( provider_piece_priorities != null ){
+
+			startPriority += provider_piece_priorities[i];
+			
+		}else if ( forced != null && forced.contains( i )){
+			
+			startPriority 	= PRIORITY_FORCED;;
+		}
 
-		startPriorities =newPriorities;
+		return startPriority;
 	}
 
 
@@ -1959,7 +2075,12 @@ implements PiecePicker
         
 			// Try to continue a piece already loaded, according to priority
         
-        for (i =startI; i <=endI; i++){
+        	// only the pieces we want can be started or resumed, from the first one in the range of the peer
+        
+        final int[]	wanted =wantedPieces;
+        final int	nbWanted =nbWantedPieces;
+        
+        for (int w =firstWantedPiece(wanted, nbWanted, startI); w <nbWanted &&(i =wanted[w]) <=endI; w++){
         
         		// is the piece available from this peer?
         	
@@ -2011,8 +2132,7 @@ implements PiecePicker
         				avail = availability[i];
         				if (avail ==0)
         				{   // maybe we didn't know we could get it before
-        					availability[i] = 1;    // but the peer says s/he has it
-        					avail =1;
+        					avail =1;    // but the peer says s/he has it
         				}else if ( forced != null && forced.contains( i )){
         					avail = globalMinOthers;	// temp override for avail for force
         				}
@@ -2108,7 +2228,7 @@ implements PiecePicker
         					if (!startIsRarest)
         					{   // 1st rarest piece
         						if (startCandidates ==null)
-        							startCandidates =new BitFlags(nbPieces);
+        							startCandidates =startCandidatesFlags;
         						startMaxPriority =priority;
         						startMinAvail =avail;
         						startIsRarest =avail <=globalMinOthers;
@@ -2116,7 +2236,7 @@ implements PiecePicker
         					} else if (priority >startMaxPriority)
         					{   // continuing rarest, higher priority level
         						if (startCandidates ==null)
-        							startCandidates =new BitFlags(nbPieces);
+        							startCandidates =startCandidatesFlags;
         						startMaxPriority =priority;
         						startCandidates.setOnly(i);
         					} else if (priority ==startMaxPriority)
@@ -2128,7 +2248,7 @@ implements PiecePicker
         					if (priority >startMaxPriority)
         					{   // new priority level
         						if (startCandidates ==null)
-        							startCandidates =new BitFlags(nbPieces);
+        							startCandidates =startCandidatesFlags;
         						startMaxPriority =priority;
         						startMinAvail =avail;
         						startIsRarest =avail <=globalMinOthers;
@@ -2136,7 +2256,7 @@ implements PiecePicker
         					} else if (priority ==startMaxPriority)
         					{   // continuing same priority level
         						if (startCandidates ==null)
-        							startCandidates =new BitFlags(nbPieces);
+        							startCandidates =startCandidatesFlags;
 
         						if (avail <startMinAvail)
         						{   // same priority, new availability level
@@ -2202,6 +2322,24 @@ implements PiecePicker
 	}
 
 
+	/**
+	 * @return the index in wanted of the first piece >= pieceNumber
+	 */
+	private static int firstWantedPiece(final int[] wanted, final int nbWanted, final int pieceNumber)
+	{
+		int low =0;
+		int high =nbWanted;
+		while (low <high)
+		{
+			final int mid =(low +high) >>>1;
+			if (wanted[mid] <pieceNumber)
+				low =mid +1;
+			else
+				high =mid;
+		}
+		return low;
+	}
+
 	/** 
 	 * @param startCandidates BitFlags of potential candidates to choose from
 	 * @return int the piece number that was chosen to be started. Note it's possible for
@@ -2952,13 +3090,10 @@ implements PiecePicker
 				return;
 			try
 			{	availabilityMon.enter();
-			if ( availabilityAsynch == null ){
-				availabilityAsynch = (int[])availability.clone();
-			}
 			for (int i =peerHavePieces.start; i <=peerHavePieces.end; i++)
 			{
 				if ( peerHavePieces.flags[i] ){
-					++availabilityAsynch[i];
+					pieceAvailability.increment(i);
 				}
 			}
 			availabilityChange++;
@@ -2976,16 +3111,12 @@ implements PiecePicker
 				return;
 			try
 			{	availabilityMon.enter();
-			if (availabilityAsynch ==null)
-			{
-				availabilityAsynch = (int[])availability.clone();
-			}
 			for (int i =peerHavePieces.start; i <=peerHavePieces.end; i++)
 			{
 				if (peerHavePieces.flags[i])
 				{
-					if (availabilityAsynch[i] >(dmPieces[i].isDone() ?1 :0))
-						--availabilityAsynch[i];
+					if (availability[i] >(dmPieces[i].isDone() ?1 :0))
+						pieceAvailability.decrement(i);
 					else
 						availabilityDrift++;
 				}
@@ -3046,6 +3177,7 @@ implements PiecePicker
 		public final void pieceDoneChanged(DiskManagerPiece dmPiece)
 		{
 			final int pieceNumber =dmPiece.getPieceNumber();
+			pieceDoneChange++;
 			if (dmPiece.isDone())
 			{
 				addHavePiece(null,pieceNumber);
@@ -3056,11 +3188,8 @@ implements PiecePicker
 			{
 				try
 				{   availabilityMon.enter();
-				if ( availabilityAsynch == null ){
-					availabilityAsynch = (int[])availability.clone();
-				}
-				if (availabilityAsynch[pieceNumber] >0)
-					--availabilityAsynch[pieceNumber];
+				if (availability[pieceNumber] >0)
+					pieceAvailability.decrement(pieceNumber);
 				else
 					availabilityDrift++;
 				availabilityChange++;
@@ -167,8 +167,8 @@ public class BitFlags
     /** clears the array then sets the given flag */ 
 	public void setOnly(final int i)
 	{
-        if (start <flags.length)
-            Arrays.fill(flags, start, end, false);
+        if (start <flags.length &&start <=end)
+            Arrays.fill(flags, start, end +1, false);
 		nbSet =1;
 		start =i;
 		end =i;
@@ -0,0 +1,232 @@
+/*
+ * Created on Oct 18, 2014
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package com.aelitis.azureus.core.peermanager.piecepicker.util;
+
+/**
+ * The availability of each piece, kept up to date one have at a time, together with
+ * the pieces grouped by availability level, rarest first.
+ * <p>
+ * The pieces are held in a single array ordered by availability, each level being a
+ * contiguous bucket of it, so moving a piece one level up or down is a swap with the
+ * last or first piece of its bucket. The pieces changed since the last {@link #clearChanged()}
+ * are recorded, so their priorities can be updated without going over all the pieces.
+ * <p>
+ * Not thread safe, the piece picker calls it holding its availability monitor.
+ */
+public class PieceAvailability
+{
+	private final int		nbPieces;
+
+	/** the availability of each piece */
+	private final int[]		avail;
+	/** the pieces, ordered by availability */
+	private final int[]		order;
+	/** the position of each piece in order */
+	private final int[]		pos;
+	/** where each level starts in order, one more entry than levels to end the last one */
+	private int[]			levelStart;
+
+	private long			total;
+
+	private final boolean[]	changed;
+	private final int[]		changedPieces;
+	private int				nbChanged;
+
+	public PieceAvailability(final int _nbPieces)
+	{
+		nbPieces	= _nbPieces;
+		avail		= new int[nbPieces];
+		order		= new int[nbPieces];
+		pos			= new int[nbPieces];
+
+		for (int i =0; i <nbPieces; i++)
+		{
+			order[i]	= i;
+			pos[i]		= i;
+		}
+
+		levelStart =new int[16];
+		for (int level =1; level <levelStart.length; level++)
+			levelStart[level] =nbPieces;
+
+		changed			= new boolean[nbPieces];
+		changedPieces	= new int[nbPieces];
+	}
+
+	/**
+	 * The live availability of the pieces, to be read only.
+	 */
+	public int[] getAvailability()
+	{
+		return avail;
+	}
+
+	public int get(final int pieceNumber)
+	{
+		return avail[pieceNumber];
+	}
+
+	public void increment(final int pieceNumber)
+	{
+		final int level =avail[pieceNumber];
+		if (level +2 >=levelStart.length)
+			grow();
+
+		// the last piece of this level becomes the first of the next one
+		final int last =levelStart[level +1] -1;
+		swap(pos[pieceNumber], last);
+		levelStart[level +1] =last;
+
+		avail[pieceNumber] =level +1;
+		total++;
+		markChanged(pieceNumber);
+	}
+
+	public void decrement(final int pieceNumber)
+	{
+		final int level =avail[pieceNumber];
+		if (level <=0)
+			return;
+
+		// the first piece of this level becomes the last of the previous one
+		final int first =levelStart[level];
+		swap(pos[pieceNumber], first);
+		levelStart[level] =first +1;
+
+		avail[pieceNumber] =level -1;
+		total--;
+		markChanged(pieceNumber);
+	}
+
+	public void set(final int pieceNumber, final int value)
+	{
+		while (avail[pieceNumber] <value)
+			increment(pieceNumber);
+		while (avail[pieceNumber] >value)
+			decrement(pieceNumber);
+	}
+
+	/**
+	 * The sum of the availability of all the pieces.
+	 */
+	public long getTotal()
+	{
+		return total;
+	}
+
+	/**
+	 * The number of pieces with the given availability.
+	 */
+	public int getCount(final int level)
+	{
+		if (level <0 ||level +1 >=levelStart.length)
+			return 0;
+		return levelStart[level +1] -levelStart[level];
+	}
+
+	public int getMinLevel()
+	{
+		for (int level =0; level +1 <levelStart.length; level++)
+		{
+			if (levelStart[level +1] >levelStart[level])
+				return level;
+		}
+		return 0;
+	}
+
+	public int getMaxLevel()
+	{
+		for (int level =levelStart.length -2; level >0; level--)
+		{
+			if (levelStart[level +1] >levelStart[level])
+				return level;
+		}
+		return 0;
+	}
+
+	/**
+	 * The index in {@link #getPiece(int)} of the first piece with the given availability.
+	 */
+	public int getLevelStart(final int level)
+	{
+		return level +1 <levelStart.length ?levelStart[level] :nbPieces;
+	}
+
+	/**
+	 * The index in {@link #getPiece(int)} past the last piece with the given availability.
+	 */
+	public int getLevelEnd(final int level)
+	{
+		return level +1 <levelStart.length ?levelStart[level +1] :nbPieces;
+	}
+
+	/**
+	 * The piece number at the given index of the pieces ordered by availability.
+	 */
+	public int getPiece(final int index)
+	{
+		return order[index];
+	}
+
+	public int getNbChanged()
+	{
+		return nbChanged;
+	}
+
+	/**
+	 * A piece whose availability changed since the last {@link #clearChanged()}.
+	 */
+	public int getChanged(final int index)
+	{
+		return changedPieces[index];
+	}
+
+	public void clearChanged()
+	{
+		for (int i =0; i <nbChanged; i++)
+			changed[changedPieces[i]] =false;
+		nbChanged =0;
+	}
+
+	private void markChanged(final int pieceNumber)
+	{
+		if (!changed[pieceNumber])
+		{
+			changed[pieceNumber] =true;
+			changedPieces[nbChanged++] =pieceNumber;
+		}
+	}
+
+	private void swap(final int i, final int j)
+	{
+		final int a =order[i];
+		final int b =order[j];
+		order[i] =b;
+		pos[b] =i;
+		order[j] =a;
+		pos[a] =j;
+	}
+
+	private void grow()
+	{
+		final int[] newLevelStart =new int[levelStart.length *2];
+		System.arraycopy(levelStart, 0, newLevelStart, 0, levelStart.length);
+		for (int level =levelStart.length; level <newLevelStart.length; level++)
+			newLevelStart[level] =nbPieces;
+		levelStart =newLevelStart;
+	}
+}
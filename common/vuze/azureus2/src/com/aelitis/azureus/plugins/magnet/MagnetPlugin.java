@@ -98,6 +98,7 @@ MagnetPlugin
 {	
 	public static final int	FL_NONE					= 0x00000000;
 	public static final int	FL_DISABLE_MD_LOOKUP	= 0x00000001;
+	public static final int	FL_NO_MD_LOOKUP_DELAY	= 0x00000002;	// metadata download starts right away, whatever the config
 	
 	private static final String	SECONDARY_LOOKUP 			= "http://magnet.vuze.com/";
 	private static final int	SECONDARY_LOOKUP_DELAY		= 20*1000;
@@ -871,7 +872,7 @@ MagnetPlugin
 
 		if ( md_enabled ){
 			
-			int	delay_millis = md_lookup_delay.getValue()*1000;
+			int	delay_millis = (flags & FL_NO_MD_LOOKUP_DELAY) != 0?0:md_lookup_delay.getValue()*1000;
 			
 			md_delay_event = 
 				SimpleTimer.addEvent(
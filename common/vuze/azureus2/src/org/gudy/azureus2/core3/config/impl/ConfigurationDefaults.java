@@ -509,6 +509,8 @@ public class ConfigurationDefaults {
     def.put( "diskmanager.perf.write.maxmb", new Long(5));
     def.put( "diskmanager.perf.cache.trace", FALSE);
     def.put( "diskmanager.perf.cache.flushpieces", TRUE);
+    def.put( "diskmanager.perf.cache.policy.segmented", FALSE);
+    def.put( "diskmanager.perf.cache.writeback", FALSE);
     def.put( "diskmanager.perf.read.aggregate.enable", FALSE );
     def.put( "diskmanager.perf.read.aggregate.request.limit", ZERO );
     def.put( "diskmanager.perf.read.aggregate.byte.limit", ZERO );
@@ -29,18 +29,21 @@ DiskManagerRecheckInstance
 	private long						metric;
 	private int							piece_length;
 	private boolean						low_priority;
+	private boolean						concurrent;
 	
 	protected
 	DiskManagerRecheckInstance(
 		DiskManagerRecheckScheduler	_scheduler,
 		long						_size,
 		int							_piece_length,
-		boolean						_low_priority )
+		boolean						_low_priority,
+		boolean						_concurrent )
 	{
 		scheduler		= _scheduler;
 		metric			= (_low_priority?0:0x7000000000000000L) + _size;
 		piece_length	= _piece_length;
 		low_priority	= _low_priority;
+		concurrent		= _concurrent;
 	}
 	
 	protected long
@@ -61,10 +64,28 @@ DiskManagerRecheckInstance
 		return( low_priority );
 	}
 	
+	protected boolean
+	isConcurrent()
+	{
+		return( concurrent );
+	}
+	
 	public boolean
 	getPermission()
 	{
-		return( scheduler.getPermission( this ));
+		return( scheduler.getPermission( this, 1 ));
+	}
+	
+		/**
+		 * permission to check the given number of pieces at once, the delay
+		 * between grants is scaled accordingly
+		 */
+	
+	public boolean
+	getPermission(
+		int		pieces )
+	{
+		return( scheduler.getPermission( this, pieces ));
 	}
 	
 	public void
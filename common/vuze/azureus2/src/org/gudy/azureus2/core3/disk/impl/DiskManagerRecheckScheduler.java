@@ -35,6 +35,10 @@ import org.gudy.azureus2.core3.util.RealTimeInfo;
 public class 
 DiskManagerRecheckScheduler 
 {
+		// each running pipeline holds its extents and a hashing thread, keep their number low
+	
+	private static final int	MAX_CONCURRENT	= 2;
+	
 	private static boolean 	friendly_hashing;
 	private static boolean 	smallest_first;
 
@@ -65,6 +69,21 @@ DiskManagerRecheckScheduler
 	register(
 		DiskManagerHelper	helper,
 		boolean				low_priority )
+	{
+		return( register( helper, low_priority, false ));
+	}
+	
+		/**
+		 * concurrent instances run alongside each other as long as all the instances 
+		 * ahead of them are concurrent too, sharing the disk between them, up to
+		 * MAX_CONCURRENT at a time
+		 */
+	
+	public DiskManagerRecheckInstance
+	register(
+		DiskManagerHelper	helper,
+		boolean				low_priority,
+		boolean				concurrent )
 	{
 		try{
 			instance_mon.enter();
@@ -74,7 +93,8 @@ DiskManagerRecheckScheduler
 						this, 
 						helper.getTorrent().getSize(),
 						(int)helper.getTorrent().getPieceLength(),
-						low_priority );
+						low_priority,
+						concurrent );
 			
 			instances.add( res );
 			
@@ -116,7 +136,8 @@ DiskManagerRecheckScheduler
 	
 	protected boolean
 	getPermission(
-		DiskManagerRecheckInstance	instance )
+		DiskManagerRecheckInstance	instance,
+		int							pieces )
 	{
 		boolean	result 	= false;
 		int		delay	= 250;
@@ -124,7 +145,7 @@ DiskManagerRecheckScheduler
 		try{
 			instance_mon.enter();
 
-			if ( instances.get(0) == instance ){
+			if ( isRunnable( instance )){
 					    
 				boolean	low_priority = instance.isLowPriority();
 				
@@ -154,6 +175,8 @@ DiskManagerRecheckScheduler
 		            	delay = Math.min( delay, 409 );
 		              
 		            	delay = Math.max( delay, 12 );
+		            	
+		            	delay *= pieces;
 	  				}
 					
 		            result	= true;
@@ -177,6 +200,28 @@ DiskManagerRecheckScheduler
 		return( result );
 	}
 	
+	private boolean
+	isRunnable(
+		DiskManagerRecheckInstance	instance )
+	{
+		for (int i=0;i<instances.size() && i<MAX_CONCURRENT;i++){
+			
+			DiskManagerRecheckInstance	inst = (DiskManagerRecheckInstance)instances.get(i);
+			
+			if ( inst == instance ){
+				
+				return( true );
+			}
+			
+			if ( !( inst.isConcurrent() && instance.isConcurrent())){
+				
+				return( false );
+			}
+		}
+		
+		return( false );
+	}
+	
 	protected void
 	unregister(
 		DiskManagerRecheckInstance	instance )
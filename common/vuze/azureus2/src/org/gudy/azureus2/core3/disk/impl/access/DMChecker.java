@@ -23,6 +23,7 @@
 package org.gudy.azureus2.core3.disk.impl.access;
 
 import org.gudy.azureus2.core3.disk.*;
+import org.gudy.azureus2.core3.disk.impl.DiskManagerRecheckInstance;
 
 /**
  * @author parg
@@ -52,6 +53,16 @@ DMChecker
 		DiskManagerCheckRequest			request,
 		DiskManagerCheckRequestListener listener );
 	
+		/**
+		 * a pipeline for checking many pieces in a row, as in a recheck, that reads
+		 * consecutive pieces together and hashes them while reading ahead
+		 * @param recheck_inst	permission for each read is obtained from this
+		 */
+	
+	public DMCheckerPipeline
+	createCheckPipeline(
+		DiskManagerRecheckInstance		recheck_inst );
+	
 	public boolean
 	hasOutstandingCheckRequestForPiece(
 		int		piece_number );
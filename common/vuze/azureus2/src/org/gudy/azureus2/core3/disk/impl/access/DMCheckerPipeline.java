@@ -0,0 +1,53 @@
+/*
+ * Created on Oct 18, 2014
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gudy.azureus2.core3.disk.impl.access;
+
+import org.gudy.azureus2.core3.disk.DiskManagerCheckRequest;
+import org.gudy.azureus2.core3.disk.DiskManagerCheckRequestListener;
+
+/**
+ * Checks pieces submitted in order, reading runs of consecutive pieces as a single
+ * extent and hashing each extent while the next one is read. Meant for a single thread
+ * walking the pieces of a torrent, the listeners are called from the hashing threads.
+ */
+
+public interface 
+DMCheckerPipeline 
+{
+		/**
+		 * queues the check, blocks while the extents read ahead are waiting to be hashed
+		 */
+	
+	public void 
+	enqueueCheckRequest(
+		DiskManagerCheckRequest				request,
+		DiskManagerCheckRequestListener 	listener );
+	
+		/**
+		 * reads and hashes the pieces still queued, their results follow asynchronously
+		 */
+	
+	public void
+	flush();
+	
+		/**
+		 * cancels the pieces still queued
+		 */
+	
+	public void
+	cancel();
+}
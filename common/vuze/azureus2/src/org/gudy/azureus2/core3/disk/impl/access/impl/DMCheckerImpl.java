@@ -31,6 +31,7 @@ import org.gudy.azureus2.core3.disk.impl.DiskManagerFileInfoImpl;
 import org.gudy.azureus2.core3.disk.impl.DiskManagerHelper;
 import org.gudy.azureus2.core3.disk.impl.DiskManagerRecheckInstance;
 import org.gudy.azureus2.core3.disk.impl.access.DMChecker;
+import org.gudy.azureus2.core3.disk.impl.access.DMCheckerPipeline;
 import org.gudy.azureus2.core3.disk.impl.piecemapper.DMPieceList;
 import org.gudy.azureus2.core3.disk.impl.piecemapper.DMPieceMapEntry;
 import org.gudy.azureus2.core3.logging.*;
@@ -53,7 +54,7 @@ DMCheckerImpl
 	private static boolean	checking_read_priority;
 	
 	private static AEMonitor		class_mon	= new AEMonitor( "DMChecker:class" );
-	private static List				async_check_queue		= new ArrayList();
+	private static List				async_check_queue		= new LinkedList();
 	private static AESemaphore		async_check_queue_sem 	= new AESemaphore("DMChecker::asyncCheck");
 
 	private static boolean	fully_async = COConfigurationManager.getBooleanParameter( "diskmanager.perf.checking.fully.async" );
@@ -272,6 +273,12 @@ DMCheckerImpl
 		checking_enabled = enabled;
 	}
 	
+	protected boolean
+	isCheckingEnabled()
+	{
+		return( checking_enabled );
+	}
+	
 	public DiskManagerCheckRequest
 	createCheckRequest(
 		int 	pieceNumber,
@@ -300,14 +307,16 @@ DMCheckerImpl
 		  		public void
 				run()
 		  		{
-		  			DiskManagerRecheckInstance	recheck_inst = disk_manager.getRecheckScheduler().register( disk_manager, true );
+		  			DiskManagerRecheckInstance	recheck_inst = disk_manager.getRecheckScheduler().register( disk_manager, true, true );
 		  			
 		  			try{	  					
 		  				final AESemaphore	sem = new AESemaphore( "DMChecker::completeRecheck" );
 		  				
 		  				int	checks_submitted	= 0;
-		  				           
-			            final AESemaphore	 run_sem = new AESemaphore( "DMChecker::completeRecheck:runsem", 2 );
+		  				
+		  					// the pipeline gets the permissions and bounds the data read ahead
+		  				
+		  				DMCheckerPipeline	pipeline = createCheckPipeline( recheck_inst );
 			            
 			            int nbPieces = disk_manager.getNbPieces();
 			            
@@ -322,16 +331,6 @@ DMCheckerImpl
 	  					
 		  					if ( dm_piece.isDone() || !dm_piece.isSkipped()){
 	
-			  					run_sem.reserve();
-			  					
-				  				while( !stopped ){
-					  				
-					  				if ( recheck_inst.getPermission()){
-					  					
-					  					break;
-					  				}
-					  			}
-		
 			  					if ( stopped ){
 			  						
 			  						break;
@@ -339,7 +338,7 @@ DMCheckerImpl
 			  					
 			  					final DiskManagerCheckRequest this_request = createCheckRequest( i, request.getUserData());
 			  					
-			  					enqueueCheckRequest( 
+			  					pipeline.enqueueCheckRequest( 
 			  						this_request,
 			  	       				new DiskManagerCheckRequestListener()
 									{
@@ -398,16 +397,22 @@ DMCheckerImpl
 					  	       			protected void
 					  	       			complete()
 					  	       			{
-			  	       						run_sem.release();
-				  	       						
 			  	       						sem.release();
 				  	       				}
-									},
-									false );
+									});
 			  					
 			  					checks_submitted++;
 		  					}
 		  				}
+		  				
+		  				if ( stopped ){
+		  					
+		  					pipeline.cancel();
+		  					
+		  				}else{
+		  					
+		  					pipeline.flush();
+		  				}
 		  					  					
 		  					// wait for all to complete
 		  					
@@ -458,6 +463,13 @@ DMCheckerImpl
 		}
 	}
 	
+	public DMCheckerPipeline
+	createCheckPipeline(
+		DiskManagerRecheckInstance		recheck_inst )
+	{
+		return( new DMCheckerPipelineImpl( this, disk_manager, recheck_inst ));
+	}
+	
 	public boolean
 	hasOutstandingCheckRequestForPiece(
 		int		piece_number )
@@ -467,9 +479,9 @@ DMCheckerImpl
 			try{
 				class_mon.enter();
 				
-				for (int i=0;i<async_check_queue.size();i++){
+				for (Iterator it=async_check_queue.iterator();it.hasNext();){
 					
-					Object[]	entry = (Object[])async_check_queue.get(i);
+					Object[]	entry = (Object[])it.next();
 					
 					if ( entry[0] == this ){
 						
@@ -501,9 +513,14 @@ DMCheckerImpl
 		
 		request.requestStarts();
 		
-		enqueueCheckRequestSupport( 
-				request, 
-				new DiskManagerCheckRequestListener() 
+		enqueueCheckRequestSupport( request, getCheckInterceptor( listener ), read_flush );
+	}  
+	
+	protected DiskManagerCheckRequestListener
+	getCheckInterceptor(
+		final DiskManagerCheckRequestListener 	listener )
+	{
+		return( new DiskManagerCheckRequestListener() 
 				{
 					public void 
 					checkCompleted( 
@@ -587,8 +604,8 @@ DMCheckerImpl
 							}
 						}
 					}
-				}, read_flush );
-	}  
+				});
+	}
 	  
 	
 	protected void
@@ -0,0 +1,614 @@
+/*
+ * Created on Oct 18, 2014
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gudy.azureus2.core3.disk.impl.access.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.gudy.azureus2.core3.disk.DiskManagerCheckRequest;
+import org.gudy.azureus2.core3.disk.DiskManagerCheckRequestListener;
+import org.gudy.azureus2.core3.disk.impl.DiskManagerHelper;
+import org.gudy.azureus2.core3.disk.impl.DiskManagerRecheckInstance;
+import org.gudy.azureus2.core3.disk.impl.access.DMCheckerPipeline;
+import org.gudy.azureus2.core3.disk.impl.piecemapper.DMPieceList;
+import org.gudy.azureus2.core3.disk.impl.piecemapper.DMPieceMapEntry;
+import org.gudy.azureus2.core3.util.AESemaphore;
+import org.gudy.azureus2.core3.util.AEThread2;
+import org.gudy.azureus2.core3.util.ConcurrentHasher;
+import org.gudy.azureus2.core3.util.ConcurrentHasherRequest;
+import org.gudy.azureus2.core3.util.ConcurrentHasherRequestListener;
+import org.gudy.azureus2.core3.util.DirectByteBuffer;
+import org.gudy.azureus2.core3.util.DirectByteBufferPool;
+
+import com.aelitis.azureus.core.diskmanager.cache.CacheFile;
+import com.aelitis.azureus.core.diskmanager.cache.CacheFileManagerException;
+
+/**
+ * Consecutive pieces of linear files are read as one extent, each run of a file with a
+ * single read, instead of a read request per piece. The pieces of an extent are handed
+ * to the {@link ConcurrentHasher} from another thread, so the next extent is read while
+ * they are hashed, and the extents in memory are bounded. Any other piece, or an extent
+ * that can't be read, is checked the usual way.
+ * <p>
+ * The file reads of all the pipelines take turns in arrival order, so concurrent rechecks
+ * of different torrents share the disk evenly.
+ */
+
+class 
+DMCheckerPipelineImpl
+	implements DMCheckerPipeline
+{
+	private static final int	EXTENT_SIZE		= 4*1024*1024;
+	private static final int	EXTENTS_AHEAD	= 2;
+	private static final int	PIECES_AHEAD	= 2;	// outstanding checks of the per-piece path
+	
+	private static final ReentrantLock	read_lock	= new ReentrantLock( true );
+	
+	private final DMCheckerImpl					checker;
+	private final DiskManagerHelper				disk_manager;
+	private final DiskManagerRecheckInstance	recheck_inst;
+	
+	private final AESemaphore	extent_sem;
+	private final AESemaphore	piece_sem;
+	
+	private List<DiskManagerCheckRequest>			requests	= new ArrayList<DiskManagerCheckRequest>();
+	private List<DiskManagerCheckRequestListener>	listeners	= new ArrayList<DiskManagerCheckRequestListener>();
+	private int										extent_length;
+	
+	private volatile boolean	cancelled;
+	
+	protected
+	DMCheckerPipelineImpl(
+		DMCheckerImpl				_checker,
+		DiskManagerHelper			_disk_manager,
+		DiskManagerRecheckInstance	_recheck_inst )
+	{
+		checker			= _checker;
+		disk_manager	= _disk_manager;
+		recheck_inst	= _recheck_inst;
+		
+		extent_sem		= new AESemaphore( "DMCheckerPipeline:extents", EXTENTS_AHEAD );
+		piece_sem		= new AESemaphore( "DMCheckerPipeline:pieces", PIECES_AHEAD );
+	}
+	
+	public void 
+	enqueueCheckRequest(
+		DiskManagerCheckRequest				request,
+		DiskManagerCheckRequestListener 	listener )
+	{
+		int	piece_number = request.getPieceNumber();
+		
+		if ( cancelled ){
+			
+			request.requestStarts();
+			
+			checker.getCheckInterceptor( listener ).checkCancelled( request );
+			
+			return;
+		}
+		
+		if ( !checker.isCheckingEnabled() || !isLinear( piece_number )){
+			
+			flush();
+			
+			piece_sem.reserve();
+			
+			waitForPermission( 1 );
+			
+			checker.enqueueCheckRequest( request, getPieceListener( listener ));
+			
+			return;
+		}
+		
+		request.requestStarts();
+
+		DiskManagerCheckRequestListener	interceptor = checker.getCheckInterceptor( listener );
+		
+		DMPieceList	piece_list = disk_manager.getPieceList( piece_number );
+		
+		try{
+				// quick check that the files are at least big enough, as in the usual path
+			
+			for (int i=0;i<piece_list.size();i++){
+				
+				DMPieceMapEntry	piece_entry = piece_list.get(i);
+				
+				if ( piece_entry.getFile().getCacheFile().compareLength( piece_entry.getOffset()) < 0 ){
+					
+					interceptor.checkCompleted( request, false );
+					
+					return;
+				}
+			}
+		}catch( Throwable e ){
+			
+			interceptor.checkCancelled( request );
+			
+			return;
+		}
+		
+		int	piece_length = disk_manager.getPieceLength( piece_number );
+		
+		if ( requests.size() > 0 ){
+			
+			int	last = requests.get( requests.size() - 1 ).getPieceNumber();
+			
+			if ( piece_number != last + 1 || extent_length + piece_length > EXTENT_SIZE ){
+				
+				flush();
+			}
+		}
+		
+		requests.add( request );
+		listeners.add( interceptor );
+		
+		extent_length += piece_length;
+	}
+	
+	public void
+	flush()
+	{
+		if ( requests.size() == 0 ){
+			
+			return;
+		}
+		
+		List<DiskManagerCheckRequest>			extent_requests		= requests;
+		List<DiskManagerCheckRequestListener>	extent_listeners	= listeners;
+		int										length				= extent_length;
+		
+		requests		= new ArrayList<DiskManagerCheckRequest>();
+		listeners		= new ArrayList<DiskManagerCheckRequestListener>();
+		extent_length	= 0;
+		
+		if ( !waitForPermission( extent_requests.size())){
+			
+			cancel( extent_requests, extent_listeners );
+			
+			return;
+		}
+		
+		extent_sem.reserve();
+		
+	   	try{
+	   		checker.this_mon.enter();
+	   	
+			if ( checker.stopped ){
+				
+				extent_sem.release();
+				
+				cancel( extent_requests, extent_listeners );
+				
+				return;
+			}
+			
+			checker.async_reads++;
+	   		
+	   	}finally{
+	   		
+	   		checker.this_mon.exit();
+	   	}
+		
+		DirectByteBuffer	buffer = null;
+		
+		try{
+			buffer = DirectByteBufferPool.getBuffer( DirectByteBuffer.AL_DM_CHECK, length );
+			
+			read( extent_requests, buffer );
+			
+		}catch( Throwable e ){
+			
+			if ( buffer != null ){
+				
+				buffer.returnToPool();
+				
+				buffer = null;
+			}
+			
+			extent_sem.release();
+			
+		}finally{
+			
+			try{
+				checker.this_mon.enter();
+
+				checker.async_reads--;
+
+				if ( checker.stopped ){
+
+					checker.async_read_sem.release();
+				}
+			}finally{
+
+				checker.this_mon.exit();
+			}
+		}
+		
+		if ( buffer == null ){
+			
+				// let each piece find out what's wrong on its own
+			
+			for (int i=0;i<extent_requests.size();i++){
+				
+				piece_sem.reserve();
+				
+				checker.enqueueCheckRequestSupport( extent_requests.get(i), getPieceListener( extent_listeners.get(i)), false );
+			}
+		}else{
+			
+			hash( extent_requests, extent_listeners, buffer );
+		}
+	}
+	
+	public void
+	cancel()
+	{
+		cancelled	= true;
+		
+		cancel( requests, listeners );
+		
+		requests.clear();
+		listeners.clear();
+		
+		extent_length	= 0;
+	}
+	
+	private boolean
+	isLinear(
+		int		piece_number )
+	{
+		DMPieceList	piece_list = disk_manager.getPieceList( piece_number );
+		
+		if ( piece_list.size() == 0 ){
+			
+			return( false );
+		}
+		
+		for (int i=0;i<piece_list.size();i++){
+			
+			if ( piece_list.get(i).getFile().getCacheFile().getStorageType() != CacheFile.CT_LINEAR ){
+				
+				return( false );
+			}
+		}
+		
+		return( true );
+	}
+	
+		/**
+		 * releases a slot of the per-piece path once the check is over
+		 */
+	
+	private DiskManagerCheckRequestListener
+	getPieceListener(
+		final DiskManagerCheckRequestListener	listener )
+	{
+		return( new DiskManagerCheckRequestListener()
+				{
+					public void 
+					checkCompleted( 
+						DiskManagerCheckRequest 	request,
+						boolean						passed )
+					{
+						try{
+							listener.checkCompleted( request, passed );
+							
+						}finally{
+							
+							piece_sem.release();
+						}
+					}
+					
+					public void
+					checkCancelled(
+						DiskManagerCheckRequest		request )
+					{
+						try{
+							listener.checkCancelled( request );
+							
+						}finally{
+							
+							piece_sem.release();
+						}
+					}
+					
+					public void 
+					checkFailed( 
+						DiskManagerCheckRequest 	request, 
+						Throwable		 			cause )
+					{
+						try{
+							listener.checkFailed( request, cause );
+							
+						}finally{
+							
+							piece_sem.release();
+						}
+					}
+				});
+	}
+	
+	private boolean
+	waitForPermission(
+		int		pieces )
+	{
+		while( !( cancelled || checker.stopped )){
+			
+			if ( recheck_inst.getPermission( pieces )){
+				
+				return( true );
+			}
+		}
+		
+		return( false );
+	}
+	
+		/**
+		 * reads the pieces into the buffer, merging the runs of each file
+		 */
+	
+	private void
+	read(
+		List<DiskManagerCheckRequest>	extent_requests,
+		DirectByteBuffer				buffer )
+	
+		throws CacheFileManagerException
+	{
+		CacheFile	run_file	= null;
+		long		run_offset	= 0;
+		int			run_start	= 0;
+		int			run_length	= 0;
+		
+		int	pos = 0;
+		
+		for (int i=0;i<extent_requests.size();i++){
+			
+			DMPieceList	piece_list = disk_manager.getPieceList( extent_requests.get(i).getPieceNumber());
+			
+			for (int j=0;j<piece_list.size();j++){
+				
+				DMPieceMapEntry	piece_entry = piece_list.get(j);
+				
+				CacheFile	cache_file = piece_entry.getFile().getCacheFile();
+				
+				if ( cache_file == run_file && piece_entry.getOffset() == run_offset + run_length ){
+					
+					run_length += piece_entry.getLength();
+					
+				}else{
+					
+					if ( run_file != null ){
+						
+						read( run_file, run_offset, buffer, run_start, run_length );
+					}
+					
+					run_file	= cache_file;
+					run_offset	= piece_entry.getOffset();
+					run_start	= pos;
+					run_length	= piece_entry.getLength();
+				}
+				
+				pos += piece_entry.getLength();
+			}
+		}
+		
+		if ( run_file != null ){
+			
+			read( run_file, run_offset, buffer, run_start, run_length );
+		}
+		
+		buffer.limit( DirectByteBuffer.SS_DR, pos );
+		buffer.position( DirectByteBuffer.SS_DR, 0 );
+	}
+	
+	private void
+	read(
+		CacheFile			cache_file,
+		long				offset,
+		DirectByteBuffer	buffer,
+		int					start,
+		int					length )
+	
+		throws CacheFileManagerException
+	{
+		buffer.limit( DirectByteBuffer.SS_DR, start + length );
+		buffer.position( DirectByteBuffer.SS_DR, start );
+		
+		read_lock.lock();
+		
+		try{
+			cache_file.read( buffer, offset, CacheFile.CP_NONE );
+			
+		}finally{
+			
+			read_lock.unlock();
+		}
+		
+			// a short file leaves the rest of the buffer as it was
+		
+		if ( buffer.position( DirectByteBuffer.SS_DR ) != start + length ){
+			
+			throw( new CacheFileManagerException( cache_file, "short read" ));
+		}
+	}
+	
+	private void
+	hash(
+		final List<DiskManagerCheckRequest>			extent_requests,
+		final List<DiskManagerCheckRequestListener>	extent_listeners,
+		final DirectByteBuffer						buffer )
+	{
+		final int[]	remaining = { extent_requests.size() };
+		
+		new AEThread2( "DMCheckerPipeline:hash", true )
+		{
+			public void
+			run()
+			{
+				ByteBuffer	data = buffer.getBuffer( DirectByteBuffer.SS_DR );
+				
+				int	pos = 0;
+				
+				for (int i=0;i<extent_requests.size();i++){
+					
+					DiskManagerCheckRequest	request = extent_requests.get(i);
+					
+					int	piece_length = disk_manager.getPieceLength( request.getPieceNumber());
+					
+					ByteBuffer	piece_data = data.duplicate();
+					
+					piece_data.limit( pos + piece_length );
+					piece_data.position( pos );
+					
+					pos += piece_length;
+					
+					hash( request, extent_listeners.get(i), piece_data, buffer, remaining );
+				}
+			}
+		}.start();
+	}
+	
+	private void
+	hash(
+		final DiskManagerCheckRequest			request,
+		final DiskManagerCheckRequestListener	listener,
+		ByteBuffer								piece_data,
+		final DirectByteBuffer					buffer,
+		final int[]								remaining )
+	{
+		final byte[]	required_hash;
+		
+		try{
+			required_hash = disk_manager.getPieceHash( request.getPieceNumber());
+			
+		}catch( Throwable e ){
+			
+			listener.checkFailed( request, e );
+			
+			pieceDone( buffer, remaining );
+			
+			return;
+		}
+		
+	   	try{
+	   		checker.this_mon.enter();
+	   	
+			if ( checker.stopped ){
+				
+				listener.checkCancelled( request );
+				
+				pieceDone( buffer, remaining );
+				
+				return;
+			}
+			
+			checker.async_checks++;
+	   		
+	   	}finally{
+	   		
+	   		checker.this_mon.exit();
+	   	}
+		
+		ConcurrentHasher.getSingleton().addRequest(
+			piece_data,
+			new ConcurrentHasherRequestListener()
+			{
+				public void
+				complete(
+					ConcurrentHasherRequest	hash_request )
+				{
+					try{
+						byte[] actual_hash = hash_request.getResult();
+						
+						pieceDone( buffer, remaining );
+						
+						if ( actual_hash == null ){
+							
+							listener.checkCancelled( request );
+							
+						}else{
+							
+							request.setHash( actual_hash );
+							
+							boolean	passed = true;
+							
+							for (int i = 0; i < actual_hash.length; i++){
+								
+								if ( actual_hash[i] != required_hash[i]){
+									
+									passed = false;
+									
+									break;
+								}
+							}
+							
+							listener.checkCompleted( request, passed );
+						}
+					}finally{
+						
+						try{
+							checker.this_mon.enter();
+						
+							checker.async_checks--;
+							
+							if ( checker.stopped ){
+								  
+								checker.async_check_sem.release();
+							}
+						}finally{
+							
+							checker.this_mon.exit();
+						}
+					}
+				}
+			},
+			request.isLowPriority());
+	}
+	
+	private void
+	pieceDone(
+		DirectByteBuffer	buffer,
+		int[]				remaining )
+	{
+		boolean	extent_done;
+		
+		synchronized( remaining ){
+			
+			extent_done = --remaining[0] == 0;
+		}
+		
+		if ( extent_done ){
+			
+			buffer.returnToPool();
+			
+			extent_sem.release();
+		}
+	}
+	
+	private void
+	cancel(
+		List<DiskManagerCheckRequest>			extent_requests,
+		List<DiskManagerCheckRequestListener>	extent_listeners )
+	{
+		for (int i=0;i<extent_requests.size();i++){
+			
+			extent_listeners.get(i).checkCancelled( extent_requests.get(i));
+		}
+	}
+}
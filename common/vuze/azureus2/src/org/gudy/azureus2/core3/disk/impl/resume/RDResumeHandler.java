@@ -38,6 +38,7 @@ import org.gudy.azureus2.core3.disk.impl.DiskManagerFileInfoImpl;
 import org.gudy.azureus2.core3.disk.impl.DiskManagerImpl;
 import org.gudy.azureus2.core3.disk.impl.DiskManagerRecheckInstance;
 import org.gudy.azureus2.core3.disk.impl.access.DMChecker;
+import org.gudy.azureus2.core3.disk.impl.access.DMCheckerPipeline;
 import org.gudy.azureus2.core3.disk.impl.piecemapper.DMPieceList;
 import org.gudy.azureus2.core3.disk.impl.piecemapper.DMPieceMapEntry;
 import org.gudy.azureus2.core3.download.DownloadManager;
@@ -149,9 +150,15 @@ RDResumeHandler
 	{
 		//long	start = System.currentTimeMillis();
 				
-		DiskManagerRecheckInstance	recheck_inst = disk_manager.getRecheckScheduler().register( disk_manager, false );
+		DiskManagerRecheckInstance	recheck_inst = disk_manager.getRecheckScheduler().register( disk_manager, false, true );
 
-        final AESemaphore	 run_sem = new AESemaphore( "RDResumeHandler::checkAllPieces:runsem", 2 );
+			// the pipeline gets the permissions and bounds the data read ahead
+		
+        DMCheckerPipeline	pipeline = checker.createCheckPipeline( recheck_inst );
+        
+        	// pieces read ahead and then cancelled by a stop have to be rechecked on restart
+        
+        final int[]	first_cancelled = { Integer.MAX_VALUE };
 
         final List<DiskManagerCheckRequest>	failed_pieces = new ArrayList<DiskManagerCheckRequest>();
         
@@ -386,16 +393,6 @@ RDResumeHandler
 							{
 								dm_piece.setDone( false );
 							} else if ( piece_state == PIECE_RECHECK_REQUIRED || !resumeValid ){
-										
-								run_sem.reserve();
-								
-								while( !stopped ){
-										
-									if ( recheck_inst.getPermission()){
-										
-										break;
-									}
-								}
 								
 								if ( stopped ){
 																		
@@ -408,7 +405,7 @@ RDResumeHandler
 										
 										request.setLowPriority( true );
 										
-										checker.enqueueCheckRequest(
+										pipeline.enqueueCheckRequest(
 											request,
 											new DiskManagerCheckRequestListener()
 											{
@@ -439,6 +436,11 @@ RDResumeHandler
 												checkCancelled(
 													DiskManagerCheckRequest		request )
 												{
+													synchronized( first_cancelled ){
+														
+														first_cancelled[0] = Math.min( first_cancelled[0], request.getPieceNumber());
+													}
+													
 													complete();
 												}
 												
@@ -453,8 +455,6 @@ RDResumeHandler
 												protected void
 												complete()
 												{
-													run_sem.release();
-													
 													pending_checks_sem.release();
 												}
 											});
@@ -470,6 +470,15 @@ RDResumeHandler
 						}
 					}
 					
+					if ( stopped ){
+						
+						pipeline.cancel();
+						
+					}else{
+						
+						pipeline.flush();
+					}
+					
 					while( pending_check_num > 0 ){
 						
 						pending_checks_sem.reserve();
@@ -477,6 +486,11 @@ RDResumeHandler
 						pending_check_num--;
 					}
 					
+					if ( first_cancelled[0] < check_position ){
+						
+						check_position = first_cancelled[0];
+					}
+					
 					if ( partialPieces != null ){
 															
 						Iterator iter = partialPieces.entrySet().iterator();
@@ -539,16 +553,6 @@ RDResumeHandler
 							continue;
 						}
 						
-						run_sem.reserve();
-						
-						while( ! stopped ){
-							
-							if ( recheck_inst.getPermission()){
-								
-								break;
-							}
-						}
-						
 						if ( stopped ){
 														
 							break;
@@ -560,7 +564,7 @@ RDResumeHandler
 							
 							request.setLowPriority( true );
 	
-							checker.enqueueCheckRequest(
+							pipeline.enqueueCheckRequest(
 									request, 
 									new DiskManagerCheckRequestListener()
 									{
@@ -591,6 +595,11 @@ RDResumeHandler
 										checkCancelled(
 											DiskManagerCheckRequest		request )
 										{
+											synchronized( first_cancelled ){
+												
+												first_cancelled[0] = Math.min( first_cancelled[0], request.getPieceNumber());
+											}
+											
 											complete();
 										}
 										
@@ -605,8 +614,6 @@ RDResumeHandler
 										protected void
 										complete()
 										{
-											run_sem.release();
-	
 											pending_checks_sem.release();
 										}
 									});
@@ -619,12 +626,26 @@ RDResumeHandler
 						}
 					}
 					
+					if ( stopped ){
+						
+						pipeline.cancel();
+						
+					}else{
+						
+						pipeline.flush();
+					}
+					
 					while( pending_check_num > 0 ){
 						
 						pending_checks_sem.reserve();
 						
 						pending_check_num--;
 					}
+					
+					if ( first_cancelled[0] < check_position ){
+						
+						check_position = first_cancelled[0];
+					}
 				}
 				
 				if ( failed_pieces.size() > 0 && !TEST_RECHECK_FAILURE_HANDLING ){
@@ -98,7 +98,9 @@ ConcurrentHasher
 			scheduler_sem.release();
 		}
 	
-		final ThreadPool pool	= new ThreadPool( "ConcurrentHasher", 64 );
+			// no more requests than that are run at once, so no more threads either
+		
+		final ThreadPool pool	= new ThreadPool( "ConcurrentHasher", processor_num + 1 );
 		
 		new AEThread2("ConcurrentHasher:scheduler", true )
 		{
@@ -39,7 +39,7 @@ public class Timer
 	
 	private ThreadPool	thread_pool;
 		
-	private Set<TimerEvent>	events = new TreeSet<TimerEvent>();
+	private TimerWheel	events = new TimerWheel( SystemTime.getCurrentTime());
 		
 	private long	unique_id_next	= 0;
 	
@@ -106,7 +106,7 @@ public class Timer
 	public synchronized List<TimerEvent>
 	getEvents()
 	{
-		return( new ArrayList<TimerEvent>( events ));
+		return( events.getEvents());
 	}
 	public void
 	setLogging(
@@ -137,7 +137,7 @@ public class Timer
 		while( true ){
 			
 			try{
-				TimerEvent	event_to_run = null;
+				List<TimerEvent>	events_to_run;
 				
 				synchronized(this){
 					
@@ -163,9 +163,7 @@ public class Timer
 						
 						long	now = SystemTime.getCurrentTime();
 						
-						TimerEvent	next_event = (TimerEvent)events.iterator().next();
-						
-						long	when = next_event.getWhen();
+						long	when = events.getNextWhen();
 						
 						long	delay = when - now;
 						
@@ -197,30 +195,21 @@ public class Timer
 					
 					long	now = SystemTime.getCurrentTime();
 					
-					Iterator<TimerEvent>	it = events.iterator();
+						// everything due within the granularity of the clock goes in one batch
 					
-					TimerEvent	next_event = it.next();
-						
-					long rem = next_event.getWhen() - now;
-																			
-					if ( rem <= SystemTime.TIME_GRANULARITY_MILLIS ){
-							
-						event_to_run = next_event;
-							
-						it.remove();
-						
-						/*
-						if ( rem < -100 ){
-							
-							System.out.println( "Late scheduling [" + (-rem) + "] of " + event_to_run.getString());
-						}
-						*/
-					}
+					events_to_run = events.expire( now + SystemTime.TIME_GRANULARITY_MILLIS );
 					
-					// System.out.println( getName() +": events=" + events.size() + ", to_run=" +  (event_to_run==null?"null":event_to_run.getString()));
+					// System.out.println( getName() +": events=" + events.size() + ", to_run=" + events_to_run.size());
 				}
 				
-				if ( event_to_run != null ){
+				for ( TimerEvent event_to_run: events_to_run ){
+					
+						// the pool may block when full, don't run what got cancelled meanwhile
+					
+					if ( event_to_run.isCancelled()){
+						
+						continue;
+					}
 					
 					event_to_run.setHasRun();
 					
@@ -249,14 +238,12 @@ public class Timer
 			
 			synchronized( this ){
 										
-				Iterator<TimerEvent>	it = events.iterator();
+					// the events are put back in the wheel with their new times, no need to sort
 				
-				List<TimerEvent>	updated_events = new ArrayList<TimerEvent>( events.size());
+				List<TimerEvent>	updated_events = events.reset( Math.min( current_time, SystemTime.getCurrentTime()));
 				
-				while (it.hasNext()){
-					
-					TimerEvent	event = (TimerEvent)it.next();
-					
+				for ( TimerEvent event: updated_events ){
+										
 						// absolute events don't have their timings fiddled with
 					
 					if ( !event.isAbsolute()){
@@ -298,14 +285,8 @@ public class Timer
 						}
 					}
 					
-					updated_events.add( event );
+					events.add( event );
 				}
-														
-					// resort - we have to use an alternative list of events as input because if we just throw the
-					// treeset in the constructor optimises things under the assumption that the original set
-					// was correctly sorted...
-				
-				events = new TreeSet<TimerEvent>( updated_events );
 			}
 		}
 	}
@@ -315,7 +296,12 @@ public class Timer
 		long	current_time,
 		long	offset )
 	{
-		if ( Math.abs( offset ) >= 60*1000 ){
+		boolean	adjust = Math.abs( offset ) >= 60*1000;
+		
+			// the wheel has got ahead of a clock that went back, it has to start again from the
+			// current time or events added from now on would be taken as due
+		
+		if ( adjust || offset < 0 ){
 			
 				// there's a chance that between the change being notified and completed an event was scheduled
 				// using an un-modified current time. Nothing can be done for non-periodic events but for periodic
@@ -324,17 +310,13 @@ public class Timer
 			
 			synchronized( this ){
 				
-				Iterator<TimerEvent>	it = events.iterator();
-				
-				boolean	updated = false;
+				List<TimerEvent>	updated_events = events.reset( current_time );
 								
-				while ( it.hasNext()){
-					
-					TimerEvent	event = (TimerEvent)it.next();
+				for ( TimerEvent event: updated_events ){
 					
 						// absolute events don't have their timings fiddled with
 					
-					if ( !event.isAbsolute()){
+					if ( adjust && !event.isAbsolute()){
 													
 						TimerEventPerformer performer = event.getPerformer();
 						
@@ -355,16 +337,11 @@ public class Timer
 								//Debug.outNoStack( periodic_event.getName() + ": clock change sanity check. Reduced schedule time from " + old_when + " to " +  adjusted_when );
 
 								event.setWhen( adjusted_when );
-								
-								updated = true;
 							}
 						}
 					}
-				}
-														
-				if ( updated ){
 					
-					events = new TreeSet<TimerEvent>( new ArrayList<TimerEvent>( events ));
+					events.add( event );
 				}
 				
 				// must have this notify here as the scheduling code uses the current time to calculate
@@ -383,15 +360,11 @@ public class Timer
 
 		synchronized (this) {
 			
-				// as we're adjusting all events by the same amount the ordering remains valid
-
-			Iterator<TimerEvent> it = events.iterator();
+				// the times change so the events go back in the wheel, which is linear
 
-			boolean resort = false;
-			
-			while (it.hasNext()) {
+			List<TimerEvent> updated_events = events.reset( SystemTime.getCurrentTime());
 
-				TimerEvent event = it.next();
+			for ( TimerEvent event: updated_events ){
 
 				long old_when = event.getWhen();
 				long new_when = old_when + offset;
@@ -402,19 +375,14 @@ public class Timer
 
 					// Debug.out( "Ignoring wrap around for " + event.getName());
 					
-					resort = true;
-					
 				}else{
 					
 					// System.out.println( "    adjusted: " + old_when + " -> " + new_when );
 
 					event.setWhen( new_when );
 				}
-			}
-			
-			if ( resort ){
-
-				events = new TreeSet<TimerEvent>( new ArrayList<TimerEvent>( events ));
+				
+				events.add( event );
 			}
 						
 			notify();
@@ -492,6 +460,13 @@ public class Timer
 			event.setName( name );
 		}
 		
+		if ( events.isEmpty()){
+			
+				// nothing to keep track of, the wheel can catch up with the clock
+			
+			events.reset( SystemTime.getCurrentTime());
+		}
+		
 		events.add( event );
 		
 		if ( log ){
@@ -557,9 +532,7 @@ public class Timer
 	cancelEvent(
 		TimerEvent	event )
 	{
-		if ( events.contains( event )){
-			
-			events.remove( event );
+		if ( events.remove( event )){
 		
 			// System.out.println( "event cancelled (" + event.getWhen() + ") - queue = " + events.size());
 	
@@ -611,7 +584,7 @@ public class Timer
 	{
 		System.out.println( "Timer '" + thread_pool.getName() + "': dump" );
 
-		Iterator	it = events.iterator();
+		Iterator	it = events.getEvents().iterator();
 		
 		while(it.hasNext()){
 			
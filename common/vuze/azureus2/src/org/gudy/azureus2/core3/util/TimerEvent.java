@@ -44,6 +44,12 @@ TimerEvent
 	
 	private long			unique_id	= 1;
 	
+		// the slot list of the timer's wheel, guarded by the timer monitor
+	
+	TimerEvent				wheel_prev;
+	TimerEvent				wheel_next;
+	int						wheel_slot	= -1;
+	
 	protected
 	TimerEvent(
 		Timer					_timer,
@@ -0,0 +1,535 @@
+/*
+ * Created on Oct 18, 2014
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * as published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+
+package org.gudy.azureus2.core3.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The pending events of a {@link Timer}, in a hierarchical timing wheel with a tick of
+ * one millisecond. Each of the four levels has 256 slots, a slot of the first level
+ * holding the events of a single tick and a slot of each next level 256 times as many.
+ * Events further away than the last level, about 49 days, wait in an overflow slot.
+ * <p>
+ * Adding and removing an event is linking it in or out of the list of its slot. As time
+ * goes on the events of a slot of an upper level are spread over the level below when
+ * the first level wraps around, the way the kernel timers work, and the ticks without
+ * events are skipped with a bitmap of the slots in use.
+ * <p>
+ * Not thread safe, the timer calls it holding its monitor.
+ */
+
+class
+TimerWheel
+{
+	private static final int	LEVELS		= 4;
+	private static final int	SLOT_BITS	= 8;
+	private static final int	SLOTS		= 1 << SLOT_BITS;
+	private static final int	SLOT_MASK	= SLOTS - 1;
+
+	private static final int	OVERFLOW	= LEVELS*SLOTS;
+
+	private final TimerEvent[]	heads	= new TimerEvent[OVERFLOW+1];
+	private final TimerEvent[]	tails	= new TimerEvent[OVERFLOW+1];
+
+		// a bit per slot in use, 4 words per level
+
+	private final long[]		occupied		= new long[LEVELS*SLOTS/64];
+	private final int[]			level_counts	= new int[LEVELS+1];
+
+	private int					size;
+
+		// the next tick to expire, or the last one when there is nothing before the next call
+
+	private long				time;
+
+	protected
+	TimerWheel(
+		long		_time )
+	{
+		time	= _time;
+	}
+
+	protected int
+	size()
+	{
+		return( size );
+	}
+
+	protected boolean
+	isEmpty()
+	{
+		return( size == 0 );
+	}
+
+	protected void
+	add(
+		TimerEvent		event )
+	{
+		long	when	= event.getWhen();
+		long	delta	= when - time;
+
+		int		slot;
+
+		if ( delta < 0 ){
+
+				// overdue, goes with the next tick
+
+			slot = (int)( time & SLOT_MASK );
+
+		}else if ( delta < 1L << SLOT_BITS ){
+
+			slot = (int)( when & SLOT_MASK );
+
+		}else if ( delta < 1L << ( 2*SLOT_BITS )){
+
+			slot = SLOTS + (int)(( when >>> SLOT_BITS ) & SLOT_MASK );
+
+		}else if ( delta < 1L << ( 3*SLOT_BITS )){
+
+			slot = 2*SLOTS + (int)(( when >>> ( 2*SLOT_BITS )) & SLOT_MASK );
+
+		}else if ( delta < 1L << ( 4*SLOT_BITS )){
+
+			slot = 3*SLOTS + (int)(( when >>> ( 3*SLOT_BITS )) & SLOT_MASK );
+
+		}else{
+
+			slot = OVERFLOW;
+		}
+
+		TimerEvent	tail = tails[slot];
+
+		event.wheel_slot	= slot;
+		event.wheel_prev	= tail;
+		event.wheel_next	= null;
+
+		if ( tail == null ){
+
+			heads[slot] = event;
+
+			if ( slot != OVERFLOW ){
+
+				occupied[slot >> 6] |= 1L << ( slot & 63 );
+			}
+		}else{
+
+			tail.wheel_next = event;
+		}
+
+		tails[slot] = event;
+
+		level_counts[slot >> SLOT_BITS]++;
+
+		size++;
+	}
+
+		/**
+		 * @return false if the event isn't in the wheel
+		 */
+
+	protected boolean
+	remove(
+		TimerEvent		event )
+	{
+		int	slot = event.wheel_slot;
+
+		if ( slot < 0 ){
+
+			return( false );
+		}
+
+		TimerEvent	prev = event.wheel_prev;
+		TimerEvent	next = event.wheel_next;
+
+		if ( prev == null ){
+
+			heads[slot] = next;
+
+		}else{
+
+			prev.wheel_next = next;
+		}
+
+		if ( next == null ){
+
+			tails[slot] = prev;
+
+		}else{
+
+			next.wheel_prev = prev;
+		}
+
+		if ( heads[slot] == null && slot != OVERFLOW ){
+
+			occupied[slot >> 6] &= ~( 1L << ( slot & 63 ));
+		}
+
+		event.wheel_slot	= -1;
+		event.wheel_prev	= null;
+		event.wheel_next	= null;
+
+		level_counts[slot >> SLOT_BITS]--;
+
+		size--;
+
+		return( true );
+	}
+
+		/**
+		 * the earliest time of the events, Long.MAX_VALUE if there are none
+		 */
+
+	protected long
+	getNextWhen()
+	{
+		long	result = Long.MAX_VALUE;
+
+		if ( size == 0 ){
+
+			return( result );
+		}
+
+			// the first slot in use of each level, from the one the level turns to next, holds the
+			// earliest events of the level
+
+		for ( int level=0; level<=LEVELS; level++ ){
+
+			if ( level_counts[level] == 0 ){
+
+				continue;
+			}
+
+			int	slot;
+
+			if ( level == LEVELS ){
+
+				slot = OVERFLOW;
+
+			}else{
+
+				int	from = (int)( nextTurn( level, time ) & SLOT_MASK );
+
+				slot = level*SLOTS + nextOccupied( level, from );
+			}
+
+			for ( TimerEvent event = heads[slot]; event != null; event = event.wheel_next ){
+
+				result = Math.min( result, event.getWhen());
+			}
+		}
+
+		return( result );
+	}
+
+		/**
+		 * removes the events due up to the given time, in the order of their times
+		 */
+
+	protected List<TimerEvent>
+	expire(
+		long		up_to )
+	{
+		List<TimerEvent>	result = null;
+
+		while( size > 0 && time <= up_to ){
+
+			int	index = (int)( time & SLOT_MASK );
+
+			if ( index == 0 ){
+
+				cascade();
+			}
+
+			TimerEvent	event = heads[index];
+
+			if ( event != null ){
+
+				if ( result == null ){
+
+					result = new ArrayList<TimerEvent>();
+				}
+
+				int	count = 0;
+
+				while( event != null ){
+
+					TimerEvent	next = event.wheel_next;
+
+					event.wheel_slot	= -1;
+					event.wheel_prev	= null;
+					event.wheel_next	= null;
+
+					result.add( event );
+
+					count++;
+
+					event = next;
+				}
+
+				heads[index] = null;
+				tails[index] = null;
+
+				occupied[index >> 6] &= ~( 1L << ( index & 63 ));
+
+				level_counts[0] -= count;
+
+				size -= count;
+			}
+
+			time = Math.min( nextTick( time + 1 ), up_to + 1 );
+		}
+
+		if ( time <= up_to + 1 ){
+
+				// stay on the last tick, events added meanwhile that are due by then go in its slot
+				// and the next call takes them, spreading its upper slots again finds them empty
+
+			time = up_to;
+		}
+
+		if ( result == null ){
+
+			return( Collections.emptyList());
+		}
+
+		if ( result.size() > 1 ){
+
+			Collections.sort( result );
+		}
+
+		return( result );
+	}
+
+		/**
+		 * the events, in the order of their times
+		 */
+
+	protected List<TimerEvent>
+	getEvents()
+	{
+		List<TimerEvent>	result = new ArrayList<TimerEvent>( size );
+
+		for ( int slot=0; slot<=OVERFLOW; slot++ ){
+
+			for ( TimerEvent event = heads[slot]; event != null; event = event.wheel_next ){
+
+				result.add( event );
+			}
+		}
+
+		Collections.sort( result );
+
+		return( result );
+	}
+
+		/**
+		 * removes all the events and restarts the wheel at the given time, used to add
+		 * them back once their times have been changed
+		 */
+
+	protected List<TimerEvent>
+	reset(
+		long		_time )
+	{
+		List<TimerEvent>	result = new ArrayList<TimerEvent>( size );
+
+		for ( int slot=0; slot<=OVERFLOW; slot++ ){
+
+			TimerEvent	event = heads[slot];
+
+			while( event != null ){
+
+				TimerEvent	next = event.wheel_next;
+
+				event.wheel_slot	= -1;
+				event.wheel_prev	= null;
+				event.wheel_next	= null;
+
+				result.add( event );
+
+				event = next;
+			}
+
+			heads[slot] = null;
+			tails[slot] = null;
+		}
+
+		for ( int i=0; i<occupied.length; i++ ){
+
+			occupied[i] = 0;
+		}
+
+		for ( int i=0; i<level_counts.length; i++ ){
+
+			level_counts[i] = 0;
+		}
+
+		size	= 0;
+		time	= _time;
+
+		return( result );
+	}
+
+		/**
+		 * the first tick from the given one that has events or spreads a slot in use of an
+		 * upper level, the ticks between have nothing to do
+		 */
+
+	private long
+	nextTick(
+		long		tick )
+	{
+		long	result = Long.MAX_VALUE;
+
+		for ( int level=0; level<=LEVELS; level++ ){
+
+			if ( level_counts[level] == 0 ){
+
+				continue;
+			}
+
+			long	turn = nextTurn( level, tick );
+
+			if ( level < LEVELS ){
+
+				int	index = (int)( turn & SLOT_MASK );
+
+				turn += ( nextOccupied( level, index ) - index ) & SLOT_MASK;
+			}
+
+			result = Math.min( result, turn << ( level*SLOT_BITS ));
+		}
+
+		return( result );
+	}
+
+		/**
+		 * the first turn of the level at or after the given tick, counted in slots of the level
+		 */
+
+	private static long
+	nextTurn(
+		int			level,
+		long		tick )
+	{
+		return((( tick - 1 ) >> ( level*SLOT_BITS )) + 1 );
+	}
+
+		/**
+		 * spreads the current slot of the second level over the first one, and so on up
+		 * the levels that wrapped around with it
+		 */
+
+	private void
+	cascade()
+	{
+		for ( int level=1; level<=LEVELS; level++ ){
+
+			int	index;
+			int	slot;
+
+			if ( level == LEVELS ){
+
+				index	= 0;
+				slot	= OVERFLOW;
+
+			}else{
+
+				index	= (int)(( time >>> ( level*SLOT_BITS )) & SLOT_MASK );
+				slot	= level*SLOTS + index;
+			}
+
+				// take the list out first, events of the overflow may well go back in it
+
+			TimerEvent	event = heads[slot];
+
+			if ( event != null ){
+
+				int	count = 0;
+
+				for ( TimerEvent e = event; e != null; e = e.wheel_next ){
+
+					count++;
+				}
+
+				heads[slot] = null;
+				tails[slot] = null;
+
+				if ( slot != OVERFLOW ){
+
+					occupied[slot >> 6] &= ~( 1L << ( slot & 63 ));
+				}
+
+				level_counts[slot >> SLOT_BITS] -= count;
+
+				size -= count;
+
+				while( event != null ){
+
+					TimerEvent	next = event.wheel_next;
+
+					add( event );
+
+					event = next;
+				}
+			}
+
+			if ( index != 0 ){
+
+				break;
+			}
+		}
+	}
+
+		/**
+		 * the first slot in use of the level from the given one, wrapping around, -1 if none
+		 */
+
+	private int
+	nextOccupied(
+		int		level,
+		int		from )
+	{
+		int	base	= level*( SLOTS/64 );
+		int	word	= from >> 6;
+		int	bit		= from & 63;
+
+		for ( int i=0; i<=SLOTS/64; i++ ){
+
+			int		w		= ( word + i ) & ( SLOTS/64 - 1 );
+			long	bits	= occupied[base + w];
+
+			if ( i == 0 ){
+
+				bits &= -1L << bit;
+
+			}else if ( i == SLOTS/64 ){
+
+				bits &= ~( -1L << bit );
+			}
+
+			if ( bits != 0 ){
+
+				return( w*64 + Long.numberOfTrailingZeros( bits ));
+			}
+		}
+
+		return( -1 );
+	}
+}
@@ -11,8 +11,11 @@
 
 package com.andrew.apollo;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 import java.util.Random;
 import java.util.TreeSet;
@@ -59,8 +62,8 @@ import com.andrew.apollo.appwidgets.RecentWidgetProvider;
 import com.andrew.apollo.cache.ImageFetcher;
 import com.andrew.apollo.provider.FavoritesStore;
 import com.andrew.apollo.provider.RecentStore;
-import com.andrew.apollo.utils.Lists;
 import com.andrew.apollo.utils.MusicUtils;
+import com.frostwire.android.R;
 import com.frostwire.android.gui.activities.AudioPlayerActivity;
 import com.frostwire.android.util.SystemUtils;
 import com.frostwire.util.Ref;
@@ -313,7 +316,7 @@ public class MusicPlaybackService extends Service {
     /**
      * Keeps a mapping of the track history
      */
-    private static final LinkedList<Integer> mHistory = Lists.newLinkedList();
+    private static final TrackHistory mHistory = new TrackHistory(MAX_HISTORY_SIZE);
 
     /**
      * Used to shuffle the tracks
@@ -321,15 +324,24 @@ public class MusicPlaybackService extends Service {
     private static final Shuffler mShuffler = new Shuffler();
 
     /**
-     * Used to save the queue as reverse hexadecimal numbers, which we can
-     * generate faster than normal decimal or hexadecimal numbers, which in
-     * turn allows us to save the playlist more often without worrying too
-     * much about performance
+     * Used to save the history as reverse hexadecimal numbers, which we can
+     * generate faster than normal decimal or hexadecimal numbers
      */
     private static final char HEX_DIGITS[] = new char[] {
         '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
     };
 
+    /**
+     * The queue is saved to this file as a header, with the version and the
+     * card id, followed by the ids of the tracks, 8 bytes each. Only the part
+     * of the queue changed since the last save is written
+     */
+    private static final String QUEUE_FILE_NAME = "queue";
+
+    private static final int QUEUE_FILE_VERSION = 1;
+
+    private static final int QUEUE_HEADER_SIZE = 8;
+
     /**
      * Service stub
      */
@@ -457,6 +469,19 @@ public class MusicPlaybackService extends Service {
 
     private long[] mAutoShuffleList = null;
 
+    /**
+     * The positions not played yet in shuffle mode
+     */
+    private final UnplayedTracks mUnplayed = new UnplayedTracks();
+
+    private File mQueueFile;
+
+    // The number of tracks in the queue file and the first position changed
+    // since it was written
+    private int mQueueSavedLen = 0;
+
+    private int mQueueDirtyFrom = 0;
+
     private MusicPlayerHandler mPlayerHandler;
 
     private BroadcastReceiver mUnmountReceiver = null;
@@ -466,6 +491,13 @@ public class MusicPlaybackService extends Service {
      */
     private ImageFetcher mImageFetcher;
 
+    /**
+     * The size of the album art in the notification and in the remote control
+     * displays (lock screen), in pixels
+     */
+    private int mNotificationArtSize;
+    private int mRemoteControlArtSize;
+
     /**
      * Used to build the notification
      */
@@ -547,6 +579,8 @@ public class MusicPlaybackService extends Service {
 
         // Initialize the image fetcher
         mImageFetcher = ImageFetcher.getInstance(this);
+        mNotificationArtSize = getResources().getDimensionPixelSize(R.dimen.notification_expanded_height);
+        mRemoteControlArtSize = getResources().getDimensionPixelSize(R.dimen.remote_control_artwork_size);
 
         // Start up the thread running the service. Note that we create a
         // separate thread because the service normally runs in the process's
@@ -571,6 +605,7 @@ public class MusicPlaybackService extends Service {
 
         // Initialize the preferences
         mPreferences = getSharedPreferences("Service", 0);
+        mQueueFile = new File(getFilesDir(), QUEUE_FILE_NAME);
         mCardId = getCardId();
 
         registerExternalStorageListener();
@@ -796,7 +831,7 @@ public class MusicPlaybackService extends Service {
     private void updateNotification() {
         if (!mAnyActivityInForeground && isPlaying()) {
             mNotificationHelper.buildNotification(getAlbumName(), getArtistName(),
-                    getTrackName(), getAlbumId(), getAlbumArt(), isPlaying());
+                    getTrackName(), getAlbumId(), getAlbumArt(mNotificationArtSize, mNotificationArtSize), isPlaying());
         } else if (mAnyActivityInForeground) {
             mNotificationHelper.killNotification();
         }
@@ -929,10 +964,9 @@ public class MusicPlaybackService extends Service {
                 mPlayPos -= last - first + 1;
             }
             final int num = mPlayListLen - last - 1;
-            for (int i = 0; i < num; i++) {
-                mPlayList[first + i] = mPlayList[last + 1 + i];
-            }
+            System.arraycopy(mPlayList, last + 1, mPlayList, first, num);
             mPlayListLen -= last - first + 1;
+            onQueueChanged(first);
 
             if (gotonext) {
                 if (mPlayListLen == 0) {
@@ -976,14 +1010,10 @@ public class MusicPlaybackService extends Service {
         }
 
         final int tailsize = mPlayListLen - position;
-        for (int i = tailsize; i > 0; i--) {
-            mPlayList[position + i] = mPlayList[position + i - addlen];
-        }
-
-        for (int i = 0; i < addlen; i++) {
-            mPlayList[position + i] = list[i];
-        }
+        System.arraycopy(mPlayList, position, mPlayList, position + addlen, tailsize);
+        System.arraycopy(list, 0, mPlayList, position, addlen);
         mPlayListLen += addlen;
+        onQueueChanged(position);
         if (mPlayListLen == 0) {
             closeCursor();
             notifyChange(META_CHANGED);
@@ -1117,52 +1147,30 @@ public class MusicPlaybackService extends Service {
             }
             return mPlayPos;
         } else if (mShuffleMode == SHUFFLE_NORMAL) {
-            if (mPlayPos >= 0) {
+            if (mPlayPos >= 0 && (mHistory.size() == 0 || mHistory.getLast() != mPlayPos)) {
                 mHistory.add(mPlayPos);
             }
-            if (mHistory.size() > MAX_HISTORY_SIZE) {
-                mHistory.remove(0);
-            }
             final int numTracks = mPlayListLen;
-            final int[] tracks = new int[numTracks];
-            for (int i = 0; i < numTracks; i++) {
-                tracks[i] = i;
-            }
-
-            final int numHistory = mHistory.size();
-            int numUnplayed = numTracks;
-            for (int i = 0; i < numHistory; i++) {
-                final int idx = mHistory.get(i).intValue();
-                if (idx < numTracks && tracks[idx] >= 0) {
-                    numUnplayed--;
-                    tracks[idx] = -1;
+            if (!mUnplayed.isValid(numTracks)) {
+                // the queue changed, start over without the tracks in the history
+                mUnplayed.reset(numTracks);
+                final int numHistory = mHistory.size();
+                for (int i = 0; i < numHistory; i++) {
+                    mUnplayed.remove(mHistory.get(i));
                 }
             }
-            if (numUnplayed <= 0) {
+            mUnplayed.remove(mPlayPos);
+            if (mUnplayed.size() <= 0) {
                 if (mRepeatMode == REPEAT_ALL || force) {
-                    numUnplayed = numTracks;
-                    for (int i = 0; i < numTracks; i++) {
-                        tracks[i] = i;
-                    }
+                    mUnplayed.reset(numTracks);
                 } else {
                     return -1;
                 }
             }
-            int skip = 0;
-            if (mShuffleMode == SHUFFLE_NORMAL || mShuffleMode == SHUFFLE_AUTO) {
-                skip = mShuffler.nextInt(numUnplayed);
-            }
-            int cnt = -1;
-            while (true) {
-                while (tracks[++cnt] < 0) {
-                    ;
-                }
-                skip--;
-                if (skip < 0) {
-                    break;
-                }
+            if (mUnplayed.size() <= 0) {
+                return -1;
             }
-            return cnt;
+            return mUnplayed.next();
         } else if (mShuffleMode == SHUFFLE_AUTO) {
             doAutoShuffleUpdate();
             return mPlayPos + 1;
@@ -1246,10 +1254,8 @@ public class MusicPlaybackService extends Service {
                 lookback /= 2;
             }
             mHistory.add(idx);
-            if (mHistory.size() > MAX_HISTORY_SIZE) {
-                mHistory.remove(0);
-            }
             ensurePlayListCapacity(mPlayListLen + 1);
+            onQueueChanged(mPlayListLen);
             mPlayList[mPlayListLen++] = mAutoShuffleList[idx];
             notify = true;
         }
@@ -1269,7 +1275,7 @@ public class MusicPlaybackService extends Service {
         }
         final int maxidx = histsize - 1;
         for (int i = 0; i < lookbacksize; i++) {
-            final long entry = mHistory.get(maxidx - i);
+            final int entry = mHistory.get(maxidx - i);
             if (entry == idx) {
                 return true;
             }
@@ -1288,9 +1294,8 @@ public class MusicPlaybackService extends Service {
             // need to grow and copy the array for every
             // insert
             final long[] newlist = new long[size * 2];
-            final int len = mPlayList != null ? mPlayList.length : mPlayListLen;
-            for (int i = 0; i < len; i++) {
-                newlist[i] = mPlayList[i];
+            if (mPlayList != null) {
+                System.arraycopy(mPlayList, 0, newlist, 0, mPlayList.length);
             }
             mPlayList = newlist;
         }
@@ -1298,6 +1303,19 @@ public class MusicPlaybackService extends Service {
         // than the allocated size
     }
 
+    /**
+     * Called after the queue changes from the given position onwards, the
+     * shuffle order is rebuilt and the queue file rewritten from there
+     *
+     * @param from The first position changed
+     */
+    private void onQueueChanged(final int from) {
+        mUnplayed.invalidate();
+        if (from < mQueueDirtyFrom) {
+            mQueueDirtyFrom = from;
+        }
+    }
+
     /**
      * Notify the change-receivers that something has changed.
      */
@@ -1371,7 +1389,7 @@ public class MusicPlaybackService extends Service {
         } else if (what.equals(PLAYSTATE_CHANGED)) {
             mRemoteControlClient.setPlaybackState(playState);
         } else if (what.equals(META_CHANGED) || what.equals(QUEUE_CHANGED)) {
-            Bitmap albumArt = getAlbumArt();
+            Bitmap albumArt = getAlbumArt(mRemoteControlArtSize, mRemoteControlArtSize);
             if (albumArt != null) {
                 // RemoteControlClient wants to recycle the bitmaps thrown at it, so we need
                 // to make sure not to hand out our cache copy
@@ -1411,28 +1429,13 @@ public class MusicPlaybackService extends Service {
 
         final SharedPreferences.Editor editor = mPreferences.edit();
         if (full) {
-            final StringBuilder q = new StringBuilder();
-            int len = mPlayListLen;
-            for (int i = 0; i < len; i++) {
-                long n = mPlayList[i];
-                if (n < 0) {
-                    continue;
-                } else if (n == 0) {
-                    q.append("0;");
-                } else {
-                    while (n != 0) {
-                        final int digit = (int)(n & 0xf);
-                        n >>>= 4;
-                        q.append(HEX_DIGITS[digit]);
-                    }
-                    q.append(";");
-                }
-            }
-            editor.putString("queue", q.toString());
+            writeQueue();
+            // the queue used to be saved in the preferences
+            editor.remove("queue");
             editor.putInt("cardid", mCardId);
             if (mShuffleMode != SHUFFLE_NONE) {
-                len = mHistory.size();
-                q.setLength(0);
+                final StringBuilder q = new StringBuilder();
+                final int len = mHistory.size();
                 for (int i = 0; i < len; i++) {
                     int n = mHistory.get(i);
                     if (n == 0) {
@@ -1463,39 +1466,11 @@ public class MusicPlaybackService extends Service {
      * Apollo
      */
     private void reloadQueue() {
-        String q = null;
-        int id = mCardId;
-        if (mPreferences.contains("cardid")) {
-            id = mPreferences.getInt("cardid", ~mCardId);
-        }
-        if (id == mCardId) {
-            q = mPreferences.getString("queue", "");
+        int plen = readQueue();
+        if (plen < 0) {
+            plen = readPreferencesQueue();
         }
-        int qlen = q != null ? q.length() : 0;
-        if (qlen > 1) {
-            int plen = 0;
-            int n = 0;
-            int shift = 0;
-            for (int i = 0; i < qlen; i++) {
-                final char c = q.charAt(i);
-                if (c == ';') {
-                    ensurePlayListCapacity(plen + 1);
-                    mPlayList[plen] = n;
-                    plen++;
-                    n = 0;
-                    shift = 0;
-                } else {
-                    if (c >= '0' && c <= '9') {
-                        n += c - '0' << shift;
-                    } else if (c >= 'a' && c <= 'f') {
-                        n += 10 + c - 'a' << shift;
-                    } else {
-                        plen = 0;
-                        break;
-                    }
-                    shift += 4;
-                }
-            }
+        if (plen > 0) {
             mPlayListLen = plen;
             final int pos = mPreferences.getInt("curpos", 0);
             if (pos < 0 || pos >= mPlayListLen) {
@@ -1538,12 +1513,11 @@ public class MusicPlaybackService extends Service {
                 shufmode = SHUFFLE_NONE;
             }
             if (shufmode != SHUFFLE_NONE) {
-                q = mPreferences.getString("history", "");
-                qlen = q != null ? q.length() : 0;
+                final String q = mPreferences.getString("history", "");
+                final int qlen = q != null ? q.length() : 0;
                 if (qlen > 1) {
-                    plen = 0;
-                    n = 0;
-                    shift = 0;
+                    int n = 0;
+                    int shift = 0;
                     mHistory.clear();
                     for (int i = 0; i < qlen; i++) {
                         final char c = q.charAt(i);
@@ -1575,9 +1549,143 @@ public class MusicPlaybackService extends Service {
                 }
             }
             mShuffleMode = shufmode;
+            mUnplayed.invalidate();
+        }
+    }
+
+    /**
+     * Writes the queue file from the first position changed since the last
+     * write, so adding tracks to the end of the queue only appends them
+     */
+    private void writeQueue() {
+        int start = Math.min(Math.min(mQueueDirtyFrom, mQueueSavedLen), mPlayListLen);
+        if (start == mPlayListLen && mQueueSavedLen == mPlayListLen) {
+            return;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mQueueFile, "rw");
+            if (start > 0) {
+                // rewrite everything if the file is not what we think it is
+                if (file.length() != QUEUE_HEADER_SIZE + mQueueSavedLen * 8L) {
+                    start = 0;
+                } else {
+                    file.seek(4);
+                    if (file.readInt() != mCardId) {
+                        start = 0;
+                    }
+                }
+            }
+            if (start == 0) {
+                file.seek(0);
+                file.writeInt(QUEUE_FILE_VERSION);
+                file.writeInt(mCardId);
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate((mPlayListLen - start) * 8);
+            buffer.asLongBuffer().put(mPlayList, start, mPlayListLen - start);
+            file.seek(QUEUE_HEADER_SIZE + start * 8L);
+            file.write(buffer.array());
+            file.setLength(QUEUE_HEADER_SIZE + mPlayListLen * 8L);
+            mQueueSavedLen = mPlayListLen;
+            mQueueDirtyFrom = Integer.MAX_VALUE;
+        } catch (final IOException e) {
+            Log.w(TAG, "Unable to save the queue", e);
+            mQueueDirtyFrom = 0;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (final IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the queue file into the play list
+     *
+     * @return The number of tracks read, -1 if there is no queue file for the
+     *         current card
+     */
+    private int readQueue() {
+        if (!mQueueFile.exists()) {
+            return -1;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mQueueFile, "r");
+            final byte[] data = new byte[(int)file.length()];
+            file.readFully(data);
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (data.length < QUEUE_HEADER_SIZE || buffer.getInt() != QUEUE_FILE_VERSION
+                    || buffer.getInt() != mCardId) {
+                return -1;
+            }
+            final int plen = buffer.remaining() / 8;
+            ensurePlayListCapacity(plen);
+            buffer.asLongBuffer().get(mPlayList, 0, plen);
+            mQueueSavedLen = plen;
+            mQueueDirtyFrom = Integer.MAX_VALUE;
+            return plen;
+        } catch (final IOException e) {
+            Log.w(TAG, "Unable to read the queue", e);
+            return -1;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (final IOException e) {
+                }
+            }
         }
     }
 
+    /**
+     * Reads the queue saved in the preferences by older versions, it's moved
+     * to the queue file the next time the queue is saved
+     *
+     * @return The number of tracks read
+     */
+    private int readPreferencesQueue() {
+        String q = null;
+        int id = mCardId;
+        if (mPreferences.contains("cardid")) {
+            id = mPreferences.getInt("cardid", ~mCardId);
+        }
+        if (id == mCardId) {
+            q = mPreferences.getString("queue", "");
+        }
+        final int qlen = q != null ? q.length() : 0;
+        int plen = 0;
+        if (qlen > 1) {
+            int n = 0;
+            int shift = 0;
+            for (int i = 0; i < qlen; i++) {
+                final char c = q.charAt(i);
+                if (c == ';') {
+                    ensurePlayListCapacity(plen + 1);
+                    mPlayList[plen] = n;
+                    plen++;
+                    n = 0;
+                    shift = 0;
+                } else {
+                    if (c >= '0' && c <= '9') {
+                        n += c - '0' << shift;
+                    } else if (c >= 'a' && c <= 'f') {
+                        n += 10 + c - 'a' << shift;
+                    } else {
+                        plen = 0;
+                        break;
+                    }
+                    shift += 4;
+                }
+            }
+        }
+        mQueueSavedLen = 0;
+        mQueueDirtyFrom = 0;
+        return plen;
+    }
+
     /**
      * Opens a file and prepares it for playback
      *
@@ -1614,6 +1722,7 @@ public class MusicPlaybackService extends Service {
                         mPlayListLen = 1;
                         mPlayList[0] = mCursor.getLong(IDCOLIDX);
                         mPlayPos = 0;
+                        onQueueChanged(0);
                     }
                 } catch (final UnsupportedOperationException ex) {
                 }
@@ -1943,6 +2052,7 @@ public class MusicPlaybackService extends Service {
                 mPlayPos = mShuffler.nextInt(mPlayListLen);
             }
             mHistory.clear();
+            mUnplayed.invalidate();
             openCurrentAndNext();
             if (oldId != getAudioId()) {
                 notifyChange(META_CHANGED);
@@ -2055,8 +2165,7 @@ public class MusicPlaybackService extends Service {
                 if (histsize == 0) {
                     return;
                 }
-                final Integer pos = mHistory.remove(histsize - 1);
-                mPlayPos = pos.intValue();
+                mPlayPos = mHistory.removeLast();
             } else {
                 if (mPlayPos > 0) {
                     mPlayPos--;
@@ -2129,6 +2238,7 @@ public class MusicPlaybackService extends Service {
                     mPlayPos++;
                 }
             }
+            onQueueChanged(Math.min(index1, index2));
             notifyChange(QUEUE_CHANGED);
         }
     }
@@ -2158,9 +2268,11 @@ public class MusicPlaybackService extends Service {
                 return;
             }
             mShuffleMode = shufflemode;
+            mUnplayed.invalidate();
             if (mShuffleMode == SHUFFLE_AUTO) {
                 if (makeAutoShuffleList()) {
                     mPlayListLen = 0;
+                    onQueueChanged(0);
                     doAutoShuffleUpdate();
                     mPlayPos = 0;
                     openCurrentAndNext();
@@ -2256,12 +2368,14 @@ public class MusicPlaybackService extends Service {
     }
 
     /**
+     * @param width The width of the view showing the album art
+     * @param height The height of the view showing the album art
      * @return The album art for the current album.
      */
-    public Bitmap getAlbumArt() {
+    public Bitmap getAlbumArt(final int width, final int height) {
         // Return the cached artwork
         final Bitmap bitmap = mImageFetcher.getArtwork(getAlbumName(),
-                getAlbumId(), getArtistName());
+                getAlbumId(), getArtistName(), width, height);
         return bitmap;
     }
 
@@ -2437,6 +2551,140 @@ public class MusicPlaybackService extends Service {
         }
     }
 
+    /**
+     * The last positions played, once it's full the oldest ones are dropped
+     */
+    private static final class TrackHistory {
+
+        private final int[] mPositions;
+
+        private int mFirst;
+
+        private int mSize;
+
+        /**
+         * Constructor of <code>TrackHistory</code>
+         *
+         * @param capacity The max number of positions kept
+         */
+        public TrackHistory(final int capacity) {
+            mPositions = new int[capacity];
+        }
+
+        public void add(final int position) {
+            final int capacity = mPositions.length;
+            mPositions[(mFirst + mSize) % capacity] = position;
+            if (mSize < capacity) {
+                mSize++;
+            } else {
+                mFirst = (mFirst + 1) % capacity;
+            }
+        }
+
+        /**
+         * @param index The index in the history, 0 is the oldest position
+         */
+        public int get(final int index) {
+            return mPositions[(mFirst + index) % mPositions.length];
+        }
+
+        public int getLast() {
+            return get(mSize - 1);
+        }
+
+        public int removeLast() {
+            mSize--;
+            return mPositions[(mFirst + mSize) % mPositions.length];
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public void clear() {
+            mFirst = 0;
+            mSize = 0;
+        }
+    }
+
+    /**
+     * The positions of the queue not played yet when shuffling. They are kept
+     * at the front of an array and a played one is swapped with the last of
+     * them, as in a Fisher-Yates shuffle, so both picking the next track and
+     * removing a played one take constant time
+     */
+    private static final class UnplayedTracks {
+
+        private final Random mRandom = new Random();
+
+        private int[] mPositions = new int[0];
+
+        // The index of each position in mPositions, -1 once played
+        private int[] mIndexes = new int[0];
+
+        private int mLength;
+
+        private int mCount;
+
+        private boolean mValid;
+
+        /**
+         * @param length The length of the queue
+         * @return True if this was built for the queue as it is now
+         */
+        public boolean isValid(final int length) {
+            return mValid && mLength == length;
+        }
+
+        public void invalidate() {
+            mValid = false;
+        }
+
+        /**
+         * Marks every position of the queue as unplayed
+         *
+         * @param length The length of the queue
+         */
+        public void reset(final int length) {
+            if (mPositions.length < length) {
+                mPositions = new int[length];
+                mIndexes = new int[length];
+            }
+            for (int i = 0; i < length; i++) {
+                mPositions[i] = i;
+                mIndexes[i] = i;
+            }
+            mLength = length;
+            mCount = length;
+            mValid = true;
+        }
+
+        public void remove(final int position) {
+            if (position < 0 || position >= mLength) {
+                return;
+            }
+            final int index = mIndexes[position];
+            if (index < 0) {
+                return;
+            }
+            final int last = mPositions[--mCount];
+            mPositions[index] = last;
+            mIndexes[last] = index;
+            mIndexes[position] = -1;
+        }
+
+        public int size() {
+            return mCount;
+        }
+
+        /**
+         * @return A random unplayed position, it stays unplayed until removed
+         */
+        public int next() {
+            return mPositions[mRandom.nextInt(mCount)];
+        }
+    }
+
     private static final class Shuffler {
 
         private final LinkedList<Integer> mHistoryOfNumbers = new LinkedList<Integer>();
@@ -85,9 +85,11 @@ public class ImageFetcher {
      * @param albumId The ID of the current album
      * @param artistName The album artist in case we should have to download
      *            missing artwork
+     * @param width The width of the view showing the artwork
+     * @param height The height of the view showing the artwork
      * @return The album art as an {@link Bitmap}
      */
-    public Bitmap getArtwork(final String albumName, final long albumId, final String artistName) {
+    public Bitmap getArtwork(final String albumName, final long albumId, final String artistName, final int width, final int height) {
         if (albumId < 0) {
             return null;
         }
@@ -97,9 +99,9 @@ public class ImageFetcher {
         Uri uri = ContentUris.withAppendedId(ImageLoader.ALBUM_THUMBNAILS_URI, albumId);
 
         if (isMain()) {
-            artwork = ImageLoader.getAlbumArt(context,String.valueOf(albumId));
+            artwork = ImageLoader.getAlbumArt(context, String.valueOf(albumId), width, height);
         } else {
-            artwork = imageLoader.get(uri);
+            artwork = imageLoader.get(uri, width, height);
         }
 
         return artwork != null ? artwork : getDefaultArtwork();
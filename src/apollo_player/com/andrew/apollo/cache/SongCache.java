@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2012 Andrew Neal Licensed under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with the
+ * License. You may obtain a copy of the License at
+ * http://www.apache.org/licenses/LICENSE-2.0 Unless required by applicable law
+ * or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+
+package com.andrew.apollo.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.provider.MediaStore.Audio.AudioColumns;
+import android.util.LruCache;
+
+import com.andrew.apollo.model.Song;
+
+/**
+ * An in memory cache of the title, artist and album of the songs, keyed by
+ * audio id. The songs missing are read from the MediaStore in batches and the
+ * whole cache is dropped when the MediaStore changes.
+ * <p>
+ * The songs of the last ids requested, the current queue, are pinned besides
+ * the LRU, so a queue larger than the LRU is not read again on every requery.
+ * The songs are immutable, they are shared with the callers.
+ */
+public final class SongCache {
+
+    /**
+     * The max number of songs kept
+     */
+    private static final int MAX_SIZE = 5000;
+
+    /**
+     * The max number of ids queried at once
+     */
+    private static final int BATCH_SIZE = 300;
+
+    private static final String[] PROJECTION = new String[] {
+            /* 0 */
+            BaseColumns._ID,
+            /* 1 */
+            AudioColumns.TITLE,
+            /* 2 */
+            AudioColumns.ARTIST,
+            /* 3 */
+            AudioColumns.ALBUM
+    };
+
+    private static SongCache sInstance = null;
+
+    private final ContentResolver mResolver;
+
+    private final LruCache<Long, Song> mCache;
+
+    /**
+     * The songs of the last ids requested, replaced as a whole
+     */
+    private volatile Map<Long, Song> mPinned;
+
+    /**
+     * Changes when the cache is cleared, the songs read before are not pinned
+     */
+    private int mGeneration;
+
+    /**
+     * Constructor of <code>SongCache</code>
+     *
+     * @param context The {@link Context} to use
+     */
+    private SongCache(final Context context) {
+        mResolver = context.getContentResolver();
+        mCache = new LruCache<Long, Song>(MAX_SIZE);
+        mPinned = Collections.emptyMap();
+
+        mResolver.registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true,
+                new ContentObserver(null) {
+                    @Override
+                    public void onChange(final boolean selfChange) {
+                        clear();
+                    }
+                });
+    }
+
+    /**
+     * Used to create a singleton of the song cache
+     *
+     * @param context The {@link Context} to use
+     * @return The instance of this class
+     */
+    public static final synchronized SongCache getInstance(final Context context) {
+        if (sInstance == null) {
+            sInstance = new SongCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the songs with the given ids, reading the ones not in the cache
+     * from the MediaStore. The songs found stay pinned until the next call.
+     *
+     * @param ids The ids of the songs
+     * @return The songs, in the same order as the ids, null for the ids not
+     *         found in the MediaStore, or null if the MediaStore can't be read
+     */
+    public Song[] getSongs(final long[] ids) {
+        final Song[] songs = new Song[ids.length];
+        final int generation = getGeneration();
+        final Map<Long, Song> pinned = mPinned;
+
+        // the positions of the songs not in the cache
+        final int[] missing = new int[Math.min(ids.length, BATCH_SIZE)];
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            songs[i] = pinned.get(ids[i]);
+            if (songs[i] == null) {
+                songs[i] = mCache.get(ids[i]);
+            }
+            if (songs[i] == null) {
+                missing[count++] = i;
+                if (count == missing.length) {
+                    if (!query(ids, songs, missing, count)) {
+                        return null;
+                    }
+                    count = 0;
+                }
+            }
+        }
+        if (count > 0 && !query(ids, songs, missing, count)) {
+            return null;
+        }
+
+        final HashMap<Long, Song> queue = new HashMap<Long, Song>(ids.length * 2);
+        for (final Song song : songs) {
+            if (song != null) {
+                queue.put(song.mSongId, song);
+            }
+        }
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mPinned = queue;
+            }
+        }
+
+        return songs;
+    }
+
+    /**
+     * Removes every song from the cache
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        mPinned = Collections.emptyMap();
+        mCache.evictAll();
+    }
+
+    private synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Reads a batch of songs from the MediaStore into the cache and the result
+     *
+     * @param ids The ids of all the songs
+     * @param songs The result
+     * @param positions The positions of the songs to read
+     * @param count The number of positions
+     * @return False if the MediaStore can't be read
+     */
+    private boolean query(final long[] ids, final Song[] songs, final int[] positions, final int count) {
+        final StringBuilder selection = new StringBuilder();
+        selection.append(BaseColumns._ID + " IN (");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                selection.append(",");
+            }
+            selection.append(ids[positions[i]]);
+        }
+        selection.append(")");
+
+        // the same song can be in the queue more than once
+        final HashMap<Long, Song> batch = new HashMap<Long, Song>(count * 2);
+
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, PROJECTION,
+                    selection.toString(), null, null);
+            if (cursor == null) {
+                return false;
+            }
+            while (cursor.moveToNext()) {
+                final long id = cursor.getLong(0);
+                final Song song = new Song(id, cursor.getString(1), cursor.getString(2),
+                        cursor.getString(3), -1);
+                batch.put(id, song);
+                mCache.put(id, song);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            songs[positions[i]] = batch.get(ids[positions[i]]);
+        }
+        return true;
+    }
+}
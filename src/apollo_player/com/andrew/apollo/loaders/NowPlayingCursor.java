@@ -3,21 +3,21 @@ package com.andrew.apollo.loaders;
 
 import static com.andrew.apollo.utils.MusicUtils.mService;
 
-import java.util.Arrays;
-
 import android.content.Context;
 import android.database.AbstractCursor;
 import android.database.Cursor;
 import android.os.RemoteException;
 import android.provider.BaseColumns;
-import android.provider.MediaStore;
 import android.provider.MediaStore.Audio.AudioColumns;
 
+import com.andrew.apollo.cache.SongCache;
+import com.andrew.apollo.model.Song;
 import com.andrew.apollo.utils.MusicUtils;
 
 /**
  * A custom {@link Cursor} used to return the queue and allow for easy dragging
- * and dropping of the items in it.
+ * and dropping of the items in it. The rows are read from the {@link SongCache},
+ * so a requery after the queue changes only reads the songs not cached yet.
  */
 //@SuppressLint("NewApi")
 public class NowPlayingCursor extends AbstractCursor {
@@ -37,13 +37,13 @@ public class NowPlayingCursor extends AbstractCursor {
 
     private long[] mNowPlaying;
 
-    private long[] mCursorIndexes;
+    private Song[] mSongs;
 
     private int mSize;
 
     private int mCurPos;
 
-    private Cursor mQueueCursor;
+    private Song mCurrent;
 
     /**
      * Constructor of <code>NowPlayingCursor</code>
@@ -72,28 +72,42 @@ public class NowPlayingCursor extends AbstractCursor {
             return true;
         }
 
-        if (mNowPlaying == null || mCursorIndexes == null || newPosition >= mNowPlaying.length) {
+        if (mSongs == null || newPosition < 0 || newPosition >= mSize) {
             return false;
         }
 
-        final long id = mNowPlaying[newPosition];
-        final int cursorIndex = Arrays.binarySearch(mCursorIndexes, id);
-        mQueueCursor.moveToPosition(cursorIndex);
+        mCurrent = mSongs[newPosition];
         mCurPos = newPosition;
         return true;
     }
 
+    /**
+     * @return The song at the current position, shared with the cache
+     */
+    public Song getSong() {
+        return mCurrent;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public String getString(final int column) {
-        try {
-            return mQueueCursor.getString(column);
-        } catch (final Exception ignored) {
-            onChange(true);
+        if (mCurrent == null) {
             return "";
         }
+        switch (column) {
+            case 0:
+                return String.valueOf(mCurrent.mSongId);
+            case 1:
+                return mCurrent.mSongName;
+            case 2:
+                return mCurrent.mArtistName;
+            case 3:
+                return mCurrent.mAlbumName;
+            default:
+                return "";
+        }
     }
 
     /**
@@ -101,7 +115,7 @@ public class NowPlayingCursor extends AbstractCursor {
      */
     @Override
     public short getShort(final int column) {
-        return mQueueCursor.getShort(column);
+        return (short)getLong(column);
     }
 
     /**
@@ -109,12 +123,7 @@ public class NowPlayingCursor extends AbstractCursor {
      */
     @Override
     public int getInt(final int column) {
-        try {
-            return mQueueCursor.getInt(column);
-        } catch (final Exception ignored) {
-            onChange(true);
-            return 0;
-        }
+        return (int)getLong(column);
     }
 
     /**
@@ -122,12 +131,7 @@ public class NowPlayingCursor extends AbstractCursor {
      */
     @Override
     public long getLong(final int column) {
-        try {
-            return mQueueCursor.getLong(column);
-        } catch (final Exception ignored) {
-            onChange(true);
-            return 0;
-        }
+        return column == 0 && mCurrent != null ? mCurrent.mSongId : 0;
     }
 
     /**
@@ -135,7 +139,7 @@ public class NowPlayingCursor extends AbstractCursor {
      */
     @Override
     public float getFloat(final int column) {
-        return mQueueCursor.getFloat(column);
+        return getLong(column);
     }
 
     /**
@@ -143,7 +147,7 @@ public class NowPlayingCursor extends AbstractCursor {
      */
     @Override
     public double getDouble(final int column) {
-        return mQueueCursor.getDouble(column);
+        return getLong(column);
     }
 
     /**
@@ -151,7 +155,10 @@ public class NowPlayingCursor extends AbstractCursor {
      */
     @Override
     public int getType(final int column) {
-        return mQueueCursor.getType(column);
+        if (column == 0) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
     }
 
     /**
@@ -159,7 +166,7 @@ public class NowPlayingCursor extends AbstractCursor {
      */
     @Override
     public boolean isNull(final int column) {
-        return mQueueCursor.isNull(column);
+        return column != 0 && getString(column) == null;
     }
 
     /**
@@ -170,17 +177,6 @@ public class NowPlayingCursor extends AbstractCursor {
         return PROJECTION;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @SuppressWarnings("deprecation")
-    @Override
-    public void deactivate() {
-        if (mQueueCursor != null) {
-            mQueueCursor.deactivate();
-        }
-    }
-
     /**
      * {@inheritDoc}
      */
@@ -195,13 +191,8 @@ public class NowPlayingCursor extends AbstractCursor {
      */
     @Override
     public void close() {
-        try {
-            if (mQueueCursor != null) {
-                mQueueCursor.close();
-                mQueueCursor = null;
-            }
-        } catch (final Exception close) {
-        }
+        mSongs = null;
+        mCurrent = null;
         super.close();
     };
 
@@ -209,57 +200,35 @@ public class NowPlayingCursor extends AbstractCursor {
      * Actually makes the queue
      */
     private void makeNowPlayingCursor() {
-        mQueueCursor = null;
+        mSongs = null;
+        mCurrent = null;
+        mCurPos = -1;
         mNowPlaying = MusicUtils.getQueue();
         mSize = mNowPlaying.length;
         if (mSize == 0) {
             return;
         }
 
-        final StringBuilder selection = new StringBuilder();
-        selection.append(MediaStore.Audio.Media._ID + " IN (");
-        for (int i = 0; i < mSize; i++) {
-            selection.append(mNowPlaying[i]);
-            if (i < mSize - 1) {
-                selection.append(",");
-            }
-        }
-        selection.append(")");
-
-        mQueueCursor = mContext.getContentResolver().query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, PROJECTION, selection.toString(),
-                null, MediaStore.Audio.Media._ID);
-
-        if (mQueueCursor == null) {
+        final SongCache cache = SongCache.getInstance(mContext);
+        mSongs = cache.getSongs(mNowPlaying);
+        if (mSongs == null) {
             mSize = 0;
             return;
         }
 
-        final int playlistSize = mQueueCursor.getCount();
-        mCursorIndexes = new long[playlistSize];
-        mQueueCursor.moveToFirst();
-        final int columnIndex = mQueueCursor.getColumnIndexOrThrow(MediaStore.Audio.Media._ID);
-        for (int i = 0; i < playlistSize; i++) {
-            mCursorIndexes[i] = mQueueCursor.getLong(columnIndex);
-            mQueueCursor.moveToNext();
-        }
-        mQueueCursor.moveToFirst();
-        mCurPos = -1;
-
         int removed = 0;
         for (int i = mNowPlaying.length - 1; i >= 0; i--) {
-            final long trackId = mNowPlaying[i];
-            final int cursorIndex = Arrays.binarySearch(mCursorIndexes, trackId);
-            if (cursorIndex < 0) {
-                removed += MusicUtils.removeTrack(trackId);
+            if (mSongs[i] == null) {
+                removed += MusicUtils.removeTrack(mNowPlaying[i]);
             }
         }
         if (removed > 0) {
             mNowPlaying = MusicUtils.getQueue();
             mSize = mNowPlaying.length;
-            if (mSize == 0) {
-                mCursorIndexes = null;
-                return;
+            // only cached songs now
+            mSongs = mSize > 0 ? cache.getSongs(mNowPlaying) : null;
+            if (mSongs == null) {
+                mSize = 0;
             }
         }
     }
@@ -273,12 +242,9 @@ public class NowPlayingCursor extends AbstractCursor {
             if (mService.removeTracks(which, which) == 0) {
                 return false;
             }
-            int i = which;
             mSize--;
-            while (i < mSize) {
-                mNowPlaying[i] = mNowPlaying[i + 1];
-                i++;
-            }
+            System.arraycopy(mNowPlaying, which + 1, mNowPlaying, which, mSize - which);
+            System.arraycopy(mSongs, which + 1, mSongs, which, mSize - which);
             onMove(-1, mCurPos);
         } catch (final RemoteException ignored) {
         }
@@ -53,26 +53,14 @@ public class QueueLoader extends WrappedAsyncTaskLoader<List<Song>> {
     public List<Song> loadInBackground() {
         // Create the Cursor
         mCursor = new NowPlayingCursor(getContext());
-        // Gather the data
+        // Gather the data, the songs come from the song cache
         if (mCursor != null && mCursor.moveToFirst()) {
+            mSongList.ensureCapacity(mCursor.getCount());
             do {
-                // Copy the song Id
-                final long id = mCursor.getLong(0);
-
-                // Copy the song name
-                final String songName = mCursor.getString(1);
-
-                // Copy the artist name
-                final String artist = mCursor.getString(2);
-
-                // Copy the album name
-                final String album = mCursor.getString(3);
-
-                // Create a new song
-                final Song song = new Song(id, songName, artist, album, -1);
-
-                // Add everything up
-                mSongList.add(song);
+                final Song song = mCursor.getSong();
+                if (song != null) {
+                    mSongList.add(song);
+                }
             } while (mCursor.moveToNext());
         }
         // Close the cursor
@@ -23,27 +23,27 @@ public class Song {
     /**
      * The unique Id of the song
      */
-    public long mSongId;
+    public final long mSongId;
 
     /**
      * The song name
      */
-    public String mSongName;
+    public final String mSongName;
 
     /**
      * The song artist
      */
-    public String mArtistName;
+    public final String mArtistName;
 
     /**
      * The song album
      */
-    public String mAlbumName;
+    public final String mAlbumName;
 
     /**
      * The song duration in seconds
      */
-    public int mDuration;
+    public final int mDuration;
 
     /**
      * Constructor of <code>Song</code>
@@ -52,6 +52,7 @@ public final class Constants {
     // preference keys
     public static final String PREF_KEY_CORE_UUID = "frostwire.prefs.core.uuid";
     public static final String PREF_KEY_CORE_LAST_SEEN_VERSION = "frostwire.prefs.core.last_seen_version";
+    public static final String PREF_KEY_CORE_LIBRARIAN_SYNC_MARK = "frostwire.prefs.core.librarian_sync_mark"; // prefix, one per file type
 
     public static final String PREF_KEY_NETWORK_USE_UPNP = "froswire.prefs.network.use_upnp";
     public static final String PREF_KEY_NETWORK_USE_MOBILE_DATA = "frostwire.prefs.network.use_mobile_data";
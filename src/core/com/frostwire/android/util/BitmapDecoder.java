@@ -0,0 +1,336 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.frostwire.android.util;
+
+import java.lang.reflect.Method;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.BitmapFactory;
+
+import com.frostwire.logging.Logger;
+
+/**
+ * Decodes image files at the size they are going to be shown. The bounds are read first,
+ * the image is subsampled to the smallest power of two that still covers the requested
+ * size, and then scaled down to it. The intermediate bitmaps go to a pool and are
+ * reused by the next decodes. Concurrent requests of the same file and size share
+ * a single decode.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+final class BitmapDecoder {
+
+    private static final Logger LOG = Logger.getLogger(BitmapDecoder.class);
+
+    private final BitmapPool pool;
+    private final ConcurrentHashMap<String, FutureTask<Bitmap>> decoding;
+
+    private final AtomicLong decodes;
+    private final AtomicLong decodeTime;
+    private final AtomicLong reused;
+
+    public BitmapDecoder(int poolSize) {
+        this.pool = new BitmapPool(poolSize);
+        this.decoding = new ConcurrentHashMap<String, FutureTask<Bitmap>>();
+
+        this.decodes = new AtomicLong();
+        this.decodeTime = new AtomicLong();
+        this.reused = new AtomicLong();
+    }
+
+    /**
+     * Returns the image covering the requested size, or the image as is if the size is not
+     * positive. Returns null if the file can't be decoded.
+     * <p>
+     * Concurrent callers of the same file and size get the same bitmap, as with a cache hit,
+     * so it must not be recycled or modified by the caller.
+     */
+    public Bitmap decodeFile(final String path, final int reqWidth, final int reqHeight) {
+        String key = path + ":" + reqWidth + "x" + reqHeight;
+
+        FutureTask<Bitmap> task = new FutureTask<Bitmap>(new Callable<Bitmap>() {
+            @Override
+            public Bitmap call() throws Exception {
+                return decode(path, reqWidth, reqHeight);
+            }
+        });
+
+        FutureTask<Bitmap> running = decoding.putIfAbsent(key, task);
+
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                decoding.remove(key, task);
+            }
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            LOG.warn("Error decoding image: " + path, e.getCause());
+            return null;
+        }
+    }
+
+    public long getDecodes() {
+        return decodes.get();
+    }
+
+    /**
+     * The total time spent decoding, in milliseconds.
+     */
+    public long getDecodeTime() {
+        return decodeTime.get() / 1000000;
+    }
+
+    /**
+     * The number of decodes into a bitmap of the pool.
+     */
+    public long getReused() {
+        return reused.get();
+    }
+
+    public void clear() {
+        pool.clear();
+    }
+
+    private Bitmap decode(String path, int reqWidth, int reqHeight) {
+        long start = System.nanoTime();
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
+        options.inMutable = true;
+
+        Bitmap bitmap = decode(path, options);
+
+        if (bitmap != null) {
+            bitmap = scale(bitmap, reqWidth, reqHeight);
+        }
+
+        decodes.incrementAndGet();
+        decodeTime.addAndGet(System.nanoTime() - start);
+
+        return bitmap;
+    }
+
+    private Bitmap decode(String path, BitmapFactory.Options options) {
+        int sample = options.inSampleSize;
+        int width = (options.outWidth + sample - 1) / sample;
+        int height = (options.outHeight + sample - 1) / sample;
+
+        // before KitKat only a bitmap of the same size can be reused, and without sampling
+        Bitmap candidate = SystemUtils.hasKitKat() || sample == 1 ? pool.get(width, height, options.inPreferredConfig) : null;
+        options.inBitmap = candidate;
+
+        Bitmap bitmap;
+
+        try {
+            bitmap = BitmapFactory.decodeFile(path, options);
+        } catch (IllegalArgumentException e) {
+            // the candidate is not good for this image after all
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(path, options);
+        }
+
+        if (candidate != null) {
+            if (bitmap == candidate) {
+                reused.incrementAndGet();
+            } else {
+                pool.put(candidate);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Scales the bitmap down to cover the requested size, the bitmap passed in goes to the
+     * pool if it is not the one returned.
+     */
+    private Bitmap scale(Bitmap bitmap, int reqWidth, int reqHeight) {
+        if (reqWidth <= 0 || reqHeight <= 0) {
+            return bitmap;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        float scale = Math.max((float) reqWidth / width, (float) reqHeight / height);
+
+        if (scale >= 1) {
+            return bitmap;
+        }
+
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+
+        if (scaled != bitmap) {
+            pool.put(bitmap);
+        }
+
+        return scaled;
+    }
+
+    /**
+     * The largest power of two that keeps both sides of the image at least as large as
+     * the requested ones.
+     */
+    static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sample = 1;
+
+        if (reqWidth > 0 && reqHeight > 0) {
+            while (width / (sample * 2) >= reqWidth && height / (sample * 2) >= reqHeight) {
+                sample *= 2;
+            }
+        }
+
+        return sample;
+    }
+
+    /**
+     * Mutable bitmaps no longer in use, bucketed by their size in bytes.
+     */
+    private static final class BitmapPool {
+
+        private static Method getAllocationByteCount;
+
+        private final int maxSize;
+        private final TreeMap<Integer, LinkedList<Bitmap>> buckets;
+
+        private int size;
+
+        public BitmapPool(int maxSize) {
+            this.maxSize = maxSize;
+            this.buckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+        }
+
+        /**
+         * Returns a bitmap that can be the inBitmap of a decode of the given size, since
+         * KitKat any bitmap large enough, but not much larger, otherwise one of the same size.
+         */
+        public synchronized Bitmap get(int width, int height, Config config) {
+            int bytes = width * height * bytesPerPixel(config);
+
+            Map.Entry<Integer, LinkedList<Bitmap>> e = buckets.ceilingEntry(bytes);
+
+            while (e != null && e.getKey() <= bytes * 2) {
+                LinkedList<Bitmap> bucket = e.getValue();
+
+                for (Bitmap bitmap : bucket) {
+                    if (bitmap.getConfig() == config && (SystemUtils.hasKitKat() || (bitmap.getWidth() == width && bitmap.getHeight() == height))) {
+                        remove(e.getKey(), bitmap);
+                        return bitmap;
+                    }
+                }
+
+                if (!SystemUtils.hasKitKat()) {
+                    break;
+                }
+
+                e = buckets.higherEntry(e.getKey());
+            }
+
+            return null;
+        }
+
+        public synchronized void put(Bitmap bitmap) {
+            int bytes = byteCount(bitmap);
+
+            if (!bitmap.isMutable() || bitmap.isRecycled() || bytes > maxSize) {
+                return;
+            }
+
+            LinkedList<Bitmap> bucket = buckets.get(bytes);
+            if (bucket == null) {
+                bucket = new LinkedList<Bitmap>();
+                buckets.put(bytes, bucket);
+            }
+            bucket.addLast(bitmap);
+            size += bytes;
+
+            // the largest bitmaps are the least likely to fit the next decode
+            while (size > maxSize) {
+                Map.Entry<Integer, LinkedList<Bitmap>> last = buckets.lastEntry();
+                remove(last.getKey(), last.getValue().getFirst());
+            }
+        }
+
+        public synchronized void clear() {
+            buckets.clear();
+            size = 0;
+        }
+
+        private void remove(int bytes, Bitmap bitmap) {
+            LinkedList<Bitmap> bucket = buckets.get(bytes);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                buckets.remove(bytes);
+            }
+            size -= bytes;
+        }
+
+        private static int byteCount(Bitmap bitmap) {
+            if (SystemUtils.hasKitKat()) {
+                // a reused bitmap can be smaller than its allocation, API 19 only
+                try {
+                    if (getAllocationByteCount == null) {
+                        getAllocationByteCount = Bitmap.class.getMethod("getAllocationByteCount");
+                    }
+                    return (Integer) getAllocationByteCount.invoke(bitmap);
+                } catch (Throwable e) {
+                    LOG.warn("Error getting the allocation size of a bitmap", e);
+                }
+            }
+
+            return bitmap.getByteCount();
+        }
+
+        private static int bytesPerPixel(Config config) {
+            if (config == Config.RGB_565 || config == Config.ARGB_4444) {
+                return 2;
+            } else if (config == Config.ALPHA_8) {
+                return 1;
+            } else {
+                return 4;
+            }
+        }
+    }
+}
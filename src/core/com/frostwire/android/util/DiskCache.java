@@ -126,10 +126,22 @@ public final class DiskCache {
         }
     }
 
+    public void clear() {
+        try {
+            cache.evictAll();
+        } catch (IOException e) {
+            LOG.warn("Error clearing internal DiskLruCache: ", e);
+        }
+    }
+
     public long size() {
         return cache.size();
     }
 
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
     public long maxSize() {
         return cache.getMaxSize();
     }
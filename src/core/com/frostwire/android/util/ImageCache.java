@@ -22,6 +22,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 
@@ -44,19 +45,38 @@ final class ImageCache implements Cache {
     private final DiskCache disk;
     private final LruCache mem;
 
+    private final AtomicLong memHits;
+    private final AtomicLong diskHits;
+    private final AtomicLong misses;
+
     public ImageCache(File directory, long diskSize, int memSize) {
         this.disk = createDiskCache(directory, diskSize);
         this.mem = new LruCache(memSize);
+
+        this.memHits = new AtomicLong();
+        this.diskHits = new AtomicLong();
+        this.misses = new AtomicLong();
     }
 
     @Override
     public Bitmap get(String key) {
         Bitmap bmp = mem.get(key);
 
-        if (bmp == null && !isMain()) {
+        if (bmp != null) {
+            memHits.incrementAndGet();
+            return bmp;
+        }
+
+        if (!isMain()) {
             bmp = diskGet(key);
         }
 
+        if (bmp != null) {
+            diskHits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+
         return bmp;
     }
 
@@ -82,6 +102,18 @@ final class ImageCache implements Cache {
         mem.clear();
     }
 
+    public long getMemoryHits() {
+        return memHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
     private InputStream getInputStream(Bitmap bmp) {
         ByteArrayOutputStream out = new ByteArrayOutputStream(bmp.getByteCount());
         bmp.compress(CompressFormat.PNG, 100, out);
@@ -28,10 +28,10 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.provider.MediaStore;
+import android.util.DisplayMetrics;
 import android.widget.ImageView;
 
 import com.squareup.picasso.Downloader;
@@ -49,6 +49,8 @@ public final class ImageLoader {
     private static final int MIN_DISK_CACHE_SIZE = 5 * 1024 * 1024; // 5MB
     private static final int MAX_DISK_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
 
+    private static final int BITMAP_POOL_SIZE = 4 * 1024 * 1024; // 4MB
+
     private static final String SCHEME_IMAGE = "image";
 
     private static final String SCHEME_IMAGE_SLASH = SCHEME_IMAGE + "://";
@@ -61,6 +63,13 @@ public final class ImageLoader {
 
     public static final Uri ALBUM_THUMBNAILS_URI = Uri.parse(SCHEME_IMAGE_SLASH + ALBUM_AUTHORITY);
 
+    private static final String PARAM_WIDTH = "w";
+
+    private static final String PARAM_HEIGHT = "h";
+
+    // static since the album art is also decoded without an instance, for other processes
+    private static final BitmapDecoder decoder = new BitmapDecoder(BITMAP_POOL_SIZE);
+
     private final ImageCache cache;
     private final Picasso picasso;
 
@@ -81,18 +90,29 @@ public final class ImageLoader {
      * 
      * For loading album art inside the application Activities/Views/Fragments, take a look at FileListAdapter and how it uses the ImageLoader.
      * 
+     * The album art is decoded no larger than needed to cover the given size, the one of
+     * the view showing it.
+     * 
      * @param context
      * @param albumId
+     * @param width
+     * @param height
      * @return
      */
-    public static Bitmap getAlbumArt(Context context, String albumId) {
+    public static Bitmap getAlbumArt(Context context, String albumId, int width, int height) {
         Bitmap bitmap = null;
         Cursor cursor = context.getContentResolver().query(Uri.withAppendedPath(MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI, albumId), new String[] { MediaStore.Audio.AlbumColumns.ALBUM_ART }, null, null, null);
 
+        if (cursor == null) {
+            return null;
+        }
+
         try {
             if (cursor.moveToFirst()) {
                 String albumArt = cursor.getString(0);
-                bitmap = BitmapFactory.decodeFile(albumArt);
+                if (albumArt != null) {
+                    bitmap = decoder.decodeFile(albumArt, width, height);
+                }
             }
         } finally {
             cursor.close();
@@ -118,7 +138,7 @@ public final class ImageLoader {
     }
 
     public void load(Uri uri, ImageView target, int targetWidth, int targetHeight) {
-        picasso.load(uri).noFade().resize(targetWidth, targetHeight).into(target);
+        picasso.load(sized(uri, targetWidth, targetHeight)).noFade().resize(targetWidth, targetHeight).into(target);
     }
 
     public void load(Uri uri, ImageView target, int placeholderResId) {
@@ -126,7 +146,7 @@ public final class ImageLoader {
     }
 
     public void load(Uri uri, ImageView target, int targetWidth, int targetHeight, int placeholderResId) {
-        picasso.load(uri).noFade().resize(targetWidth, targetHeight).placeholder(placeholderResId).into(target);
+        picasso.load(sized(uri, targetWidth, targetHeight)).noFade().resize(targetWidth, targetHeight).placeholder(placeholderResId).into(target);
     }
 
     public Bitmap get(Uri uri) {
@@ -137,8 +157,81 @@ public final class ImageLoader {
         }
     }
 
+    public Bitmap get(Uri uri, int targetWidth, int targetHeight) {
+        try {
+            return picasso.load(sized(uri, targetWidth, targetHeight)).resize(targetWidth, targetHeight).get();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     public void clear() {
         cache.clear();
+        decoder.clear();
+    }
+
+    public Stats getStats() {
+        return new Stats(cache.getMemoryHits(), cache.getDiskHits(), cache.getMisses(), decoder.getDecodes(), decoder.getDecodeTime(), decoder.getReused());
+    }
+
+    /**
+     * The size of the images decoded by us is passed along to the downloaders in the uri.
+     */
+    private static Uri sized(Uri uri, int width, int height) {
+        if (!SCHEME_IMAGE.equals(uri.getScheme()) || width <= 0 || height <= 0) {
+            return uri;
+        }
+        return uri.buildUpon().appendQueryParameter(PARAM_WIDTH, String.valueOf(width)).appendQueryParameter(PARAM_HEIGHT, String.valueOf(height)).build();
+    }
+
+    private static int getScreenSize(Context context) {
+        DisplayMetrics dm = context.getResources().getDisplayMetrics();
+        return Math.max(dm.widthPixels, dm.heightPixels);
+    }
+
+    private static int getParam(Uri uri, String name, int defaultValue) {
+        try {
+            String value = uri.getQueryParameter(name);
+            return value != null ? Integer.parseInt(value) : defaultValue;
+        } catch (Throwable e) {
+            return defaultValue;
+        }
+    }
+
+    public static final class Stats {
+
+        public final long memoryHits;
+        public final long diskHits;
+        public final long misses;
+        public final long decodes;
+        public final long decodeTime;
+        public final long reusedBitmaps;
+
+        private Stats(long memoryHits, long diskHits, long misses, long decodes, long decodeTime, long reusedBitmaps) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.misses = misses;
+            this.decodes = decodes;
+            this.decodeTime = decodeTime;
+            this.reusedBitmaps = reusedBitmaps;
+        }
+
+        public float getMemoryHitRate() {
+            long total = memoryHits + diskHits + misses;
+            return total > 0 ? (float) memoryHits / total : 0;
+        }
+
+        /**
+         * The average decode time, in milliseconds.
+         */
+        public long getAverageDecodeTime() {
+            return decodes > 0 ? decodeTime / decodes : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "memory hit rate: " + getMemoryHitRate() + ", disk hits: " + diskHits + ", misses: " + misses + ", decodes: " + decodes + ", average decode time: " + getAverageDecodeTime() + "ms, reused bitmaps: " + reusedBitmaps;
+        }
     }
 
     private static class ImageDownloader implements Downloader {
@@ -212,7 +305,8 @@ public final class ImageLoader {
         @Override
         public Response load(Uri uri, boolean localCacheOnly) throws IOException {
             String albumId = uri.getLastPathSegment();
-            Bitmap bitmap = getAlbumArt(context, albumId);
+            int size = getScreenSize(context);
+            Bitmap bitmap = getAlbumArt(context, albumId, getParam(uri, PARAM_WIDTH, size), getParam(uri, PARAM_HEIGHT, size));
             return (bitmap != null) ? new Response(bitmap, false, bitmap.getByteCount()) : null;
         }
     }
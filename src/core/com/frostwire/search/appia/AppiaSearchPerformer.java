@@ -72,27 +72,24 @@ public class AppiaSearchPerformer extends PagedWebSearchPerformer {
     }
 
     @Override
-    protected List<? extends SearchResult> searchPage(int page) {
-        List<? extends SearchResult> result = Collections.emptyList();
+    protected String fetchPage(int page) {
+        String text = null;
         if (OfferUtils.isAppiaSearchEnabled() &&
             throttle.canSearchAgain()) {
             String url = getUrl(-1, getEncodedKeywords());
-            String text = null;
             
             try {
                 text = fetch(url, null, customHeaders);
             } catch (IOException e) {
                 checkAccesibleDomains();
-                return result;
+                return null;
             }
             
-            if (text != null) {
-                result = searchPage(text);
-            } else {
+            if (text == null) {
                 LOG.warn("Page content empty for url: " + url);
             }
         }        
-        return result;
+        return text;
     }
 
     @Override
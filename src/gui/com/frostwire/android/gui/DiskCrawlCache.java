@@ -17,7 +17,12 @@
 
 package com.frostwire.android.gui;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.SequenceInputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 
@@ -28,8 +33,12 @@ import com.frostwire.android.util.DiskCache;
 import com.frostwire.android.util.DiskCache.Entry;
 import com.frostwire.logging.Logger;
 import com.frostwire.search.CrawlCache;
+import com.frostwire.search.CrawlCacheStats;
 
 /**
+ * Crawl data is stored in separate namespaces, each one with its own share of
+ * the disk budget and time to live. Every value is prefixed with its expiration
+ * time.
  * 
  * @author gubatron
  * @author aldenml
@@ -42,41 +51,92 @@ public class DiskCrawlCache implements CrawlCache {
     private static final int MIN_DISK_CACHE_SIZE = 5 * 1024 * 1024; // 5MB
     private static final int MAX_DISK_CACHE_SIZE = 50 * 1024 * 1024; // 50MB
 
-    private final DiskCache cache;
+    private static final int HEADER_SIZE = 8; // expiration time
+
+    public enum Namespace {
+
+        TORRENTS("torrents", 60, TimeUnit.DAYS.toMillis(30)),
+        DETAILS("details", 20, TimeUnit.DAYS.toMillis(1)),
+        MAGNETS("magnets", 20, TimeUnit.DAYS.toMillis(30));
+
+        private final String directory;
+        private final int percent;
+        private final long ttl;
+
+        private Namespace(String directory, int percent, long ttl) {
+            this.directory = directory;
+            this.percent = percent;
+            this.ttl = ttl;
+        }
+
+        /**
+         * Magnets are resolved to torrent metadata, any other bencoded data is a .torrent file,
+         * and the rest are details pages.
+         */
+        static Namespace of(String key, byte[] data) {
+            if (key.startsWith("magnet")) {
+                return MAGNETS;
+            }
+
+            return data != null && data.length > 0 && data[0] == 'd' ? TORRENTS : DETAILS;
+        }
+    }
+
+    private final DiskCache[] caches;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong expirations;
 
     public DiskCrawlCache(Context context) {
         File directory = SystemUtils.getCacheDir(context, "search");
         long diskSize = SystemUtils.calculateDiskCacheSize(directory, MIN_DISK_CACHE_SIZE, MAX_DISK_CACHE_SIZE);
-        this.cache = createDiskCache(directory, diskSize);
+
+        deleteLegacyFiles(directory);
+
+        Namespace[] namespaces = Namespace.values();
+        this.caches = new DiskCache[namespaces.length];
+        for (Namespace ns : namespaces) {
+            caches[ns.ordinal()] = createDiskCache(new File(directory, ns.directory), diskSize * ns.percent / 100);
+        }
+
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.expirations = new AtomicLong();
     }
 
     @Override
     public byte[] get(String key) {
         byte[] data = null;
 
-        if (cache != null) {
-            try {
-                Entry e = cache.get(key);
-                if (e != null) {
-                    try {
-                        data = IOUtils.toByteArray(e.getInputStream());
-                    } finally {
-                        e.close();
-                    }
-                }
-            } catch (Throwable e) {
-                // ignore
+        if (key.startsWith("magnet")) {
+            data = get(Namespace.MAGNETS, key);
+        } else {
+            data = get(Namespace.TORRENTS, key);
+            if (data == null) {
+                data = get(Namespace.DETAILS, key);
             }
         }
 
+        if (data != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+
         return data;
     }
 
     @Override
     public void put(String key, byte[] data) {
+        Namespace ns = Namespace.of(key, data);
+        DiskCache cache = caches[ns.ordinal()];
+
         if (cache != null) {
             try {
-                cache.put(key, data);
+                byte[] header = new byte[HEADER_SIZE];
+                writeLong(header, System.currentTimeMillis() + ns.ttl);
+                cache.put(key, new SequenceInputStream(new ByteArrayInputStream(header), new ByteArrayInputStream(data)));
             } catch (Throwable e) {
                 // ignore
             }
@@ -85,23 +145,107 @@ public class DiskCrawlCache implements CrawlCache {
 
     @Override
     public void remove(String key) {
-        if (cache != null) {
-            cache.remove(key);
+        for (DiskCache cache : caches) {
+            if (cache != null) {
+                cache.remove(key);
+            }
         }
     }
 
     @Override
     public void clear() {
-        if (cache != null) {
-            LOG.warn("Not implemented, pending review");
+        for (DiskCache cache : caches) {
+            if (cache != null) {
+                cache.clear();
+            }
         }
     }
 
     @Override
     public long size() {
+        long size = 0;
+        for (DiskCache cache : caches) {
+            if (cache != null) {
+                size += cache.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public CrawlCacheStats stats() {
+        long evictions = expirations.get();
+        for (DiskCache cache : caches) {
+            if (cache != null) {
+                evictions += cache.getEvictionCount();
+            }
+        }
+
+        return new CrawlCacheStats(hits.get(), misses.get(), evictions, size(), 0);
+    }
+
+    public long size(Namespace ns) {
+        DiskCache cache = caches[ns.ordinal()];
         return cache != null ? cache.size() : 0;
     }
 
+    private byte[] get(Namespace ns, String key) {
+        DiskCache cache = caches[ns.ordinal()];
+        byte[] data = null;
+
+        if (cache != null) {
+            try {
+                Entry e = cache.get(key);
+                if (e != null) {
+                    long expiration;
+                    try {
+                        DataInputStream in = new DataInputStream(e.getInputStream());
+                        expiration = in.readLong();
+                        data = IOUtils.toByteArray(in);
+                    } finally {
+                        e.close();
+                    }
+
+                    if (expiration < System.currentTimeMillis()) {
+                        data = null;
+                        cache.remove(key);
+                        expirations.incrementAndGet();
+                    }
+                }
+            } catch (Throwable e) {
+                // ignore
+            }
+        }
+
+        return data;
+    }
+
+    private static void writeLong(byte[] arr, long v) {
+        for (int i = 7; i >= 0; i--) {
+            arr[i] = (byte) v;
+            v >>>= 8;
+        }
+    }
+
+    /**
+     * Before the namespaces all the entries were stored in the root directory, without
+     * an expiration time.
+     */
+    private static void deleteLegacyFiles(File directory) {
+        try {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.isFile() && !f.delete()) {
+                        LOG.warn("Unable to delete legacy crawl cache file: " + f);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            LOG.warn("Error deleting legacy crawl cache files", e);
+        }
+    }
+
     private DiskCache createDiskCache(File directory, long diskSize) {
         try {
             return new DiskCache(directory, diskSize);
@@ -109,4 +253,4 @@ public class DiskCrawlCache implements CrawlCache {
             return null;
         }
     }
-}
\ No newline at end of file
+}
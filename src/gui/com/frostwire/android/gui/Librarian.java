@@ -19,35 +19,42 @@
 package com.frostwire.android.gui;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.FilenameUtils;
 import org.xmlpull.v1.XmlPullParser;
 
 import android.app.Application;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.pm.ApplicationInfo;
 import android.content.res.XmlResourceParser;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Process;
+import android.os.RemoteException;
 import android.provider.BaseColumns;
 import android.provider.MediaStore.MediaColumns;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.util.Pair;
 import android.view.WindowManager;
 
 import com.frostwire.android.core.ConfigurationManager;
@@ -62,6 +69,8 @@ import com.frostwire.android.core.providers.TableFetchers;
 import com.frostwire.android.core.providers.UniversalStore;
 import com.frostwire.android.core.providers.UniversalStore.Applications;
 import com.frostwire.android.core.providers.UniversalStore.Applications.ApplicationsColumns;
+import com.frostwire.android.core.providers.UniversalStore.Documents;
+import com.frostwire.android.core.providers.UniversalStore.Documents.DocumentsColumns;
 import com.frostwire.android.core.providers.UniversalStore.Sharing;
 import com.frostwire.android.core.providers.UniversalStore.Sharing.SharingColumns;
 import com.frostwire.android.gui.util.Apk;
@@ -86,8 +95,15 @@ public final class Librarian {
 
     private static final String TAG = "FW.Librarian";
 
+    /**
+     * Maximum number of ids in the IN (...) of a single statement.
+     */
+    private static final int BATCH_SIZE = 500;
+
     private final Application context;
     private final FileCountCache[] cache; // it is an array for performance reasons
+    private final AtomicLong revision;
+    private final BitSet[] sharedStates; // ids of the shared files by type, loaded on demand
 
     private static Librarian instance;
 
@@ -108,6 +124,18 @@ public final class Librarian {
     private Librarian(Application context) {
         this.context = context;
         this.cache = new FileCountCache[] { new FileCountCache(), new FileCountCache(), new FileCountCache(), new FileCountCache(), new FileCountCache(), new FileCountCache() };
+        this.revision = new AtomicLong(System.currentTimeMillis());
+        this.sharedStates = new BitSet[6];
+
+        registerContentObservers();
+    }
+
+    /**
+     * Changes every time the files or their shared state may have changed. It starts with
+     * the creation time, so a value is not repeated after a restart.
+     */
+    public long getRevision() {
+        return revision.get();
     }
 
     public List<FileDescriptor> getFiles(byte fileType, int offset, int pageSize, boolean sharedOnly) {
@@ -119,9 +147,75 @@ public final class Librarian {
     }
 
     /**
-     * Returns the total number of shared files by this peer. note: each of the
-     * number of shared files (by type) is stored on _cacheNumFiles, this
-     * function returns the sum of this cache.
+     * Visits the files straight from the provider cursor, in the same order as getFiles, without
+     * building a list. The offset and the limit only count the files visited, the rows skipped
+     * don't create a descriptor.
+     * <p>
+     * A failure is thrown, never turned into a shorter visit, since a caller can't tell
+     * the difference with the last page.
+     * 
+     * @return the number of files visited
+     */
+    public int visitFiles(byte fileType, int offset, int limit, boolean sharedOnly, FileVisitor visitor) throws IOException {
+        TableFetcher fetcher = TableFetchers.getFetcher(fileType);
+        BitSet sharedIds = getSharedFiles(fileType);
+
+        int count = 0;
+        Cursor c = null;
+
+        try {
+            ContentResolver cr = context.getContentResolver();
+            c = cr.query(fetcher.getContentUri(), fetcher.getColumns(), null, null, fetcher.getSortByExpression());
+
+            if (c == null) {
+                throw new IOException("Unable to query the files of type " + fileType);
+            }
+
+            int skip = offset;
+            if (!sharedOnly) {
+                // every row counts, jump to the first one
+                if (offset > 0 && !c.moveToPosition(offset - 1)) {
+                    return 0;
+                }
+                skip = 0;
+            }
+
+            fetcher.prepare(c);
+            int idCol = c.getColumnIndex(BaseColumns._ID);
+
+            while (count < limit && c.moveToNext()) {
+                if (sharedOnly && !sharedIds.get(c.getInt(idCol))) {
+                    continue;
+                }
+
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+
+                FileDescriptor fd = fetcher.fetch(c);
+                fd.shared = sharedOnly || sharedIds.get(fd.id);
+
+                visitor.visit(fd);
+                count++;
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable e) {
+            Log.e(TAG, "General failure visiting files", e);
+            throw new IOException("General failure visiting files", e);
+        } finally {
+            if (c != null) {
+                c.close();
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Returns the total number of shared files by this peer, the sum of the
+     * in memory shared states of each type.
      * 
      * @return
      */
@@ -129,15 +223,10 @@ public final class Librarian {
         int result = 0;
 
         for (byte i = 0; i < 6; i++) {
-            //update numbers if you have to.
-            if (!cache[i].cacheValid(true)) {
-                cache[i].updateShared(getNumFiles(i, true));
-            }
-
-            result += cache[i].shared;
+            result += getNumFiles(i, true);
         }
 
-        return result < 0 ? 0 : result;
+        return result;
     }
 
     /**
@@ -147,15 +236,20 @@ public final class Librarian {
      * @return
      */
     public int getNumFiles(byte fileType, boolean onlyShared) {
+        if (onlyShared) {
+            synchronized (sharedStates) {
+                return getSharedStates(fileType).cardinality();
+            }
+        }
+
         TableFetcher fetcher = TableFetchers.getFetcher(fileType);
 
-        if (cache[fileType].cacheValid(onlyShared)) {
-            return cache[fileType].getCount(onlyShared);
+        if (cache[fileType].cacheValid(false)) {
+            return cache[fileType].getCount(false);
         }
 
         Cursor c = null;
 
-        int result = 0;
         int numFiles = 0;
 
         try {
@@ -170,11 +264,9 @@ public final class Librarian {
             }
         }
 
-        result = onlyShared ? (getSharedFiles(fileType).size()) : numFiles;
-
-        updateCacheNumFiles(fileType, result, onlyShared);
+        updateCacheNumFiles(fileType, numFiles, false);
 
-        return result;
+        return numFiles;
     }
 
     public FileDescriptor getFileDescriptor(byte fileType, int fileId) {
@@ -232,27 +324,33 @@ public final class Librarian {
         try {
             ContentResolver cr = context.getContentResolver();
 
-            Set<Integer> sharedFiles = getSharedFiles(fds.get(0).fileType);
+            BitSet sharedFiles = getSharedFiles(fds.get(0).fileType);
 
             int size = fds.size();
 
-            // we know this is a slow process, we can improve it later
+            ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>(size);
+
             for (int i = 0; i < size; i++) {
 
                 FileDescriptor fileDescriptor = fds.get(i);
 
-                ContentValues contentValues = new ContentValues();
-                contentValues.put(SharingColumns.SHARED, fileDescriptor.shared ? 1 : 0);
-
                 // Is this a NEW Shared File?
-                if (!sharedFiles.contains(fileDescriptor.id) && fileDescriptor.shared) {
+                if (!sharedFiles.get(fileDescriptor.id) && fileDescriptor.shared) {
                     // insert in table as unshared.
-                    contentValues.put(SharingColumns.FILE_ID, fileDescriptor.id);
-                    contentValues.put(SharingColumns.FILE_TYPE, fileType);
-                    cr.insert(Sharing.Media.CONTENT_URI, contentValues);
+                    ops.add(ContentProviderOperation.newInsert(Sharing.Media.CONTENT_URI).withValue(SharingColumns.SHARED, 1).withValue(SharingColumns.FILE_ID, fileDescriptor.id).withValue(SharingColumns.FILE_TYPE, fileType).build());
                 } else {
                     // everything else is an update
-                    cr.update(Sharing.Media.CONTENT_URI, contentValues, SharingColumns.FILE_ID + "=? AND " + SharingColumns.FILE_TYPE + "=?", new String[] { String.valueOf(fileDescriptor.id), String.valueOf(fileType) });
+                    ops.add(ContentProviderOperation.newUpdate(Sharing.Media.CONTENT_URI).withValue(SharingColumns.SHARED, fileDescriptor.shared ? 1 : 0).withSelection(SharingColumns.FILE_ID + "=? AND " + SharingColumns.FILE_TYPE + "=?", new String[] { String.valueOf(fileDescriptor.id), String.valueOf(fileType) }).build());
+                }
+            }
+
+            cr.applyBatch(UniversalStore.UNIVERSAL_SHARING_AUTHORITY, ops);
+
+            synchronized (sharedStates) {
+                BitSet states = getSharedStates(fileType);
+                for (int i = 0; i < size; i++) {
+                    FileDescriptor fileDescriptor = fds.get(i);
+                    states.set(fileDescriptor.id, fileDescriptor.shared);
                 }
             }
 
@@ -269,14 +367,14 @@ public final class Librarian {
         for (FileDescriptor fd : fds) {
             if (new File(fd.filePath).delete()) {
                 ids.add(fd.id);
-                deleteSharedState(fd.fileType, fd.id);
             }
         }
 
+        deleteSharedStates(fileType, ids);
+
         try {
-            ContentResolver cr = context.getContentResolver();
             TableFetcher fetcher = TableFetchers.getFetcher(fileType);
-            cr.delete(fetcher.getContentUri(), MediaColumns._ID + " IN " + StringUtils.buildSet(ids), null);
+            deleteRows(fetcher.getContentUri(), null, MediaColumns._ID, ids);
         } catch (Throwable e) {
             Log.e(TAG, "Failed to delete files from media store", e);
         }
@@ -391,6 +489,7 @@ public final class Librarian {
     }
 
     public void invalidateCountCache() {
+        revision.incrementAndGet();
         for (FileCountCache c : cache) {
             if (c != null) {
                 c.lastTimeCachedShared = 0;
@@ -404,11 +503,32 @@ public final class Librarian {
      * @param fileType
      */
     void invalidateCountCache(byte fileType) {
+        revision.incrementAndGet();
         cache[fileType].lastTimeCachedShared = 0;
         cache[fileType].lastTimeCachedOnDisk = 0;
         broadcastRefreshFinger();
     }
 
+    private void registerContentObservers() {
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                revision.incrementAndGet();
+            }
+        };
+
+        ContentResolver cr = context.getContentResolver();
+        byte[] fileTypes = { Constants.FILE_TYPE_AUDIO, Constants.FILE_TYPE_PICTURES, Constants.FILE_TYPE_VIDEOS, Constants.FILE_TYPE_DOCUMENTS, Constants.FILE_TYPE_APPLICATIONS, Constants.FILE_TYPE_RINGTONES };
+
+        for (byte fileType : fileTypes) {
+            try {
+                cr.registerContentObserver(TableFetchers.getFetcher(fileType).getContentUri(), true, observer);
+            } catch (Throwable e) {
+                Log.w(TAG, "Unable to observe changes of files of type " + fileType, e);
+            }
+        }
+    }
+
     private void broadcastRefreshFinger() {
         context.sendBroadcast(new Intent(Constants.ACTION_REFRESH_FINGER));
         PeerManager.instance().updateLocalPeer();
@@ -537,40 +657,62 @@ public final class Librarian {
         syncMediaStore(Constants.FILE_TYPE_VIDEOS, ignorableFiles);
         syncMediaStore(Constants.FILE_TYPE_RINGTONES, ignorableFiles);
 
-        scan(SystemUtils.getSaveDirectory(Constants.FILE_TYPE_DOCUMENTS));
+        syncDocuments(ignorableFiles);
     }
 
+    /**
+     * Only looks at the rows added or modified since the last sync, the high-water marks
+     * of DATE_ADDED and DATE_MODIFIED are saved by file type. The marks are inclusive since
+     * the dates have a resolution of seconds, processing a row twice is harmless.
+     */
     private void syncMediaStore(byte fileType, Set<File> ignorableFiles) {
         TableFetcher fetcher = TableFetchers.getFetcher(fileType);
+        ConfigurationManager cm = ConfigurationManager.instance();
+
+        String addedKey = getSyncMarkKey(fileType, "added");
+        String modifiedKey = getSyncMarkKey(fileType, "modified");
+        long addedMark = cm.getLong(addedKey);
+        long modifiedMark = cm.getLong(modifiedKey);
 
         Cursor c = null;
         try {
 
             ContentResolver cr = context.getContentResolver();
 
-            String where = MediaColumns.DATA + " LIKE ?";
-            String[] whereArgs = new String[] { SystemUtils.getApplicationStorageDirectory().getAbsolutePath() + "%" };
+            String where = MediaColumns.DATA + " LIKE ? AND (" + MediaColumns.DATE_ADDED + " >= ? OR " + MediaColumns.DATE_MODIFIED + " >= ?)";
+            String[] whereArgs = new String[] { SystemUtils.getApplicationStorageDirectory().getAbsolutePath() + "%", String.valueOf(addedMark), String.valueOf(modifiedMark) };
 
-            c = cr.query(fetcher.getContentUri(), new String[] { MediaColumns._ID, MediaColumns.DATA }, where, whereArgs, null);
+            c = cr.query(fetcher.getContentUri(), new String[] { MediaColumns._ID, MediaColumns.DATA, MediaColumns.DATE_ADDED, MediaColumns.DATE_MODIFIED }, where, whereArgs, null);
             if (c == null) {
                 return;
             }
 
             int idCol = c.getColumnIndex(MediaColumns._ID);
             int pathCol = c.getColumnIndex(MediaColumns.DATA);
+            int addedCol = c.getColumnIndex(MediaColumns.DATE_ADDED);
+            int modifiedCol = c.getColumnIndex(MediaColumns.DATE_MODIFIED);
+
+            // a date in the future would hold the marks there
+            long now = System.currentTimeMillis() / 1000;
 
             List<Integer> ids = new ArrayList<Integer>();
 
             while (c.moveToNext()) {
-                int id = Integer.valueOf(c.getString(idCol));
+                int id = c.getInt(idCol);
                 String path = c.getString(pathCol);
 
-                if (ignorableFiles.contains(new File(path))) {
+                addedMark = Math.max(addedMark, Math.min(now, c.getLong(addedCol)));
+                modifiedMark = Math.max(modifiedMark, Math.min(now, c.getLong(modifiedCol)));
+
+                if (path != null && ignorableFiles.contains(new File(path))) {
                     ids.add(id);
                 }
             }
 
-            cr.delete(fetcher.getContentUri(), MediaColumns._ID + " IN " + StringUtils.buildSet(ids), null);
+            deleteRows(fetcher.getContentUri(), null, MediaColumns._ID, ids);
+
+            cm.setLong(addedKey, addedMark);
+            cm.setLong(modifiedKey, modifiedMark);
 
         } catch (Throwable e) {
             Log.e(TAG, "General failure during sync of MediaStore", e);
@@ -579,6 +721,111 @@ public final class Librarian {
                 c.close();
             }
         }
+
+        pruneSharedStates(fileType);
+    }
+
+    /**
+     * The documents are not in the MediaStore, only the files without a row of the same
+     * path and size in the documents table are sent to the scanner. Whatever the scanner
+     * didn't get to, a killed scan for instance, is picked up by the next sync.
+     */
+    private void syncDocuments(Set<File> ignorableFiles) {
+        File dir = SystemUtils.getSaveDirectory(Constants.FILE_TYPE_DOCUMENTS);
+
+        if (dir.isDirectory() && dir.canRead()) {
+            try {
+                Map<String, Long> indexed = getIndexedDocuments();
+                List<File> files = new ArrayList<File>();
+
+                if (indexed != null) { // or it can't tell what is new
+                    for (File f : DirectoryUtils.getAllFolderFiles(dir, null)) {
+                        Long size = indexed.get(f.getAbsolutePath());
+                        if ((size == null || size.longValue() != f.length()) && !ignorableFiles.contains(f)) {
+                            files.add(f);
+                        }
+                    }
+                }
+
+                if (!files.isEmpty()) {
+                    new UniversalScanner(context).scan(files);
+                }
+            } catch (Throwable e) {
+                Log.e(TAG, "General failure during sync of documents", e);
+            }
+        }
+
+        pruneSharedStates(Constants.FILE_TYPE_DOCUMENTS);
+    }
+
+    /**
+     * The paths and sizes of the rows in the documents table, null if it can't be read.
+     */
+    private Map<String, Long> getIndexedDocuments() {
+        Cursor c = context.getContentResolver().query(Documents.Media.CONTENT_URI, new String[] { DocumentsColumns.DATA, DocumentsColumns.SIZE }, null, null, null);
+        if (c == null) {
+            return null;
+        }
+
+        try {
+            Map<String, Long> indexed = new HashMap<String, Long>();
+            while (c.moveToNext()) {
+                String path = c.getString(0);
+                if (path != null) {
+                    indexed.put(path, c.getLong(1));
+                }
+            }
+            return indexed;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static String getSyncMarkKey(byte fileType, String column) {
+        return Constants.PREF_KEY_CORE_LIBRARIAN_SYNC_MARK + "." + fileType + "." + column;
+    }
+
+    /**
+     * Removes the shared states of the files no longer in the provider. Only the shared ids
+     * are looked up, by chunks, instead of walking every file.
+     */
+    private void pruneSharedStates(byte fileType) {
+        BitSet shared = getSharedFiles(fileType);
+        if (shared.isEmpty()) {
+            return;
+        }
+
+        TableFetcher fetcher = TableFetchers.getFetcher(fileType);
+        List<Integer> ids = toList(shared);
+        BitSet missing = shared;
+
+        try {
+            ContentResolver cr = context.getContentResolver();
+
+            for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+                List<Integer> chunk = ids.subList(i, Math.min(ids.size(), i + BATCH_SIZE));
+
+                Cursor c = cr.query(fetcher.getContentUri(), new String[] { BaseColumns._ID }, BaseColumns._ID + " IN " + StringUtils.buildSet(chunk), null, null);
+                if (c == null) {
+                    return; // can't tell what is missing
+                }
+
+                try {
+                    while (c.moveToNext()) {
+                        missing.clear(c.getInt(0));
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                deleteSharedStates(fileType, toList(missing));
+                invalidateCountCache(fileType);
+            }
+        } catch (Throwable e) {
+            Log.e(TAG, "General failure pruning shared states of type " + fileType, e);
+        }
     }
 
     private List<FileDescriptor> getFiles(int offset, int pageSize, TableFetcher fetcher, boolean sharedOnly) {
@@ -607,7 +854,7 @@ public final class Librarian {
         List<FileDescriptor> result = new ArrayList<FileDescriptor>();
 
         Cursor c = null;
-        Set<Integer> sharedIds = getSharedFiles(fetcher.getFileType());
+        BitSet sharedIds = getSharedFiles(fetcher.getFileType());
 
         try {
 
@@ -629,7 +876,7 @@ public final class Librarian {
             do {
                 FileDescriptor fd = fetcher.fetch(c);
 
-                fd.shared = sharedIds.contains(fd.id);
+                fd.shared = sharedIds.get(fd.id);
 
                 if (sharedOnly && !fd.shared) {
                     continue;
@@ -668,112 +915,109 @@ public final class Librarian {
         return fds;
     }
 
-    private Pair<List<Integer>, List<String>> getAllFiles(byte fileType) {
-        Pair<List<Integer>, List<String>> result = new Pair<List<Integer>, List<String>>(new ArrayList<Integer>(), new ArrayList<String>());
+    /**
+     * Returns a copy of the ids of the shared files of this type.
+     */
+    private BitSet getSharedFiles(byte fileType) {
+        synchronized (sharedStates) {
+            return (BitSet) getSharedStates(fileType).clone();
+        }
+    }
 
-        Cursor c = null;
+    /**
+     * The shared states are read from the sharing table the first time, after that the
+     * bitmap is kept in sync with every write to the table. Must hold the lock of sharedStates.
+     */
+    private BitSet getSharedStates(byte fileType) {
+        BitSet states = sharedStates[fileType];
 
-        try {
-            TableFetcher fetcher = TableFetchers.getFetcher(fileType);
+        if (states == null) {
+            states = new BitSet();
 
-            ContentResolver cr = context.getContentResolver();
+            Cursor c = null;
 
-            c = cr.query(fetcher.getContentUri(), new String[] { BaseColumns._ID, MediaColumns.DATA }, null, null, BaseColumns._ID);
+            try {
+                ContentResolver cr = context.getContentResolver();
+                String[] columns = new String[] { SharingColumns.FILE_ID };
+                c = cr.query(Sharing.Media.CONTENT_URI, columns, SharingColumns.SHARED + "=1 AND " + SharingColumns.FILE_TYPE + "=?", new String[] { String.valueOf(fileType) }, null);
+
+                if (c == null) {
+                    return states; // try again next time
+                }
 
-            if (c != null) {
                 while (c.moveToNext()) {
-                    result.first.add(c.getInt(0));
-                    result.second.add(c.getString(1));
+                    states.set(c.getInt(0));
+                }
+
+                sharedStates[fileType] = states;
+            } catch (Throwable e) {
+                Log.e(TAG, "General failure getting shared/unshared files ids", e);
+            } finally {
+                if (c != null) {
+                    c.close();
                 }
-            }
-        } catch (Throwable e) {
-            Log.e(TAG, "General failure getting all files", e);
-        } finally {
-            if (c != null) {
-                c.close();
             }
         }
 
-        return result;
+        return states;
     }
 
-    private Set<Integer> getSharedFiles(byte fileType) {
-        TreeSet<Integer> result = new TreeSet<Integer>();
-        List<Integer> delete = new ArrayList<Integer>();
-
-        Cursor c = null;
+    private void deleteSharedStates(byte fileType, List<Integer> fileIds) {
+        if (fileIds.isEmpty()) {
+            return;
+        }
 
         try {
-            ContentResolver cr = context.getContentResolver();
-            String[] columns = new String[] { SharingColumns.FILE_ID, SharingColumns._ID };
-            c = cr.query(Sharing.Media.CONTENT_URI, columns, SharingColumns.SHARED + "=1 AND " + SharingColumns.FILE_TYPE + "=?", new String[] { String.valueOf(fileType) }, null);
+            int deleted = deleteRows(Sharing.Media.CONTENT_URI, SharingColumns.FILE_TYPE + "=" + fileType, SharingColumns.FILE_ID, fileIds);
+            Log.d(TAG, "Deleted " + deleted + " shared states (fileType: " + fileType + ")");
 
-            if (c == null || !c.moveToFirst()) {
-                return result;
+            synchronized (sharedStates) {
+                BitSet states = getSharedStates(fileType);
+                for (int id : fileIds) {
+                    states.clear(id);
+                }
             }
+        } catch (Throwable e) {
+            Log.e(TAG, "Failed to delete shared states for fileType=" + fileType, e);
+        }
+    }
 
-            int fileIdCol = c.getColumnIndex(SharingColumns.FILE_ID);
-            int sharingIdCol = c.getColumnIndex(SharingColumns._ID);
-
-            Pair<List<Integer>, List<String>> pair = getAllFiles(fileType);
-            List<Integer> files = pair.first;
-            List<String> paths = pair.second;
-
-            do {
-                int fileId = c.getInt(fileIdCol);
-                int sharingId = c.getInt(sharingIdCol);
+    /**
+     * Deletes the rows with the given ids in a single batch, one statement for each chunk of ids.
+     * 
+     * @return the number of rows deleted
+     */
+    private int deleteRows(Uri uri, String where, String idColumn, List<Integer> ids) throws RemoteException, OperationApplicationException {
+        if (ids.isEmpty()) {
+            return 0;
+        }
 
-                int index = Collections.binarySearch(files, fileId);
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
 
-                try {
-                    if (index >= 0) {
-                        File f = new File(paths.get(index));
-                        if (f.exists() && f.isFile()) {
-                            result.add(fileId);
-                        } else {
-                            delete.add(sharingId);
-                        }
-                    } else {
-                        delete.add(sharingId);
-                    }
-                } catch (Throwable e) {
-                    Log.e(TAG, "Error checking fileId: " + fileId + ", fileType: " + fileId);
-                }
-            } while (c.moveToNext());
-
-        } catch (Throwable e) {
-            Log.e(TAG, "General failure getting shared/unshared files ids", e);
-        } finally {
-            if (c != null) {
-                c.close();
+        for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+            String selection = idColumn + " IN " + StringUtils.buildSet(ids.subList(i, Math.min(ids.size(), i + BATCH_SIZE)));
+            if (where != null) {
+                selection = where + " AND " + selection;
             }
+            ops.add(ContentProviderOperation.newDelete(uri).withSelection(selection, null).build());
+        }
 
-            if (delete.size() > 0) {
-                deleteSharedStates(delete);
+        int deleted = 0;
+        for (ContentProviderResult r : context.getContentResolver().applyBatch(uri.getAuthority(), ops)) {
+            if (r.count != null) {
+                deleted += r.count;
             }
         }
 
-        return result;
+        return deleted;
     }
 
-    private void deleteSharedState(byte fileType, int fileId) {
-        try {
-            ContentResolver cr = context.getContentResolver();
-            int deleted = cr.delete(UniversalStore.Sharing.Media.CONTENT_URI, SharingColumns.FILE_ID + "= ? AND " + SharingColumns.FILE_TYPE + " = ?", new String[] { String.valueOf(fileId), String.valueOf(fileType) });
-            Log.d(TAG, "deleteSharedState " + deleted + " rows  (fileType: " + fileType + ", fileId: " + fileId + " )");
-        } catch (Throwable e) {
-            Log.e(TAG, "Failed to delete shared state for fileType=" + fileType + ", fileId=" + fileId, e);
-        }
-    }
-
-    private void deleteSharedStates(List<Integer> sharingIds) {
-        try {
-            ContentResolver cr = context.getContentResolver();
-            int deleted = cr.delete(UniversalStore.Sharing.Media.CONTENT_URI, SharingColumns._ID + " IN " + StringUtils.buildSet(sharingIds), null);
-            Log.d(TAG, "Deleted " + deleted + " shared states");
-        } catch (Throwable e) {
-            Log.e(TAG, "Failed to delete shared states", e);
+    private static List<Integer> toList(BitSet bits) {
+        List<Integer> list = new ArrayList<Integer>(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+            list.add(i);
         }
+        return list;
     }
 
     /**
@@ -904,6 +1148,11 @@ public final class Librarian {
         return screenInches;
     }
 
+    public interface FileVisitor {
+
+        public void visit(FileDescriptor fd) throws IOException;
+    }
+
     private static class FileCountCache {
 
         public int shared;
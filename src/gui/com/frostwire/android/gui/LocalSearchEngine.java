@@ -18,30 +18,25 @@
 
 package com.frostwire.android.gui;
 
-import java.text.Normalizer;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
 
-import android.text.Html;
-
 import com.frostwire.android.core.ConfigurationManager;
 import com.frostwire.android.core.Constants;
 import com.frostwire.android.util.StringUtils;
+import com.frostwire.search.CrawlCacheStats;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
 import com.frostwire.search.CrawledSearchResult;
-import com.frostwire.search.FileSearchResult;
-import com.frostwire.search.SearchManager;
+import com.frostwire.search.QueryMatcher;
 import com.frostwire.search.SearchManagerImpl;
 import com.frostwire.search.SearchManagerListener;
 import com.frostwire.search.SearchPerformer;
 import com.frostwire.search.SearchResult;
+import com.frostwire.search.SearchResultAggregator;
+import com.frostwire.search.SearchResultBus;
 import com.frostwire.search.torrent.TorrentSearchResult;
 import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
 
@@ -52,7 +47,8 @@ import com.frostwire.search.youtube.YouTubeCrawledSearchResult;
  */
 public final class LocalSearchEngine {
 
-    private final SearchManager manager;
+    private final SearchManagerImpl manager;
+    private final SearchResultBus bus;
 
     // filter constants
     private final int MIN_SEEDS_TORRENT_RESULT;
@@ -60,7 +56,8 @@ public final class LocalSearchEngine {
     private SearchManagerListener listener;
 
     private long currentSearchToken;
-    private List<String> currentSearchTokens;
+    private QueryMatcher currentSearchMatcher;
+    private Set<SearchResult> currentSearchShown;
 
     private boolean searchFinished;
 
@@ -81,7 +78,8 @@ public final class LocalSearchEngine {
 
     private LocalSearchEngine(String androidId) {
         this.manager = new SearchManagerImpl();
-        this.manager.registerListener(new ManagerListener());
+        this.bus = new SearchResultBus(new ManagerListener());
+        this.manager.registerListener(bus);
         this.MIN_SEEDS_TORRENT_RESULT = ConfigurationManager.instance().getInt(Constants.PREF_KEY_SEARCH_MIN_SEEDS_FOR_TORRENT_RESULT);
         this.androidId = androidId;
     }
@@ -102,7 +100,8 @@ public final class LocalSearchEngine {
         manager.stop();
 
         currentSearchToken = Math.abs(System.nanoTime());
-        currentSearchTokens = tokenize(query);
+        currentSearchShown = Collections.newSetFromMap(new IdentityHashMap<SearchResult, Boolean>());
+        currentSearchMatcher = new QueryMatcher(query);
         searchFinished = false;
 
         for (SearchEngine se : SearchEngine.getEngines()) {
@@ -116,7 +115,7 @@ public final class LocalSearchEngine {
     public void cancelSearch() {
         manager.stop();
         currentSearchToken = 0;
-        currentSearchTokens = null;
+        currentSearchMatcher = null;
         searchFinished = true;
     }
 
@@ -136,6 +135,18 @@ public final class LocalSearchEngine {
         return CrawlPagedWebSearchPerformer.getCacheSize();
     }
 
+    public CrawlCacheStats getCacheStats() {
+        return CrawlPagedWebSearchPerformer.getCacheStats();
+    }
+
+    public int getResultQueueDepth() {
+        return bus.getQueueDepth();
+    }
+
+    public long getNumDroppedResults() {
+        return bus.getNumDropped();
+    }
+
     private void onFinished(long token) {
         searchFinished = true;
         if (listener != null) {
@@ -146,28 +157,41 @@ public final class LocalSearchEngine {
     private List<SearchResult> filter(SearchPerformer performer, List<SearchResult> results) {
         List<SearchResult> list;
 
-        if (currentSearchTokens == null || currentSearchTokens.isEmpty()) {
+        if (currentSearchMatcher == null) {
             list = Collections.emptyList();
         } else {
-            list = filter(results);
+            list = filter(results, manager.getAggregator(performer.getToken()));
         }
 
         return list;
     }
 
-    private List<SearchResult> filter(List<? extends SearchResult> results) {
+    /**
+     * The results already shown come again when a duplicate brings them better seeds, the
+     * seeds checked are the best of all the duplicates.
+     */
+    private List<SearchResult> filter(List<? extends SearchResult> results, SearchResultAggregator aggregator) {
         List<SearchResult> list = new LinkedList<SearchResult>();
+        QueryMatcher matcher = currentSearchMatcher;
+        Set<SearchResult> shown = currentSearchShown;
 
         try {
             for (SearchResult sr : results) {
                 if (sr instanceof TorrentSearchResult) {
-                    if (((TorrentSearchResult) sr).getSeeds() == TorrentSearchResult.UNKOWN_SEEDS) {
+                    int seeds = aggregator != null ? aggregator.getSeeds(sr) : ((TorrentSearchResult) sr).getSeeds();
+                    if (seeds == TorrentSearchResult.UNKOWN_SEEDS) {
                         long creationTime = ((TorrentSearchResult) sr).getCreationTime();
                         long age = System.currentTimeMillis() - creationTime;
                         if (age > 31536000000l) {
                             continue;
                         }
-                    } else if (((TorrentSearchResult) sr).getSeeds() < MIN_SEEDS_TORRENT_RESULT) {
+                    } else if (seeds < MIN_SEEDS_TORRENT_RESULT) {
+                        continue;
+                    }
+                }
+
+                synchronized (shown) {
+                    if (!shown.add(sr)) {
                         continue;
                     }
                 }
@@ -178,7 +202,7 @@ public final class LocalSearchEngine {
                         if (!((YouTubeCrawledSearchResult) sr).getFilename().endsWith(".flv")) {
                             list.add(sr);
                         }
-                    } else if (filter(new LinkedList<String>(currentSearchTokens), sr)) {
+                    } else if (matcher.matches(sr)) {
                         list.add(sr);
                     }
                 } else {
@@ -193,67 +217,6 @@ public final class LocalSearchEngine {
         return list;
     }
 
-    private boolean filter(List<String> tokens, SearchResult sr) {
-        StringBuilder sb = new StringBuilder();
-
-        sb.append(sr.getDisplayName());
-        if (sr instanceof CrawledSearchResult) {
-            sb.append(((CrawledSearchResult) sr).getParent().getDisplayName());
-        }
-
-        if (sr instanceof FileSearchResult) {
-            sb.append(((FileSearchResult) sr).getFilename());
-        }
-
-        String str = sanitize(sb.toString());
-        str = normalize(str);
-
-        Iterator<String> it = tokens.iterator();
-        while (it.hasNext()) {
-            String token = it.next();
-            if (str.contains(token)) {
-                it.remove();
-            }
-        }
-
-        return tokens.isEmpty();
-    }
-
-    private String sanitize(String str) {
-        str = Html.fromHtml(str).toString();
-        str = str.replaceAll("\\.torrent|www\\.|\\.com|\\.net|[\\\\\\/%_;\\-\\.\\(\\)\\[\\]\\n\\rÐ&~{}\\*@\\^'=!,¡|#ÀÁ]", " ");
-        str = StringUtils.removeDoubleSpaces(str);
-
-        return str.trim();
-    }
-
-    private String normalize(String token) {
-        String norm = Normalizer.normalize(token, Normalizer.Form.NFKD);
-        norm = norm.replaceAll("\\p{InCombiningDiacriticalMarks}+", "");
-        norm = norm.toLowerCase(Locale.US);
-
-        return norm;
-    }
-
-    private Set<String> normalizeTokens(Set<String> tokens) {
-        Set<String> normalizedTokens = new HashSet<String>();
-
-        for (String token : tokens) {
-            String norm = normalize(token);
-            normalizedTokens.add(norm);
-        }
-
-        return normalizedTokens;
-    }
-
-    private List<String> tokenize(String keywords) {
-        keywords = sanitize(keywords);
-
-        Set<String> tokens = new HashSet<String>(Arrays.asList(keywords.toLowerCase(Locale.US).split(" ")));
-
-        return new ArrayList<String>(normalizeTokens(tokens));
-    }
-
     private final class ManagerListener implements SearchManagerListener {
 
         @Override
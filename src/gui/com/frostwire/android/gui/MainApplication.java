@@ -38,8 +38,10 @@ import com.frostwire.android.util.HttpResponseCache;
 import com.frostwire.android.util.ImageLoader;
 import com.frostwire.logging.Logger;
 import com.frostwire.search.CrawlPagedWebSearchPerformer;
+import com.frostwire.search.TieredCrawlCache;
 import com.frostwire.util.DirectoryUtils;
 import com.frostwire.vuze.VuzeConfiguration;
+import com.frostwire.vuze.VuzeMagnetDownloader;
 import com.frostwire.vuze.VuzeManager;
 
 /**
@@ -65,7 +67,8 @@ public class MainApplication extends Application {
         }
 
         com.frostwire.android.util.ImageLoader.getInstance(this);
-        CrawlPagedWebSearchPerformer.setCache(new DiskCrawlCache(this));
+        CrawlPagedWebSearchPerformer.setCache(new TieredCrawlCache(new DiskCrawlCache(this), com.frostwire.android.util.SystemUtils.calculateMemoryCacheSize(this) / 4));
+        CrawlPagedWebSearchPerformer.setMagnetDownloader(new VuzeMagnetDownloader(com.frostwire.android.util.SystemUtils.getCacheDir(this, "magnets"), 2));
 
         try {
 
@@ -19,6 +19,7 @@
 package com.frostwire.android.gui.httpserver;
 
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.List;
 import java.util.logging.Logger;
 import java.util.zip.GZIPOutputStream;
@@ -31,9 +32,19 @@ import sun.net.httpserver.Code;
 import com.frostwire.android.core.FileDescriptor;
 import com.frostwire.android.gui.Librarian;
 import com.frostwire.util.JsonUtils;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Lists the shared files of a type as {"files":[...], "offset":n, "count":n}.
+ * <p>
+ * The JSON is written into the gzip stream while the provider cursor is iterated, the
+ * library is never fully in memory. Peers page with the offset and limit parameters (a
+ * page shorter than the limit is the last one) and revalidate with If-None-Match, the
+ * ETag changes with the library revision. If the listing fails halfway, the gzip stream
+ * is left unfinished, so the peer gets an error instead of a short listing to cache.
+ * 
  * @author gubatron
  * @author aldenml
  *
@@ -49,6 +60,8 @@ class BrowseHandler extends AbstractHandler {
         GZIPOutputStream os = null;
 
         byte type = -1;
+        int offset = 0;
+        int limit = Integer.MAX_VALUE;
 
         try {
 
@@ -58,6 +71,12 @@ class BrowseHandler extends AbstractHandler {
                 if (item.getName().equals("type")) {
                     type = Byte.parseByte(item.getValue());
                 }
+                if (item.getName().equals("offset")) {
+                    offset = Math.max(0, Integer.parseInt(item.getValue()));
+                }
+                if (item.getName().equals("limit")) {
+                    limit = Math.max(0, Integer.parseInt(item.getValue()));
+                }
             }
 
             if (type == -1) {
@@ -65,38 +84,53 @@ class BrowseHandler extends AbstractHandler {
                 return;
             }
 
-            String response = getResponse(exchange, type);
+            // the query is part of the url, the revision is enough
+            String etag = "\"" + Long.toHexString(Librarian.instance().getRevision()) + "\"";
+
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(Code.HTTP_NOT_MODIFIED, -1);
+                return;
+            }
 
-            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
-            exchange.getResponseHeaders().set("Content-Type", "text/json; charset=UTF-8");
+            headers.set("Content-Encoding", "gzip");
+            headers.set("Content-Type", "text/json; charset=UTF-8");
             exchange.sendResponseHeaders(Code.HTTP_OK, 0);
 
             os = new GZIPOutputStream(exchange.getResponseBody());
 
-            os.write(response.getBytes("UTF-8"));
-            os.finish();
+            writeResponse(os, type, offset, limit);
+            os.close();
 
         } catch (IOException e) {
             LOG.warning("Error browsing files type=" + type);
             throw e;
         } finally {
-            if (os != null) {
-                os.close();
-            }
             exchange.close();
         }
     }
 
-    private String getResponse(HttpExchange exchange, byte fileType) {
-        List<FileDescriptor> fileDescriptors = Librarian.instance().getFiles(fileType, 0, Integer.MAX_VALUE, true);
+    private void writeResponse(GZIPOutputStream os, byte fileType, int offset, int limit) throws IOException {
+        final JsonWriter writer = new JsonWriter(new OutputStreamWriter(os, "UTF-8"));
 
-        FileDescriptorList list = new FileDescriptorList();
-        list.files = fileDescriptors;
+        writer.beginObject();
+        writer.name("files");
+        writer.beginArray();
 
-        return JsonUtils.toJson(list);
-    }
+        int count = Librarian.instance().visitFiles(fileType, offset, limit, true, new Librarian.FileVisitor() {
+            @Override
+            public void visit(FileDescriptor fd) throws IOException {
+                JsonUtils.toJson(fd, writer);
+            }
+        });
+
+        writer.endArray();
+        writer.name("offset").value(offset);
+        writer.name("count").value(count);
+        writer.endObject();
 
-    static final class FileDescriptorList {
-        public List<FileDescriptor> files;
+        writer.flush();
     }
 }
@@ -19,10 +19,17 @@
 package com.frostwire.android.gui.httpserver;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,9 +44,14 @@ import com.frostwire.android.gui.Librarian;
 import com.frostwire.android.gui.services.Engine;
 import com.frostwire.android.gui.transfers.PeerHttpUpload;
 import com.frostwire.android.gui.transfers.TransferManager;
+import com.frostwire.util.HttpRange;
+import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 
 /**
+ * Serves the shared files, with support for single and multiple byte ranges, so
+ * an interrupted transfer can be resumed.
+ *
  * @author gubatron
  * @author aldenml
  *
@@ -48,6 +60,8 @@ class DownloadHandler extends AbstractHandler {
 
     private static final Logger LOG = Logger.getLogger(DownloadHandler.class.getName());
 
+    // big enough for the writes to skip the copies of the response buffering
+    private static final int BUFFER_SIZE = 64 * 1024;
     
     @Override
     public void handle(final HttpExchange exchange) throws IOException {
@@ -104,34 +118,67 @@ class DownloadHandler extends AbstractHandler {
 
             upload = TransferManager.instance().upload(fd);
 
-            exchange.getResponseHeaders().add("Content-Type", fd.mime);
-            exchange.sendResponseHeaders(Code.HTTP_OK, fd.fileSize);
+            File file = new File(fd.filePath);
+            fis = new FileInputStream(file);
+            FileChannel channel = fis.getChannel();
+            long length = channel.size();
+
+            String etag = "\"" + Long.toHexString(file.lastModified()) + "-" + Long.toHexString(length) + "\"";
+            String lastModified = formatDate(file.lastModified());
+
+            Headers headers = exchange.getResponseHeaders();
+            headers.add("Accept-Ranges", "bytes");
+            headers.add("ETag", etag);
+            headers.add("Last-Modified", lastModified);
 
-            os = exchange.getResponseBody();
+            List<HttpRange> ranges = null;
+            Headers requestHeaders = exchange.getRequestHeaders();
+            if (HttpRange.ifRangeMatches(requestHeaders.getFirst("If-Range"), etag, lastModified)) {
+                ranges = HttpRange.parse(requestHeaders.getFirst("Range"), length);
+            }
 
-            fis = new FileInputStream(fd.filePath);
+            if (ranges != null && ranges.isEmpty()) {
+                headers.add("Content-Range", "bytes */" + length);
+                exchange.sendResponseHeaders(Code.HTTP_RANGE_NOT_SATISFIABLE, -1);
+                return;
+            }
 
-            byte[] buffer = new byte[4 * 1024];
-            int n;
-            int count = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            HttpRange.Listener listener = new UploadListener(upload);
 
-            while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
-                os.write(buffer, 0, n);
-                upload.addBytesSent(n);
+            if (ranges == null) {
+                headers.add("Content-Type", fd.mime);
+                exchange.sendResponseHeaders(Code.HTTP_OK, length > 0 ? length : -1);
 
-                if (upload.isCanceled()) {
-                    try {
-                        throw new IOException("Upload cancelled");
-                    } finally {
-                        os.close();
-                    }
+                os = exchange.getResponseBody();
+                new HttpRange(0, length - 1).transfer(channel, os, buffer, listener);
+            } else if (ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+
+                headers.add("Content-Type", fd.mime);
+                headers.add("Content-Range", range.getContentRange(length));
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, range.getLength());
+
+                os = exchange.getResponseBody();
+                range.transfer(channel, os, buffer, listener);
+            } else {
+                String boundary = "frostwire" + Long.toHexString(System.nanoTime());
+                byte[] end = HttpRange.getMultipartEnd(boundary).getBytes("ISO-8859-1");
+
+                long contentLength = end.length;
+                for (HttpRange range : ranges) {
+                    contentLength += range.getMultipartHeader(boundary, fd.mime, length).getBytes("ISO-8859-1").length + range.getLength();
                 }
-                
-                count += n;
-                if (count > 4096) {
-                    count = 0;
-                    Thread.yield();
+
+                headers.add("Content-Type", "multipart/byteranges; boundary=" + boundary);
+                exchange.sendResponseHeaders(Code.HTTP_PARTIAL, contentLength);
+
+                os = exchange.getResponseBody();
+                for (HttpRange range : ranges) {
+                    os.write(range.getMultipartHeader(boundary, fd.mime, length).getBytes("ISO-8859-1"));
+                    range.transfer(channel, os, buffer, listener);
                 }
+                os.write(end);
             }
 
         } catch (IOException e) {
@@ -167,4 +214,28 @@ class DownloadHandler extends AbstractHandler {
         exchange.getResponseHeaders().add("Retry-After", "10"); // retry in 10 seconds
         exchange.sendResponseHeaders(Code.HTTP_UNAVAILABLE, 0);
     }
+
+    private static String formatDate(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(time));
+    }
+
+    private static final class UploadListener implements HttpRange.Listener {
+
+        private final PeerHttpUpload upload;
+
+        public UploadListener(PeerHttpUpload upload) {
+            this.upload = upload;
+        }
+
+        @Override
+        public void onTransfer(int length) throws IOException {
+            upload.addBytesSent(length);
+
+            if (upload.isCanceled()) {
+                throw new IOException("Upload cancelled");
+            }
+        }
+    }
 }
@@ -19,6 +19,7 @@
 package com.frostwire.android.gui.transfers;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
@@ -35,12 +36,11 @@ import android.util.Log;
 
 import com.frostwire.android.R;
 import com.frostwire.android.core.Constants;
-import com.frostwire.android.core.HttpFetcher;
-import com.frostwire.android.core.HttpFetcherListener;
 import com.frostwire.android.gui.Librarian;
 import com.frostwire.android.gui.services.Engine;
 import com.frostwire.android.gui.util.SystemUtils;
 import com.frostwire.android.util.concurrent.AbstractRunnable;
+import com.frostwire.util.SegmentedDownloader;
 import com.frostwire.util.ZipUtils;
 
 /**
@@ -61,6 +61,8 @@ public final class HttpDownload implements DownloadTransfer {
 
     private static final int SPEED_AVERAGE_CALCULATION_INTERVAL_MILLISECONDS = 1000;
 
+    private static final int NUM_CONNECTIONS = 4;
+
     private final TransferManager manager;
     private final HttpDownloadLink link;
     private final Date dateCreated;
@@ -76,6 +78,8 @@ public final class HttpDownload implements DownloadTransfer {
 
     private HttpDownloadListener listener;
 
+    private volatile SegmentedDownloader downloader;
+
     HttpDownload(TransferManager manager, File savePath, HttpDownloadLink link) {
         this.manager = manager;
         this.link = link;
@@ -107,15 +111,22 @@ public final class HttpDownload implements DownloadTransfer {
     }
 
     public int getProgress() {
-        if (link.getSize() > 0) {
-            return isComplete() ? 100 : (int) ((bytesReceived * 100) / link.getSize());
+        long size = getSize();
+        if (size > 0) {
+            return isComplete() ? 100 : (int) ((bytesReceived * 100) / size);
         } else {
             return 0;
         }
     }
 
+    /**
+     * The size reported by the server once known, the link's size is only an estimate for
+     * some sources.
+     */
     public long getSize() {
-        return link.getSize();
+        SegmentedDownloader d = downloader;
+        long contentLength = d != null ? d.getContentLength() : -1;
+        return contentLength > 0 ? contentLength : link.getSize();
     }
 
     public Date getDateCreated() {
@@ -139,9 +150,10 @@ public final class HttpDownload implements DownloadTransfer {
     }
 
     public long getETA() {
-        if (link.getSize() > 0) {
+        long size = getSize();
+        if (size > 0) {
             long speed = getDownloadSpeed();
-            return speed > 0 ? (link.getSize() - getBytesReceived()) / speed : Long.MAX_VALUE;
+            return speed > 0 ? (size - getBytesReceived()) / speed : Long.MAX_VALUE;
         } else {
             return 0;
         }
@@ -149,7 +161,7 @@ public final class HttpDownload implements DownloadTransfer {
 
     public boolean isComplete() {
         if (bytesReceived > 0) {
-            return (bytesReceived == link.getSize() && status == STATUS_COMPLETE) || status == STATUS_ERROR;
+            return (bytesReceived == getSize() && status == STATUS_COMPLETE) || status == STATUS_ERROR;
         } else {
             return false;
         }
@@ -174,6 +186,10 @@ public final class HttpDownload implements DownloadTransfer {
     public void cancel(boolean deleteData) {
         if (status != STATUS_COMPLETE) {
             status = STATUS_CANCELLED;
+            SegmentedDownloader d = downloader;
+            if (d != null) {
+                d.cancel();
+            }
         }
         if (status != STATUS_COMPLETE || deleteData) {
             cleanup();
@@ -201,10 +217,23 @@ public final class HttpDownload implements DownloadTransfer {
                     status = STATUS_WAITING;
                     SystemClock.sleep(delay * 1000);
 
+                    if (status == STATUS_CANCELLED) {
+                        return;
+                    }
+
                     status = STATUS_DOWNLOADING;
-                    String uri = link.getUrl();
-                    new HttpFetcher(uri, 10000).save(savePath, new DownloadListener(retry));
-                    Librarian.instance().scan(savePath);
+                    SegmentedDownloader d = new SegmentedDownloader(link.getUrl(), savePath, NUM_CONNECTIONS);
+                    d.setTimeout(10000);
+                    d.setListener(new DownloadListener());
+                    downloader = d;
+
+                    d.download();
+
+                    if (status != STATUS_CANCELLED) {
+                        complete();
+                    }
+                } catch (SegmentedDownloader.ResponseCodeException e) {
+                    retry(e, retry);
                 } catch (Throwable e) {
                     error(e);
                 }
@@ -285,56 +314,61 @@ public final class HttpDownload implements DownloadTransfer {
         if (status != STATUS_CANCELLED) {
             Log.e(TAG, String.format("Error downloading url: %s", link.getUrl()), e);
             status = STATUS_ERROR;
-            cleanup();
+            if (isFatal(e)) {
+                cleanup();
+            }
+        } else {
+            cleanup(); // the segment map could be saved after the cancel
+        }
+    }
+
+    /**
+     * Network errors and server errors leave the partial file and its segment map in place,
+     * the next download of the same file resumes from them.
+     */
+    private static boolean isFatal(Throwable e) {
+        if (e instanceof SegmentedDownloader.ResponseCodeException) {
+            return ((SegmentedDownloader.ResponseCodeException) e).getResponseCode() < 500;
+        }
+        return !(e instanceof IOException);
+    }
+
+    /**
+     * A retry resumes the ranges already downloaded.
+     */
+    private void retry(SegmentedDownloader.ResponseCodeException e, int retry) {
+        try {
+            Map<String, String> headers = e.getHeaders();
+            if (e.getResponseCode() == 503 && headers.containsKey("Retry-After") && retry < Constants.MAX_PEER_HTTP_DOWNLOAD_RETRIES) {
+                int delay = Integer.parseInt(headers.get("Retry-After"));
+                if (delay > 0) {
+                    start(delay, retry + 1);
+                } else {
+                    error(e);
+                }
+            } else {
+                error(e);
+            }
+        } catch (Throwable tr) {
+            error(tr);
         }
     }
 
     private void cleanup() {
         try {
             savePath.delete();
+            SegmentedDownloader.getPartialFile(savePath).delete();
+            SegmentedDownloader.getSegmentMapFile(savePath).delete();
         } catch (Throwable tr) {
             // ignore
         }
     }
 
-    private final class DownloadListener implements HttpFetcherListener {
-
-        private final int retry;
+    private final class DownloadListener implements SegmentedDownloader.Listener {
 
-        public DownloadListener(int retry) {
-            this.retry = retry;
-        }
-
-        public void onData(byte[] data, int length) {
-            bytesReceived += length;
+        public synchronized void onData(SegmentedDownloader downloader, int length) {
+            bytesReceived = downloader.getDownloaded();
             updateAverageDownloadSpeed();
-
-            if (status == STATUS_CANCELLED) {
-                // ok, this is not the most elegant solution but it effectively breaks the
-                // download logic flow.
-                throw new RuntimeException("Invalid status, transfer cancelled");
-            }
-        }
-
-        public void onSuccess(byte[] body) {
-            complete();
-        }
-
-        public void onError(Throwable e, int statusCode, Map<String, String> headers) {
-            try {
-                if (statusCode == 503 && headers.containsKey("Retry-After") && retry < Constants.MAX_PEER_HTTP_DOWNLOAD_RETRIES) {
-                    int delay = Integer.parseInt(headers.get("Retry-After"));
-                    if (delay > 0) {
-                        start(delay, retry + 1);
-                    } else {
-                        error(e);
-                    }
-                } else {
-                    error(e);
-                }
-            } catch (Throwable tr) {
-                error(tr);
-            }
         }
     }
 
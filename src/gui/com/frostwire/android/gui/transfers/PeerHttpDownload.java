@@ -19,6 +19,7 @@
 package com.frostwire.android.gui.transfers;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -33,13 +34,12 @@ import android.util.Log;
 import com.frostwire.android.R;
 import com.frostwire.android.core.Constants;
 import com.frostwire.android.core.FileDescriptor;
-import com.frostwire.android.core.HttpFetcher;
-import com.frostwire.android.core.HttpFetcherListener;
 import com.frostwire.android.gui.Librarian;
 import com.frostwire.android.gui.Peer;
 import com.frostwire.android.gui.services.Engine;
 import com.frostwire.android.gui.util.SystemUtils;
 import com.frostwire.android.util.concurrent.AbstractRunnable;
+import com.frostwire.util.SegmentedDownloader;
 
 /**
  * @author gubatron
@@ -58,6 +58,8 @@ public final class PeerHttpDownload implements DownloadTransfer {
 
     private static final int SPEED_AVERAGE_CALCULATION_INTERVAL_MILLISECONDS = 1000;
 
+    private static final int RESUME_DELAY_SECONDS = 5;
+
     private final TransferManager manager;
     private final Peer peer;
     private final FileDescriptor fd;
@@ -72,6 +74,8 @@ public final class PeerHttpDownload implements DownloadTransfer {
     private long speedMarkTimestamp;
     private long totalReceivedSinceLastSpeedStamp;
 
+    private volatile SegmentedDownloader downloader;
+
     PeerHttpDownload(TransferManager manager, Peer peer, FileDescriptor fd) {
         this.manager = manager;
         this.peer = peer;
@@ -153,6 +157,10 @@ public final class PeerHttpDownload implements DownloadTransfer {
     public void cancel(boolean deleteData) {
         if (status != STATUS_COMPLETE) {
             status = STATUS_CANCELLED;
+            SegmentedDownloader d = downloader;
+            if (d != null) {
+                d.cancel();
+            }
         }
         if (status != STATUS_COMPLETE || deleteData) {
             cleanup();
@@ -176,12 +184,24 @@ public final class PeerHttpDownload implements DownloadTransfer {
                     status = STATUS_WAITING;
                     SystemClock.sleep(delay * 1000);
 
+                    if (status == STATUS_CANCELLED) {
+                        return;
+                    }
+
                     status = STATUS_DOWNLOADING;
                     String uri = peer.getDownloadUri(fd);
-                    new HttpFetcher(uri).save(savePath, new DownloadListener(retry));
-                    Librarian.instance().scan(savePath);
+                    // a single connection, every connection takes an upload slot of the peer
+                    SegmentedDownloader d = new SegmentedDownloader(uri, savePath, 1);
+                    d.setListener(new DownloadListener());
+                    downloader = d;
+
+                    d.download();
+
+                    if (status != STATUS_CANCELLED) {
+                        complete();
+                    }
                 } catch (Throwable e) {
-                    error(e);
+                    retry(e, retry);
                 }
             }
         });
@@ -233,13 +253,61 @@ public final class PeerHttpDownload implements DownloadTransfer {
         if (status != STATUS_CANCELLED) {
             Log.e(TAG, "Error downloading file: " + fd + " from " + peer, e);
             status = STATUS_ERROR;
-            cleanup();
+            if (isFatal(e)) {
+                cleanup();
+            }
+        } else {
+            cleanup(); // the segment map could be saved after the cancel
+        }
+    }
+
+    /**
+     * Network errors and server errors leave the partial file and its segment map in place,
+     * the next download of the same file resumes from them.
+     */
+    private static boolean isFatal(Throwable e) {
+        if (e instanceof SegmentedDownloader.ResponseCodeException) {
+            return ((SegmentedDownloader.ResponseCodeException) e).getResponseCode() < 500;
+        }
+        return !(e instanceof IOException);
+    }
+
+    /**
+     * The partial file is kept between retries, the download resumes where it stopped.
+     */
+    private void retry(Throwable e, int retry) {
+        try {
+            if (status == STATUS_CANCELLED || retry >= Constants.MAX_PEER_HTTP_DOWNLOAD_RETRIES) {
+                error(e);
+            } else if (e instanceof SegmentedDownloader.ResponseCodeException) {
+                SegmentedDownloader.ResponseCodeException rce = (SegmentedDownloader.ResponseCodeException) e;
+                Map<String, String> headers = rce.getHeaders();
+                if (rce.getResponseCode() == 503 && headers.containsKey("Retry-After")) {
+                    int delay = Integer.parseInt(headers.get("Retry-After"));
+                    if (delay > 0) {
+                        start(delay, retry + 1);
+                    } else {
+                        error(e);
+                    }
+                } else {
+                    error(e);
+                }
+            } else if (e instanceof IOException) {
+                Log.w(TAG, "Resuming download of file: " + fd + " from " + peer + ", " + e.getMessage());
+                start(RESUME_DELAY_SECONDS, retry + 1);
+            } else {
+                error(e);
+            }
+        } catch (Throwable tr) {
+            error(tr);
         }
     }
 
     private void cleanup() {
         try {
             savePath.delete();
+            SegmentedDownloader.getPartialFile(savePath).delete();
+            SegmentedDownloader.getSegmentMapFile(savePath).delete();
         } catch (Throwable tr) {
             // ignore
         }
@@ -267,44 +335,11 @@ public final class PeerHttpDownload implements DownloadTransfer {
     }
    
 
-    private final class DownloadListener implements HttpFetcherListener {
+    private final class DownloadListener implements SegmentedDownloader.Listener {
 
-        private final int retry;
-
-        public DownloadListener(int retry) {
-            this.retry = retry;
-        }
-
-        public void onData(byte[] data, int length) {
-            bytesReceived += length;
+        public void onData(SegmentedDownloader downloader, int length) {
+            bytesReceived = downloader.getDownloaded();
             updateAverageDownloadSpeed();
-
-            if (status == STATUS_CANCELLED) {
-                // ok, this is not the most elegant solution but it effectively breaks the
-                // download logic flow.
-                throw new RuntimeException("Invalid status, transfer cancelled");
-            }
-        }
-
-        public void onSuccess(byte[] body) {
-            complete();
-        }
-
-        public void onError(Throwable e, int statusCode, Map<String, String> headers) {
-            try {
-                if (statusCode == 503 && headers.containsKey("Retry-After") && retry < Constants.MAX_PEER_HTTP_DOWNLOAD_RETRIES) {
-                    int delay = Integer.parseInt(headers.get("Retry-After"));
-                    if (delay > 0) {
-                        start(delay, retry + 1);
-                    } else {
-                        error(e);
-                    }
-                } else {
-                    error(e);
-                }
-            } catch (Throwable tr) {
-                error(tr);
-            }
         }
     }
 
@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FilenameUtils;
 
@@ -68,7 +69,11 @@ public final class YouTubeDownload implements DownloadTransfer {
     private final File tempAudio;
 
     private final HttpClient httpClient;
+    private final HttpClient audioClient; // the audio leg of the DASH downloads
     private final HttpClientListener httpClientListener;
+    private final AtomicInteger pendingLegs;
+    private final MP4Muxer.Input videoInput; // the legs as the DASH mux reads them
+    private final MP4Muxer.Input audioInput;
     private final Date dateCreated;
 
     private final long size;
@@ -99,6 +104,19 @@ public final class YouTubeDownload implements DownloadTransfer {
 
         httpClient = HttpClientFactory.newInstance();
         httpClient.setListener(httpClientListener);
+
+        if (downloadType == DownloadType.DASH) {
+            audioClient = HttpClientFactory.newInstance();
+            audioClient.setListener(httpClientListener);
+            pendingLegs = new AtomicInteger(2);
+            videoInput = new MP4Muxer.Input(tempVideo);
+            audioInput = new MP4Muxer.Input(tempAudio);
+        } else {
+            audioClient = null;
+            pendingLegs = new AtomicInteger(1);
+            videoInput = null;
+            audioInput = null;
+        }
     }
 
     private static File buildFile(File savePath, String name) {
@@ -210,6 +228,7 @@ public final class YouTubeDownload implements DownloadTransfer {
     public void cancel(boolean deleteData) {
         if (status != STATUS_COMPLETE) {
             status = STATUS_CANCELLED;
+            cancelLegs();
         }
         if (status != STATUS_COMPLETE || deleteData) {
             cleanup();
@@ -217,11 +236,19 @@ public final class YouTubeDownload implements DownloadTransfer {
         manager.remove(this);
     }
 
+    /**
+     * The audio and video legs of a DASH download are downloaded at the same time, the
+     * progress is the sum of both. They are muxed while they are downloaded.
+     */
     public void start() {
         if (downloadType == DownloadType.DEMUX) {
-            start(sr.getAudio(), tempAudio);
+            start(httpClient, sr.getAudio(), tempAudio);
+        } else if (downloadType == DownloadType.DASH) {
+            start(httpClient, sr.getVideo(), tempVideo);
+            start(audioClient, sr.getAudio(), tempAudio);
+            startMux();
         } else {
-            start(sr.getVideo(), tempVideo);
+            start(httpClient, sr.getVideo(), tempVideo);
         }
     }
 
@@ -229,7 +256,7 @@ public final class YouTubeDownload implements DownloadTransfer {
         return status;
     }
 
-    private void start(final LinkInfo inf, final File temp) {
+    private void start(final HttpClient client, final LinkInfo inf, final File temp) {
         status = STATUS_WAITING;
 
         Engine.instance().getThreadPool().execute(new Runnable() {
@@ -237,15 +264,69 @@ public final class YouTubeDownload implements DownloadTransfer {
             public void run() {
                 try {
                     status = STATUS_DOWNLOADING;
-                    httpClient.save(inf.link, temp, false);
+                    client.save(inf.link, temp, false);
                 } catch (IOException e) {
                     e.printStackTrace();
-                    httpClientListener.onError(httpClient, e);
+                    httpClientListener.onError(client, e);
                 }
             }
         });
     }
 
+    /**
+     * Muxes the fragments of the legs as they arrive, or the legs once complete if they
+     * aren't fragmented.
+     */
+    private void startMux() {
+        Engine.instance().getThreadPool().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MP4Muxer muxer = new MP4Muxer();
+                    MP4Metadata mt = buildMetadata();
+
+                    if (!muxer.muxFragmented(videoInput, audioInput, completeFile.getAbsolutePath(), mt)) {
+                        if (!videoInput.awaitComplete() || !audioInput.awaitComplete()) {
+                            return;
+                        }
+                        muxer.mux(tempVideo.getAbsolutePath(), tempAudio.getAbsolutePath(), completeFile.getAbsolutePath(), mt);
+                    }
+
+                    if (status != STATUS_CANCELLED && status != STATUS_ERROR) {
+                        if (!completeFile.exists()) {
+                            //error(null);
+                        } else {
+                            complete();
+                        }
+                    }
+                } catch (Throwable e) {
+                    if (status != STATUS_CANCELLED) {
+                        error(e);
+                    }
+                }
+            }
+        });
+    }
+
+    private void cancelLegs() {
+        httpClient.cancel();
+        if (audioClient != null) {
+            audioClient.cancel();
+        }
+        if (videoInput != null) {
+            videoInput.cancel();
+            audioInput.cancel();
+        }
+    }
+
+    private synchronized void onData(int length) {
+        if (status != STATUS_COMPLETE && status != STATUS_CANCELLED && status != STATUS_DEMUXING) {
+            bytesReceived += length;
+            updateAverageDownloadSpeed();
+            status = STATUS_DOWNLOADING;
+        }
+    }
+
     private String getStatusString(int status) {
         int resId;
         switch (status) {
@@ -303,13 +384,14 @@ public final class YouTubeDownload implements DownloadTransfer {
     }
 
     private void error(Throwable e) {
-        if (status != STATUS_CANCELLED) {
+        if (status != STATUS_CANCELLED && status != STATUS_ERROR) {
             if (e != null) {
                 Log.e(TAG, String.format("Error downloading url: %s", sr.getDownloadUrl()), e);
             } else {
                 Log.e(TAG, String.format("Error downloading url: %s", sr.getDownloadUrl()));
             }
             status = STATUS_ERROR;
+            cancelLegs();
             cleanup();
         }
     }
@@ -340,15 +422,23 @@ public final class YouTubeDownload implements DownloadTransfer {
 
         @Override
         public void onData(HttpClient client, byte[] buffer, int offset, int length) {
-            if (status != STATUS_COMPLETE && status != STATUS_CANCELLED && status != STATUS_DEMUXING) {
-                bytesReceived += length;
-                updateAverageDownloadSpeed();
-                status = STATUS_DOWNLOADING;
-            }
+            YouTubeDownload.this.onData(length);
         }
 
         @Override
         public void onComplete(HttpClient client) {
+            if (downloadType == DownloadType.DASH) {
+                if (pendingLegs.decrementAndGet() == 0) {
+                    status = STATUS_DEMUXING; // until the mux writes the last fragments
+                }
+                (client == httpClient ? videoInput : audioInput).complete();
+                return;
+            }
+
+            if (pendingLegs.decrementAndGet() > 0) {
+                return; // waiting for the other leg
+            }
+
             if (downloadType == DownloadType.VIDEO) {
                 boolean renameTo = tempVideo.renameTo(completeFile);
 
@@ -371,26 +461,6 @@ public final class YouTubeDownload implements DownloadTransfer {
                 } catch (Exception e) {
                     error(e);
                 }
-            } else if (downloadType == DownloadType.DASH) {
-                if (tempVideo.exists() && !tempAudio.exists()) {
-                    start(sr.getAudio(), tempAudio);
-                } else if (tempVideo.exists() && tempAudio.exists()) {
-                    try {
-                        status = STATUS_DEMUXING;
-                        new MP4Muxer().mux(tempVideo.getAbsolutePath(), tempAudio.getAbsolutePath(), completeFile.getAbsolutePath(), buildMetadata());
-
-                        if (!completeFile.exists()) {
-                            //error(null);
-                        } else {
-                            complete();
-                        }
-
-                    } catch (Exception e) {
-                        error(e);
-                    }
-                } else {
-                    error(null);
-                }
             } else {
                 // warning!!! if this point is reached review the logic
                 error(null);
@@ -400,7 +470,9 @@ public final class YouTubeDownload implements DownloadTransfer {
         @Override
         public void onCancel(HttpClient client) {
             cleanup();
-            status = STATUS_CANCELLED;
+            if (status != STATUS_ERROR) {
+                status = STATUS_CANCELLED;
+            }
         }
 
         @Override
@@ -0,0 +1,577 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.gudy.azureus2.core3.disk.DiskManagerCheckRequest;
+import org.gudy.azureus2.core3.disk.DiskManagerCheckRequestListener;
+import org.gudy.azureus2.core3.disk.DiskManagerFileInfo;
+import org.gudy.azureus2.core3.disk.DiskManagerPiece;
+import org.gudy.azureus2.core3.disk.DiskManagerReadRequest;
+import org.gudy.azureus2.core3.disk.DiskManagerReadRequestListener;
+import org.gudy.azureus2.core3.disk.impl.DiskManagerFileInfoImpl;
+import org.gudy.azureus2.core3.disk.impl.DiskManagerHelper;
+import org.gudy.azureus2.core3.disk.impl.DiskManagerRecheckInstance;
+import org.gudy.azureus2.core3.disk.impl.DiskManagerRecheckScheduler;
+import org.gudy.azureus2.core3.disk.impl.access.DMCheckerPipeline;
+import org.gudy.azureus2.core3.disk.impl.access.impl.DMCheckerImpl;
+import org.gudy.azureus2.core3.disk.impl.access.impl.DiskManagerReadRequestImpl;
+import org.gudy.azureus2.core3.disk.impl.piecemapper.DMPieceList;
+import org.gudy.azureus2.core3.disk.impl.piecemapper.impl.PieceListImpl;
+import org.gudy.azureus2.core3.disk.impl.piecemapper.impl.PieceMapEntryImpl;
+import org.gudy.azureus2.core3.download.DownloadManagerState;
+import org.gudy.azureus2.core3.torrent.TOTorrent;
+import org.gudy.azureus2.core3.torrent.TOTorrentFile;
+import org.gudy.azureus2.core3.util.DirectByteBuffer;
+import org.gudy.azureus2.core3.util.DirectByteBufferPool;
+import org.gudy.azureus2.core3.util.SHA1Hasher;
+
+import com.aelitis.azureus.core.diskmanager.cache.CacheFile;
+
+/**
+ * The disk manager is a proxy over a single real file, the checks go through the real
+ * checker and cache file. The reads of the usual path are served by a single thread,
+ * as the disk access controller does.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class DMCheckerPipelineTest extends TestCase {
+
+    private static final int PIECE_LENGTH = 256 * 1024;
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "recheck-" + System.nanoTime());
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @SmallTest
+    public void testPipeline() throws Exception {
+        FakeTorrent t = new FakeTorrent(dir, "data.bin", 10 * 1024 * 1024 + 1000, 1);
+        t.hashes[3][0]++;
+        t.hashes[21][0]++;
+
+        try {
+            DMCheckerImpl checker = new DMCheckerImpl(t.helper);
+            checker.start();
+
+            Result r = recheck(checker, t, new DiskManagerRecheckScheduler(), true);
+
+            assertEquals(t.nbPieces, r.completed.get());
+            assertEquals(t.nbPieces - 2, r.passed.get());
+            assertEquals(0, r.cancelled.get());
+
+            for (int i = 0; i < t.nbPieces; i++) {
+                assertEquals(i != 3 && i != 21, t.done[i]);
+            }
+        } finally {
+            t.close();
+        }
+    }
+
+    @SmallTest
+    public void testShortFile() throws Exception {
+        FakeTorrent t = new FakeTorrent(dir, "data.bin", 6 * 1024 * 1024, 1);
+
+        // the last piece ends past the end of the file now
+        File f = new File(dir, "data.bin");
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(f.length() - 1000);
+        raf.close();
+
+        try {
+            DMCheckerImpl checker = new DMCheckerImpl(t.helper);
+            checker.start();
+
+            Result r = recheck(checker, t, new DiskManagerRecheckScheduler(), true);
+
+            assertEquals(t.nbPieces, r.completed.get() + r.failed.get());
+            assertEquals(t.nbPieces - 1, r.passed.get());
+            assertFalse(t.done[t.nbPieces - 1]);
+        } finally {
+            t.close();
+        }
+    }
+
+    @SmallTest
+    public void testCancel() throws Exception {
+        FakeTorrent t = new FakeTorrent(dir, "data.bin", 2 * 1024 * 1024, 1);
+
+        try {
+            DMCheckerImpl checker = new DMCheckerImpl(t.helper);
+            checker.start();
+
+            DiskManagerRecheckInstance inst = new DiskManagerRecheckScheduler().register(t.helper, false, true);
+            DMCheckerPipeline pipeline = checker.createCheckPipeline(inst);
+            Result r = new Result(t.nbPieces);
+
+            for (int i = 0; i < t.nbPieces; i++) {
+                pipeline.enqueueCheckRequest(checker.createCheckRequest(i, null), r);
+            }
+            pipeline.cancel();
+            r.await();
+            inst.unregister();
+
+            assertEquals(t.nbPieces, r.cancelled.get());
+        } finally {
+            t.close();
+        }
+    }
+
+    /**
+     * Concurrent rechecks beyond the limit wait for one of the running ones to end.
+     */
+    @SmallTest
+    public void testConcurrentLimit() throws Exception {
+        FakeTorrent t = new FakeTorrent(dir, "data.bin", 1024 * 1024, 1);
+
+        try {
+            DiskManagerRecheckScheduler scheduler = new DiskManagerRecheckScheduler();
+            DiskManagerRecheckInstance i1 = scheduler.register(t.helper, false, true);
+            DiskManagerRecheckInstance i2 = scheduler.register(t.helper, false, true);
+            DiskManagerRecheckInstance i3 = scheduler.register(t.helper, false, true);
+
+            assertTrue(i1.getPermission());
+            assertTrue(i2.getPermission());
+            assertFalse(i3.getPermission());
+
+            i1.unregister();
+            assertTrue(i3.getPermission());
+
+            i2.unregister();
+            i3.unregister();
+        } finally {
+            t.close();
+        }
+    }
+
+    /**
+     * Recheck MB/s of the same file, one piece at a time as the resume handler did and
+     * with the pipeline. The file is in the page cache after it's written, so this
+     * measures the overhead of the check path and the use of the cores, not the disk.
+     */
+    @LargeTest
+    public void testThroughput() throws Exception {
+        int size = 128 * 1024 * 1024;
+        FakeTorrent t = new FakeTorrent(dir, "data.bin", size, 1);
+
+        try {
+            DMCheckerImpl checker = new DMCheckerImpl(t.helper);
+            checker.start();
+
+            // warm up both paths
+            recheck(checker, t, new DiskManagerRecheckScheduler(), false);
+            recheck(checker, t, new DiskManagerRecheckScheduler(), true);
+
+            long start = System.nanoTime();
+            Result before = recheck(checker, t, new DiskManagerRecheckScheduler(), false);
+            long beforeTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Result after = recheck(checker, t, new DiskManagerRecheckScheduler(), true);
+            long afterTime = System.nanoTime() - start;
+
+            assertEquals(t.nbPieces, before.passed.get());
+            assertEquals(t.nbPieces, after.passed.get());
+
+            System.out.println("Recheck of " + size / (1024 * 1024) + "MB, " + Runtime.getRuntime().availableProcessors() + " cores: piece by piece " + mbs(size, beforeTime) + "MB/s, pipeline " + mbs(size, afterTime) + "MB/s");
+        } finally {
+            t.close();
+        }
+    }
+
+    /**
+     * Two torrents rechecked at the same time, the second registered while the first
+     * runs, both go on at once instead of one after the other.
+     */
+    @LargeTest
+    public void testConcurrentRechecks() throws Exception {
+        final FakeTorrent t1 = new FakeTorrent(dir, "data1.bin", 32 * 1024 * 1024, 1);
+        final FakeTorrent t2 = new FakeTorrent(dir, "data2.bin", 32 * 1024 * 1024, 2);
+
+        try {
+            final DiskManagerRecheckScheduler scheduler = new DiskManagerRecheckScheduler();
+            final DMCheckerImpl c1 = new DMCheckerImpl(t1.helper);
+            final DMCheckerImpl c2 = new DMCheckerImpl(t2.helper);
+            c1.start();
+            c2.start();
+
+            final Result[] results = new Result[2];
+            final CountDownLatch done = new CountDownLatch(2);
+
+            Thread th1 = new Thread() {
+                public void run() {
+                    try {
+                        results[0] = recheck(c1, t1, scheduler, true);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            Thread th2 = new Thread() {
+                public void run() {
+                    try {
+                        results[1] = recheck(c2, t2, scheduler, true);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+
+            th1.start();
+            th2.start();
+            done.await();
+
+            assertEquals(t1.nbPieces, results[0].passed.get());
+            assertEquals(t2.nbPieces, results[1].passed.get());
+
+            // the one finishing last was well under way when the other one ended
+            Result first = results[0].end < results[1].end ? results[0] : results[1];
+            Result last = first == results[0] ? results[1] : results[0];
+            assertTrue(last.completedAt(first.end) > t1.nbPieces / 4);
+        } finally {
+            t1.close();
+            t2.close();
+        }
+    }
+
+    private static Result recheck(DMCheckerImpl checker, FakeTorrent t, DiskManagerRecheckScheduler scheduler, boolean pipelined) throws Exception {
+        DiskManagerRecheckInstance inst = scheduler.register(t.helper, false, pipelined);
+        Result r = new Result(t.nbPieces);
+
+        try {
+            if (pipelined) {
+                DMCheckerPipeline pipeline = checker.createCheckPipeline(inst);
+                for (int i = 0; i < t.nbPieces; i++) {
+                    pipeline.enqueueCheckRequest(checker.createCheckRequest(i, null), r);
+                }
+                pipeline.flush();
+            } else {
+                final Semaphore runSem = new Semaphore(2);
+                for (int i = 0; i < t.nbPieces; i++) {
+                    runSem.acquire();
+                    while (!inst.getPermission()) {
+                    }
+                    final Result res = r;
+                    checker.enqueueCheckRequest(checker.createCheckRequest(i, null), new Result(0) {
+                        @Override
+                        protected void complete(boolean passed) {
+                            runSem.release();
+                            res.checkCompleted(null, passed);
+                        }
+                    });
+                }
+            }
+
+            r.await();
+        } finally {
+            inst.unregister();
+        }
+
+        return r;
+    }
+
+    private static long mbs(long size, long nanos) {
+        return size * 1000000000L / nanos / (1024 * 1024);
+    }
+
+    private static class Result implements DiskManagerCheckRequestListener {
+
+        private final CountDownLatch latch;
+        private final long[] times;
+
+        final AtomicInteger completed;
+        final AtomicInteger passed;
+        final AtomicInteger cancelled;
+        final AtomicInteger failed;
+
+        long end;
+
+        public Result(int count) {
+            this.latch = new CountDownLatch(count);
+            this.times = new long[count];
+            this.completed = new AtomicInteger();
+            this.passed = new AtomicInteger();
+            this.cancelled = new AtomicInteger();
+            this.failed = new AtomicInteger();
+        }
+
+        @Override
+        public void checkCompleted(DiskManagerCheckRequest request, boolean ok) {
+            int n = completed.getAndIncrement();
+            if (ok) {
+                passed.incrementAndGet();
+            }
+            complete(ok);
+            if (n < times.length) {
+                times[n] = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void checkCancelled(DiskManagerCheckRequest request) {
+            cancelled.incrementAndGet();
+            complete(false);
+        }
+
+        @Override
+        public void checkFailed(DiskManagerCheckRequest request, Throwable cause) {
+            failed.incrementAndGet();
+            complete(false);
+        }
+
+        protected void complete(boolean ok) {
+            latch.countDown();
+        }
+
+        public void await() throws InterruptedException {
+            latch.await();
+            end = System.nanoTime();
+        }
+
+        public int completedAt(long time) {
+            int n = 0;
+            for (long t : times) {
+                if (t != 0 && t <= time) {
+                    n++;
+                }
+            }
+            return n;
+        }
+    }
+
+    /**
+     * A single file torrent on disk, with a disk manager answering what the checker asks.
+     */
+    private static final class FakeTorrent implements InvocationHandler {
+
+        final File dir;
+        final int nbPieces;
+        final long size;
+        final byte[][] hashes;
+        final boolean[] done;
+
+        final TOTorrent torrent;
+        final TOTorrentFile torrentFile;
+        final DiskManagerHelper helper;
+        final DiskManagerFileInfoImpl file;
+        final DMPieceList[] pieceLists;
+
+        private final ExecutorService reader;
+
+        public FakeTorrent(File dir, String name, long size, long seed) throws Exception {
+            this.dir = dir;
+            this.size = size;
+            this.nbPieces = (int) ((size + PIECE_LENGTH - 1) / PIECE_LENGTH);
+            this.hashes = new byte[nbPieces][];
+            this.done = new boolean[nbPieces];
+
+            Random random = new Random(seed);
+            SHA1Hasher hasher = new SHA1Hasher();
+            FileOutputStream fos = new FileOutputStream(new File(dir, name));
+            try {
+                byte[] piece = new byte[PIECE_LENGTH];
+                for (int i = 0; i < nbPieces; i++) {
+                    int length = pieceLength(i);
+                    random.nextBytes(piece);
+                    fos.write(piece, 0, length);
+                    hashes[i] = hasher.calculateHash(ByteBuffer.wrap(piece, 0, length));
+                }
+            } finally {
+                fos.close();
+            }
+
+            this.torrent = (TOTorrent) proxy(TOTorrent.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("getSize")) {
+                        return FakeTorrent.this.size;
+                    } else if (name.equals("getPieceLength")) {
+                        return (long) PIECE_LENGTH;
+                    } else if (name.equals("getHash")) {
+                        return new byte[20];
+                    } else if (name.equals("getFiles")) {
+                        return new TOTorrentFile[] { torrentFile };
+                    } else if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    } else if (name.equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+            this.torrentFile = (TOTorrentFile) proxy(TOTorrentFile.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("getTorrent")) {
+                        return torrent;
+                    } else if (name.equals("getLength")) {
+                        return FakeTorrent.this.size;
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+
+            this.helper = (DiskManagerHelper) proxy(DiskManagerHelper.class, this);
+            this.file = new DiskManagerFileInfoImpl(helper, dir.getAbsolutePath(), new File(name), 0, torrentFile, DiskManagerFileInfo.ST_LINEAR);
+
+            this.pieceLists = new DMPieceList[nbPieces];
+            for (int i = 0; i < nbPieces; i++) {
+                pieceLists[i] = PieceListImpl.convert(Collections.singletonList(new PieceMapEntryImpl(file, (long) i * PIECE_LENGTH, pieceLength(i))));
+            }
+
+            this.reader = Executors.newSingleThreadExecutor();
+        }
+
+        public int pieceLength(int piece) {
+            return (int) Math.min(PIECE_LENGTH, size - (long) piece * PIECE_LENGTH);
+        }
+
+        public void close() throws Exception {
+            reader.shutdown();
+            file.getCacheFile().close();
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+
+            if (name.equals("getNbPieces")) {
+                return nbPieces;
+            } else if (name.equals("getPieceLength")) {
+                return args == null ? PIECE_LENGTH : pieceLength((Integer) args[0]);
+            } else if (name.equals("getPieceList")) {
+                return pieceLists[(Integer) args[0]];
+            } else if (name.equals("getPieceHash")) {
+                return hashes[(Integer) args[0]];
+            } else if (name.equals("getPiece")) {
+                return piece((Integer) args[0]);
+            } else if (name.equals("getTorrent")) {
+                return torrent;
+            } else if (name.equals("createReadRequest")) {
+                return new DiskManagerReadRequestImpl((Integer) args[0], (Integer) args[1], (Integer) args[2]);
+            } else if (name.equals("enqueueReadRequest")) {
+                read((DiskManagerReadRequest) args[0], (DiskManagerReadRequestListener) args[1]);
+                return null;
+            } else if (name.equals("getInternalName")) {
+                return "test";
+            } else if (name.equals("getDownloadState")) {
+                return proxy(DownloadManagerState.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return method.getName().equals("getStateFile") ? dir : defaultValue(method.getReturnType());
+                    }
+                });
+            } else if (name.equals("toString")) {
+                return "FakeTorrent";
+            }
+
+            return defaultValue(method.getReturnType());
+        }
+
+        private void read(final DiskManagerReadRequest request, final DiskManagerReadRequestListener listener) {
+            reader.execute(new Runnable() {
+                @Override
+                public void run() {
+                    DirectByteBuffer buffer = DirectByteBufferPool.getBuffer(DirectByteBuffer.AL_DM_READ, request.getLength());
+                    try {
+                        file.getCacheFile().read(buffer, (long) request.getPieceNumber() * PIECE_LENGTH + request.getOffset(), CacheFile.CP_NONE);
+                        buffer.position(DirectByteBuffer.SS_DR, 0);
+                        listener.readCompleted(request, buffer);
+                    } catch (Throwable e) {
+                        buffer.returnToPool();
+                        listener.readFailed(request, e);
+                    }
+                }
+            });
+        }
+
+        private DiskManagerPiece piece(final int index) {
+            return (DiskManagerPiece) proxy(DiskManagerPiece.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("setDone")) {
+                        done[index] = (Boolean) args[0];
+                        return null;
+                    } else if (method.getName().equals("isDone")) {
+                        return done[index];
+                    }
+                    return defaultValue(method.getReturnType());
+                }
+            });
+        }
+
+        private static Object proxy(Class<?> type, InvocationHandler handler) {
+            return Proxy.newProxyInstance(FakeTorrent.class.getClassLoader(), new Class<?>[] { type }, handler);
+        }
+
+        private static Object defaultValue(Class<?> type) {
+            if (type == boolean.class) {
+                return false;
+            } else if (type == int.class) {
+                return 0;
+            } else if (type == long.class) {
+                return 0L;
+            } else if (type == short.class) {
+                return (short) 0;
+            } else if (type == byte.class) {
+                return (byte) 0;
+            }
+            return null;
+        }
+    }
+}
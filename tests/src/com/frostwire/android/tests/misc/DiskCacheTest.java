@@ -0,0 +1,322 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.gudy.azureus2.core3.config.COConfigurationManager;
+import org.gudy.azureus2.core3.torrent.TOTorrent;
+import org.gudy.azureus2.core3.torrent.TOTorrentFile;
+import org.gudy.azureus2.core3.util.DirectByteBuffer;
+import org.gudy.azureus2.core3.util.DirectByteBufferPool;
+
+import com.aelitis.azureus.core.diskmanager.cache.CacheFile;
+import com.aelitis.azureus.core.diskmanager.cache.CacheFileManagerStats;
+import com.aelitis.azureus.core.diskmanager.cache.CacheFileOwner;
+import com.aelitis.azureus.core.diskmanager.cache.impl.CacheFileManagerImpl;
+
+/**
+ * A 1MB cache over real files, each the single file of a proxy torrent, written in blocks
+ * handed over to the cache as the peer connections do.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class DiskCacheTest extends TestCase {
+
+    private static final int BLOCK_LENGTH = 16 * 1024;
+    private static final int PIECE_LENGTH = 256 * 1024;
+
+    private File dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "cache-" + System.nanoTime());
+        dir.mkdirs();
+
+        COConfigurationManager.setParameter("diskmanager.perf.cache.enable", true);
+        COConfigurationManager.setParameter("diskmanager.perf.cache.enable.read", false);
+        COConfigurationManager.setParameter("diskmanager.perf.cache.enable.write", true);
+        COConfigurationManager.setParameter("diskmanager.perf.cache.size", 1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Blocks read twice, as by the hash check and then a peer, stay in the cache while a
+     * download twice the size of the cache goes through it.
+     */
+    @SmallTest
+    public void testSegmentedPolicy() throws Exception {
+        assertEquals(0, seedMisses(true, 8));
+        assertEquals(8, seedMisses(false, 8));
+    }
+
+    @SmallTest
+    public void testWriteBack() throws Exception {
+        CacheFileManagerImpl manager = createManager(true, true);
+        CacheFileManagerStats stats = manager.getStats();
+
+        CacheFile file = createFile(manager, "data.bin");
+
+        // above half the cache, below the size that needs room to be made
+        int blocks = 40;
+        for (int i = 0; i < blocks; i++) {
+            write(file, i);
+        }
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stats.getDirtySize() > 256 * 1024 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        // written by the background thread, kept in the cache
+        assertTrue(stats.getDirtySize() <= 256 * 1024);
+        assertEquals(blocks * BLOCK_LENGTH, stats.getUsedSize());
+        assertTrue(stats.getBytesWrittenToFile() >= blocks * BLOCK_LENGTH - 256 * 1024);
+
+        for (int i = 0; i < blocks; i++) {
+            assertBlock(file, i);
+        }
+        assertEquals(1f, stats.getCacheHitRatio());
+
+        file.flushCache();
+        assertEquals(0, stats.getDirtySize());
+        assertTrue(stats.getAverageFlushLatency() > 0);
+
+        file.close();
+        assertEquals(0, stats.getUsedSize());
+        assertFile(new File(dir, "data.bin"), blocks);
+    }
+
+    /**
+     * Many times the cache size written, the cache making room all along.
+     */
+    @LargeTest
+    public void testWrites() throws Exception {
+        int blocks = 1024;
+
+        for (int n = 0; n < 2; n++) {
+            boolean writeBack = n == 1;
+
+            CacheFileManagerImpl manager = createManager(true, writeBack);
+            CacheFileManagerStats stats = manager.getStats();
+
+            CacheFile file = createFile(manager, "data" + n + ".bin");
+
+            long max = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < blocks; i++) {
+                long t = System.nanoTime();
+                write(file, i);
+                max = Math.max(max, System.nanoTime() - t);
+            }
+            long time = System.nanoTime() - start;
+
+            file.close();
+            assertEquals(0, stats.getDirtySize());
+            assertEquals(0, stats.getUsedSize());
+            assertFile(new File(dir, "data" + n + ".bin"), blocks);
+
+            System.out.println("Writes of " + blocks * BLOCK_LENGTH / 1024 + "KB, write-back " + writeBack + ": " + time / 1000000 + "ms, longest write " + max / 1000 + "us, flush latency " + stats.getAverageFlushLatency() + "us");
+        }
+    }
+
+    private int seedMisses(boolean segmented, int seedBlocks) throws Exception {
+        CacheFileManagerImpl manager = createManager(segmented, false);
+        CacheFileManagerStats stats = manager.getStats();
+
+        CacheFile seed = createFile(manager, "seed.bin");
+        CacheFile download = createFile(manager, "download.bin");
+
+        for (int i = 0; i < seedBlocks; i++) {
+            write(seed, i);
+            assertBlock(seed, i);
+            assertBlock(seed, i);
+        }
+
+        for (int i = 0; i < 128; i++) {
+            write(download, i);
+            assertBlock(download, i);
+        }
+
+        long misses = stats.getCacheReadMissCount();
+        for (int i = 0; i < seedBlocks; i++) {
+            assertBlock(seed, i);
+        }
+        misses = stats.getCacheReadMissCount() - misses;
+
+        seed.close();
+        download.close();
+        assertEquals(0, stats.getUsedSize());
+
+        return (int) misses;
+    }
+
+    private static CacheFileManagerImpl createManager(boolean segmented, boolean writeBack) {
+        COConfigurationManager.setParameter("diskmanager.perf.cache.policy.segmented", segmented);
+        COConfigurationManager.setParameter("diskmanager.perf.cache.writeback", writeBack);
+
+        return new CacheFileManagerImpl();
+    }
+
+    private CacheFile createFile(CacheFileManagerImpl manager, final String name) throws Exception {
+        final TOTorrentFile torrentFile = torrentFile();
+
+        CacheFile file = manager.createFile(new CacheFileOwner() {
+            public String getCacheFileOwnerName() {
+                return name;
+            }
+
+            public TOTorrentFile getCacheFileTorrentFile() {
+                return torrentFile;
+            }
+
+            public File getCacheFileControlFileDir() {
+                return dir;
+            }
+
+            public int getCacheMode() {
+                return CACHE_MODE_NORMAL;
+            }
+        }, new File(dir, name), CacheFile.CT_LINEAR);
+
+        file.setAccessMode(CacheFile.CF_WRITE);
+
+        return file;
+    }
+
+    private static TOTorrentFile torrentFile() {
+        final TOTorrentFile[] files = new TOTorrentFile[1];
+
+        final TOTorrent torrent = (TOTorrent) proxy(TOTorrent.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getPieceLength")) {
+                    return (long) PIECE_LENGTH;
+                } else if (name.equals("getHash")) {
+                    return new byte[20];
+                } else if (name.equals("getFiles")) {
+                    return files;
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+
+        files[0] = (TOTorrentFile) proxy(TOTorrentFile.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if (name.equals("getTorrent")) {
+                    return torrent;
+                } else if (name.equals("getLength")) {
+                    return 64L * 1024 * 1024;
+                } else if (name.equals("hashCode")) {
+                    return System.identityHashCode(proxy);
+                } else if (name.equals("equals")) {
+                    return proxy == args[0];
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+
+        return files[0];
+    }
+
+    private static Object proxy(Class<?> type, InvocationHandler handler) {
+        return Proxy.newProxyInstance(DiskCacheTest.class.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    private static void write(CacheFile file, int block) throws Exception {
+        DirectByteBuffer buffer = DirectByteBufferPool.getBuffer(DirectByteBuffer.AL_OTHER, BLOCK_LENGTH);
+        for (int i = 0; i < BLOCK_LENGTH; i++) {
+            buffer.put(DirectByteBuffer.SS_OTHER, value(block, i));
+        }
+        buffer.flip(DirectByteBuffer.SS_OTHER);
+
+        file.writeAndHandoverBuffer(buffer, (long) block * BLOCK_LENGTH);
+    }
+
+    private static void assertBlock(CacheFile file, int block) throws Exception {
+        DirectByteBuffer buffer = DirectByteBufferPool.getBuffer(DirectByteBuffer.AL_OTHER, BLOCK_LENGTH);
+        try {
+            file.read(buffer, (long) block * BLOCK_LENGTH, CacheFile.CP_READ_CACHE);
+            buffer.flip(DirectByteBuffer.SS_OTHER);
+            for (int i = 0; i < BLOCK_LENGTH; i++) {
+                assertEquals(value(block, i), buffer.get(DirectByteBuffer.SS_OTHER));
+            }
+        } finally {
+            buffer.returnToPool();
+        }
+    }
+
+    private static void assertFile(File f, int blocks) throws Exception {
+        assertEquals((long) blocks * BLOCK_LENGTH, f.length());
+
+        byte[] data = new byte[BLOCK_LENGTH];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            for (int block = 0; block < blocks; block++) {
+                raf.readFully(data);
+                for (int i = 0; i < BLOCK_LENGTH; i++) {
+                    assertEquals(value(block, i), data[i]);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte value(int block, int i) {
+        return (byte) (block * 31 + i);
+    }
+}
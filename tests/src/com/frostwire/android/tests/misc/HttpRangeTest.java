@@ -0,0 +1,211 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.util.HttpRange;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class HttpRangeTest extends TestCase {
+
+    private static final int SIZE = 64 * 1024 * 1024;
+
+    @SmallTest
+    public void testParse() {
+        assertNull(HttpRange.parse(null, 1000));
+        assertNull(HttpRange.parse("items=0-10", 1000));
+        assertNull(HttpRange.parse("bytes=10-5", 1000));
+        assertNull(HttpRange.parse("bytes=a-5", 1000));
+
+        assertEquals("[0-999]", HttpRange.parse("bytes=0-", 1000).toString());
+        assertEquals("[500-999]", HttpRange.parse("bytes=500-5000", 1000).toString());
+        assertEquals("[900-999]", HttpRange.parse("bytes=-100", 1000).toString());
+        assertEquals("[0-999]", HttpRange.parse("bytes=-5000", 1000).toString());
+        assertEquals("[0-9, 100-199, 990-999]", HttpRange.parse("bytes=0-9, 100-199,-10", 1000).toString());
+
+        assertTrue(HttpRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(HttpRange.parse("bytes=-0", 1000).isEmpty());
+        assertEquals("[0-9]", HttpRange.parse("bytes=0-9,2000-3000", 1000).toString());
+
+        // empty content is sent whole
+        assertNull(HttpRange.parse("bytes=0-", 0));
+
+        assertEquals("bytes 500-999/1000", HttpRange.parse("bytes=500-", 1000).get(0).getContentRange(1000));
+    }
+
+    @SmallTest
+    public void testIfRange() {
+        String etag = "\"1234-abcd\"";
+        String lastModified = "Sat, 01 Nov 2014 10:00:00 GMT";
+
+        assertTrue(HttpRange.ifRangeMatches(null, etag, lastModified));
+        assertTrue(HttpRange.ifRangeMatches(etag, etag, lastModified));
+        assertTrue(HttpRange.ifRangeMatches(lastModified, etag, lastModified));
+        assertFalse(HttpRange.ifRangeMatches("\"other\"", etag, lastModified));
+        assertFalse(HttpRange.ifRangeMatches("W/" + etag, etag, lastModified));
+        assertFalse(HttpRange.ifRangeMatches("Sun, 02 Nov 2014 10:00:00 GMT", etag, lastModified));
+    }
+
+    /**
+     * Loopback throughput of the old 4KB copy loop against the transfer of ranges.
+     */
+    @LargeTest
+    public void testTransferThroughput() throws Exception {
+        final File file = File.createTempFile("http_range_test", ".bin");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+
+        try {
+            byte[] data = new byte[SIZE];
+            new Random(1).nextBytes(data);
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                fos.write(data);
+            } finally {
+                fos.close();
+            }
+
+            server.createContext("/old", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    exchange.sendResponseHeaders(200, file.length());
+                    OutputStream os = exchange.getResponseBody();
+                    FileInputStream fis = new FileInputStream(file);
+                    try {
+                        byte[] buffer = new byte[4 * 1024];
+                        int n;
+                        int count = 0;
+                        while ((n = fis.read(buffer, 0, buffer.length)) != -1) {
+                            os.write(buffer, 0, n);
+                            count += n;
+                            if (count > 4096) {
+                                count = 0;
+                                Thread.yield();
+                            }
+                        }
+                    } finally {
+                        fis.close();
+                        os.close();
+                    }
+                }
+            });
+            server.createContext("/new", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    FileInputStream fis = new FileInputStream(file);
+                    OutputStream os = null;
+                    try {
+                        long length = fis.getChannel().size();
+                        List<HttpRange> ranges = HttpRange.parse(exchange.getRequestHeaders().getFirst("Range"), length);
+                        HttpRange range = ranges != null ? ranges.get(0) : new HttpRange(0, length - 1);
+                        if (ranges != null) {
+                            exchange.getResponseHeaders().add("Content-Range", range.getContentRange(length));
+                        }
+                        exchange.sendResponseHeaders(ranges != null ? 206 : 200, range.getLength());
+                        os = exchange.getResponseBody();
+                        range.transfer(fis.getChannel(), os, ByteBuffer.allocate(64 * 1024), null);
+                    } finally {
+                        fis.close();
+                        if (os != null) {
+                            os.close();
+                        }
+                    }
+                }
+            });
+            server.setExecutor(executor);
+            server.start();
+
+            String base = "http://127.0.0.1:" + server.getAddress().getPort();
+
+            // warm up
+            fetch(base + "/old", null);
+            fetch(base + "/new", null);
+
+            long start = System.currentTimeMillis();
+            byte[] old = fetch(base + "/old", null);
+            long oldTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            byte[] full = fetch(base + "/new", null);
+            long newTime = System.currentTimeMillis() - start;
+
+            System.out.println("Served " + SIZE / (1024 * 1024) + "MB, 4KB loop: " + throughput(oldTime) + "MB/s, range transfer: " + throughput(newTime) + "MB/s");
+
+            assertTrue(Arrays.equals(data, old));
+            assertTrue(Arrays.equals(data, full));
+
+            byte[] tail = fetch(base + "/new", "bytes=1000-");
+            assertTrue(Arrays.equals(Arrays.copyOfRange(data, 1000, SIZE), tail));
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+            file.delete();
+        }
+    }
+
+    private static long throughput(long time) {
+        return time > 0 ? (SIZE / (1024 * 1024)) * 1000L / time : 0;
+    }
+
+    private static byte[] fetch(String url, String range) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            conn.setRequestProperty("Range", range);
+        }
+        InputStream in = conn.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(SIZE);
+        try {
+            byte[] b = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(b)) != -1) {
+                out.write(b, 0, n);
+            }
+        } finally {
+            in.close();
+            conn.disconnect();
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.util.JsonUtils;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class JsonUtilsTest extends TestCase {
+
+    /**
+     * Peers parse the streamed browse response with the same classes as the old one.
+     */
+    @SmallTest
+    public void testStreamedList() throws Exception {
+        FileList list = new FileList();
+        list.files = new ArrayList<File>();
+        for (int i = 0; i < 100; i++) {
+            list.files.add(new File(i, "Song <" + i + "> & \"more\" - café.mp3", i * 1000L));
+        }
+
+        StringWriter sw = new StringWriter();
+        JsonWriter writer = new JsonWriter(sw);
+        writer.beginObject();
+        writer.name("files");
+        writer.beginArray();
+        for (File f : list.files) {
+            JsonUtils.toJson(f, writer);
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+
+        assertEquals(JsonUtils.toJson(list), sw.toString());
+
+        FileList parsed = JsonUtils.toObject(sw.toString(), FileList.class);
+        assertEquals(100, parsed.files.size());
+        assertEquals(list.files.get(7).title, parsed.files.get(7).title);
+    }
+
+    static final class FileList {
+        public List<File> files;
+    }
+
+    static final class File {
+
+        public int id;
+        public String title;
+        public long size;
+
+        public File(int id, String title, long size) {
+            this.id = id;
+            this.title = title;
+            this.size = size;
+        }
+    }
+}
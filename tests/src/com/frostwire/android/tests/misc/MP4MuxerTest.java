@@ -0,0 +1,357 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.frostwire.android.tests.misc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.coremedia.iso.IsoFile;
+import com.coremedia.iso.PropertyBoxParserImpl;
+import com.coremedia.iso.boxes.Box;
+import com.coremedia.iso.boxes.Container;
+import com.coremedia.iso.boxes.fragment.MovieFragmentBox;
+import com.coremedia.iso.boxes.fragment.TrackFragmentBox;
+import com.coremedia.iso.boxes.fragment.TrackRunBox;
+import com.frostwire.util.MP4Muxer;
+import com.googlecode.mp4parser.AbstractBox;
+import com.googlecode.mp4parser.DataSource;
+import com.googlecode.mp4parser.FileDataSourceImpl;
+import com.googlecode.mp4parser.authoring.Movie;
+import com.googlecode.mp4parser.authoring.builder.DefaultMp4Builder;
+import com.googlecode.mp4parser.authoring.builder.FragmentedMp4Builder;
+import com.googlecode.mp4parser.authoring.builder.Mp4Builder;
+import com.googlecode.mp4parser.authoring.builder.TwoSecondIntersectionFinder;
+import com.googlecode.mp4parser.authoring.tracks.AACTrackImpl;
+
+/**
+ * Muxes two local fragmented (DASH) mp4 files, created from synthetic AAC frames, with
+ * the fragmented mux, complete or while they are written, and with the regular one.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class MP4MuxerTest extends TestCase {
+
+    private static final int NUM_FRAMES = 40000; // about 15 minutes
+    private static final int FRAME_SIZE = 400;
+
+    private File dir;
+    private File video;
+    private File audio;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "mp4muxertest");
+        dir.mkdirs();
+        video = createFixture(new File(dir, "video.mp4"), 1, true);
+        audio = createFixture(new File(dir, "audio.mp4"), 2, true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @LargeTest
+    public void testMuxFragmented() throws Exception {
+        final File out = new File(dir, "out.mp4");
+        final File regularOut = new File(dir, "regular.mp4");
+
+        long[] fragmented = measure(new Mux() {
+            @Override
+            public void run(MP4Muxer muxer) throws IOException {
+                assertTrue(muxer.muxFragmented(video.getAbsolutePath(), audio.getAbsolutePath(), out.getAbsolutePath(), metadata()));
+            }
+        });
+
+        long[] regular = measure(new Mux() {
+            @Override
+            public void run(MP4Muxer muxer) throws IOException {
+                muxer.mux(video.getAbsolutePath(), audio.getAbsolutePath(), regularOut.getAbsolutePath(), metadata());
+            }
+        });
+
+        assertSamples(out);
+        assertTrue(regularOut.length() > 0);
+
+        // the media data goes from file to file, only the headers are held
+        assertTrue("fragmented mux heap " + fragmented[1] + " >= regular mux heap " + regular[1], fragmented[1] < regular[1]);
+    }
+
+    @LargeTest
+    public void testMuxFragmentedWhileWritten() throws Exception {
+        File out = new File(dir, "out.mp4");
+        File streamedOut = new File(dir, "streamed.mp4");
+
+        assertTrue(new MP4Muxer().muxFragmented(video.getAbsolutePath(), audio.getAbsolutePath(), out.getAbsolutePath(), metadata()));
+
+        File videoLeg = new File(dir, "video.leg");
+        File audioLeg = new File(dir, "audio.leg");
+        MP4Muxer.Input videoInput = new MP4Muxer.Input(videoLeg);
+        MP4Muxer.Input audioInput = new MP4Muxer.Input(audioLeg);
+
+        Thread videoWriter = write(video, videoInput, 64 * 1024);
+        Thread audioWriter = write(audio, audioInput, 100 * 1024);
+
+        assertTrue(new MP4Muxer().muxFragmented(videoInput, audioInput, streamedOut.getAbsolutePath(), metadata()));
+
+        videoWriter.join();
+        audioWriter.join();
+
+        assertTrue(Arrays.equals(readFully(out), readFully(streamedOut)));
+    }
+
+    @SmallTest
+    public void testMuxFragmentedCancelled() throws Exception {
+        MP4Muxer.Input videoInput = new MP4Muxer.Input(new File(dir, "video.leg"));
+        MP4Muxer.Input audioInput = new MP4Muxer.Input(audio, true);
+
+        videoInput.cancel();
+
+        try {
+            new MP4Muxer().muxFragmented(videoInput, audioInput, new File(dir, "out.mp4").getAbsolutePath(), metadata());
+            fail("Cancelled leg muxed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @SmallTest
+    public void testMuxNotFragmented() throws Exception {
+        File regularVideo = createFixture(new File(dir, "regular-video.mp4"), 3, false);
+        File out = new File(dir, "out.mp4");
+
+        assertFalse(new MP4Muxer().muxFragmented(regularVideo.getAbsolutePath(), audio.getAbsolutePath(), out.getAbsolutePath(), metadata()));
+        assertFalse(out.exists());
+    }
+
+    private static MP4Muxer.MP4Metadata metadata() {
+        return new MP4Muxer.MP4Metadata("title", "author", "source", null);
+    }
+
+    /**
+     * Checks the output has a track per leg, with all the samples of the leg in its fragments.
+     */
+    private void assertSamples(File out) throws IOException {
+        long[] videoSamples = countSamples(video, 1);
+        long[] audioSamples = countSamples(audio, 1);
+
+        assertEquals(NUM_FRAMES, videoSamples[0]);
+        assertEquals(NUM_FRAMES, audioSamples[0]);
+
+        assertTrue(Arrays.equals(videoSamples, countSamples(out, 1)));
+        assertTrue(Arrays.equals(audioSamples, countSamples(out, 2)));
+    }
+
+    /**
+     * Returns the number of samples and their total size for the track, from the fragments.
+     */
+    private static long[] countSamples(File f, long trackId) throws IOException {
+        IsoFile isoFile = new IsoFile(new FileDataSourceImpl(f), new PropertyBoxParserImpl() {
+            @Override
+            public Box parseBox(DataSource byteChannel, Container parent) throws IOException {
+                Box box = super.parseBox(byteChannel, parent);
+                if (box instanceof AbstractBox) {
+                    ((AbstractBox) box).parseDetails();
+                }
+                return box;
+            }
+        });
+        try {
+            long count = 0;
+            long size = 0;
+
+            for (MovieFragmentBox moof : isoFile.getBoxes(MovieFragmentBox.class)) {
+                for (TrackFragmentBox traf : moof.getBoxes(TrackFragmentBox.class)) {
+                    if (traf.getTrackFragmentHeaderBox().getTrackId() == trackId) {
+                        for (TrackRunBox trun : traf.getBoxes(TrackRunBox.class)) {
+                            for (TrackRunBox.Entry e : trun.getEntries()) {
+                                count++;
+                                size += e.getSampleSize();
+                            }
+                        }
+                    }
+                }
+            }
+
+            return new long[] { count, size };
+        } finally {
+            isoFile.close();
+        }
+    }
+
+    /**
+     * Copies the file to the leg in chunks, as a download would.
+     */
+    private static Thread write(final File f, final MP4Muxer.Input input, final int chunkSize) {
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    FileInputStream in = new FileInputStream(f);
+                    FileOutputStream out = new FileOutputStream(input.getFile());
+                    try {
+                        byte[] buffer = new byte[chunkSize];
+                        int n;
+                        while ((n = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, n);
+                            out.flush();
+                            Thread.sleep(5);
+                        }
+                    } finally {
+                        in.close();
+                        out.close();
+                    }
+                    input.complete();
+                } catch (Exception e) {
+                    input.cancel();
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    private static byte[] readFully(File f) throws IOException {
+        byte[] data = new byte[(int) f.length()];
+        FileInputStream in = new FileInputStream(f);
+        try {
+            int off = 0;
+            int n;
+            while (off < data.length && (n = in.read(data, off, data.length - off)) != -1) {
+                off += n;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    /**
+     * Returns the wall time and the peak heap used while muxing.
+     */
+    private static long[] measure(Mux mux) throws Exception {
+        System.gc();
+        final Runtime rt = Runtime.getRuntime();
+        final long base = rt.totalMemory() - rt.freeMemory();
+        final long[] peak = new long[1];
+        final AtomicBoolean done = new AtomicBoolean();
+
+        Thread sampler = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    peak[0] = Math.max(peak[0], rt.totalMemory() - rt.freeMemory() - base);
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                    }
+                }
+            }
+        };
+        sampler.setDaemon(true);
+        sampler.start();
+
+        long start = System.currentTimeMillis();
+        try {
+            mux.run(new MP4Muxer());
+        } finally {
+            done.set(true);
+            sampler.join();
+        }
+        long time = System.currentTimeMillis() - start;
+
+        return new long[] { time, peak[0] };
+    }
+
+    private static File createFixture(File f, int seed, boolean fragmented) throws IOException {
+        Random r = new Random(seed);
+        int frameLength = FRAME_SIZE + 7;
+        ByteBuffer adts = ByteBuffer.allocate(NUM_FRAMES * frameLength);
+        byte[] payload = new byte[FRAME_SIZE];
+
+        for (int i = 0; i < NUM_FRAMES; i++) {
+            // ADTS header, AAC LC, 44100Hz, stereo, no CRC
+            adts.put((byte) 0xFF);
+            adts.put((byte) 0xF1);
+            adts.put((byte) 0x50);
+            adts.put((byte) (0x80 | (frameLength >> 11)));
+            adts.put((byte) ((frameLength >> 3) & 0xFF));
+            adts.put((byte) (((frameLength & 7) << 5) | 0x1F));
+            adts.put((byte) 0xFC);
+            r.nextBytes(payload);
+            adts.put(payload);
+        }
+        adts.rewind();
+
+        File aac = new File(f.getParentFile(), f.getName() + ".aac");
+        FileOutputStream fos = new FileOutputStream(aac);
+        try {
+            fos.getChannel().write(adts);
+        } finally {
+            fos.close();
+        }
+
+        FileDataSourceImpl source = new FileDataSourceImpl(aac);
+        try {
+            Movie movie = new Movie();
+            movie.addTrack(new AACTrackImpl(source));
+
+            Mp4Builder builder;
+            if (fragmented) {
+                FragmentedMp4Builder fragmentedBuilder = new FragmentedMp4Builder();
+                fragmentedBuilder.setIntersectionFinder(new TwoSecondIntersectionFinder(movie, 2));
+                builder = fragmentedBuilder;
+            } else {
+                builder = new DefaultMp4Builder();
+            }
+            Container out = builder.build(movie);
+
+            fos = new FileOutputStream(f);
+            try {
+                out.writeContainer(fos.getChannel());
+            } finally {
+                fos.close();
+            }
+        } finally {
+            source.close();
+        }
+        aac.delete();
+
+        return f;
+    }
+
+    private interface Mux {
+        void run(MP4Muxer muxer) throws IOException;
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.aelitis.azureus.core.peermanager.piecepicker.util.PieceAvailability;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class PieceAvailabilityTest extends TestCase {
+
+    @SmallTest
+    public void testRandomChanges() {
+        int nbPieces = 500;
+        Random random = new Random(1);
+
+        PieceAvailability pa = new PieceAvailability(nbPieces);
+        int[] expected = new int[nbPieces];
+
+        for (int n = 0; n < 20000; n++) {
+            int piece = random.nextInt(nbPieces);
+            if (random.nextInt(3) > 0) {
+                pa.increment(piece);
+                expected[piece]++;
+            } else {
+                pa.decrement(piece);
+                expected[piece] = Math.max(0, expected[piece] - 1);
+            }
+
+            if (n % 1000 == 0) {
+                assertIndex(pa, expected);
+            }
+        }
+
+        assertIndex(pa, expected);
+
+        for (int i = 0; i < nbPieces; i++) {
+            pa.set(i, i % 7);
+            expected[i] = i % 7;
+        }
+
+        assertIndex(pa, expected);
+        assertEquals(0, pa.getMinLevel());
+        assertEquals(6, pa.getMaxLevel());
+    }
+
+    @SmallTest
+    public void testChanged() {
+        PieceAvailability pa = new PieceAvailability(10);
+
+        pa.increment(3);
+        pa.increment(3);
+        pa.increment(5);
+        pa.decrement(7); // already 0, not changed
+
+        assertEquals(2, pa.getNbChanged());
+        assertEquals(3, pa.getChanged(0));
+        assertEquals(5, pa.getChanged(1));
+
+        pa.clearChanged();
+        assertEquals(0, pa.getNbChanged());
+
+        pa.decrement(3);
+        assertEquals(1, pa.getNbChanged());
+        assertEquals(3, pa.getChanged(0));
+    }
+
+    /**
+     * A swarm of synthetic peers joining, announcing haves and leaving, with the stats of
+     * the piece picker computed every simulated second, from a snapshot of all the pieces
+     * as before and from the rarest levels of the index.
+     */
+    @LargeTest
+    public void testSimulation() {
+        int nbPieces = 50000;
+        int nbPeers = 100;
+        int seconds = 60;
+        int havesPerSecond = 2000;
+
+        Random random = new Random(1);
+
+        boolean[][] peers = new boolean[nbPeers][];
+        boolean[] wanted = new boolean[nbPieces];
+        for (int i = 0; i < nbPieces; i++) {
+            wanted[i] = random.nextInt(10) > 0;
+        }
+
+        PieceAvailability pa = new PieceAvailability(nbPieces);
+        int[] availability = new int[nbPieces];
+
+        long indexTime = 0;
+        long snapshotTime = 0;
+        long garbage = 0;
+
+        for (int p = 0; p < nbPeers; p++) {
+            peers[p] = randomBitfield(random, nbPieces);
+            addPeer(pa, availability, peers[p]);
+        }
+
+        for (int s = 0; s < seconds; s++) {
+            // a few peers leave and others join
+            for (int n = 0; n < 5; n++) {
+                int p = random.nextInt(nbPeers);
+                removePeer(pa, availability, peers[p]);
+                peers[p] = randomBitfield(random, nbPieces);
+                addPeer(pa, availability, peers[p]);
+            }
+
+            for (int n = 0; n < havesPerSecond; n++) {
+                int p = random.nextInt(nbPeers);
+                int i = random.nextInt(nbPieces);
+                if (!peers[p][i]) {
+                    peers[p][i] = true;
+                    pa.increment(i);
+                    availability[i]++;
+                }
+            }
+
+            long start = System.nanoTime();
+            int[] snapshot = availability.clone();
+            garbage += snapshot.length * 4;
+            long[] expected = snapshotStats(snapshot, wanted);
+            snapshotTime += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long[] stats = indexStats(pa, wanted);
+            indexTime += System.nanoTime() - start;
+            pa.clearChanged();
+
+            for (int k = 0; k < expected.length; k++) {
+                assertEquals(expected[k], stats[k]);
+            }
+        }
+
+        System.out.println("Stats of " + nbPieces + " pieces, " + nbPeers + " peers, " + seconds + " s: snapshot and full scan " + snapshotTime / 1000 + "us (" + garbage / 1024 + "KB garbage), rarest levels of the index " + indexTime / 1000 + "us");
+    }
+
+    private static void assertIndex(PieceAvailability pa, int[] expected) {
+        long total = 0;
+        int[] counts = new int[64];
+
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], pa.get(i));
+            total += expected[i];
+            counts[expected[i]]++;
+        }
+        assertEquals(total, pa.getTotal());
+
+        for (int level = 0; level < counts.length; level++) {
+            assertEquals(counts[level], pa.getCount(level));
+            for (int j = pa.getLevelStart(level); j < pa.getLevelEnd(level); j++) {
+                assertEquals(level, pa.get(pa.getPiece(j)));
+            }
+        }
+    }
+
+    private static boolean[] randomBitfield(Random random, int nbPieces) {
+        boolean[] flags = new boolean[nbPieces];
+        boolean seed = random.nextInt(10) == 0;
+        int percent = random.nextInt(100);
+        for (int i = 0; i < nbPieces; i++) {
+            flags[i] = seed || random.nextInt(100) < percent;
+        }
+        return flags;
+    }
+
+    private static void addPeer(PieceAvailability pa, int[] availability, boolean[] flags) {
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i]) {
+                pa.increment(i);
+                availability[i]++;
+            }
+        }
+    }
+
+    private static void removePeer(PieceAvailability pa, int[] availability, boolean[] flags) {
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i]) {
+                pa.decrement(i);
+                availability[i]--;
+            }
+        }
+    }
+
+    /**
+     * Min, max, rarest wanted level and pieces above the min, over all the pieces.
+     */
+    private static long[] snapshotStats(int[] availability, boolean[] wanted) {
+        int min = Integer.MAX_VALUE;
+        int max = 0;
+        int rarest = Integer.MAX_VALUE;
+        long total = 0;
+
+        for (int i = 0; i < availability.length; i++) {
+            int avail = availability[i];
+            if (avail > 0 && avail < rarest && wanted[i]) {
+                rarest = avail;
+            }
+            min = Math.min(min, avail);
+            max = Math.max(max, avail);
+        }
+
+        int above = 0;
+        for (int i = 0; i < availability.length; i++) {
+            if (availability[i] > 0 && availability[i] > min) {
+                above++;
+            }
+            total += availability[i];
+        }
+
+        return new long[] { min, max, rarest, above, total };
+    }
+
+    private static long[] indexStats(PieceAvailability pa, boolean[] wanted) {
+        int min = pa.getMinLevel();
+        int max = pa.getMaxLevel();
+        int rarest = Integer.MAX_VALUE;
+
+        for (int level = 1; level <= max && rarest == Integer.MAX_VALUE; level++) {
+            for (int j = pa.getLevelStart(level); j < pa.getLevelEnd(level); j++) {
+                if (wanted[pa.getPiece(j)]) {
+                    rarest = level;
+                    break;
+                }
+            }
+        }
+
+        return new long[] { min, max, rarest, wanted.length - pa.getCount(min), pa.getTotal() };
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.util.SegmentedDownloader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Downloads from a local HTTP server that limits the speed of each connection.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SegmentedDownloaderTest extends TestCase {
+
+    private static final int SIZE = 4 * 1024 * 1024 + 123;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int CHUNK_DELAY = 5; // ~3MB/s per connection
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String url;
+    private File dir;
+
+    private volatile byte[] content;
+    private volatile String etag;
+    private volatile boolean ranges;
+    private final AtomicLong served = new AtomicLong();
+
+    @Override
+    protected void setUp() throws Exception {
+        content = random(SIZE, 1);
+        etag = "\"v1\"";
+        ranges = true;
+
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/file.bin";
+
+        dir = new File(System.getProperty("java.io.tmpdir"), "segmented_test_" + System.nanoTime());
+        dir.mkdirs();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @LargeTest
+    public void testSegmented() throws Exception {
+        File single = new File(dir, "single.bin");
+        long start = System.currentTimeMillis();
+        SegmentedDownloader d1 = new SegmentedDownloader(url, single, 1);
+        d1.download();
+        long singleTime = System.currentTimeMillis() - start;
+
+        File segmented = new File(dir, "segmented.bin");
+        start = System.currentTimeMillis();
+        SegmentedDownloader d4 = new SegmentedDownloader(url, segmented, 4);
+        d4.download();
+        long segmentedTime = System.currentTimeMillis() - start;
+
+        System.out.println("Downloaded " + SIZE / 1024 + "KB, 1 connection: " + singleTime + "ms, 4 connections: " + segmentedTime + "ms");
+
+        assertEquals(1, d1.getSegmentCount());
+        assertEquals(4, d4.getSegmentCount());
+        assertContent(single, content);
+        assertContent(segmented, content);
+        assertFalse(SegmentedDownloader.getSegmentMapFile(segmented).exists());
+        assertTrue(segmentedTime < singleTime);
+    }
+
+    @LargeTest
+    public void testResume() throws Exception {
+        File f = new File(dir, "resume.bin");
+
+        final SegmentedDownloader d1 = new SegmentedDownloader(url, f, 4);
+        d1.setListener(new SegmentedDownloader.Listener() {
+            @Override
+            public void onData(SegmentedDownloader downloader, int length) {
+                if (downloader.getDownloaded() > SIZE / 2) {
+                    downloader.cancel();
+                }
+            }
+        });
+
+        try {
+            d1.download();
+            fail("Download not canceled");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertTrue(SegmentedDownloader.getSegmentMapFile(f).exists());
+        assertEquals(SIZE, SegmentedDownloader.getPartialFile(f).length());
+        assertFalse(f.exists());
+
+        served.set(0);
+        SegmentedDownloader d2 = new SegmentedDownloader(url, f, 4);
+        d2.download();
+
+        System.out.println("Resumed with " + (SIZE - served.get()) / 1024 + "KB already downloaded");
+
+        assertContent(f, content);
+        assertEquals(SIZE, d2.getDownloaded());
+        assertTrue(served.get() < SIZE);
+        assertFalse(SegmentedDownloader.getSegmentMapFile(f).exists());
+        assertFalse(SegmentedDownloader.getPartialFile(f).exists());
+    }
+
+    @LargeTest
+    public void testRangeNotSupported() throws Exception {
+        ranges = false;
+
+        File f = new File(dir, "norange.bin");
+        SegmentedDownloader d = new SegmentedDownloader(url, f, 4);
+        d.download();
+
+        assertEquals(0, d.getSegmentCount());
+        assertEquals(SIZE, d.getContentLength());
+        assertContent(f, content);
+    }
+
+    @LargeTest
+    public void testContentChanged() throws Exception {
+        File f = new File(dir, "changed.bin");
+
+        SegmentedDownloader d1 = new SegmentedDownloader(url, f, 4);
+        d1.setListener(new SegmentedDownloader.Listener() {
+            @Override
+            public void onData(SegmentedDownloader downloader, int length) {
+                if (downloader.getDownloaded() > SIZE / 4) {
+                    downloader.cancel();
+                }
+            }
+        });
+
+        try {
+            d1.download();
+            fail("Download not canceled");
+        } catch (IOException e) {
+            // expected
+        }
+
+        content = random(SIZE - 1000, 2);
+        etag = "\"v2\"";
+
+        SegmentedDownloader d2 = new SegmentedDownloader(url, f, 4);
+        d2.download();
+
+        assertContent(f, content);
+        assertFalse(SegmentedDownloader.getSegmentMapFile(f).exists());
+    }
+
+    /**
+     * A 0-byte file answered with a 416 to the range probe, as most servers do.
+     */
+    @SmallTest
+    public void testEmpty() throws Exception {
+        content = new byte[0];
+
+        File f = new File(dir, "empty.bin");
+        SegmentedDownloader d = new SegmentedDownloader(url, f, 4);
+        d.download();
+
+        assertEquals(0, d.getContentLength());
+        assertTrue(f.exists());
+        assertEquals(0, f.length());
+        assertFalse(SegmentedDownloader.getSegmentMapFile(f).exists());
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        byte[] data = content;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+
+        int start = 0;
+        int end = data.length - 1;
+        boolean partial = ranges && range != null && range.startsWith("bytes=") && (ifRange == null || ifRange.equals(etag));
+
+        if (partial && data.length == 0) {
+            exchange.getResponseHeaders().add("Content-Range", "bytes */0");
+            exchange.sendResponseHeaders(416, -1);
+            exchange.close();
+            return;
+        }
+
+        if (partial) {
+            String[] arr = range.substring(6).split("-", -1);
+            start = Integer.parseInt(arr[0]);
+            if (arr[1].length() > 0) {
+                end = Math.min(end, Integer.parseInt(arr[1]));
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+        }
+
+        exchange.getResponseHeaders().add("ETag", etag);
+        exchange.sendResponseHeaders(partial ? 206 : 200, end - start + 1);
+
+        OutputStream out = exchange.getResponseBody();
+        try {
+            for (int i = start; i <= end; i += CHUNK_SIZE) {
+                int n = Math.min(CHUNK_SIZE, end - i + 1);
+                out.write(data, i, n);
+                served.addAndGet(n);
+                Thread.sleep(CHUNK_DELAY);
+            }
+        } catch (InterruptedException e) {
+            // server stopped
+        } catch (IOException e) {
+            // client closed the connection
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static void assertContent(File f, byte[] expected) throws IOException {
+        byte[] actual = new byte[(int) f.length()];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            raf.readFully(actual);
+        } finally {
+            raf.close();
+        }
+        assertTrue(Arrays.equals(expected, actual));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.frostwire.torrent.TOTorrentCreator;
+import com.frostwire.torrent.TOTorrentFactory;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TOTorrentFileHasherTest extends TestCase {
+
+    private static final int PIECE_LENGTH = 256 * 1024;
+
+    // small, empty and large files, with pieces across file boundaries
+    private static final int[] SIZES = { 100, 0, 3 * PIECE_LENGTH + 17, 5000, 1, PIECE_LENGTH, 0, 24 * 1024 * 1024 + 333, 70000, 12345 };
+
+    private File dir;
+    private byte[] content;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "hasher_test_" + System.nanoTime());
+        dir.mkdirs();
+
+        int total = 0;
+        for (int size : SIZES) {
+            total += size;
+        }
+
+        content = new byte[total];
+        new Random(1).nextBytes(content);
+
+        int offset = 0;
+        for (int i = 0; i < SIZES.length; i++) {
+            // the creator adds the files sorted by name
+            FileOutputStream fos = new FileOutputStream(new File(dir, String.format("file%02d.bin", i)));
+            try {
+                fos.write(content, offset, SIZES[i]);
+            } finally {
+                fos.close();
+            }
+            offset += SIZES[i];
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The pieces hashed in parallel are the same as the ones hashed in sequence, and
+     * hashed faster when there is more than one processor. Both runs hash the pieces only,
+     * with different thread counts.
+     */
+    @LargeTest
+    public void testPieces() throws Exception {
+        byte[][] expected = expectedPieces();
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        // warm up
+        create(false, 1);
+        create(false, processors);
+
+        long start = System.currentTimeMillis();
+        byte[][] sequential = create(false, 1);
+        long sequentialTime = System.currentTimeMillis() - start;
+
+        start = System.currentTimeMillis();
+        byte[][] parallel = create(false, processors);
+        long parallelTime = System.currentTimeMillis() - start;
+
+        assertPieces(expected, sequential);
+        assertPieces(expected, parallel);
+
+        if (processors > 1) {
+            assertTrue("sequential: " + sequentialTime + "ms, " + processors + " threads: " + parallelTime + "ms", parallelTime < sequentialTime);
+        }
+    }
+
+    /**
+     * The other hashes are still computed with the pieces, in sequence.
+     */
+    @LargeTest
+    public void testPiecesWithOtherHashes() throws Exception {
+        assertPieces(expectedPieces(), create(true, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private byte[][] create(boolean addHashes, int threads) throws Exception {
+        TOTorrentCreator creator = TOTorrentFactory.createFromFileOrDirWithFixedPieceLength(dir, new URI("http://localhost/announce"), addHashes, PIECE_LENGTH);
+        creator.setHashingThreads(threads);
+        return creator.create().getPieces();
+    }
+
+    private byte[][] expectedPieces() throws Exception {
+        int count = (content.length + PIECE_LENGTH - 1) / PIECE_LENGTH;
+        byte[][] pieces = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            int offset = i * PIECE_LENGTH;
+            sha1.update(content, offset, Math.min(PIECE_LENGTH, content.length - offset));
+            pieces[i] = sha1.digest();
+        }
+        return pieces;
+    }
+
+    private static void assertPieces(byte[][] expected, byte[][] actual) throws IOException {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue("Piece " + i, Arrays.equals(expected[i], actual[i]));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.gudy.azureus2.core3.util.SystemTime;
+import org.gudy.azureus2.core3.util.Timer;
+import org.gudy.azureus2.core3.util.TimerEvent;
+import org.gudy.azureus2.core3.util.TimerEventPerformer;
+import org.gudy.azureus2.core3.util.TimerEventPeriodic;
+
+/**
+ * The vuze timer, with events spread over the levels of its wheel.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TimerTest extends TestCase {
+
+    private Timer timer;
+
+    @Override
+    protected void setUp() throws Exception {
+        timer = new Timer("TimerTest", 4);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        timer.destroy();
+    }
+
+    @SmallTest
+    public void testEventsRunInOrder() throws Exception {
+        final List<Integer> order = new ArrayList<Integer>();
+        final CountDownLatch latch = new CountDownLatch(5);
+        final AtomicLong early = new AtomicLong();
+
+        long now = SystemTime.getCurrentTime();
+        int[] delays = { 400, 100, 300, 0, 200 };
+
+        Timer single = new Timer("TimerTest-single");
+        try {
+            for (final int delay : delays) {
+                final long when = now + delay;
+                single.addEvent(when, new TimerEventPerformer() {
+                    public void perform(TimerEvent event) {
+                        if (SystemTime.getCurrentTime() < when - SystemTime.TIME_GRANULARITY_MILLIS) {
+                            early.incrementAndGet();
+                        }
+                        synchronized (order) {
+                            order.add(delay);
+                        }
+                        latch.countDown();
+                    }
+                });
+            }
+
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } finally {
+            single.destroy();
+        }
+
+        assertEquals(0, early.get());
+        assertEquals("[0, 100, 200, 300, 400]", order.toString());
+    }
+
+    @SmallTest
+    public void testCancel() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+
+        TimerEventPerformer performer = new TimerEventPerformer() {
+            public void perform(TimerEvent event) {
+                runs.incrementAndGet();
+            }
+        };
+
+        long now = SystemTime.getCurrentTime();
+
+        // one per level of the wheel, and past its last one
+        long[] delays = { 50, 1000, 70 * 1000, 5 * 60 * 60 * 1000L, 60L * 24 * 60 * 60 * 1000 };
+        List<TimerEvent> events = new ArrayList<TimerEvent>();
+        for (long delay : delays) {
+            events.add(timer.addEvent(now + delay, performer));
+        }
+
+        assertEquals(events, timer.getEvents());
+
+        for (TimerEvent event : events) {
+            event.cancel();
+        }
+        assertTrue(timer.getEvents().isEmpty());
+
+        Thread.sleep(200);
+        assertEquals(0, runs.get());
+    }
+
+    @SmallTest
+    public void testAdjustAllBy() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(2);
+
+        TimerEventPerformer performer = new TimerEventPerformer() {
+            public void perform(TimerEvent event) {
+                latch.countDown();
+            }
+        };
+
+        long hour = 60 * 60 * 1000;
+        long now = SystemTime.getCurrentTime();
+
+        timer.addEvent(now + hour, performer);
+        timer.addEvent(now + hour + 100, performer);
+
+        timer.adjustAllBy(-hour);
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertTrue(timer.getEvents().isEmpty());
+    }
+
+    @SmallTest
+    public void testPeriodic() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(5);
+
+        TimerEventPeriodic periodic = timer.addPeriodicEvent("TimerTest-periodic", 20, new TimerEventPerformer() {
+            public void perform(TimerEvent event) {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+
+        periodic.cancel();
+        Thread.sleep(100);
+        assertTrue(timer.getEvents().isEmpty());
+    }
+
+    /**
+     * 100k events within two seconds, half of them cancelled.
+     */
+    @LargeTest
+    public void testManyEvents() throws Exception {
+        int count = 100000;
+        int spread = 2000;
+
+        final CountDownLatch latch = new CountDownLatch(count / 2);
+        final AtomicLong early = new AtomicLong();
+        final AtomicLong late = new AtomicLong();
+        final AtomicInteger cancelledRuns = new AtomicInteger();
+
+        Random random = new Random(7);
+        long now = SystemTime.getCurrentTime();
+
+        long start = System.nanoTime();
+        TimerEvent[] events = new TimerEvent[count];
+        for (int i = 0; i < count; i++) {
+            final long when = now + 200 + random.nextInt(spread);
+            final boolean cancelled = (i & 1) == 1;
+            events[i] = timer.addEvent(when, new TimerEventPerformer() {
+                public void perform(TimerEvent event) {
+                    if (cancelled) {
+                        cancelledRuns.incrementAndGet();
+                    }
+                    long time = SystemTime.getCurrentTime();
+                    if (time < when - SystemTime.TIME_GRANULARITY_MILLIS) {
+                        early.incrementAndGet();
+                    }
+                    synchronized (late) {
+                        late.set(Math.max(late.get(), time - when));
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        long addTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 1; i < count; i += 2) {
+            events[i].cancel();
+        }
+        long cancelTime = System.nanoTime() - start;
+
+        assertTrue(latch.await(spread + 10000, TimeUnit.MILLISECONDS));
+        long dispatchTime = SystemTime.getCurrentTime() - now;
+
+        Thread.sleep(100);
+        assertEquals(0, cancelledRuns.get());
+        assertEquals(0, early.get());
+        assertTrue(timer.getEvents().isEmpty());
+
+        System.out.println("Timer with " + count + " events: add " + addTime / 1000 + "us, cancel " + count / 2 + " " + cancelTime / 1000 + "us, all run in " + dispatchTime + "ms, latest by " + late.get() + "ms");
+    }
+}
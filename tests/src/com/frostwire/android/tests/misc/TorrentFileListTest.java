@@ -0,0 +1,222 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.torrent.TOTorrent;
+import com.frostwire.torrent.TOTorrentException;
+import com.frostwire.torrent.TOTorrentFile;
+import com.frostwire.torrent.TorrentFileList;
+import com.frostwire.torrent.TorrentUtils;
+
+/**
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class TorrentFileListTest extends TestCase {
+
+    @SmallTest
+    public void testSimple() throws Exception {
+        Map<String, Object> info = new TreeMap<String, Object>();
+        info.put("name", "single file.mp3".getBytes("UTF-8"));
+        info.put("length", 123456L);
+        info.put("piece length", 16384L);
+        info.put("pieces", new byte[20 * 8]); // 123456 / 16384
+
+        assertSame(torrent(info));
+    }
+
+    @SmallTest
+    public void testUTF8Keys() throws Exception {
+        Map<String, Object> info = info(10);
+        info.put("name.utf-8", "Música".getBytes("UTF-8"));
+
+        assertSame(torrent(info));
+    }
+
+    @SmallTest
+    public void testInvalid() throws Exception {
+        byte[] data = torrent(info(10));
+
+        try {
+            TorrentFileList.parse(Arrays.copyOf(data, data.length / 2));
+            fail("Truncated torrent parsed");
+        } catch (TOTorrentException e) {
+            assertEquals(TOTorrentException.RT_DECODE_FAILS, e.getReason());
+        }
+
+        try {
+            TorrentFileList.parse("d8:announce3:urle".getBytes("UTF-8"));
+            fail("Torrent without info parsed");
+        } catch (TOTorrentException e) {
+            assertEquals(TOTorrentException.RT_DECODE_FAILS, e.getReason());
+        }
+    }
+
+    /**
+     * Large multi-file torrent, parsed with the full decoder and with the file list.
+     */
+    @LargeTest
+    public void testLarge() throws Exception {
+        byte[] data = torrent(info(5000));
+
+        assertSame(data);
+
+        // warm up
+        for (int i = 0; i < 5; i++) {
+            crawl(data);
+            TorrentFileList.parse(data);
+        }
+
+        int runs = 20;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            TorrentUtils.readFromBEncodedInputStream(new ByteArrayInputStream(data));
+        }
+        long torrentTime = (System.nanoTime() - start) / runs / 1000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            TorrentFileList.parse(data);
+        }
+        long listTime = (System.nanoTime() - start) / runs / 1000;
+
+        System.out.println("Parsed " + data.length / 1024 + "KB torrent with 5000 files, TOTorrent: " + torrentTime + "us, TorrentFileList: " + listTime + "us");
+
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            crawl(data);
+        }
+        torrentTime = (System.nanoTime() - start) / runs / 1000;
+
+        start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            for (TorrentFileList.Entry e : TorrentFileList.parse(data).getFiles()) {
+                e.getRelativePath();
+            }
+        }
+        listTime = (System.nanoTime() - start) / runs / 1000;
+
+        System.out.println("With relative paths, TOTorrent: " + torrentTime + "us, TorrentFileList: " + listTime + "us");
+    }
+
+    /**
+     * What the search crawl used to do with each torrent.
+     */
+    private static void crawl(byte[] data) throws TOTorrentException {
+        TOTorrent torrent = TorrentUtils.readFromBEncodedInputStream(new ByteArrayInputStream(data));
+        for (TOTorrentFile file : torrent.getFiles()) {
+            file.getRelativePath();
+            file.getLength();
+        }
+    }
+
+    private static void assertSame(byte[] data) throws Exception {
+        TOTorrent torrent = TorrentUtils.readFromBEncodedInputStream(new ByteArrayInputStream(data));
+        TorrentFileList list = TorrentFileList.parse(data);
+
+        assertTrue(Arrays.equals(torrent.getHash(), list.getInfoHash()));
+
+        TOTorrentFile[] files = torrent.getFiles();
+        assertEquals(files.length, list.getFiles().size());
+        for (int i = 0; i < files.length; i++) {
+            assertEquals(files[i].getRelativePath(), list.getFiles().get(i).getRelativePath());
+            assertEquals(files[i].getLength(), list.getFiles().get(i).getLength());
+        }
+    }
+
+    private static Map<String, Object> info(int count) throws IOException {
+        Random random = new Random(1);
+        long pieceLength = 4 * 1024 * 1024;
+        long total = 0;
+
+        List<Object> files = new ArrayList<Object>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> file = new TreeMap<String, Object>();
+            long length = random.nextInt(100 * 1024 * 1024);
+            total += length;
+            file.put("length", length);
+            List<Object> path = new ArrayList<Object>();
+            path.add(("Folder " + (i % 10)).getBytes("UTF-8"));
+            path.add(("Track " + i + " - Canción.mp3").getBytes("UTF-8"));
+            file.put("path", path);
+            file.put("path.utf-8", path);
+            files.add(file);
+        }
+
+        byte[] pieces = new byte[(int) ((total + pieceLength - 1) / pieceLength) * 20];
+        random.nextBytes(pieces);
+
+        Map<String, Object> info = new TreeMap<String, Object>();
+        info.put("name", "Album".getBytes("UTF-8"));
+        info.put("files", files);
+        info.put("piece length", pieceLength);
+        info.put("pieces", pieces);
+        return info;
+    }
+
+    private static byte[] torrent(Map<String, Object> info) throws IOException {
+        Map<String, Object> torrent = new TreeMap<String, Object>();
+        torrent.put("announce", "http://tracker/announce".getBytes("UTF-8"));
+        torrent.put("comment", "test".getBytes("UTF-8"));
+        torrent.put("info", info);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encode(out, torrent);
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void encode(ByteArrayOutputStream out, Object obj) throws IOException {
+        if (obj instanceof Long) {
+            out.write(("i" + obj + "e").getBytes("UTF-8"));
+        } else if (obj instanceof byte[]) {
+            byte[] b = (byte[]) obj;
+            out.write((b.length + ":").getBytes("UTF-8"));
+            out.write(b);
+        } else if (obj instanceof List) {
+            out.write('l');
+            for (Object o : (List<Object>) obj) {
+                encode(out, o);
+            }
+            out.write('e');
+        } else {
+            out.write('d');
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) obj).entrySet()) {
+                encode(out, e.getKey().getBytes("UTF-8"));
+                encode(out, e.getValue());
+            }
+            out.write('e');
+        }
+    }
+}
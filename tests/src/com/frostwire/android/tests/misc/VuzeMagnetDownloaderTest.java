@@ -0,0 +1,200 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.misc;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.gudy.azureus2.core3.util.BEncoder;
+import org.gudy.azureus2.core3.util.ByteFormatter;
+
+import com.frostwire.torrent.TorrentFileList;
+import com.frostwire.vuze.VuzeMagnetDownloader;
+
+/**
+ * The lookups are replaced by a map of known torrents, the magnet plugin needs a running core.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class VuzeMagnetDownloaderTest extends TestCase {
+
+    private File cacheDir;
+
+    @Override
+    protected void setUp() throws Exception {
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), "magnets-" + System.nanoTime());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @SmallTest
+    public void testCache() throws Exception {
+        byte[] data = torrent("test");
+        String magnet = magnet(data);
+
+        FakeDownloader d1 = new FakeDownloader(cacheDir, 2, 0, data);
+        assertTrue(Arrays.equals(data, d1.download(magnet, 4000)));
+        assertEquals(1, d1.lookups.get());
+
+        // a new instance, as after a restart
+        FakeDownloader d2 = new FakeDownloader(cacheDir, 2, 0);
+        assertTrue(Arrays.equals(data, d2.download(magnet, 4000)));
+        assertEquals(0, d2.lookups.get());
+    }
+
+    @SmallTest
+    public void testInvalid() throws Exception {
+        byte[] data = torrent("test");
+        byte[] other = torrent("other");
+
+        FakeDownloader d = new FakeDownloader(cacheDir, 2, 0, data);
+        assertNull(d.download("magnet:?dn=no+hash", 4000));
+        assertNull(d.download("http://example.com/file.torrent", 4000));
+        assertEquals(0, d.lookups.get());
+
+        assertNull(d.download(magnet(other), 4000));
+        assertEquals(1, d.lookups.get());
+
+        // a torrent with other info hash is not cached
+        String magnet = magnet(data);
+        d.results.put(magnet.substring(magnet.lastIndexOf(':') + 1), other);
+        assertTrue(Arrays.equals(other, d.download(magnet, 4000)));
+        assertEquals(0, cacheDir.listFiles().length);
+    }
+
+    @LargeTest
+    public void testConcurrentLookups() throws Exception {
+        int count = 8;
+        byte[][] data = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            data[i] = torrent("test " + i);
+        }
+
+        final FakeDownloader d = new FakeDownloader(cacheDir, 2, 300, data);
+        final AtomicInteger found = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            final String magnet = magnet(data[i]);
+            new Thread() {
+                public void run() {
+                    try {
+                        if (d.download(magnet, 20000) != null) {
+                            found.incrementAndGet();
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        done.await();
+
+        assertEquals(count, found.get());
+        assertEquals(count, d.lookups.get());
+        assertEquals(2, d.maxRunning.get());
+    }
+
+    @LargeTest
+    public void testDeadline() throws Exception {
+        byte[] data = torrent("test");
+
+        FakeDownloader d = new FakeDownloader(cacheDir, 1, 3000, data);
+
+        long start = System.currentTimeMillis();
+        assertNull(d.download(magnet(data), 1000));
+        assertTrue(System.currentTimeMillis() - start < 2000);
+    }
+
+    private static byte[] torrent(String name) throws Exception {
+        Map<String, Object> info = new TreeMap<String, Object>();
+        info.put("name", name.getBytes("UTF-8"));
+        info.put("length", 1000L);
+        info.put("piece length", 16384L);
+        info.put("pieces", new byte[20]);
+
+        Map<String, Object> torrent = new TreeMap<String, Object>();
+        torrent.put("info", info);
+
+        return BEncoder.encode(torrent);
+    }
+
+    private static String magnet(byte[] data) throws Exception {
+        return "magnet:?dn=test&xt=urn:btih:" + ByteFormatter.encodeString(TorrentFileList.parse(data).getInfoHash());
+    }
+
+    private static final class FakeDownloader extends VuzeMagnetDownloader {
+
+        private final long delay;
+        private final Map<String, byte[]> results;
+
+        private final AtomicInteger lookups;
+        private final AtomicInteger running;
+        private final AtomicInteger maxRunning;
+
+        public FakeDownloader(File cacheDir, int maxLookups, long delay, byte[]... torrents) throws Exception {
+            super(cacheDir, maxLookups);
+            this.delay = delay;
+            this.results = new HashMap<String, byte[]>();
+            for (byte[] data : torrents) {
+                results.put(ByteFormatter.encodeString(TorrentFileList.parse(data).getInfoHash()), data);
+            }
+
+            this.lookups = new AtomicInteger();
+            this.running = new AtomicInteger();
+            this.maxRunning = new AtomicInteger();
+        }
+
+        @Override
+        protected byte[] lookup(byte[] hash, String args, long timeout) throws Exception {
+            lookups.incrementAndGet();
+            int n = running.incrementAndGet();
+            synchronized (maxRunning) {
+                maxRunning.set(Math.max(maxRunning.get(), n));
+            }
+
+            try {
+                Thread.sleep(Math.min(delay, timeout));
+                return delay <= timeout ? results.get(ByteFormatter.encodeString(hash)) : null;
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+}
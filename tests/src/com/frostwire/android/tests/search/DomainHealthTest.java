@@ -0,0 +1,70 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.frostwire.android.tests.search;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.search.domainalias.DomainHealth;
+import com.frostwire.search.domainalias.DomainHealth.BreakerState;
+
+/**
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class DomainHealthTest extends TestCase {
+
+    @SmallTest
+    public void testAdaptiveTimeout() {
+        DomainHealth h = DomainHealth.of("fast.test");
+        h.reset();
+        assertEquals(10000, h.getTimeout(10000));
+
+        for (int i = 0; i < 10; i++) {
+            h.onSuccess(200 + i * 10);
+        }
+
+        assertEquals(280, h.getLatencyPercentile(0.9f));
+        assertEquals(2000, h.getTimeout(10000));
+        assertEquals(1000, h.getTimeout(1000));
+    }
+
+    @SmallTest
+    public void testCircuitBreaker() {
+        DomainHealth h = DomainHealth.of("dead.test");
+        h.reset();
+
+        h.onFailure();
+        h.onFailure();
+        assertEquals(BreakerState.CLOSED, h.getState());
+        h.onFailure();
+        assertEquals(BreakerState.OPEN, h.getState());
+        assertFalse(h.allowRequest());
+        assertTrue(h.getRemainingCoolDown() > 0);
+
+        // the state persists across searches
+        assertSame(h, DomainHealth.of("DEAD.test"));
+        assertSame(h, DomainHealth.ofUrl("http://dead.test/search?q=x"));
+
+        h.reset();
+        assertTrue(h.allowRequest());
+    }
+}
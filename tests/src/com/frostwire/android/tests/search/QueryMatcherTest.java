@@ -0,0 +1,151 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.search.CrawlableSearchResult;
+import com.frostwire.search.CrawledSearchResult;
+import com.frostwire.search.FileSearchResult;
+import com.frostwire.search.QueryMatcher;
+
+/**
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class QueryMatcherTest extends TestCase {
+
+    @SmallTest
+    public void testTokens() {
+        QueryMatcher m = new QueryMatcher("The  Beatles - Abbey_Road (Remastered) abbey");
+        assertEquals("[the, beatles, abbey, road, remastered]", m.getTokens().toString());
+    }
+
+    @SmallTest
+    public void testNormalization() {
+        QueryMatcher m = new QueryMatcher("Beyoncé   crazy");
+        assertEquals("[beyonce, crazy]", m.getTokens().toString());
+
+        MockParent parent = new MockParent("Beyonc&eacute; - Greatest Hits www.site.com");
+        assertTrue(m.matches(new MockCrawled(parent, "01 - Crazy In Love.mp3")));
+        assertFalse(m.matches(new MockCrawled(parent, "02 - Halo.mp3")));
+        assertFalse(new QueryMatcher("www").matches(new MockCrawled(parent, "02 - Halo.mp3")));
+    }
+
+    @SmallTest
+    public void testNoTokens() {
+        MockParent parent = new MockParent("Greatest Hits");
+        MockCrawled sr = new MockCrawled(parent, "01 - Song.mp3");
+
+        QueryMatcher m = new QueryMatcher(" - ");
+        assertTrue(m.getTokens().isEmpty());
+        assertFalse(m.matches(sr));
+        assertEquals(0f, m.score(sr));
+    }
+
+    @LargeTest
+    public void testBigTorrentCrawl() {
+        MockParent parent = new MockParent("Ultimate Música Collection [FLAC] www.tracker.net");
+        List<MockCrawled> files = new ArrayList<MockCrawled>();
+        for (int i = 0; i < 5000; i++) {
+            files.add(new MockCrawled(parent, "Disc " + (i / 100) + "/" + i + " - Artist_" + (i % 37) + " - Canción número " + i + ".flac"));
+        }
+
+        QueryMatcher m = new QueryMatcher("musica collection cancion 7");
+
+        int n = 0;
+        long start = System.nanoTime();
+        for (int k = 0; k < 10; k++) {
+            n = 0;
+            for (MockCrawled sr : files) {
+                if (m.matches(sr)) {
+                    n++;
+                }
+            }
+        }
+        long time = (System.nanoTime() - start) / 10;
+
+        System.out.println("Matched " + n + " of " + files.size() + " files in " + (time / 1000) + "us per crawl");
+
+        // every file name containing a 7
+        int expected = 0;
+        for (MockCrawled sr : files) {
+            if (sr.getFilename().contains("7")) {
+                expected++;
+            }
+        }
+        assertEquals(expected, n);
+    }
+
+    private static final class MockParent extends MockSearchResult implements CrawlableSearchResult {
+
+        private final String displayName;
+
+        public MockParent(String displayName) {
+            this.displayName = displayName;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return false;
+        }
+    }
+
+    private static final class MockCrawled extends MockSearchResult implements CrawledSearchResult, FileSearchResult {
+
+        private final CrawlableSearchResult parent;
+        private final String filename;
+
+        public MockCrawled(CrawlableSearchResult parent, String filename) {
+            this.parent = parent;
+            this.filename = filename;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return filename;
+        }
+
+        @Override
+        public CrawlableSearchResult getParent() {
+            return parent;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public long getSize() {
+            return UNKNOWN_SIZE;
+        }
+    }
+}
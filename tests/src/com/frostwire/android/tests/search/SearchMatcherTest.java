@@ -0,0 +1,169 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.frostwire.android.tests.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.search.MaxIterCharSequence;
+import com.frostwire.search.SearchMatcher;
+import com.frostwire.search.SearchPattern;
+import com.google.code.regexp.Matcher;
+import com.google.code.regexp.Pattern;
+
+/**
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SearchMatcherTest extends TestCase {
+
+    private static final String EZTV_REGEX = "(?is)<a href=\"(/ep/.*?)\"";
+    private static final String TPB_REGEX = "(?is)<td class=\"vertTh\">.*?<a href=\"([^\"]*?)\" class=\"detLink\" title=\"Details for ([^\"]*?)\">.*?<td align=\"right\">(?<seeds>\\d+)</td>";
+
+    @SmallTest
+    public void testLiteral() {
+        SearchPattern p = SearchPattern.compile(EZTV_REGEX);
+        assertEquals("<a href=\"", p.getLiteral());
+        assertTrue(p.isIgnoreCase());
+        assertSame(p, SearchPattern.compile(EZTV_REGEX));
+
+        assertEquals("<td class=\"vertTh\">", SearchPattern.compile(TPB_REGEX).getLiteral());
+        assertNull(SearchPattern.compile("(?is).*?<td>(.*?)</td>").getLiteral());
+        assertNull(SearchPattern.compile("abc|def").getLiteral());
+        assertEquals("ab", SearchPattern.compile("abc?d").getLiteral());
+        assertEquals("a.b", SearchPattern.compile("a\\.b(.*)").getLiteral());
+        assertFalse(SearchPattern.compile("(?s-i)abc").isIgnoreCase());
+    }
+
+    @SmallTest
+    public void testSameResultsAsFind() {
+        String page = tpbPage(300);
+
+        for (String regex : new String[] { EZTV_REGEX, TPB_REGEX, "(?is).*?<td align=\"right\">(\\d+)</td>" }) {
+            assertEquals(regex, oldGroups(regex, page), newGroups(regex, page));
+        }
+
+        // the literal is searched ignoring the case, as the regex does
+        assertEquals(3, newGroups("(?i)<A HREF=\"(/ep/[^\"]*)\"", eztvPage(3)).size());
+    }
+
+    @SmallTest
+    public void testPartialResults() {
+        StringBuilder sb = new StringBuilder(eztvPage(10));
+        for (int i = 0; i < 2000; i++) {
+            sb.append("<a href=\"/ep/broken");
+        }
+        String page = sb.toString();
+
+        SearchMatcher m = SearchPattern.compile("(?is)<a href=\"(/ep/.*?)\">(.*?)</a>").matcher(page);
+        int n = 0;
+        while (m.find()) {
+            n++;
+        }
+
+        assertEquals(10, n);
+        assertTrue(m.isExhausted());
+    }
+
+    @LargeTest
+    public void testBenchmark() {
+        String page = tpbPage(2000);
+        Pattern pattern = Pattern.compile(TPB_REGEX);
+
+        int n = 0;
+        long start = System.nanoTime();
+        for (int k = 0; k < 10; k++) {
+            n = 0;
+            Matcher m = pattern.matcher(new MaxIterCharSequence(page, 2 * page.length()));
+            while (m.find()) {
+                new String(m.group(1).toCharArray());
+                new String(m.group(2).toCharArray());
+                n++;
+            }
+        }
+        long oldTime = (System.nanoTime() - start) / 10;
+
+        int k2 = 0;
+        start = System.nanoTime();
+        for (int k = 0; k < 10; k++) {
+            k2 = 0;
+            SearchMatcher m = SearchPattern.of(pattern).matcher(page);
+            while (m.find()) {
+                m.group(1);
+                m.group(2);
+                k2++;
+            }
+        }
+        long newTime = (System.nanoTime() - start) / 10;
+
+        System.out.println("Matched " + n + " results per page, old: " + (oldTime / 1000) + "us, new: " + (newTime / 1000) + "us");
+
+        assertEquals(n, k2);
+    }
+
+    private static List<String> oldGroups(String regex, String page) {
+        List<String> list = new ArrayList<String>();
+        Matcher m = Pattern.compile(regex).matcher(page);
+        while (m.find()) {
+            for (int i = 1; i <= m.groupCount(); i++) {
+                list.add(m.group(i));
+            }
+        }
+        return list;
+    }
+
+    private static List<String> newGroups(String regex, String page) {
+        List<String> list = new ArrayList<String>();
+        SearchMatcher m = SearchPattern.compile(regex).matcher(page, Integer.MAX_VALUE);
+        int groups = Pattern.compile(regex).matcher("").groupCount();
+        while (m.find()) {
+            for (int i = 1; i <= groups; i++) {
+                list.add(m.group(i));
+            }
+        }
+        return list;
+    }
+
+    private static String eztvPage(int n) {
+        StringBuilder sb = new StringBuilder("<html><body><table>");
+        for (int i = 0; i < n; i++) {
+            sb.append("<tr><td><a href=\"/ep/").append(i).append("/show-s01e0").append(i).append("/\">Show S01E0").append(i).append("</a></td></tr>\n");
+        }
+        return sb.toString();
+    }
+
+    private static String tpbPage(int n) {
+        StringBuilder sb = new StringBuilder("<html><head><title>Search</title></head><body><div id=\"main\"><table id=\"searchResult\">");
+        for (int i = 0; i < n; i++) {
+            sb.append("<tr><td class=\"vertTh\"><center><a href=\"/browse/100\" title=\"More from this category\">Audio</a></center></td>");
+            sb.append("<td><div class=\"detName\"><a href=\"/torrent/").append(1000 + i).append("/Some_Name_").append(i).append("\" class=\"detLink\" title=\"Details for Some Name ").append(i).append("\">Some Name ").append(i).append("</a></div>");
+            sb.append("<a href=\"magnet:?xt=urn:btih:").append(i).append("\" title=\"Download this torrent using magnet\"><img src=\"/static/img/icon-magnet.gif\" alt=\"Magnet link\" /></a>");
+            sb.append("<font class=\"detDesc\">Uploaded 03-14&nbsp;2013, Size 5.04&nbsp;MiB, ULed by <a class=\"detDesc\" href=\"/user/someone/\">someone</a></font></td>");
+            sb.append("<td align=\"right\">").append(i % 97).append("</td><td align=\"right\">").append(i % 13).append("</td></tr>\n");
+        }
+        sb.append("</table></div></body></html>");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.frostwire.search.FileSearchResult;
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.SearchResultAggregator;
+import com.frostwire.search.SearchResultAggregator.Delta;
+import com.frostwire.search.SearchResultAggregator.ResultGroup;
+import com.frostwire.search.torrent.TorrentSearchResult;
+
+/**
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SearchResultAggregatorTest extends TestCase {
+
+    @SmallTest
+    public void testTorrentDuplicates() {
+        SearchResultAggregator a = new SearchResultAggregator("ubuntu");
+
+        MockTorrent first = new MockTorrent("Ubuntu 14.04", "ABCDEF", 10, "Engine1");
+        Delta d = a.add(Arrays.asList(first));
+        assertEquals(1, d.getAdded().size());
+        assertTrue(d.getUpdated().isEmpty());
+
+        // same info hash, other engine and more seeds
+        MockTorrent dup = new MockTorrent("ubuntu-14.04-desktop", " abcdef ", 50, "Engine2");
+        d = a.add(Arrays.asList(dup));
+        assertTrue(d.getAdded().isEmpty());
+        assertEquals(1, d.getUpdated().size());
+
+        assertEquals(1, a.size());
+        ResultGroup group = a.getRanked().get(0);
+        assertSame(first, group.getResult());
+        assertEquals(2, group.getCount());
+        assertEquals(50, group.getSeeds());
+        assertEquals(2, group.getSources().size());
+        assertEquals(50, a.getSeeds(dup));
+
+        // the same swarm reported with fewer seeds changes nothing
+        d = a.add(Arrays.asList(new MockTorrent("Ubuntu", "abcdef", 20, "Engine1")));
+        assertTrue(d.getAdded().isEmpty());
+        assertTrue(d.getUpdated().isEmpty());
+        assertEquals(50, group.getSeeds());
+        assertEquals(3, group.getCount());
+    }
+
+    @SmallTest
+    public void testFileDuplicates() {
+        SearchResultAggregator a = new SearchResultAggregator("song");
+
+        Delta d = a.add(Arrays.asList(new MockFile("Song.mp3", 1000), new MockFile(" song.MP3", 1000), new MockFile("song.mp3", 2000)));
+        assertEquals(2, d.getAdded().size());
+        assertEquals(2, a.size());
+
+        // without a size there is nothing to compare, every one is kept
+        d = a.add(Arrays.asList(new MockFile("other.mp3", FileSearchResult.UNKNOWN_SIZE), new MockFile("other.mp3", FileSearchResult.UNKNOWN_SIZE)));
+        assertEquals(2, d.getAdded().size());
+        assertEquals(4, a.size());
+    }
+
+    @SmallTest
+    public void testScoreOrdering() {
+        SearchResultAggregator a = new SearchResultAggregator("ubuntu linux");
+
+        MockTorrent unrelated = new MockTorrent("Some Other Thing", "1111", 100, "Engine1");
+        MockTorrent few = new MockTorrent("Ubuntu Linux", "2222", 5, "Engine1");
+        MockTorrent many = new MockTorrent("Ubuntu Linux", "3333", 500, "Engine1");
+
+        Delta d = a.add(Arrays.asList(unrelated, few, many));
+        assertEquals(Arrays.<SearchResult> asList(many, few, unrelated), d.getAdded());
+        assertRanked(a, many, few, unrelated);
+
+        // a duplicate with more seeds moves its result up
+        d = a.add(Arrays.asList(new MockTorrent("Ubuntu Linux", "2222", 5000, "Engine2")));
+        assertEquals(1, d.getUpdated().size());
+        assertSame(few, d.getUpdated().get(0).getResult());
+        assertRanked(a, few, many, unrelated);
+    }
+
+    @SmallTest
+    public void testSourceReliability() {
+        SearchResultAggregator.setSourceReliability("AggregatorTrusted", 1);
+        SearchResultAggregator.setSourceReliability("AggregatorUntrusted", 0);
+
+        SearchResultAggregator a = new SearchResultAggregator("ubuntu");
+
+        MockTorrent untrusted = new MockTorrent("Ubuntu", "4444", 10, "AggregatorUntrusted");
+        MockTorrent trusted = new MockTorrent("Ubuntu", "5555", 10, "AggregatorTrusted");
+
+        Delta d = a.add(Arrays.asList(untrusted, trusted));
+        assertEquals(Arrays.<SearchResult> asList(trusted, untrusted), d.getAdded());
+    }
+
+    private static void assertRanked(SearchResultAggregator a, SearchResult... expected) {
+        List<ResultGroup> ranked = a.getRanked();
+        assertEquals(expected.length, ranked.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], ranked.get(i).getResult());
+        }
+    }
+
+    private static final class MockTorrent extends MockSearchResult implements TorrentSearchResult {
+
+        private final String displayName;
+        private final String hash;
+        private final int seeds;
+        private final String source;
+
+        public MockTorrent(String displayName, String hash, int seeds, String source) {
+            this.displayName = displayName;
+            this.hash = hash;
+            this.seeds = seeds;
+            this.source = source;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        @Override
+        public String getSource() {
+            return source;
+        }
+
+        @Override
+        public String getFilename() {
+            return displayName + ".torrent";
+        }
+
+        @Override
+        public long getSize() {
+            return 1000;
+        }
+
+        @Override
+        public String getTorrentUrl() {
+            return null;
+        }
+
+        @Override
+        public int getSeeds() {
+            return seeds;
+        }
+
+        @Override
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    private static final class MockFile extends MockSearchResult implements FileSearchResult {
+
+        private final String filename;
+        private final long size;
+
+        public MockFile(String filename, long size) {
+            this.filename = filename;
+            this.size = size;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return filename;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public long getSize() {
+            return size;
+        }
+    }
+}
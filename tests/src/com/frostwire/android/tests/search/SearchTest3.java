@@ -0,0 +1,115 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.frostwire.android.tests.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.frostwire.search.AbstractSearchPerformer;
+import com.frostwire.search.CrawlableSearchResult;
+import com.frostwire.search.SearchManagerImpl;
+import com.frostwire.search.SearchManagerListener;
+import com.frostwire.search.SearchPerformer;
+import com.frostwire.search.SearchResult;
+
+/**
+ * Submits 10k crawl tasks across 20 tokens and measures the time until
+ * every token is reported as finished.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SearchTest3 extends TestCase {
+
+    private static final int NUM_TOKENS = 20;
+    private static final int NUM_CRAWLS = 10000;
+
+    @LargeTest
+    public void testManyCrawlsManyTokens() throws Exception {
+        final CountDownLatch finished = new CountDownLatch(NUM_TOKENS);
+        final AtomicInteger crawled = new AtomicInteger();
+
+        SearchManagerImpl manager = new SearchManagerImpl();
+        manager.registerListener(new SearchManagerListener() {
+
+            @Override
+            public void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
+            }
+
+            @Override
+            public void onFinished(long token) {
+                finished.countDown();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < NUM_TOKENS; i++) {
+            manager.perform(new CrawlingPerformer(i, NUM_CRAWLS / NUM_TOKENS, crawled));
+        }
+
+        assertTrue("Did not finish or took too much time", finished.await(60, TimeUnit.SECONDS));
+
+        long time = System.currentTimeMillis() - start;
+        System.out.println("Crawled " + crawled.get() + " results across " + NUM_TOKENS + " tokens in " + time + "ms");
+
+        assertEquals(NUM_CRAWLS, crawled.get());
+        assertTrue("Did not shutdown or took too much time", manager.shutdown(5, TimeUnit.SECONDS));
+    }
+
+    private static final class CrawlingPerformer extends AbstractSearchPerformer {
+
+        private final int numResults;
+        private final AtomicInteger crawled;
+
+        public CrawlingPerformer(long token, int numResults, AtomicInteger crawled) {
+            super(token);
+            this.numResults = numResults;
+            this.crawled = crawled;
+        }
+
+        @Override
+        public void perform() {
+            List<SearchResult> results = new ArrayList<SearchResult>(numResults);
+            for (int i = 0; i < numResults; i++) {
+                results.add(new MockCrawlableSearchResult());
+            }
+            onResults(this, results);
+        }
+
+        @Override
+        public void crawl(CrawlableSearchResult sr) {
+            crawled.incrementAndGet();
+        }
+    }
+
+    private static final class MockCrawlableSearchResult extends MockSearchResult implements CrawlableSearchResult {
+
+        @Override
+        public boolean isComplete() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Created by Angel Leon (@gubatron), Alden Torres (aldenml)
+ * Copyright (c) 2011-2014, FrostWire(R). All rights reserved.
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.frostwire.android.tests.search;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.TestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import com.frostwire.search.PagedWebSearchPerformer;
+import com.frostwire.search.SearchManagerImpl;
+import com.frostwire.search.SearchManagerImpl.SchedulingMode;
+import com.frostwire.search.SearchManagerListener;
+import com.frostwire.search.SearchPerformer;
+import com.frostwire.search.SearchResult;
+import com.frostwire.search.domainalias.DomainAliasManager;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs paged searches against a local fake HTTP server with a fixed latency per
+ * page and a CPU bound parsing, once per scheduling mode.
+ *
+ * @author gubatron
+ * @author aldenml
+ *
+ */
+public class SearchTest4 extends TestCase {
+
+    private static final int NUM_ENGINES = 8;
+    private static final int NUM_PAGES = 5;
+    private static final int NUM_ITEMS = 200;
+    private static final int LATENCY = 150;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String page;
+
+    @Override
+    protected void setUp() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            sb.append("<tr><td class=\"name\"><a href=\"/item/").append(i).append("\">Item ").append(i).append("</a></td><td class=\"seeds\">").append(i * 7 % 100).append("</td></tr>\n");
+        }
+        page = sb.toString();
+
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 50);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    Thread.sleep(LATENCY);
+                } catch (InterruptedException e) {
+                }
+                byte[] data = page.getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, data.length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(data);
+                os.close();
+            }
+        });
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @LargeTest
+    public void testSharedVsSplit() throws Exception {
+        long shared = search(SchedulingMode.SHARED);
+        long split = search(SchedulingMode.SPLIT);
+
+        System.out.println("Searched " + NUM_ENGINES + " engines of " + NUM_PAGES + " pages, shared: " + shared + "ms, split: " + split + "ms");
+
+        assertTrue("Split scheduling should not be slower", split <= shared);
+    }
+
+    private long search(SchedulingMode mode) throws Exception {
+        final CountDownLatch finished = new CountDownLatch(NUM_ENGINES);
+        final AtomicInteger count = new AtomicInteger();
+
+        SearchManagerImpl manager = new SearchManagerImpl(mode);
+        manager.registerListener(new SearchManagerListener() {
+
+            @Override
+            public void onResults(SearchPerformer performer, List<? extends SearchResult> results) {
+                count.addAndGet(results.size());
+            }
+
+            @Override
+            public void onFinished(long token) {
+                finished.countDown();
+            }
+        });
+
+        int port = server.getAddress().getPort();
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < NUM_ENGINES; i++) {
+            manager.perform(new FakePerformer(i, port));
+        }
+
+        assertTrue("Did not finish or took too much time", finished.await(60, TimeUnit.SECONDS));
+
+        long time = System.currentTimeMillis() - start;
+
+        assertEquals(NUM_ENGINES * NUM_PAGES * NUM_ITEMS, count.get());
+        assertTrue("Did not shutdown or took too much time", manager.shutdown(5, TimeUnit.SECONDS));
+
+        return time;
+    }
+
+    private static final class FakePerformer extends PagedWebSearchPerformer {
+
+        private static final Pattern PATTERN = Pattern.compile("(?is)<td class=\"name\"><a href=\"(.*?)\">(.*?)</a></td><td class=\"seeds\">(\\d+)</td>");
+
+        private final int port;
+
+        public FakePerformer(long token, int port) {
+            super(new DomainAliasManager("engine" + token + ".test"), token, "fake", 5000, NUM_PAGES);
+            this.port = port;
+        }
+
+        @Override
+        protected String getUrl(int page, String encodedKeywords) {
+            return "http://127.0.0.1:" + port + "/" + getDefaultDomainName() + "/" + page;
+        }
+
+        @Override
+        protected List<? extends SearchResult> searchPage(String page) {
+            List<SearchResult> results = new ArrayList<SearchResult>();
+            // a few passes to make the parsing weigh like a real page
+            for (int k = 0; k < 20; k++) {
+                results.clear();
+                Matcher m = PATTERN.matcher(page);
+                while (m.find()) {
+                    results.add(new MockSearchResult());
+                }
+            }
+            return results;
+        }
+    }
+}